@@ -0,0 +1,105 @@
+package de.mpc.pia.knime.nodes;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.score.FDRData;
+
+/**
+ * Compares the runtime of the serial and the concurrent FDR calculation of
+ * the {@link PIAAnalysisModel}. The compilation consists of several copies of
+ * the test identification file.
+ * <p>
+ * Run as application, optionally with the number of files and of FDR threads
+ * as arguments.
+ *
+ * @author julian
+ *
+ */
+public class PIAAnalysisModelFDRBenchmark {
+
+    private static final int REPETITIONS = 5;
+
+
+    public static void main(String[] args) throws Exception {
+        int nrFiles = (args.length > 0) ? Integer.parseInt(args[0]) : 6;
+        int nrThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+
+        File piaIntermediateFile = createCompilation(nrFiles);
+        try {
+            for (int rep = 0; rep < REPETITIONS; rep++) {
+                long serialTime = measure(piaIntermediateFile, 1);
+                long parallelTime = measure(piaIntermediateFile, nrThreads);
+
+                System.out.printf("run %d: FDR of %d files, serial %6d ms, %d threads %6d ms%n",
+                        rep + 1, nrFiles, serialTime, nrThreads, parallelTime);
+            }
+        } finally {
+            piaIntermediateFile.delete();
+        }
+    }
+
+
+    /**
+     * Calculates the FDR with the given number of threads and returns the
+     * runtime in ms.
+     */
+    private static long measure(File piaIntermediateFile, int fdrThreads) throws Exception {
+        PIAAnalysisModel analysisModel = new PIAAnalysisModel(new PIAModeller(piaIntermediateFile.getAbsolutePath()));
+        ExecutorService executor = Executors.newFixedThreadPool(fdrThreads);
+        analysisModel.setExecutor(executor, fdrThreads);
+        analysisModel.addSetting(PIASettings.ALL_DECOY_STRATEGY.getKey(), FDRData.DecoyStrategy.SEARCHENGINE.toString());
+
+        long start = System.nanoTime();
+        List<String> errors;
+        try {
+            errors = analysisModel.executePSMOperations();
+        } finally {
+            executor.shutdownNow();
+        }
+        long time = (System.nanoTime() - start) / 1000000;
+
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Errors in FDR calculation: " + errors);
+        }
+        return time;
+    }
+
+
+    /**
+     * Compiles the given number of copies of the test file into a PIA XML file.
+     */
+    private static File createCompilation(int nrFiles) throws Exception {
+        File tandemFile = new File(PIAAnalysisModelFDRBenchmark.class.getResource("/de/mpc/pia/knime/nodes/resources/55merge_tandem.mzid").getPath());
+
+        PIASimpleCompiler piaCompiler = new PIASimpleCompiler();
+        List<File> inputFiles = new ArrayList<>();
+        try {
+            for (int i = 0; i < nrFiles; i++) {
+                File copy = File.createTempFile("tandem" + i + "-", ".mzid");
+                Files.copy(tandemFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                inputFiles.add(copy);
+                piaCompiler.getDataFromFile(copy.getName(), copy.getAbsolutePath(), null, null);
+            }
+
+            piaCompiler.buildClusterList();
+            piaCompiler.buildIntermediateStructure();
+            piaCompiler.setName("FDR benchmark compilation");
+
+            File piaIntermediateFile = File.createTempFile("PIAAnalysisModelFDRBenchmark", ".pia.xml");
+            piaCompiler.writeOutXML(piaIntermediateFile);
+            return piaIntermediateFile;
+        } finally {
+            for (File file : inputFiles) {
+                file.delete();
+            }
+        }
+    }
+}
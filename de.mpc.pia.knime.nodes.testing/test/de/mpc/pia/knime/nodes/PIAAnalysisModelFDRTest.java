@@ -0,0 +1,148 @@
+package de.mpc.pia.knime.nodes;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.PSMModeller;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.score.FDRData;
+
+public class PIAAnalysisModelFDRTest {
+
+    private static final int NR_FILES = 6;
+
+    private File piaIntermediateFile;
+
+    private ExecutorService executor;
+
+
+    @Before
+    public void initialize() throws Exception {
+        File tandemFile = new File(PIAAnalysisModelFDRTest.class.getResource("/de/mpc/pia/knime/nodes/resources/55merge_tandem.mzid").getPath());
+
+        // compile several copies with different names, to get distinct files in the compilation
+        PIASimpleCompiler piaCompiler = new PIASimpleCompiler();
+        List<File> inputFiles = new ArrayList<>();
+        try {
+            for (int i = 0; i < NR_FILES; i++) {
+                File copy = File.createTempFile("tandem" + i + "-", ".mzid");
+                Files.copy(tandemFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                inputFiles.add(copy);
+
+                assertEquals("File could not be parsed", true,
+                        piaCompiler.getDataFromFile(copy.getName(), copy.getAbsolutePath(), null, null));
+            }
+
+            piaCompiler.buildClusterList();
+            piaCompiler.buildIntermediateStructure();
+            piaCompiler.setName("FDR test compilation");
+
+            piaIntermediateFile = File.createTempFile("PIAAnalysisModelFDRTest", ".pia.xml");
+            piaCompiler.writeOutXML(piaIntermediateFile);
+        } finally {
+            for (File file : inputFiles) {
+                file.delete();
+            }
+        }
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (piaIntermediateFile != null) {
+            piaIntermediateFile.delete();
+        }
+    }
+
+
+    /**
+     * the concurrently calculated FDRs must be identical to the serial ones.
+     * The runtimes are compared by {@link PIAAnalysisModelFDRBenchmark}.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testParallelFDREqualsSerial() throws IOException {
+        PIAAnalysisModel serialModel = createAnalysisModel(1);
+        List<String> serialErrors = serialModel.executePSMOperations();
+
+        PIAAnalysisModel parallelModel = createAnalysisModel(4);
+        List<String> parallelErrors = parallelModel.executePSMOperations();
+
+        assertTrue("Errors in serial FDR calculation: " + serialErrors, serialErrors.isEmpty());
+        assertEquals(serialErrors, parallelErrors);
+        assertSameFDR(serialModel.getPSMModeller(), parallelModel.getPSMModeller());
+    }
+
+
+    /**
+     * creates a model of the test compilation, which calculates the FDR with
+     * the given number of threads (serially for one thread)
+     */
+    private PIAAnalysisModel createAnalysisModel(int nrThreads) throws IOException {
+        PIAAnalysisModel analysisModel = new PIAAnalysisModel(new PIAModeller(piaIntermediateFile.getAbsolutePath()));
+        if (nrThreads > 1) {
+            executor = Executors.newFixedThreadPool(nrThreads);
+            analysisModel.setExecutor(executor, nrThreads);
+        }
+        analysisModel.addSetting(PIASettings.ALL_DECOY_STRATEGY.getKey(), FDRData.DecoyStrategy.SEARCHENGINE.toString());
+        return analysisModel;
+    }
+
+
+    /**
+     * asserts the same FDR data and PSM scores in all files
+     */
+    private static void assertSameFDR(PSMModeller expected, PSMModeller actual) {
+        assertEquals(expected.getFiles().keySet(), actual.getFiles().keySet());
+
+        for (Long fileID : expected.getFiles().keySet()) {
+            assertEquals(expected.isFDRCalculated(fileID), actual.isFDRCalculated(fileID));
+            assertEquals(expected.getScoreShortNames(fileID), actual.getScoreShortNames(fileID));
+
+            FDRData expectedData = expected.getFilesFDRData(fileID);
+            FDRData actualData = actual.getFilesFDRData(fileID);
+            if (expectedData != null) {
+                assertEquals(expectedData.getScoreShortName(), actualData.getScoreShortName());
+                assertEquals(expectedData.getNrDecoys(), actualData.getNrDecoys());
+                assertEquals(expectedData.getNrFDRGoodItems(), actualData.getNrFDRGoodItems());
+                assertEquals(expectedData.getScoreAtThreshold(), actualData.getScoreAtThreshold());
+            }
+
+            if (fileID > 0) {
+                List<ReportPSM> expectedPSMs = expected.getFilteredReportPSMs(fileID, new ArrayList<>());
+                List<ReportPSM> actualPSMs = actual.getFilteredReportPSMs(fileID, new ArrayList<>());
+                assertEquals(expectedPSMs.size(), actualPSMs.size());
+
+                for (int i = 0; i < expectedPSMs.size(); i++) {
+                    ReportPSM expectedPSM = expectedPSMs.get(i);
+                    ReportPSM actualPSM = actualPSMs.get(i);
+                    assertEquals(expectedPSM.getId(), actualPSM.getId());
+                    assertEquals(expectedPSM.getIsDecoy(), actualPSM.getIsDecoy());
+                    assertEquals(expectedPSM.getFDR(), actualPSM.getFDR(), 0.0);
+                    assertEquals(expectedPSM.getQValue(), actualPSM.getQValue(), 0.0);
+                    assertEquals(expectedPSM.getFDRScore().getValue(), actualPSM.getFDRScore().getValue(), 0.0);
+                }
+            }
+        }
+
+        assertEquals(expected.getScoreShortsToScoreNames(), actual.getScoreShortsToScoreNames());
+    }
+}
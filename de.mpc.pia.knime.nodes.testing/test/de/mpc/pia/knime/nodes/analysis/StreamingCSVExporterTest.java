@@ -0,0 +1,113 @@
+package de.mpc.pia.knime.nodes.analysis;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.knime.nodes.dialog.ExportLevels;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+
+public class StreamingCSVExporterTest {
+
+    private File piaIntermediateFile;
+
+    private List<File> exportFiles;
+
+
+    @Before
+    public void initialize() throws Exception {
+        File tandemFile = new File(StreamingCSVExporterTest.class.getResource("/de/mpc/pia/knime/nodes/resources/55merge_tandem.mzid").getPath());
+
+        PIASimpleCompiler piaCompiler = new PIASimpleCompiler();
+        assertEquals("File could not be parsed", true,
+                piaCompiler.getDataFromFile(tandemFile.getName(), tandemFile.getAbsolutePath(), null, null));
+        piaCompiler.buildClusterList();
+        piaCompiler.buildIntermediateStructure();
+        piaCompiler.setName("CSV export test");
+
+        piaIntermediateFile = File.createTempFile("StreamingCSVExporterTest", ".pia.xml");
+        piaCompiler.writeOutXML(piaIntermediateFile);
+
+        exportFiles = new ArrayList<>();
+    }
+
+
+    @After
+    public void cleanup() {
+        piaIntermediateFile.delete();
+        for (File file : exportFiles) {
+            file.delete();
+        }
+    }
+
+
+    @Test
+    public void testQuoting() throws IOException {
+        File file = createExportFile(".csv");
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                StreamingCSVExporter.RowWriter writer = new StreamingCSVExporter.RowWriter(channel, ',', false)) {
+            writer.field("plain").field("a,b").field("say \"hi\"").field("\u00fc\u20ac").field((String) null)
+                    .field(Double.NaN).field(3).field(0.5).field(true);
+            writer.endRow();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertEquals("plain,\"a,b\",\"say \"\"hi\"\"\",\u00fc\u20ac,,,3,0.5,true", lines.get(0));
+    }
+
+
+    @Test
+    public void testPSMExport() throws IOException {
+        PIAModeller piaModeller = new PIAModeller(piaIntermediateFile.getAbsolutePath());
+        int nrPSMs = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, new ArrayList<>()).size();
+        StreamingCSVExporter exporter = new StreamingCSVExporter(piaModeller);
+
+        File csvFile = createExportFile(".csv");
+        exporter.export(1L, csvFile, ExportLevels.PSM, Collections.<AbstractFilter>emptyList(), ',', false);
+        List<String> csvLines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+
+        assertEquals(nrPSMs + 1, csvLines.size());
+        assertTrue(csvLines.get(0).startsWith("Sequence,Accessions,Modifications,Decoy,Charge"));
+
+        File tsvFile = createExportFile(".tsv.gz");
+        exporter.export(1L, tsvFile, ExportLevels.PSM, Collections.<AbstractFilter>emptyList(), '\t', true);
+        List<String> tsvLines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(tsvFile)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tsvLines.add(line);
+            }
+        }
+
+        assertEquals(nrPSMs + 1, tsvLines.size());
+        assertEquals(csvLines.get(0).replace(',', '\t'), tsvLines.get(0));
+    }
+
+
+    private File createExportFile(String suffix) throws IOException {
+        File file = File.createTempFile("StreamingCSVExporterTest", suffix);
+        exportFiles.add(file);
+        return file;
+    }
+}
@@ -0,0 +1,113 @@
+package de.mpc.pia.knime.nodes.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+
+public class IncrementalCompilationTest {
+
+    private List<File> inputFiles;
+
+    private String piaIntermediateFileName = "IncrementalCompilationTest.pia.xml";
+
+
+    @Before
+    public void initialize() throws Exception {
+        File tandemFile = new File(IncrementalCompilationTest.class.getResource("/de/mpc/pia/knime/nodes/resources/55merge_tandem.mzid").getPath());
+
+        // use several copies with different names, to get distinct files in the compilation
+        inputFiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File copy = File.createTempFile("tandem" + i + "-", ".mzid");
+            Files.copy(tandemFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            inputFiles.add(copy);
+        }
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : inputFiles) {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * adding a file to a loaded compilation must give the same compilation as
+     * compiling all files at once (except for the creation date)
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testIncrementalEqualsComplete() throws IOException {
+        PIASimpleCompiler completeCompiler = new PIASimpleCompiler();
+        for (File file : inputFiles) {
+            assertEquals("File could not be parsed", true,
+                    completeCompiler.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null));
+        }
+        String completeXML = compileAndWrite(completeCompiler, null);
+
+        PIASimpleCompiler existingCompiler = new PIASimpleCompiler();
+        for (File file : inputFiles.subList(0, inputFiles.size() - 1)) {
+            existingCompiler.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null);
+        }
+        File existingFile = File.createTempFile(piaIntermediateFileName, null);
+        try {
+            compileAndWrite(existingCompiler, existingFile);
+
+            PIASimpleCompiler incrementalCompiler = new PIASimpleCompiler();
+            Set<String> compiledFiles =
+                    IncrementalCompilation.loadCompilation(incrementalCompiler, existingFile.getAbsolutePath(), null);
+            assertEquals("Number of loaded files differs", inputFiles.size() - 1, compiledFiles.size());
+            assertTrue(compiledFiles.contains(inputFiles.get(0).getAbsolutePath()));
+
+            File newFile = inputFiles.get(inputFiles.size() - 1);
+            incrementalCompiler.getDataFromFile(newFile.getName(), newFile.getAbsolutePath(), null, null);
+            String incrementalXML = compileAndWrite(incrementalCompiler, null);
+
+            assertEquals("Number of PSMs differs", completeCompiler.getNrPeptideSpectrumMatches(),
+                    incrementalCompiler.getNrPeptideSpectrumMatches());
+            assertEquals("Number of peptides differs", completeCompiler.getNrPeptides(),
+                    incrementalCompiler.getNrPeptides());
+            assertEquals("PIA XML files differ", completeXML, incrementalXML);
+        } finally {
+            existingFile.delete();
+        }
+    }
+
+
+    /**
+     * builds the intermediate structure, writes the XML (into the given file
+     * or a temporary one) and returns it without the date attribute
+     */
+    private String compileAndWrite(PIASimpleCompiler piaCompiler, File xmlFile) throws IOException {
+        piaCompiler.buildClusterList();
+        piaCompiler.buildIntermediateStructure();
+        piaCompiler.setName("test compilation");
+
+        File piaIntermediateFile = (xmlFile != null) ? xmlFile : File.createTempFile(piaIntermediateFileName, null);
+        try {
+            piaCompiler.writeOutXML(piaIntermediateFile);
+            String xml = new String(Files.readAllBytes(piaIntermediateFile.toPath()), StandardCharsets.UTF_8);
+            return xml.replaceFirst("date=\"[^\"]*\"", "");
+        } finally {
+            if (xmlFile == null) {
+                piaIntermediateFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.mpc.pia.knime.nodes.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+
+public class ParallelInputFileParserTest {
+
+    private List<File> inputFiles;
+
+    private String piaIntermediateFileName = "ParallelInputFileParserTest.pia.xml";
+
+
+    @Before
+    public void initialize() throws Exception {
+        File tandemFile = new File(ParallelInputFileParserTest.class.getResource("/de/mpc/pia/knime/nodes/resources/55merge_tandem.mzid").getPath());
+
+        // use several copies with different names, to get distinct files in the compilation
+        inputFiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File copy = File.createTempFile("tandem" + i + "-", ".mzid");
+            Files.copy(tandemFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            inputFiles.add(copy);
+        }
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : inputFiles) {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * the parallel parsed compilation must be identical to the serial one
+     * (except for the creation date)
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testParallelParsingEqualsSerial() throws IOException, InterruptedException {
+        PIASimpleCompiler serialCompiler = new PIASimpleCompiler();
+        for (File file : inputFiles) {
+            assertEquals("File could not be parsed", true,
+                    serialCompiler.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null));
+        }
+        String serialXML = compileAndWrite(serialCompiler);
+
+        PIASimpleCompiler parallelCompiler = new PIASimpleCompiler();
+        ParallelInputFileParser.parseFiles(parallelCompiler, inputFiles, 2);
+        String parallelXML = compileAndWrite(parallelCompiler);
+
+        assertEquals("Number of PSMs differs", serialCompiler.getNrPeptideSpectrumMatches(),
+                parallelCompiler.getNrPeptideSpectrumMatches());
+        assertEquals("Number of peptides differs", serialCompiler.getNrPeptides(),
+                parallelCompiler.getNrPeptides());
+        assertEquals("PIA XML files differ", serialXML, parallelXML);
+    }
+
+
+    /**
+     * if the compiler's state is not accessible, the files are parsed serially
+     * with the same result
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws CanceledExecutionException
+     */
+    @Test
+    public void testFallbackToSerialParsing()
+            throws IOException, InterruptedException, CanceledExecutionException {
+        assertTrue(ParallelInputFileParser.PartialState.isAccessible(ParallelInputFileParser.PartialState.FIELD_NAMES));
+        assertFalse(ParallelInputFileParser.PartialState.isAccessible("noSuchField"));
+        assertFalse(ParallelInputFileParser.PartialState.isAccessible("compilationName"));
+
+        PIASimpleCompiler serialCompiler = new PIASimpleCompiler();
+        for (File file : inputFiles) {
+            serialCompiler.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null);
+        }
+        String serialXML = compileAndWrite(serialCompiler);
+
+        PIASimpleCompiler fallbackCompiler = new PIASimpleCompiler();
+        ParallelInputFileParser.parseFiles(fallbackCompiler, inputFiles, 2, new ExecutionMonitor(), false);
+
+        assertEquals("PIA XML files differ", serialXML, compileAndWrite(fallbackCompiler));
+    }
+
+
+    /**
+     * builds the intermediate structure, writes the XML and returns it without
+     * the date attribute
+     */
+    private String compileAndWrite(PIASimpleCompiler piaCompiler) throws IOException {
+        piaCompiler.buildClusterList();
+        piaCompiler.buildIntermediateStructure();
+        piaCompiler.setName("test compilation");
+
+        File piaIntermediateFile = File.createTempFile(piaIntermediateFileName, null);
+        try {
+            piaCompiler.writeOutXML(piaIntermediateFile);
+            String xml = new String(Files.readAllBytes(piaIntermediateFile.toPath()), StandardCharsets.UTF_8);
+            return xml.replaceFirst("date=\"[^\"]*\"", "");
+        } finally {
+            piaIntermediateFile.delete();
+        }
+    }
+}
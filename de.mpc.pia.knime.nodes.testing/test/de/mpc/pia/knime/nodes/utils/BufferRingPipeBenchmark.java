@@ -0,0 +1,91 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the throughput of the {@link BufferRingPipe} with the piped
+ * streams, which were used by the PIA Compiler before. The writer writes in
+ * small chunks, like the XML writer, and the reader reads with a large
+ * buffer, like the binary object cell factory.
+ * <p>
+ * Run as application, optionally with the size in MiB as first argument.
+ *
+ * @author julian
+ *
+ */
+public class BufferRingPipeBenchmark {
+
+    private static final int WRITE_CHUNK = 8 * 1024;
+    private static final int READ_CHUNK = 64 * 1024;
+    private static final int REPETITIONS = 5;
+
+
+    public static void main(String[] args) throws Exception {
+        long size = ((args.length > 0) ? Long.parseLong(args[0]) : 512) * 1024 * 1024;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int rep = 0; rep < REPETITIONS; rep++) {
+                PipedInputStream pipedIn = new PipedInputStream();
+                PipedOutputStream pipedOut = new PipedOutputStream(pipedIn);
+                double pipedRate = measure(executor, pipedOut, pipedIn, size);
+
+                BufferRingPipe pipe = new BufferRingPipe(8, 1024 * 1024);
+                double ringRate = measure(executor, pipe.getOutputStream(), pipe.getInputStream(), size);
+
+                System.out.printf("run %d: piped streams %8.1f MiB/s, buffer ring %8.1f MiB/s%n",
+                        rep + 1, pipedRate, ringRate);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Transfers the given number of bytes and returns the throughput in MiB/s.
+     */
+    private static double measure(ExecutorService executor, OutputStream out, InputStream in, long size)
+            throws Exception {
+        long start = System.nanoTime();
+
+        Callable<Void> writer = () -> {
+            byte[] chunk = new byte[WRITE_CHUNK];
+            long remaining = size;
+            try (OutputStream os = out) {
+                while (remaining > 0) {
+                    int len = (int) Math.min(remaining, chunk.length);
+                    os.write(chunk, 0, len);
+                    remaining -= len;
+                }
+            }
+            return null;
+        };
+        Future<Void> writing = executor.submit(writer);
+
+        long read = 0;
+        byte[] buffer = new byte[READ_CHUNK];
+        int len;
+        try (InputStream is = in) {
+            while ((len = is.read(buffer)) != -1) {
+                read += len;
+            }
+        }
+        writing.get();
+
+        if (read != size) {
+            throw new IOException("transferred " + read + " instead of " + size + " bytes");
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return size / (1024.0 * 1024.0) / seconds;
+    }
+}
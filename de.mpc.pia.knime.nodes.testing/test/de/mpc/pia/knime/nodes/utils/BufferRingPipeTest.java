@@ -0,0 +1,123 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferRingPipeTest {
+
+    private ExecutorService executor;
+
+
+    @Before
+    public void initialize() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    public void testTransfer() throws Exception {
+        byte[] data = new byte[1000003];
+        new Random(42).nextBytes(data);
+
+        BufferRingPipe pipe = new BufferRingPipe(3, 4096);
+        Future<Void> writing = executor.submit(() -> {
+            try (OutputStream out = pipe.getOutputStream()) {
+                int pos = 0;
+                while (pos < data.length) {
+                    int len = Math.min(data.length - pos, 777);
+                    out.write(data, pos, len);
+                    out.write(data[pos + len - 1] ^ 0x55);
+                    pos += len;
+                }
+            }
+            return null;
+        });
+
+        byte[] read = readAll(pipe.getInputStream());
+        writing.get(10, TimeUnit.SECONDS);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int pos = 0;
+        while (pos < data.length) {
+            int len = Math.min(data.length - pos, 777);
+            expected.write(data, pos, len);
+            expected.write(data[pos + len - 1] ^ 0x55);
+            pos += len;
+        }
+        assertArrayEquals(expected.toByteArray(), read);
+    }
+
+
+    @Test
+    public void testWriterFailure() throws Exception {
+        BufferRingPipe pipe = new BufferRingPipe(2, 1024);
+        IllegalStateException failure = new IllegalStateException("writer failed");
+        executor.submit(() -> {
+            pipe.getOutputStream().write(new byte[5000]);
+            pipe.fail(failure);
+            return null;
+        });
+
+        try {
+            readAll(pipe.getInputStream());
+            fail("the failure of the writer was not passed to the reader");
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+
+    @Test
+    public void testReaderClosed() throws Exception {
+        BufferRingPipe pipe = new BufferRingPipe(2, 1024);
+        Future<Void> writing = executor.submit(() -> {
+            byte[] buffer = new byte[100];
+            OutputStream out = pipe.getOutputStream();
+            while (true) {
+                out.write(buffer);
+            }
+        });
+
+        InputStream in = pipe.getInputStream();
+        assertEquals(100, in.read(new byte[100]));
+        in.close();
+
+        try {
+            writing.get(10, TimeUnit.SECONDS);
+            fail("the writer was not stopped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5000];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            bos.write(buffer, 0, len);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,59 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.FilterFactory;
+import de.mpc.pia.modeller.report.filter.RegisteredFilters;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+
+public class ObjectSerializerTest {
+
+    /**
+     * filters must be restored from the compact format
+     */
+    @Test
+    public void testFilterRoundTrip() {
+        AbstractFilter scoreFilter = new PSMScoreFilter(FilterComparator.less_equal, true, 0.01, "psm_fdr_score");
+        String serialized = ObjectSerializer.serializeFilter(scoreFilter);
+        assertTrue(serialized.startsWith(ObjectSerializer.FILTER_CODEC_PREFIX));
+
+        AbstractFilter restored = ObjectSerializer.unserializeFilter(serialized);
+        assertTrue(restored instanceof PSMScoreFilter);
+        assertEquals("psm_fdr_score", ((PSMScoreFilter) restored).getScoreShortName());
+        assertEquals(FilterComparator.less_equal, restored.getFilterComparator());
+        assertTrue(restored.getFilterNegate());
+        assertEquals(0.01, ((Number) restored.getFilterValue()).doubleValue(), 0.0);
+
+        // the separator and escape character must survive in the values
+        AbstractFilter sequenceFilter = FilterFactory.newInstanceOf(
+                RegisteredFilters.PSM_SEQUENCE_FILTER.getShortName(), FilterComparator.regex.getName(),
+                "A|C%7C", false, new StringBuilder());
+        restored = ObjectSerializer.unserializeFilter(ObjectSerializer.serializeFilter(sequenceFilter));
+        assertEquals(RegisteredFilters.PSM_SEQUENCE_FILTER.getShortName(), restored.getShortName());
+        assertEquals(FilterComparator.regex, restored.getFilterComparator());
+        assertFalse(restored.getFilterNegate());
+        assertEquals("A|C%7C", restored.getFilterValue());
+    }
+
+
+    /**
+     * filters saved by older versions (serialized Object arrays) must still be
+     * readable
+     */
+    @Test
+    public void testLegacyFilter() {
+        Object[] stringRep = new Object[] {PSMScoreFilter.PREFIX + "psm_fdr_score", Boolean.FALSE,
+                FilterComparator.less_equal.getName(), Double.valueOf(0.05)};
+        String legacy = ObjectSerializer.serializeBase64(stringRep);
+
+        AbstractFilter restored = ObjectSerializer.unserializeFilter(legacy);
+        assertTrue(restored instanceof PSMScoreFilter);
+        assertEquals("psm_fdr_score", ((PSMScoreFilter) restored).getScoreShortName());
+        assertFalse(restored.getFilterNegate());
+        assertEquals(0.05, ((Number) restored.getFilterValue()).doubleValue(), 0.0);
+    }
+}
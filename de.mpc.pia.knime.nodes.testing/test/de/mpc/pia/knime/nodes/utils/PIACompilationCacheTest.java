@@ -0,0 +1,117 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PIACompilationCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheDirectory;
+    private List<File> inputFiles;
+
+
+    @Before
+    public void initialize() throws IOException {
+        cacheDirectory = new File(folder.getRoot(), "cache");
+
+        File inputFile = folder.newFile("input.mzid");
+        Files.write(inputFile.toPath(), "<MzIdentML/>".getBytes());
+        inputFiles = Collections.singletonList(inputFile);
+    }
+
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        PIACompilationCache cache = new PIACompilationCache(cacheDirectory, 1024 * 1024);
+        String key = PIACompilationCache.createKey(inputFiles, true, "compilation", "compression=gzip");
+
+        assertNull(cache.get(key));
+
+        byte[] content = new byte[10000];
+        Arrays.fill(content, (byte) 42);
+        cache.put(key, new ByteArrayInputStream(content), "summary\nwith two lines");
+
+        PIACompilationCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertEquals("summary\nwith two lines", entry.getInformation());
+        assertEquals(content.length, entry.getSize());
+        assertArrayEquals(content, readAll(entry.getContent()));
+
+        // other options or a changed input file give other keys
+        assertNull(cache.get(PIACompilationCache.createKey(inputFiles, true, "compilation", "compression=lz4")));
+
+        Files.write(inputFiles.get(0).toPath(), "<MzIdentML></MzIdentML>".getBytes());
+        assertNotEquals(key, PIACompilationCache.createKey(inputFiles, true, "compilation", "compression=gzip"));
+
+        // a disabled cache returns no entries
+        assertNull(new PIACompilationCache(cacheDirectory, 0).get(key));
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        PIACompilationCache cache = new PIACompilationCache(cacheDirectory, 25000);
+
+        String[] keys = new String[3];
+        for (int idx = 0; idx < keys.length; idx++) {
+            keys[idx] = PIACompilationCache.createKey(inputFiles, false, "compilation" + idx);
+        }
+
+        cache.put(keys[0], new ByteArrayInputStream(new byte[10000]), "first");
+        cache.put(keys[1], new ByteArrayInputStream(new byte[10000]), "second");
+        makeOlder(keys.length);
+
+        // use the first one, so the second is evicted by the third
+        readAll(cache.get(keys[0]).getContent());
+        cache.put(keys[2], new ByteArrayInputStream(new byte[10000]), "third");
+
+        assertNotNull(cache.get(keys[0]));
+        assertNull(cache.get(keys[1]));
+        assertNotNull(cache.get(keys[2]));
+        assertTrue(cache.getSize() <= 25000);
+
+        cache.clear();
+        assertNull(cache.get(keys[0]));
+        assertEquals(0, cache.getSize());
+    }
+
+
+    /**
+     * Sets the access times of all entries back, as the file times may be too
+     * coarse to order the entries written in the test
+     */
+    private void makeOlder(int seconds) {
+        for (File file : cacheDirectory.listFiles()) {
+            assertTrue(file.setLastModified(file.lastModified() - seconds * 1000L));
+        }
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = in) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, len);
+            }
+        }
+        return bos.toByteArray();
+    }
+}
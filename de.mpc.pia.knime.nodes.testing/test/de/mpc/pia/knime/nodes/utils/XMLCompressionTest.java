@@ -0,0 +1,93 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class XMLCompressionTest {
+
+    private byte[] xmlData;
+
+
+    @Before
+    public void initialize() {
+        // more than two blocks, the last one not completely filled
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<jPiaXML>\n");
+        int id = 0;
+        while (xml.length() < 2.5 * 1024 * 1024) {
+            xml.append("  <PSM id=\"").append(id).append("\" sequence=\"PEPTIDE").append(id % 97)
+                    .append("K\" charge=\"").append(2 + id % 3).append("\"/>\n");
+            id++;
+        }
+        xml.append("</jPiaXML>\n");
+        xmlData = xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (XMLCompression compression : XMLCompression.values()) {
+            byte[] compressed = compress(compression, xmlData);
+
+            assertEquals(compression.toString(),
+                    (compression == XMLCompression.gzipParallel) ? XMLCompression.gzip : compression,
+                    XMLCompression.detect(compressed, compressed.length));
+            assertArrayEquals(compression.toString(), xmlData,
+                    readAll(XMLCompression.openInputStream(new ByteArrayInputStream(compressed))));
+        }
+    }
+
+
+    @Test
+    public void testParallelGZIPIsReadableByJDK() throws IOException {
+        byte[] compressed = compress(XMLCompression.gzipParallel, xmlData);
+        assertArrayEquals(xmlData, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+
+    @Test
+    public void testEmptyData() throws IOException {
+        for (XMLCompression compression : XMLCompression.values()) {
+            byte[] compressed = compress(compression, new byte[0]);
+            assertEquals(compression.toString(), 0,
+                    readAll(XMLCompression.openInputStream(new ByteArrayInputStream(compressed))).length);
+        }
+    }
+
+
+    private static byte[] compress(XMLCompression compression, byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = compression.createOutputStream(bos, 6, 3)) {
+            // write in uneven chunks, crossing the block borders
+            int pos = 0;
+            while (pos < data.length) {
+                int len = Math.min(data.length - pos, 12345);
+                os.write(data, pos, len);
+                pos += len;
+            }
+        }
+        return bos.toByteArray();
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = in) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, len);
+            }
+        }
+        return bos.toByteArray();
+    }
+}
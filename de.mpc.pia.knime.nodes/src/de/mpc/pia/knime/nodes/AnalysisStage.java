@@ -0,0 +1,60 @@
+package de.mpc.pia.knime.nodes;
+
+/**
+ * The stages of a PIA analysis, in the order of their execution, together
+ * with the settings which change the results of each stage. A stage must be
+ * recomputed, if one of its settings or any upstream stage changed.
+ *
+ * @author julian
+ *
+ */
+public enum AnalysisStage {
+    PSM(PIASettings.CREATE_PSMSETS,
+            PIASettings.CONSIDER_MODIFICATIONS,
+            PIASettings.ERROR_ON_NO_DECOYS,
+            PIASettings.FDR_THRESHOLD,
+            PIASettings.ALL_DECOY_STRATEGY,
+            PIASettings.ALL_DECOY_PATTERN,
+            PIASettings.ALL_USED_IDENTIFICATIONS,
+            PIASettings.FDR_PREFERRED_SCORES,
+            PIASettings.CALCULATE_ALL_FDR,
+            PIASettings.CALCULATE_COMBINED_FDR_SCORE,
+            PIASettings.PSM_ANALYSIS_FILE_ID),
+
+    PEPTIDE(PIASettings.PEPTIDE_INFER_PEPTIDES,
+            PIASettings.PEPTIDE_ANALYSIS_FILE_ID,
+            PIASettings.PEPTIDE_FILTERS),
+
+    PROTEIN(PIASettings.PROTEIN_INFER_PROTEINS,
+            PIASettings.PROTEIN_INFERENCE_METHOD,
+            PIASettings.PROTEIN_INFERENCE_FILTERS,
+            PIASettings.PROTEIN_SCORING_METHOD,
+            PIASettings.PROTEIN_SCORING_SCORE,
+            PIASettings.PROTEIN_SCORING_USED_PSMS),
+    ;
+
+
+    /** the settings, which change the results of this stage */
+    private PIASettings[] settings;
+
+
+    private AnalysisStage(PIASettings... settings) {
+        this.settings = settings;
+    }
+
+
+    public PIASettings[] getSettings() {
+        return settings;
+    }
+
+
+    /**
+     * The key of the stage's fingerprint in the settings of the
+     * {@link PIAAnalysisModel}
+     *
+     * @return
+     */
+    public String getFingerprintKey() {
+        return "STAGE_FINGERPRINT_" + name();
+    }
+}
@@ -6,19 +6,34 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import org.knime.core.node.KNIMEConstants;
 import org.knime.core.node.NodeLogger;
 
+import de.mpc.pia.knime.nodes.utils.FusedFilter;
 import de.mpc.pia.knime.nodes.utils.ObjectSerializer;
+import de.mpc.pia.knime.nodes.utils.TreePartitionedInference;
 import de.mpc.pia.modeller.PIAModeller;
 import de.mpc.pia.modeller.PSMModeller;
 import de.mpc.pia.modeller.peptide.ReportPeptide;
@@ -55,6 +70,36 @@ public class PIAAnalysisModel {
     /** the settings, which are executed */
     private HashMap<String, Object> settings;
 
+    /** whether the report filters are applied by a {@link FusedFilter} or the modellers */
+    private boolean useFusedFilters;
+
+    /** the executor for the concurrent parts of the analysis, null to run serially */
+    private ExecutorService executor;
+
+    /** the number of threads of the executor */
+    private int executorThreads;
+
+    /** the progress of the FDR calculation in percent */
+    private volatile long fdrProgress;
+
+    /** the currently running protein inference (for its progress) */
+    private volatile AbstractProteinInference runningInference;
+
+
+    /** the maximal number of memoized filter arrays */
+    private static final int MAX_UNSERIALIZED_FILTERS = 32;
+
+    /** memoized unserialized filters by the serialized filters, in access order */
+    private static final Map<List<String>, List<AbstractFilter>> UNSERIALIZED_FILTERS =
+            new LinkedHashMap<List<String>, List<AbstractFilter>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, List<AbstractFilter>> eldest) {
+                    return size() > MAX_UNSERIALIZED_FILTERS;
+                }
+            };
+
 
     private static final String PIA_MODEL_FILENAME = "knime.piaModel";
     private static final String SETTINGS_FILENAME = "knime.piaAnalysisSettings";
@@ -63,6 +108,9 @@ public class PIAAnalysisModel {
     public PIAAnalysisModel(PIAModeller piaModeller) {
         this.piaModeller = piaModeller;
         this.settings = new HashMap<>();
+        this.useFusedFilters = true;
+        this.executor = null;
+        this.executorThreads = 1;
     }
 
 
@@ -123,6 +171,23 @@ public class PIAAnalysisModel {
     }
 
 
+    /**
+     * Creates a temporary file for the serialization of the model or its
+     * settings, which is deleted on exit at the latest. The file is created in
+     * KNIME's temporary directory, which usually lies on the same file system
+     * as the workflows, so the file can be renamed into the internals later.
+     *
+     * @param prefix
+     * @return
+     * @throws IOException
+     */
+    public static File createStagingFile(final String prefix) throws IOException {
+        File stagingFile = File.createTempFile(prefix, "", new File(KNIMEConstants.getKNIMETempDir()));
+        stagingFile.deleteOnExit();
+        return stagingFile;
+    }
+
+
     /**
      * Moves the model to internal storage.
      *
@@ -152,7 +217,9 @@ public class PIAAnalysisModel {
 
 
     /**
-     * Moves the file from srcFile to dstFile and returns the dstFile.
+     * Moves the file from srcFile to dstFile and returns the dstFile. On the
+     * same file system the file is only renamed, otherwise it is copied and
+     * deleted afterwards.
      *
      * @param srcFile
      * @param dstFile
@@ -160,8 +227,20 @@ public class PIAAnalysisModel {
      * @throws IOException
      */
     private static File moveFile(final File srcFile, final File dstFile) throws IOException {
-        Files.copy(srcFile.toPath(), dstFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        srcFile.delete();
+        Path src = srcFile.toPath();
+        Path dst = dstFile.toPath();
+
+        if (Files.exists(dst) && Files.isSameFile(src, dst)) {
+            // already in place (e.g. saved again without re-execution)
+            return dstFile;
+        }
+
+        try {
+            Files.move(src, dst, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.debug("Cannot rename " + src + " to " + dst + ", copying the file");
+            Files.move(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        }
         return dstFile;
     }
 
@@ -174,7 +253,6 @@ public class PIAAnalysisModel {
      * @return
      * @throws IOException
      */
-    @SuppressWarnings("unchecked")
     public static PIAAnalysisModel loadModelFromInternal(final File piaModelFile, final File settingsFile)
             throws IOException {
         // first get the Model
@@ -184,7 +262,22 @@ public class PIAAnalysisModel {
         PIAAnalysisModel analysisModel = new PIAAnalysisModel(piaModeller);
         LOGGER.debug("De-serialized model data");
 
-        // then get the settings
+        // then get and set the settings
+        analysisModel.settings = loadSettingsFromFile(settingsFile);
+
+        return analysisModel;
+    }
+
+
+    /**
+     * De-serializes the settings map from the given file.
+     *
+     * @param settingsFile
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> loadSettingsFromFile(final File settingsFile) throws IOException {
         HashMap<String, Object> settings = null;
         LOGGER.debug("De-serializing settings data from " + settingsFile.getAbsolutePath());
         try (FileInputStream fin = new FileInputStream(settingsFile);
@@ -207,10 +300,7 @@ public class PIAAnalysisModel {
             throw new IOException(msg, e);
         }
 
-        // set the settings
-        analysisModel.settings = settings;
-
-        return analysisModel;
+        return settings;
     }
 
 
@@ -223,6 +313,70 @@ public class PIAAnalysisModel {
     }
 
 
+    /**
+     * Setter for the {@link PIAModeller}, if the model was created without or
+     * a modeller with the results of a previous analysis should be used.
+     *
+     * @param piaModeller
+     */
+    public void setPIAModeller(PIAModeller piaModeller) {
+        this.piaModeller = piaModeller;
+    }
+
+
+    /**
+     * Sets whether the report filters are applied by a {@link FusedFilter}
+     * (the default) or by the modellers, e.g. to verify the results.
+     *
+     * @param useFusedFilters
+     */
+    public void setUseFusedFilters(boolean useFusedFilters) {
+        this.useFusedFilters = useFusedFilters;
+    }
+
+
+    /**
+     * Sets the executor for the concurrent parts of the analysis, i.e. the
+     * FDRs of the input files and the protein inference, with its number of
+     * threads. The executor is not shut down by the model. Without an
+     * executor (the default), the analysis runs serially.
+     *
+     * @param executor
+     * @param nrThreads
+     */
+    public void setExecutor(ExecutorService executor, int nrThreads) {
+        this.executor = executor;
+        this.executorThreads = (executor != null) ? Math.max(1, nrThreads) : 1;
+    }
+
+
+    /**
+     * The progress of the FDR calculation of the input files in percent.
+     *
+     * @return
+     */
+    public long getFDRProgress() {
+        return fdrProgress;
+    }
+
+
+    /**
+     * The progress of the currently running protein inference in percent, 0
+     * if none is running.
+     *
+     * @return
+     */
+    public long getProteinInferenceProgress() {
+        AbstractProteinInference inference = runningInference;
+        if (inference == null) {
+            return 0;
+        }
+
+        Long progress = inference.getProgressValue();
+        return (progress != null) ? progress : 0;
+    }
+
+
     /**
      * Getter for the {@link PSMModeller}
      * @return
@@ -316,6 +470,76 @@ public class PIAAnalysisModel {
     }
 
 
+    /**
+     * Calculates the fingerprints of all {@link AnalysisStage}s for the
+     * current settings and the given input and stores them in the settings.
+     * The fingerprint of each stage includes the one of the upstream stage.
+     *
+     * @param inputKey identifies the input of the analysis, e.g. a hash of the
+     * PIA XML file
+     * @param previousSettings the settings of a previous analysis, whose
+     * results might be reused (may be null)
+     * @return the first stage, whose fingerprint differs from the previous
+     * analysis, i.e. which must be recomputed with all downstream stages, or
+     * null if all stages are unchanged
+     * @throws IOException
+     */
+    public AnalysisStage updateStageFingerprints(String inputKey, Map<String, Object> previousSettings)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+
+        AnalysisStage firstChanged = null;
+        String upstreamFingerprint = inputKey;
+        for (AnalysisStage stage : AnalysisStage.values()) {
+            digest.reset();
+            updateDigest(digest, upstreamFingerprint);
+            for (PIASettings setting : stage.getSettings()) {
+                updateDigest(digest, setting.getKey());
+                Object value = getSetting(setting);
+                if (value instanceof String[]) {
+                    digest.update(ByteBuffer.allocate(4).putInt(((String[]) value).length).array());
+                    for (String element : (String[]) value) {
+                        updateDigest(digest, element);
+                    }
+                } else {
+                    updateDigest(digest, String.valueOf(value));
+                }
+            }
+
+            StringBuilder fingerprintSB = new StringBuilder();
+            for (byte b : digest.digest()) {
+                fingerprintSB.append(String.format("%02x", b));
+            }
+            String fingerprint = fingerprintSB.toString();
+
+            settings.put(stage.getFingerprintKey(), fingerprint);
+            Object previousFingerprint = (previousSettings != null) ?
+                    previousSettings.get(stage.getFingerprintKey()) : null;
+            if ((firstChanged == null) && !fingerprint.equals(previousFingerprint)) {
+                firstChanged = stage;
+            }
+            upstreamFingerprint = fingerprint;
+        }
+
+        return firstChanged;
+    }
+
+
+    /**
+     * Adds the length prefixed string to the digest
+     */
+    private static void updateDigest(MessageDigest digest, String value) {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+
     /**
      * Execute analysis on PSM level, after all settings are set.
      * <p>
@@ -359,7 +583,7 @@ public class PIAAnalysisModel {
         // calculate the FDR
         if (getSettingBoolean(PIASettings.CALCULATE_ALL_FDR)) {
             // all FDR should be calculated
-            piaModeller.getPSMModeller().calculateAllFDR();
+            calculateAllFDR();
         }
 
         if (getSettingBoolean(PIASettings.CALCULATE_ALL_FDR) &&
@@ -398,6 +622,64 @@ public class PIAAnalysisModel {
     }
 
 
+    /**
+     * Calculates the FDR of all input files. If an executor with more than
+     * one thread is set, the files are calculated concurrently.
+     * <p>
+     * The FDR of each file only depends on the file's PSMs, so the results
+     * are the same as for {@link PSMModeller#calculateAllFDR()}. The first
+     * file is calculated before the others, because it registers the FDR
+     * score in the modeller's shared maps.
+     */
+    private void calculateAllFDR() {
+        PSMModeller psmModeller = piaModeller.getPSMModeller();
+
+        List<Long> fileIDs = new ArrayList<>();
+        for (Long fileID : psmModeller.getFiles().keySet()) {
+            if ((fileID > 0) && (psmModeller.getNrReportPSMs(fileID) > -1)) {
+                fileIDs.add(fileID);
+            }
+        }
+        Collections.sort(fileIDs);
+
+        fdrProgress = 0;
+        if ((executorThreads < 2) || (fileIDs.size() < 3)) {
+            psmModeller.calculateAllFDR();
+            fdrProgress = 100;
+            return;
+        }
+
+        psmModeller.calculateFDR(fileIDs.get(0));
+        AtomicInteger calculatedFiles = new AtomicInteger(1);
+        fdrProgress = 100L / fileIDs.size();
+
+        LOGGER.debug("Calculating the FDR of " + fileIDs.size() + " files with " + executorThreads + " threads");
+        List<Future<?>> futures = new ArrayList<>(fileIDs.size() - 1);
+        try {
+            for (Long fileID : fileIDs.subList(1, fileIDs.size())) {
+                futures.add(executor.submit(() -> {
+                    psmModeller.calculateFDR(fileID);
+                    fdrProgress = 100L * calculatedFiles.incrementAndGet() / fileIDs.size();
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calculating the FDR", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error while calculating the FDR", e.getCause());
+        } finally {
+            // stop the remaining files on errors
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+
     /**
      * Returns the filtered PSMs after the analysis for the given file.
      *
@@ -407,14 +689,31 @@ public class PIAAnalysisModel {
      */
     public List<PSMReportItem> getFilteredReportPSMs(Integer fileID, String[] serializedFilters) {
         List<AbstractFilter> filters = unserializeFilters(serializedFilters);
+        boolean fused = useFusedFilters && !filters.isEmpty();
 
         List<PSMReportItem> report = new ArrayList<>();
         if (fileID == 0) {
-            for (ReportPSMSet psm : piaModeller.getPSMModeller().getFilteredReportPSMSets(filters)) {
+            List<ReportPSMSet> psmSets;
+            if (fused) {
+                psmSets = getFusedFilteredReportPSMSets(new FusedFilter(filters));
+            } else {
+                psmSets = piaModeller.getPSMModeller().getFilteredReportPSMSets(filters);
+            }
+
+            for (ReportPSMSet psm : psmSets) {
                 report.add(psm);
             }
         } else {
-            List<ReportPSM> psmList = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID.longValue(), filters);
+            List<ReportPSM> psmList;
+            if (fused) {
+                psmList = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID.longValue(),
+                        Collections.emptyList());
+                if (psmList != null) {
+                    psmList = new FusedFilter(filters).applyFilters(psmList, fileID.longValue());
+                }
+            } else {
+                psmList = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID.longValue(), filters);
+            }
 
             if (psmList != null) {
                 for (ReportPSM psm : psmList) {
@@ -427,24 +726,69 @@ public class PIAAnalysisModel {
     }
 
 
+    /**
+     * Returns the PSM sets filtered by the given {@link FusedFilter}, in the
+     * same way as {@link PSMModeller#getFilteredReportPSMSets(List)}: the sets
+     * must satisfy the filters and only their PSMs satisfying the filters are
+     * kept.
+     *
+     * @param fusedFilter
+     * @return
+     */
+    private List<ReportPSMSet> getFusedFilteredReportPSMSets(FusedFilter fusedFilter) {
+        List<ReportPSMSet> filtered = new ArrayList<>();
+
+        // without filters, the modeller returns copies of all sets
+        for (ReportPSMSet psmSet : piaModeller.getPSMModeller().getFilteredReportPSMSets(Collections.emptyList())) {
+            if (fusedFilter.satisfiesFilters(psmSet, 0L)) {
+                List<ReportPSM> psms = fusedFilter.applyFilters(psmSet.getPSMs(), 0L);
+
+                if (psms.size() == psmSet.getPSMs().size()) {
+                    filtered.add(psmSet);
+                } else if (!psms.isEmpty()) {
+                    ReportPSMSet filteredSet =
+                            new ReportPSMSet(psms, piaModeller.getPSMModeller().getPSMSetSettings());
+                    filteredSet.copyInfo(psmSet);
+                    filtered.add(filteredSet);
+                }
+            }
+        }
+
+        return filtered;
+    }
+
+
     /**
      * Unserializes the filters in the given String array and returns them as a
-     * List&lt;AbstractFilter&gt;.
+     * List&lt;AbstractFilter&gt;. The unserialized filters are memoized for
+     * the last used arrays, the returned list is always a new one.
      *
      * @param serializedFilters
      * @return always a List, maybe null, but never null
      */
     public static List<AbstractFilter> unserializeFilters(String[] serializedFilters) {
-        List<AbstractFilter> filters = new ArrayList<>();
+        List<String> key = Arrays.asList(serializedFilters.clone());
+
+        List<AbstractFilter> filters;
+        synchronized (UNSERIALIZED_FILTERS) {
+            filters = UNSERIALIZED_FILTERS.get(key);
+        }
+
+        if (filters == null) {
+            filters = new ArrayList<>(serializedFilters.length);
+            for (String serialFilter : serializedFilters) {
+                AbstractFilter filter = ObjectSerializer.unserializeFilter(serialFilter);
+                if (filter != null) {
+                    filters.add(filter);
+                }
+            }
 
-        for (String serialFilter : serializedFilters) {
-            AbstractFilter filter = ObjectSerializer.unserializeFilter(serialFilter);
-            if (filter != null) {
-                filters.add(filter);
+            synchronized (UNSERIALIZED_FILTERS) {
+                UNSERIALIZED_FILTERS.put(key, filters);
             }
         }
 
-        return filters;
+        return new ArrayList<>(filters);
     }
 
 
@@ -496,6 +840,12 @@ public class PIAAnalysisModel {
    public List<ReportPeptide> getFilteredReportPeptides(Integer fileID, String[] serializedFilters) {
        List<AbstractFilter> filters = unserializeFilters(serializedFilters);
 
+       if (useFusedFilters && !filters.isEmpty()) {
+           List<ReportPeptide> peptides = piaModeller.getPeptideModeller().getFilteredReportPeptides(
+                   fileID.longValue(), Collections.emptyList());
+           return new FusedFilter(filters).applyFilters(peptides, fileID.longValue());
+       }
+
        return piaModeller.getPeptideModeller().getFilteredReportPeptides(fileID.longValue(), filters);
    }
 
@@ -527,7 +877,24 @@ public class PIAAnalysisModel {
 
        proteinInference.setScoring(proteinScoring);
 
-       piaModeller.getProteinModeller().infereProteins(proteinInference);
+       // at most the threads of the analysis
+       int inferenceThreads = getSettingInteger(PIASettings.PROTEIN_INFERENCE_THREADS);
+       if ((inferenceThreads < 1) || (inferenceThreads > executorThreads)) {
+           inferenceThreads = executorThreads;
+       }
+       proteinInference.setAllowedThreads(inferenceThreads);
+       if ((inferenceThreads > 1)
+               && TreePartitionedInference.supportsMethod(proteinInference.getShortName())) {
+           // infer partitions of the trees concurrently
+           proteinInference = new TreePartitionedInference(proteinInference, executor);
+       }
+
+       runningInference = proteinInference;
+       try {
+           piaModeller.getProteinModeller().infereProteins(proteinInference);
+       } finally {
+           runningInference = null;
+       }
 
        // calculate protein FDR, if PSM FDR was calculated
        if (getSettingBoolean(PIASettings.CALCULATE_ALL_FDR) ||
@@ -554,6 +921,12 @@ public class PIAAnalysisModel {
    public List<ReportProtein> getFilteredReportProteins(String[] serializedFilters) {
        List<AbstractFilter> filters = unserializeFilters(serializedFilters);
 
+       if (useFusedFilters && !filters.isEmpty()) {
+           List<ReportProtein> proteins =
+                   piaModeller.getProteinModeller().getFilteredReportProteins(Collections.emptyList());
+           return new FusedFilter(filters).applyFilters(proteins, 0L);
+       }
+
        return piaModeller.getProteinModeller().getFilteredReportProteins(filters);
    }
 }
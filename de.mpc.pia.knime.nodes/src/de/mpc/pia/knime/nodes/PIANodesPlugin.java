@@ -1,10 +1,12 @@
 package de.mpc.pia.knime.nodes;
 
+import java.io.File;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.knime.core.node.KNIMEConstants;
 import org.osgi.framework.BundleContext;
 
 import de.mpc.pia.knime.nodes.preferences.PreferenceInitializer;
@@ -66,6 +68,67 @@ public class PIANodesPlugin extends AbstractUIPlugin {
     }
 
 
+    /**
+     * @return the maximal heap in MB used to cache loaded PIA models
+     */
+    public static int getModellerCacheSize() {
+        IPreferenceStore store = PIANodesPlugin.getDefault().getPreferenceStore();
+        return store.getInt(PreferenceInitializer.PREF_MODELLER_CACHE_SIZE);
+    }
+
+
+    /**
+     * @return whether the reports are filtered by the modellers instead of the fused filters
+     */
+    public static boolean isFusedFilteringDisabled() {
+        IPreferenceStore store = PIANodesPlugin.getDefault().getPreferenceStore();
+        return store.getBoolean(PreferenceInitializer.PREF_FUSED_FILTERS_DISABLED);
+    }
+
+
+    /**
+     * @return the number of threads of a PIA analysis execution
+     */
+    public static int getAnalysisThreads() {
+        IPreferenceStore store = PIANodesPlugin.getDefault().getPreferenceStore();
+        int analysisThreads = store.getInt(PreferenceInitializer.PREF_ANALYSIS_THREADS);
+        if (analysisThreads < 1) {
+            analysisThreads = KNIMEConstants.GLOBAL_THREAD_POOL.getMaxThreads();
+        }
+        return Math.max(1, analysisThreads);
+    }
+
+
+    /**
+     * @return the maximal disk space in MB used to cache compiled PIA XML files
+     */
+    public static int getCompilationCacheSize() {
+        IPreferenceStore store = PIANodesPlugin.getDefault().getPreferenceStore();
+        return store.getInt(PreferenceInitializer.PREF_COMPILATION_CACHE_SIZE);
+    }
+
+
+    /**
+     * @return the directory of the cached PIA XML files, by default in the KNIME home directory
+     */
+    public static File getCompilationCacheDirectory() {
+        IPreferenceStore store = PIANodesPlugin.getDefault().getPreferenceStore();
+        String directory = store.getString(PreferenceInitializer.PREF_COMPILATION_CACHE_DIRECTORY);
+        if ((directory == null) || directory.trim().isEmpty()) {
+            return new File(KNIMEConstants.getKNIMEHomeDir(), "pia-compilation-cache");
+        }
+        return new File(directory.trim());
+    }
+
+
+    /**
+     * @return the version of the PIA nodes, which may change the compiled files
+     */
+    public static String getVersion() {
+        return PIANodesPlugin.getDefault().getBundle().getVersion().toString();
+    }
+
+
     /**
      * @return the visitorCid
      */
@@ -18,11 +18,14 @@ public enum PIASettings {
     ERROR_ON_NO_DECOYS(Boolean.TRUE),
     CREATE_PSMSETS(Boolean.TRUE),
     CONSIDER_MODIFICATIONS(Boolean.FALSE),
+    EXECUTION_STATISTICS(Boolean.FALSE),
 
     EXPORT_FILTER(Boolean.FALSE),
     EXPORT_LEVEL(ExportLevels.none.toString()),
     EXPORT_FORMAT(ExportFormats.mzIdentML.toString()),
     EXPORT_FILEBASENAME("piaExport"),
+    EXPORT_ADDITIONAL(new String[]{}),   // further exports as "format:level"
+    EXPORT_COMPRESS(Boolean.FALSE),      // gzip the CSV/TSV exports
 
     FDR_THRESHOLD(Double.valueOf(0.01)),
 
@@ -46,6 +49,7 @@ public enum PIASettings {
     PROTEIN_INFER_PROTEINS(Boolean.TRUE),
     PROTEIN_INFERENCE_METHOD(ProteinInferenceMethod.REPORT_SPECTRUM_EXTRACTOR.getShortName()),
     PROTEIN_INFERENCE_FILTERS(new String[]{}),
+    PROTEIN_INFERENCE_THREADS(0),  // 0 = all threads of the analysis
     PROTEIN_SCORING_METHOD(ScoringType.MULTIPLICATIVE_SCORING.getShortName()),
     PROTEIN_SCORING_SCORE(ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()),
     PROTEIN_SCORING_USED_PSMS(PSMForScoring.ONLY_BEST.getShortName()),
@@ -0,0 +1,563 @@
+package de.mpc.pia.knime.nodes.analysis;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DataType;
+import org.knime.core.data.RowKey;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.LongCell;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.node.NodeLogger;
+import org.knime.core.node.streamable.RowOutput;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import de.mpc.pia.intermediate.Group;
+import de.mpc.pia.modeller.PIAModeller;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and peak heap of the
+ * phases of a PIA analysis execution, together with some item counts.
+ * <p>
+ * The CPU time and allocated bytes are the ones of the node's threads, i.e.
+ * the thread calling {@link #startPhase(String)}, the calls wrapped by
+ * {@link #measure(Callable)} and the tasks of the executor created by
+ * {@link #createExecutor(int, ThreadFactory)}. Work of running tasks is
+ * split at the phase boundaries. Threads started by the PIA library itself
+ * are not measured. If the JVM does not support the measurement per thread,
+ * the values are missing.
+ * <p>
+ * The peak heap is the one of the whole JVM, as the heap is shared by all
+ * threads. It is the maximum of the used heap at the start and end of the
+ * phase and before each garbage collection during the phase.
+ * <p>
+ * If the statistics are not enabled, nothing is recorded.
+ *
+ * @author julian
+ *
+ */
+public class ExecutionStatistics {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(ExecutionStatistics.class);
+
+    /** nanoseconds per millisecond */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** the statistics with a running phase, for the peak heap (weak, if a phase is never ended) */
+    private static final Set<ExecutionStatistics> RUNNING_STATISTICS =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        if (!addGCListener()) {
+            LOGGER.debug("No garbage collection notifications, the peak heap is only measured at the phase boundaries");
+        }
+    }
+
+
+    /** whether the statistics are recorded */
+    private final boolean enabled;
+
+    /** the finished phases and counts */
+    private final List<Entry> entries;
+
+    /** the currently running phase */
+    private Entry currentPhase;
+
+    /** the start values of the current phase */
+    private long startWallTime;
+    private long startCpuTime;
+    private long startAllocatedBytes;
+
+    /** the maximal used heap in the current phase */
+    private final AtomicLong phasePeakHeap;
+
+    /** the CPU time and allocated bytes of the measured threads, which are accounted so far */
+    private long accountedCpuTime;
+    private long accountedAllocatedBytes;
+
+    /** the not yet accounted start values (CPU time and allocated bytes) of the running measured threads */
+    private final Map<Thread, long[]> runningThreads;
+
+
+    /**
+     * Creates the statistics
+     *
+     * @param enabled whether the statistics are recorded at all
+     */
+    public ExecutionStatistics(boolean enabled) {
+        this.enabled = enabled;
+        this.entries = new ArrayList<>();
+        this.currentPhase = null;
+        this.phasePeakHeap = new AtomicLong(0);
+        this.accountedCpuTime = 0;
+        this.accountedAllocatedBytes = 0;
+        this.runningThreads = new HashMap<>();
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * Starts the recording of a phase, a running phase is ended before.
+     *
+     * @param name
+     */
+    public void startPhase(String name) {
+        if (!enabled) {
+            return;
+        }
+        if (currentPhase != null) {
+            endPhase(null);
+        }
+
+        currentPhase = new Entry(name);
+        phasePeakHeap.set(getUsedHeap());
+        RUNNING_STATISTICS.add(this);
+
+        synchronized (this) {
+            startThread(Thread.currentThread());
+            accountRunningThreads();
+            startCpuTime = accountedCpuTime;
+            startAllocatedBytes = accountedAllocatedBytes;
+        }
+        startWallTime = System.nanoTime();
+    }
+
+
+    /**
+     * Ends the recording of the current phase.
+     *
+     * @param items the number of items processed in the phase, may be null
+     */
+    public void endPhase(Long items) {
+        if (!enabled || (currentPhase == null)) {
+            return;
+        }
+
+        currentPhase.wallTime = (System.nanoTime() - startWallTime) / NANOS_PER_MILLI;
+
+        synchronized (this) {
+            accountRunningThreads();
+            endThread(Thread.currentThread());
+            if (isCpuTimeSupported()) {
+                currentPhase.cpuTime = (accountedCpuTime - startCpuTime) / NANOS_PER_MILLI;
+            }
+            if (isAllocatedBytesSupported()) {
+                currentPhase.allocatedBytes = accountedAllocatedBytes - startAllocatedBytes;
+            }
+        }
+
+        RUNNING_STATISTICS.remove(this);
+        currentPhase.peakHeap = Math.max(phasePeakHeap.get(), getUsedHeap());
+        currentPhase.items = items;
+
+        entries.add(currentPhase);
+        currentPhase = null;
+    }
+
+
+    /**
+     * Wraps the call, so the CPU time and allocated bytes of the thread
+     * running it are measured.
+     *
+     * @param call
+     * @return
+     */
+    public <T> Callable<T> measure(Callable<T> call) {
+        if (!enabled) {
+            return call;
+        }
+        return () -> {
+            startThread(Thread.currentThread());
+            try {
+                return call.call();
+            } finally {
+                endThread(Thread.currentThread());
+            }
+        };
+    }
+
+
+    /**
+     * Wraps the call, so the CPU time and allocated bytes of the thread
+     * running it are measured.
+     *
+     * @param call
+     * @return
+     */
+    public Runnable measure(Runnable call) {
+        if (!enabled) {
+            return call;
+        }
+        return () -> {
+            startThread(Thread.currentThread());
+            try {
+                call.run();
+            } finally {
+                endThread(Thread.currentThread());
+            }
+        };
+    }
+
+
+    /**
+     * Creates a fixed thread pool, whose tasks are measured. The pool must be
+     * shut down by the caller.
+     *
+     * @param nrThreads
+     * @param threadFactory
+     * @return
+     */
+    public ExecutorService createExecutor(int nrThreads, ThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(nrThreads, nrThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                super.beforeExecute(thread, task);
+                if (enabled) {
+                    startThread(thread);
+                }
+            }
+
+            @Override
+            protected void afterExecute(Runnable task, Throwable error) {
+                if (enabled) {
+                    endThread(Thread.currentThread());
+                }
+                super.afterExecute(task, error);
+            }
+        };
+    }
+
+
+    /**
+     * Adds an item count (without timing values).
+     *
+     * @param name
+     * @param count
+     */
+    public void addCount(String name, long count) {
+        if (!enabled) {
+            return;
+        }
+
+        Entry entry = new Entry(name);
+        entry.items = count;
+        entries.add(entry);
+    }
+
+
+    /**
+     * Adds the counts of PSMs, PSM sets, peptides, proteins and clusters of
+     * the modeller.
+     *
+     * @param piaModeller
+     * @param peptideFileID the file ID of the reported peptides, null if no peptides were inferred
+     * @param proteinsInferred whether proteins were inferred
+     */
+    public void addModellerCounts(PIAModeller piaModeller, Long peptideFileID, boolean proteinsInferred) {
+        if (!enabled) {
+            return;
+        }
+
+        long nrPSMs = 0;
+        for (Long fileID : piaModeller.getFiles().keySet()) {
+            if (fileID > 0) {
+                nrPSMs += Math.max(0, piaModeller.getPSMModeller().getNrReportPSMs(fileID));
+            }
+        }
+        addCount("PSMs", nrPSMs);
+        addCount("PSM sets", piaModeller.getPSMModeller().getNrReportPSMs(0L));
+
+        if (peptideFileID != null) {
+            addCount("Peptides", piaModeller.getPeptideModeller()
+                    .getFilteredReportPeptides(peptideFileID, new ArrayList<>()).size());
+        }
+        if (proteinsInferred) {
+            addCount("Proteins", piaModeller.getProteinModeller()
+                    .getFilteredReportProteins(new ArrayList<>()).size());
+        }
+
+        Set<Long> treeIDs = new HashSet<>();
+        for (Group group : piaModeller.getGroups().values()) {
+            treeIDs.add(group.getTreeID());
+        }
+        addCount("Clusters", treeIDs.size());
+    }
+
+
+    /**
+     * Writes all recorded phases and counts to the log
+     */
+    public void logStatistics() {
+        if (!enabled) {
+            return;
+        }
+
+        for (Entry entry : entries) {
+            StringBuilder sb = new StringBuilder(entry.name);
+            if (entry.wallTime != null) {
+                sb.append(": wall time ").append(entry.wallTime).append(" ms");
+                if (entry.cpuTime != null) {
+                    sb.append(", CPU time ").append(entry.cpuTime).append(" ms");
+                }
+                if (entry.allocatedBytes != null) {
+                    sb.append(", allocated ").append(entry.allocatedBytes).append(" bytes");
+                }
+                sb.append(", peak process heap ").append(entry.peakHeap).append(" bytes");
+                if (entry.items != null) {
+                    sb.append(", ").append(entry.items).append(" items");
+                }
+            } else {
+                sb.append(": ").append(entry.items);
+            }
+            LOGGER.info(sb.toString());
+        }
+    }
+
+
+    /**
+     * The specs of the statistics table
+     *
+     * @return
+     */
+    public static DataTableSpec getTableSpec() {
+        List<DataColumnSpec> cols = new ArrayList<>();
+        cols.add(new DataColumnSpecCreator("Phase", StringCell.TYPE).createSpec());
+        cols.add(new DataColumnSpecCreator("Wall time [ms]", LongCell.TYPE).createSpec());
+        cols.add(new DataColumnSpecCreator("CPU time [ms]", LongCell.TYPE).createSpec());
+        cols.add(new DataColumnSpecCreator("Allocated [bytes]", LongCell.TYPE).createSpec());
+        cols.add(new DataColumnSpecCreator("Peak process heap [bytes]", LongCell.TYPE).createSpec());
+        cols.add(new DataColumnSpecCreator("Items", LongCell.TYPE).createSpec());
+
+        return new DataTableSpec(cols.toArray(new DataColumnSpec[cols.size()]));
+    }
+
+
+    /**
+     * Pushes the recorded phases and counts into the output, which is closed
+     * afterwards. If the statistics are not enabled, the output stays empty.
+     *
+     * @param output
+     * @throws InterruptedException
+     */
+    public void writeRows(RowOutput output) throws InterruptedException {
+        int rowNr = 0;
+        for (Entry entry : entries) {
+            output.push(new DefaultRow(RowKey.createRowKey((long) rowNr++),
+                    new StringCell(entry.name),
+                    createCell(entry.wallTime),
+                    createCell(entry.cpuTime),
+                    createCell(entry.allocatedBytes),
+                    createCell(entry.peakHeap),
+                    createCell(entry.items)));
+        }
+        output.close();
+    }
+
+
+    private static DataCell createCell(Long value) {
+        return (value != null) ? new LongCell(value) : DataType.getMissingCell();
+    }
+
+
+    /**
+     * Starts measuring the given thread, which must be the current one.
+     */
+    private synchronized void startThread(Thread thread) {
+        runningThreads.put(thread, new long[] {getThreadCpuTime(thread), getThreadAllocatedBytes(thread)});
+    }
+
+
+    /**
+     * Stops measuring the given thread, which must be the current one, and
+     * accounts its values.
+     */
+    private synchronized void endThread(Thread thread) {
+        long[] start = runningThreads.remove(thread);
+        if (start != null) {
+            accountedCpuTime += Math.max(0, getThreadCpuTime(thread) - start[0]);
+            accountedAllocatedBytes += Math.max(0, getThreadAllocatedBytes(thread) - start[1]);
+        }
+    }
+
+
+    /**
+     * Accounts the values of the running threads so far, so the work of a
+     * task is split between the phases.
+     */
+    private synchronized void accountRunningThreads() {
+        for (Map.Entry<Thread, long[]> threadIt : runningThreads.entrySet()) {
+            long[] start = threadIt.getValue();
+            long cpuTime = getThreadCpuTime(threadIt.getKey());
+            long allocatedBytes = getThreadAllocatedBytes(threadIt.getKey());
+
+            // a thread, which ended meanwhile, returns -1 and is accounted by endThread
+            if (cpuTime >= 0) {
+                accountedCpuTime += Math.max(0, cpuTime - start[0]);
+                start[0] = cpuTime;
+            }
+            if (allocatedBytes >= 0) {
+                accountedAllocatedBytes += Math.max(0, allocatedBytes - start[1]);
+                start[1] = allocatedBytes;
+            }
+        }
+    }
+
+
+    private static boolean isCpuTimeSupported() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        return threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+    }
+
+
+    private static boolean isAllocatedBytesSupported() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        return (threadBean instanceof com.sun.management.ThreadMXBean)
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled();
+    }
+
+
+    /**
+     * The CPU time of the given thread in nanoseconds, -1 if not supported
+     */
+    private static long getThreadCpuTime(Thread thread) {
+        if (!isCpuTimeSupported()) {
+            return -1;
+        }
+        return ManagementFactory.getThreadMXBean().getThreadCpuTime(thread.getId());
+    }
+
+
+    /**
+     * The bytes allocated by the given thread, -1 if not supported
+     */
+    private static long getThreadAllocatedBytes(Thread thread) {
+        if (!isAllocatedBytesSupported()) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(thread.getId());
+    }
+
+
+    /**
+     * The currently used heap of the JVM
+     */
+    private static long getUsedHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+
+    /**
+     * Adds the listener for the heap usage before the collections to all
+     * garbage collectors.
+     *
+     * @return false, if the garbage collection notifications are not supported
+     */
+    private static boolean addGCListener() {
+        List<NotificationEmitter> emitters = new ArrayList<>();
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gcBean instanceof NotificationEmitter)) {
+                return false;
+            }
+            emitters.add((NotificationEmitter) gcBean);
+        }
+
+        for (NotificationEmitter emitter : emitters) {
+            emitter.addNotificationListener(ExecutionStatistics::handleGCNotification, null, null);
+        }
+        return true;
+    }
+
+
+    /**
+     * Updates the peak heap of the running phases by the used heap before a
+     * garbage collection
+     */
+    private static void handleGCNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+        long usedBefore = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ((pool.getType() == MemoryType.HEAP) && before.containsKey(pool.getName())) {
+                usedBefore += before.get(pool.getName()).getUsed();
+            }
+        }
+
+        long peak = usedBefore;
+        synchronized (RUNNING_STATISTICS) {
+            for (ExecutionStatistics statistics : RUNNING_STATISTICS) {
+                statistics.phasePeakHeap.accumulateAndGet(peak, Math::max);
+            }
+        }
+    }
+
+
+    /**
+     * A recorded phase or count
+     */
+    private static class Entry {
+
+        private final String name;
+
+        private Long wallTime;
+
+        private Long cpuTime;
+
+        private Long allocatedBytes;
+
+        private Long peakHeap;
+
+        private Long items;
+
+
+        private Entry(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -62,6 +62,9 @@ public class PIAAnalysisNodeDialog extends DataAwareNodeDialogPane {
         // consider modifications
         settings.addBoolean(PIASettings.CONSIDER_MODIFICATIONS.getKey(),
                 (Boolean)settingsMap.get(PIASettings.CONSIDER_MODIFICATIONS.getKey()));
+        // collect the execution statistics
+        settings.addBoolean(PIASettings.EXECUTION_STATISTICS.getKey(),
+                (Boolean)settingsMap.get(PIASettings.EXECUTION_STATISTICS.getKey()));
 
         // the export settings
         settings.addBoolean(PIASettings.EXPORT_FILTER.getKey(),
@@ -72,6 +75,10 @@ public class PIAAnalysisNodeDialog extends DataAwareNodeDialogPane {
                 (String)settingsMap.get(PIASettings.EXPORT_FORMAT.getKey()));
         settings.addString(PIASettings.EXPORT_FILEBASENAME.getKey(),
                 (String)settingsMap.get(PIASettings.EXPORT_FILEBASENAME.getKey()));
+        settings.addStringArray(PIASettings.EXPORT_ADDITIONAL.getKey(),
+                (String[])settingsMap.get(PIASettings.EXPORT_ADDITIONAL.getKey()));
+        settings.addBoolean(PIASettings.EXPORT_COMPRESS.getKey(),
+                (Boolean)settingsMap.get(PIASettings.EXPORT_COMPRESS.getKey()));
 
         // used file ID for PSM export
         settings.addInt(PIASettings.PSM_ANALYSIS_FILE_ID.getKey(),
@@ -127,6 +134,9 @@ public class PIAAnalysisNodeDialog extends DataAwareNodeDialogPane {
         // the filters in the protein inference
         settings.addStringArray(PIASettings.PROTEIN_INFERENCE_FILTERS.getKey(),
                 (String[])settingsMap.get(PIASettings.PROTEIN_INFERENCE_FILTERS.getKey()));
+        // the number of threads of the protein inference
+        settings.addInt(PIASettings.PROTEIN_INFERENCE_THREADS.getKey(),
+                (Integer)settingsMap.get(PIASettings.PROTEIN_INFERENCE_THREADS.getKey()));
         // the scoring method for the protein inference
         settings.addString(PIASettings.PROTEIN_SCORING_METHOD.getKey(),
                 (String)settingsMap.get(PIASettings.PROTEIN_SCORING_METHOD.getKey()));
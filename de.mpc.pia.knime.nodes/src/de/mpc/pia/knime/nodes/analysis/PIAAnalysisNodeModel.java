@@ -2,18 +2,29 @@ package de.mpc.pia.knime.nodes.analysis;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.eclipse.core.commands.ExecutionException;
@@ -37,28 +48,40 @@ import org.knime.core.data.def.DoubleCell;
 import org.knime.core.data.def.DoubleCell.DoubleCellFactory;
 import org.knime.core.data.def.IntCell;
 import org.knime.core.data.def.StringCell;
-import org.knime.core.data.filestore.FileStore;
 import org.knime.core.data.uri.IURIPortObject;
 import org.knime.core.data.uri.URIContent;
 import org.knime.core.data.uri.URIPortObjectSpec;
-import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 import org.knime.core.node.port.PortObject;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.port.PortType;
+import org.knime.core.node.streamable.BufferedDataTableRowOutput;
+import org.knime.core.node.streamable.PartitionInfo;
+import org.knime.core.node.streamable.PortInput;
+import org.knime.core.node.streamable.PortObjectInput;
+import org.knime.core.node.streamable.PortObjectOutput;
+import org.knime.core.node.streamable.PortOutput;
+import org.knime.core.node.streamable.RowOutput;
+import org.knime.core.node.streamable.StreamableOperator;
 
 import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.knime.nodes.AnalysisStage;
 import de.mpc.pia.knime.nodes.PIAAnalysisModel;
 import de.mpc.pia.knime.nodes.PIANodesPlugin;
 import de.mpc.pia.knime.nodes.PIASettings;
 import de.mpc.pia.knime.nodes.dialog.ExportFormats;
 import de.mpc.pia.knime.nodes.dialog.ExportLevels;
+import de.mpc.pia.knime.nodes.dialog.ExportTarget;
 import de.mpc.pia.knime.nodes.filestorageport.FileStoreURIPortObject;
+import de.mpc.pia.knime.nodes.utils.MonitoredTask;
+import de.mpc.pia.knime.nodes.utils.PIAModellerCache;
+import de.mpc.pia.knime.nodes.utils.XMLCompression;
 import de.mpc.pia.modeller.PIAModeller;
 import de.mpc.pia.modeller.exporter.IdXMLExporter;
 import de.mpc.pia.modeller.exporter.MzIdentMLExporter;
@@ -101,6 +124,9 @@ public class PIAAnalysisNodeModel extends NodeModel {
     /** storing model for whether modifications should be used to distinguish peptides */
     private final SettingsModelBoolean mConsiderModifications =
             new SettingsModelBoolean(PIASettings.CONSIDER_MODIFICATIONS.getKey(), PIASettings.CONSIDER_MODIFICATIONS.getDefaultBoolean());
+    /** storing model for whether the execution statistics are collected */
+    private final SettingsModelBoolean mExecutionStatistics =
+            new SettingsModelBoolean(PIASettings.EXECUTION_STATISTICS.getKey(), PIASettings.EXECUTION_STATISTICS.getDefaultBoolean());
 
     /** filter the export */
     private final SettingsModelBoolean mExportFilter =
@@ -114,6 +140,12 @@ public class PIAAnalysisNodeModel extends NodeModel {
     /** export file basename */
     private final SettingsModelString mExportFileBaseName =
             new SettingsModelString(PIASettings.EXPORT_FILEBASENAME.getKey(), PIASettings.EXPORT_FILEBASENAME.getDefaultString());
+    /** additional exports as "format:level" */
+    private final SettingsModelStringArray mExportAdditional =
+            new SettingsModelStringArray(PIASettings.EXPORT_ADDITIONAL.getKey(), PIASettings.EXPORT_ADDITIONAL.getDefaultStringArray());
+    /** gzip the CSV/TSV exports */
+    private final SettingsModelBoolean mExportCompress =
+            new SettingsModelBoolean(PIASettings.EXPORT_COMPRESS.getKey(), PIASettings.EXPORT_COMPRESS.getDefaultBoolean());
 
 
     /** the file ID for the PSM analysis */
@@ -170,6 +202,10 @@ public class PIAAnalysisNodeModel extends NodeModel {
     /** storing model for the protein inference filters */
     private final SettingsModelStringArray mProteinInferenceFilters =
             new SettingsModelStringArray(PIASettings.PROTEIN_INFERENCE_FILTERS.getKey(), PIASettings.PROTEIN_INFERENCE_FILTERS.getDefaultStringArray());
+    /** storing model for the number of threads used by the protein inference */
+    private final SettingsModelIntegerBounded mProteinInferenceThreads =
+            new SettingsModelIntegerBounded(PIASettings.PROTEIN_INFERENCE_THREADS.getKey(),
+                    PIASettings.PROTEIN_INFERENCE_THREADS.getDefaultInteger(), 0, Integer.MAX_VALUE);
     /** storing model for the scoring method used by the protein inference */
     private final SettingsModelString mProteinScoringMethod =
             new SettingsModelString(PIASettings.PROTEIN_SCORING_METHOD.getKey(), PIASettings.PROTEIN_SCORING_METHOD.getDefaultString());
@@ -184,10 +220,34 @@ public class PIAAnalysisNodeModel extends NodeModel {
     private final SettingsModelStringArray mProteinFilters =
             new SettingsModelStringArray(PIASettings.PROTEIN_FILTERS.getKey(), PIASettings.PROTEIN_FILTERS.getDefaultStringArray());
 
+    /** number of rows created by one task, when the rows are created in parallel */
+    private static final int ROWS_CHUNK_SIZE = 5000;
+
+    /** counter for the names of the analysis threads */
+    private static final AtomicInteger analysisThreadCounter = new AtomicInteger(0);
+
+    /** buffer size for unzipping and copying the PIA XML file */
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+
+    /** the fractions of the whole execution's progress of the single phases */
+    private static final double PROGRESS_PARSING = 0.3;
+    private static final double PROGRESS_PSM_OPERATIONS = 0.15;
+    private static final double PROGRESS_PSM_TABLE = 0.1;
+    private static final double PROGRESS_PEPTIDE_OPERATIONS = 0.05;
+    private static final double PROGRESS_PEPTIDE_TABLE = 0.05;
+    private static final double PROGRESS_PROTEIN_OPERATIONS = 0.2;
+    private static final double PROGRESS_PROTEIN_TABLE = 0.05;
+    private static final double PROGRESS_EXPORT = 0.05;
+    private static final double PROGRESS_SPECTRUM_MAPPING = 0.025;
+    private static final double PROGRESS_SERIALIZATION = 0.025;
+
+    /** file name of the PSM to spectrum mapping in the internals */
+    private static final String PSM_TO_SPECTRUM_FILENAME = "knime.psmToSpectrum";
+
     /** warning if serialization did not work */
     private static final String SERIALIZATION_ERROR_WARNING = "Could not serialize the PIA model. All analyses are successful, but viewer will be empty.";
 
-    
+
     /** temporary created file, delete on reset */
     private File piaXMLTmpFile;
 
@@ -203,12 +263,33 @@ public class PIAAnalysisNodeModel extends NodeModel {
     /** the PSM to spectrum mapper */
     private PiaPsmToSpectrum<ReportPSM> psmToSpectrum;
 
+    /** the saved PSM to spectrum mapper, which is restored on first access */
+    private File psmToSpectrumFile;
+
     /** where to find the analysis model */
     private File piaAnalysisModelFile;
 
     /** where to find the analysis model's settings */
     private File piaAnalysisSettingsFile;
 
+    /** the model of the last execution, kept on reset for reusing its results */
+    private File reusableModelFile;
+
+    /** the settings of the last execution, kept on reset */
+    private File reusableSettingsFile;
+
+    /** guards the analysis model shared by the views */
+    private final Object sharedModelLock = new Object();
+
+    /** the analysis model shared by the open views, loaded on first request */
+    private PIAAnalysisModel sharedAnalysisModel;
+
+    /** the hash of the model file, from which the shared model was loaded */
+    private int sharedAnalysisModelHash;
+
+    /** the number of views holding the shared model */
+    private int sharedAnalysisModelReferences;
+
 
     /**
      * Constructor for the node model.
@@ -221,7 +302,8 @@ public class PIAAnalysisNodeModel extends NodeModel {
                 new PortType[]{ BufferedDataTable.TYPE,
                         BufferedDataTable.TYPE,
                         BufferedDataTable.TYPE,
-                        IURIPortObject.TYPE });
+                        IURIPortObject.TYPE,
+                        BufferedDataTable.TYPE });
 
         piaXMLTmpFile = null;
         filteredProteins = null;
@@ -230,6 +312,8 @@ public class PIAAnalysisNodeModel extends NodeModel {
         psmToSpectrum = null;
         piaAnalysisModelFile = null;
         piaAnalysisSettingsFile = null;
+        reusableModelFile = null;
+        reusableSettingsFile = null;
     }
 
 
@@ -239,7 +323,117 @@ public class PIAAnalysisNodeModel extends NodeModel {
     @Override
     protected PortObject[] execute(final PortObject[] inObjects,
             final ExecutionContext exec) throws Exception {
+        BufferedDataTableRowOutput[] tableOutputs = new BufferedDataTableRowOutput[] {
+                new BufferedDataTableRowOutput(exec.createDataContainer(getPSMTableSpec())),
+                new BufferedDataTableRowOutput(exec.createDataContainer(getPeptideTableSpec())),
+                new BufferedDataTableRowOutput(exec.createDataContainer(getProteinTableSpec())),
+                new BufferedDataTableRowOutput(exec.createDataContainer(ExecutionStatistics.getTableSpec()))};
+
+        FileStoreURIPortObject fsupo = executeAnalysis(inObjects, tableOutputs, exec);
+
+        return new PortObject[]{tableOutputs[0].getDataTable(),
+                tableOutputs[1].getDataTable(),
+                tableOutputs[2].getDataTable(),
+                fsupo,
+                tableOutputs[3].getDataTable()};
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The input ports are not streamed (only the first PIA XML file is used),
+     * but the PSM, peptide and protein rows are pushed to the outputs while
+     * they are created.
+     */
+    @Override
+    public StreamableOperator createStreamableOperator(final PartitionInfo partitionInfo,
+            final PortObjectSpec[] inSpecs) throws InvalidSettingsException {
+        return new StreamableOperator() {
+            @Override
+            public void runFinal(final PortInput[] inputs, final PortOutput[] outputs,
+                    final ExecutionContext exec) throws Exception {
+                PortObject[] inObjects = new PortObject[inputs.length];
+                for (int i = 0; i < inputs.length; i++) {
+                    if (inputs[i] != null) {
+                        inObjects[i] = ((PortObjectInput) inputs[i]).getPortObject();
+                    }
+                }
+
+                RowOutput[] tableOutputs = new RowOutput[] {
+                        (RowOutput) outputs[0],
+                        (RowOutput) outputs[1],
+                        (RowOutput) outputs[2],
+                        (RowOutput) outputs[4]};
+
+                FileStoreURIPortObject fsupo = executeAnalysis(inObjects, tableOutputs, exec);
+                ((PortObjectOutput) outputs[3]).setPortObject(fsupo);
+            }
+        };
+    }
+
+
+    /**
+     * Executes the whole analysis. The PSM, peptide and protein rows and
+     * the execution statistics are pushed into the given outputs (in this
+     * order), which are closed afterwards.
+     *
+     * @param inObjects the input port objects
+     * @param tableOutputs outputs for the PSM, peptide, protein and statistics table
+     * @param exec
+     * @return the exported file port object
+     * @throws Exception
+     */
+    private FileStoreURIPortObject executeAnalysis(final PortObject[] inObjects, final RowOutput[] tableOutputs,
+            final ExecutionContext exec) throws Exception {
+        ExecutionStatistics statistics = new ExecutionStatistics(mExecutionStatistics.getBooleanValue());
+
+        // all concurrent parts of the execution share these threads
+        int nrThreads = PIANodesPlugin.getAnalysisThreads();
+        ExecutorService executor = createAnalysisExecutor(statistics, nrThreads);
+        try {
+            return runAnalysis(inObjects, tableOutputs, exec, statistics, executor, nrThreads);
+        } catch (CanceledExecutionException | InterruptedException e) {
+            // don't keep the (possibly large) temporary files until the reset
+            deleteTemporaryFiles();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Creates the executor for the concurrent parts of an execution, i.e. the
+     * FDRs, the protein inference, the PSM rows and the exports. Its tasks
+     * are measured by the statistics.
+     *
+     * @param statistics
+     * @param nrThreads
+     * @return
+     */
+    private static ExecutorService createAnalysisExecutor(ExecutionStatistics statistics, int nrThreads) {
+        return statistics.createExecutor(nrThreads, runnable -> {
+            Thread thread = new Thread(runnable, "PIA-analysis-" + analysisThreadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Runs the analysis, see {@link #executeAnalysis(PortObject[], RowOutput[], ExecutionContext)}.
+     * The progress is reported and cancellation is checked during each phase.
+     *
+     * @param statistics the statistics of the execution
+     * @param executor the executor for the concurrent parts of the execution
+     * @param nrThreads the number of threads of the executor
+     */
+    private FileStoreURIPortObject runAnalysis(final PortObject[] inObjects, final RowOutput[] tableOutputs,
+            final ExecutionContext exec, ExecutionStatistics statistics, ExecutorService executor, int nrThreads)
+            throws Exception {
         String piaXmlFileName = null;
+        BinaryObjectDataValue piaXmlBinary = null;
 
         // get the input file from the first port, first object
         if ((mInputColumn.getStringValue() != null) && (inObjects[0] != null)) {
@@ -254,9 +448,14 @@ public class PIAAnalysisNodeModel extends NodeModel {
                 DataRow row = rowIt.next();
                 DataCell dataCell = row.getCell(inputIdx);
 
-                piaXmlFileName = getFilenameFromTableCell(dataCell);
+                if (dataCell.getType().isCompatible(BinaryObjectDataValue.class)) {
+                    // binary objects are only unzipped, if the model is not cached
+                    piaXmlBinary = (BinaryObjectDataValue) dataCell;
+                } else {
+                    piaXmlFileName = getFilenameFromTableCell(dataCell);
+                }
 
-                if (piaXmlFileName != null) {
+                if ((piaXmlFileName != null) || (piaXmlBinary != null)) {
                     if (rowIt.hasNext()) {
                         LOGGER.warn("Only the first suitable entry in the datatable is used.");
                     }
@@ -271,7 +470,7 @@ public class PIAAnalysisNodeModel extends NodeModel {
             List<URIContent> uris = filePort.getURIContents();
             ListIterator<URIContent> uriIter = uris.listIterator();
 
-            if ((piaXmlFileName != null) && !uris.isEmpty()) {
+            if (((piaXmlFileName != null) || (piaXmlBinary != null)) && !uris.isEmpty()) {
                 LOGGER.warn("The file from datatable is used preferentially, if table and port are available");
             } else {
                 while (uriIter.hasNext()) {
@@ -289,7 +488,7 @@ public class PIAAnalysisNodeModel extends NodeModel {
             }
         }
 
-        if (piaXmlFileName == null) {
+        if ((piaXmlFileName == null) && (piaXmlBinary == null)) {
             throw new ExecutionException("No PIA XML file given! Provide either by "
                     + "datatable (e.g. from PIA Compiler or List Files) or port (Input File)");
         }
@@ -300,10 +499,187 @@ public class PIAAnalysisNodeModel extends NodeModel {
                 PIAMatomoTracker.PIA_TRACKING_MODELLER_KNIME_STARTED, null,
                 PIANodesPlugin.getVisitorCid());
 
-        // create modeller and load the file
-        PIAModeller piaModeller = new PIAModeller(piaXmlFileName);
-        PIAAnalysisModel analysisModel = new PIAAnalysisModel(piaModeller);
+        // a binary object is hashed in advance only for the reuse or the cache, else while unzipping it
+        PIAModellerCache.setMaximumSize(PIANodesPlugin.getModellerCacheSize() * 1024L * 1024L);
+        String inputKey = null;
+        if ((piaXmlBinary == null) || (reusableSettingsFile != null) || PIAModellerCache.isEnabled()) {
+            inputKey = createInputKey(piaXmlFileName, piaXmlBinary);
+        }
+
+        PIAAnalysisModel analysisModel = new PIAAnalysisModel(null);
+        analysisModel.setUseFusedFilters(!PIANodesPlugin.isFusedFilteringDisabled());
+        analysisModel.setExecutor(executor, nrThreads);
+        addSettingsToModel(analysisModel);
+
+        // reuse the results of the last execution, if only downstream settings changed
+        AnalysisStage firstStage = AnalysisStage.PSM;
+        if (inputKey != null) {
+            firstStage = analysisModel.updateStageFingerprints(inputKey, loadReusableSettings());
+        }
+        PIAModeller piaModeller = null;
+        if (firstStage != AnalysisStage.PSM) {
+            piaModeller = loadReusableModeller();
+            if (piaModeller != null) {
+                LOGGER.info("Reusing the results of the last execution, recomputing "
+                        + ((firstStage != null) ? "from " + firstStage + " level" : "nothing"));
+            } else {
+                firstStage = AnalysisStage.PSM;
+            }
+        }
+        deleteReusableAnalysis();
+
+        ExecutionMonitor parsingExec = exec.createSubProgress(PROGRESS_PARSING);
+        if (piaModeller == null) {
+            // create modeller and load the file (or get it from the cache)
+            statistics.startPhase("PIA XML parse");
+            MessageDigest contentDigest = (inputKey == null) ? PIAModellerCache.createDigest() : null;
+            piaModeller = loadPIAModeller(piaXmlFileName, piaXmlBinary, inputKey, contentDigest, parsingExec,
+                    statistics);
+            statistics.endPhase((long) piaModeller.getGroups().size());
+
+            if (inputKey == null) {
+                inputKey = PIAModellerCache.createKey(contentDigest,
+                        mCreatePSMSets.getBooleanValue(), mConsiderModifications.getBooleanValue());
+                analysisModel.updateStageFingerprints(inputKey, null);
+            }
+        }
+        parsingExec.setProgress(1.0);
+        analysisModel.setPIAModeller(piaModeller);
+
+        ExecutionMonitor psmExec = exec.createSubProgress(PROGRESS_PSM_OPERATIONS);
+        if (isStageRecomputed(firstStage, AnalysisStage.PSM)) {
+            // execute the PSM analysis
+            statistics.startPhase("PSM FDR");
+            List<String> errorMsgs = MonitoredTask.run(statistics.measure(analysisModel::executePSMOperations),
+                    psmExec, analysisModel::getFDRProgress, "Calculating the PSM FDRs");
+            statistics.endPhase(null);
+
+            if (!errorMsgs.isEmpty()) {
+                StringBuilder errors = new StringBuilder();
+                for (String msg : errorMsgs) {
+                    if (errors.length() > 0) {
+                        errors.append("; ");
+                    }
+                    errors.append(msg);
+                }
+                throw new ExecutionException(errors.toString());
+            }
+        }
+        psmExec.setProgress(1.0);
+
+        // execute the peptide analysis
+        ExecutionMonitor peptideExec = exec.createSubProgress(PROGRESS_PEPTIDE_OPERATIONS);
+        if (mPeptideInferPeptides.getBooleanValue() && isStageRecomputed(firstStage, AnalysisStage.PEPTIDE)) {
+            statistics.startPhase("Peptide inference");
+            MonitoredTask.run(statistics.measure(analysisModel::executePeptideOperations),
+                    peptideExec, null, "Inferring the peptides");
+            statistics.endPhase(null);
+        }
+        peptideExec.setProgress(1.0);
+
+        // execute the protein analysis
+        ExecutionMonitor proteinExec = exec.createSubProgress(PROGRESS_PROTEIN_OPERATIONS);
+        if (mProteinInferProteins.getBooleanValue() && isStageRecomputed(firstStage, AnalysisStage.PROTEIN)) {
+            statistics.startPhase("Protein inference");
+            MonitoredTask.run(statistics.measure(analysisModel::executeProteinOperations),
+                    proteinExec, analysisModel::getProteinInferenceProgress, "Inferring the proteins");
+            statistics.endPhase(null);
+        }
+        proteinExec.setProgress(1.0);
+
+        // start the exports, they run while the tables are created
+        FileStoreURIPortObject fsupo = new FileStoreURIPortObject(exec.createFileStore("PIA_export_file"));
+        List<Future<?>> exports = startExports(fsupo, analysisModel, executor);
+        try {
+
+            statistics.startPhase("PSM table");
+            createPSMRows(analysisModel, tableOutputs[0], exec.createSubProgress(PROGRESS_PSM_TABLE),
+                    executor, nrThreads);
+            statistics.endPhase((long) getFilteredPSMList(analysisModel).size());
+
+            ExecutionMonitor peptideTableExec = exec.createSubProgress(PROGRESS_PEPTIDE_TABLE);
+            if (mPeptideInferPeptides.getBooleanValue()) {
+                statistics.startPhase("Peptide table");
+                createPeptideRows(analysisModel, tableOutputs[1], peptideTableExec);
+                statistics.endPhase((long) getFilteredPeptides(analysisModel).size());
+            } else {
+                tableOutputs[1].close();
+            }
+            peptideTableExec.setProgress(1.0);
+
+            ExecutionMonitor proteinTableExec = exec.createSubProgress(PROGRESS_PROTEIN_TABLE);
+            if (mProteinInferProteins.getBooleanValue()) {
+                statistics.startPhase("Protein table");
+                createProteinRows(analysisModel, tableOutputs[2], proteinTableExec);
+                statistics.endPhase((long) getFilteredProteinList(analysisModel).size());
+            } else {
+                tableOutputs[2].close();
+            }
+            proteinTableExec.setProgress(1.0);
+
+            // wait for the remaining exports
+            statistics.startPhase("Export (remaining)");
+            ExecutionMonitor exportExec = exec.createSubProgress(PROGRESS_EXPORT);
+            exportExec.setMessage("Exporting");
+            MonitoredTask.awaitAll(exports, exportExec);
+            exportExec.setProgress(1.0);
+            statistics.endPhase((long) exports.size());
+        } finally {
+            // stop the remaining exports on errors
+            for (Future<?> export : exports) {
+                export.cancel(true);
+            }
+        }
+
+        // create the PSM to spectra mapping
+        statistics.startPhase("Spectrum mapping");
+        ExecutionMonitor mappingExec = exec.createSubProgress(PROGRESS_SPECTRUM_MAPPING);
+        mappingExec.setMessage("Mapping the PSMs to spectra");
+        mappingExec.checkCanceled();
+        psmToSpectrum = createPSMToSpectrumMapping((IURIPortObject) inObjects[2], analysisModel);
+        mappingExec.setProgress(1.0);
+        statistics.endPhase(null);
+
+        // save the model and settings to disk
+        statistics.startPhase("Model serialization");
+        ExecutionMonitor serializationExec = exec.createSubProgress(PROGRESS_SERIALIZATION);
+        serializationExec.setMessage("Saving the analysis model");
+        serializationExec.checkCanceled();
+        piaAnalysisModelFile = PIAAnalysisModel.createStagingFile("piaAnalysisModel-");
+        try {
+        	analysisModel.saveModelTo(piaAnalysisModelFile);
+        } catch (Exception ex) {
+        	LOGGER.error(SERIALIZATION_ERROR_WARNING);
+        	setWarningMessage(SERIALIZATION_ERROR_WARNING);
+        	piaAnalysisModelFile.delete();
+        }
+
+        piaAnalysisSettingsFile = PIAAnalysisModel.createStagingFile("piaAnalysisModelSettings-");
+        analysisModel.saveSettingsTo(piaAnalysisSettingsFile);
+        serializationExec.setProgress(1.0);
+        statistics.endPhase(null);
+
+        statistics.addModellerCounts(piaModeller,
+                mPeptideInferPeptides.getBooleanValue() ? Long.valueOf(mPeptideAnalysisFileId.getIntValue()) : null,
+                mProteinInferProteins.getBooleanValue());
+        statistics.logStatistics();
+        statistics.writeRows(tableOutputs[3]);
+
+        PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_KNIME_CATEGORY,
+                PIAMatomoTracker.PIA_TRACKING_MODELLER_NAME,
+                PIAMatomoTracker.PIA_TRACKING_MODELLER_FINISHED, null,
+                PIANodesPlugin.getVisitorCid());
+
+        return fsupo;
+    }
+
 
+    /**
+     * Adds the current settings of the node to the analysis model.
+     *
+     * @param analysisModel
+     */
+    private void addSettingsToModel(PIAAnalysisModel analysisModel) {
         // set whether PSM sets should be created
         analysisModel.addSetting(PIASettings.CREATE_PSMSETS.getKey(),
                 mCreatePSMSets.getBooleanValue());
@@ -358,6 +734,9 @@ public class PIAAnalysisNodeModel extends NodeModel {
         // set filters for the protein inference
         analysisModel.addSetting(PIASettings.PROTEIN_INFERENCE_FILTERS.getKey(),
                 mProteinInferenceFilters.getStringArrayValue());
+        // set the number of threads for the protein inference
+        analysisModel.addSetting(PIASettings.PROTEIN_INFERENCE_THREADS.getKey(),
+                mProteinInferenceThreads.getIntValue());
         // set the scoring used during the protein inference
         analysisModel.addSetting(PIASettings.PROTEIN_SCORING_METHOD.getKey(),
                 mProteinScoringMethod.getStringValue());
@@ -378,83 +757,72 @@ public class PIAAnalysisNodeModel extends NodeModel {
         // export level
         analysisModel.addSetting(PIASettings.EXPORT_LEVEL.getKey(),
                 mExportLevel.getStringValue());
+        // additional exports
+        analysisModel.addSetting(PIASettings.EXPORT_ADDITIONAL.getKey(),
+                mExportAdditional.getStringArrayValue());
+        // compression of CSV/TSV exports
+        analysisModel.addSetting(PIASettings.EXPORT_COMPRESS.getKey(),
+                mExportCompress.getBooleanValue());
+    }
 
 
-        // execute the PSM analysis
-        List<String> errorMsgs = analysisModel.executePSMOperations();
-
-        if (!errorMsgs.isEmpty()) {
-            StringBuilder errors = new StringBuilder();
-            for (String msg : errorMsgs) {
-                if (errors.length() > 0) {
-                    errors.append("; ");
-                }
-                errors.append(msg);
-            }
-            throw new ExecutionException(errors.toString());
-        }
+    /**
+     * Whether the given stage must be executed, if the analysis must be
+     * recomputed from firstStage on.
+     *
+     * @param firstStage the first changed stage, null if nothing changed
+     * @param stage
+     * @return
+     */
+    private static boolean isStageRecomputed(AnalysisStage firstStage, AnalysisStage stage) {
+        return (firstStage != null) && (firstStage.ordinal() <= stage.ordinal());
+    }
 
-        BufferedDataContainer psmContainer = createPSMContainer(analysisModel, exec);
 
-        // execute the peptide analysis
-        BufferedDataContainer pepContainer;
-        if (mPeptideInferPeptides.getBooleanValue()) {
-            analysisModel.executePeptideOperations();
-            pepContainer = createPeptideContainer(analysisModel, exec);
-        } else {
-            pepContainer = exec.createDataContainer(getPeptideTableSpec());
-            pepContainer.close();
+    /**
+     * Loads the settings of the last execution, which were kept on reset.
+     *
+     * @return the settings or null, if there are none
+     */
+    private Map<String, Object> loadReusableSettings() {
+        if ((reusableModelFile == null) || (reusableSettingsFile == null)) {
+            return null;
         }
 
-        // execute the protein analysis
-        BufferedDataContainer proteinContainer;
-        if (mProteinInferProteins.getBooleanValue()) {
-            analysisModel.executeProteinOperations();
-            proteinContainer = createProteinContainer(analysisModel, exec);
-        } else {
-            proteinContainer = exec.createDataContainer(getProteinTableSpec());
-            proteinContainer.close();
+        try {
+            return PIAAnalysisModel.loadSettingsFromFile(reusableSettingsFile);
+        } catch (IOException e) {
+            LOGGER.warn("Could not load the settings of the last execution", e);
+            return null;
         }
+    }
 
-        // export the selected level to selected format
-        FileStoreURIPortObject fsupo = exportToStoreObject(exec.createFileStore("PIA_export_file"), analysisModel);
 
-        // create the PSM to spectra mapping
-        psmToSpectrum = createPSMToSpectrumMapping((IURIPortObject) inObjects[2], analysisModel);
+    /**
+     * Loads the modeller with the results of the last execution, which was
+     * kept on reset.
+     *
+     * @return the modeller or null, if there is none
+     */
+    private PIAModeller loadReusableModeller() {
+        if (reusableModelFile == null) {
+            return null;
+        }
 
-        // save the model and settings to disk
-        piaAnalysisModelFile = File.createTempFile("piaAnalysisModel-", "");
-        piaAnalysisModelFile.deleteOnExit();
         try {
-        	analysisModel.saveModelTo(piaAnalysisModelFile);
-        } catch (Exception ex) {
-        	LOGGER.error(SERIALIZATION_ERROR_WARNING);
-        	setWarningMessage(SERIALIZATION_ERROR_WARNING);
-        	piaAnalysisModelFile.delete();
+            return PIAModeller.deSerializeFromFile(reusableModelFile);
+        } catch (Exception e) {
+            LOGGER.warn("Could not load the model of the last execution", e);
+            return null;
         }
-
-        piaAnalysisSettingsFile = File.createTempFile("piaAnalysisModelSettings-", "");
-        piaAnalysisSettingsFile.deleteOnExit();
-        analysisModel.saveSettingsTo(piaAnalysisSettingsFile);
-
-        PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_KNIME_CATEGORY,
-                PIAMatomoTracker.PIA_TRACKING_MODELLER_NAME,
-                PIAMatomoTracker.PIA_TRACKING_MODELLER_FINISHED, null,
-                PIANodesPlugin.getVisitorCid());
-
-        return new PortObject[]{psmContainer.getTable(),
-                pepContainer.getTable(),
-                proteinContainer.getTable(),
-                fsupo};
     }
 
 
     /**
-     * {@inheritDoc}
+     * Deletes the temporary files of the current execution, i.e. the
+     * unzipped PIA XML file and the saved model and settings.
      */
-    @Override
-    protected void reset() {
-        // executed on reset.
+    private void deleteTemporaryFiles() {
         if (piaAnalysisModelFile != null) {
             piaAnalysisModelFile.delete();
             piaAnalysisModelFile = null;
@@ -468,15 +836,69 @@ public class PIAAnalysisNodeModel extends NodeModel {
             piaXMLTmpFile.delete();
             piaXMLTmpFile = null;
         }
+    }
+
+
+    /**
+     * Deletes the kept files of the last execution.
+     */
+    private void deleteReusableAnalysis() {
+        if (reusableModelFile != null) {
+            reusableModelFile.delete();
+            reusableModelFile = null;
+        }
+        if (reusableSettingsFile != null) {
+            reusableSettingsFile.delete();
+            reusableSettingsFile = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void reset() {
+        // executed on reset.
+        // keep the model and settings, the next execution may reuse the results
+        deleteReusableAnalysis();
+        if ((piaAnalysisModelFile != null) && piaAnalysisModelFile.exists()
+                && (piaAnalysisSettingsFile != null) && piaAnalysisSettingsFile.exists()) {
+            try {
+                reusableModelFile = keepAsTemporaryFile(piaAnalysisModelFile, "piaReusableModel-");
+                reusableSettingsFile = keepAsTemporaryFile(piaAnalysisSettingsFile, "piaReusableSettings-");
+            } catch (IOException e) {
+                LOGGER.warn("Could not keep the last analysis for reuse", e);
+                deleteReusableAnalysis();
+            }
+        }
+
+        deleteTemporaryFiles();
 
         filteredProteins = null;
         filteredPeptides = null;
         filteredPSMs = null;
 
+        synchronized (sharedModelLock) {
+            sharedAnalysisModel = null;
+            sharedAnalysisModelReferences = 0;
+        }
+
         if (psmToSpectrum != null) {
             psmToSpectrum.close();
             psmToSpectrum = null;
         }
+        psmToSpectrumFile = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDispose() {
+        deleteReusableAnalysis();
+        super.onDispose();
     }
 
 
@@ -486,12 +908,13 @@ public class PIAAnalysisNodeModel extends NodeModel {
     @Override
     protected PortObjectSpec[] configure(final PortObjectSpec[] inSpecs)
             throws InvalidSettingsException {
-        PortObjectSpec[] outSpec = new PortObjectSpec[4];
+        PortObjectSpec[] outSpec = new PortObjectSpec[5];
 
         outSpec[0] = getPSMTableSpec();
         outSpec[1] = getPeptideTableSpec();
         outSpec[2] = getProteinTableSpec();
         outSpec[3] = new URIPortObjectSpec("csv", "mzIdentML", "mzTab", "idXML");
+        outSpec[4] = ExecutionStatistics.getTableSpec();
 
         return outSpec;
     }
@@ -505,10 +928,13 @@ public class PIAAnalysisNodeModel extends NodeModel {
         mInputColumn.saveSettingsTo(settings);
         mCreatePSMSets.saveSettingsTo(settings);
         mConsiderModifications.saveSettingsTo(settings);
+        mExecutionStatistics.saveSettingsTo(settings);
         mExportFilter.saveSettingsTo(settings);
         mExportLevel.saveSettingsTo(settings);
         mExportFormat.saveSettingsTo(settings);
         mExportFileBaseName.saveSettingsTo(settings);
+        mExportAdditional.saveSettingsTo(settings);
+        mExportCompress.saveSettingsTo(settings);
 
         mPSMAnalysisFileId.saveSettingsTo(settings);
         mCalculateAllFDR.saveSettingsTo(settings);
@@ -526,6 +952,7 @@ public class PIAAnalysisNodeModel extends NodeModel {
         mProteinInferProteins.saveSettingsTo(settings);
         mProteinInferenceMethod.saveSettingsTo(settings);
         mProteinInferenceFilters.saveSettingsTo(settings);
+        mProteinInferenceThreads.saveSettingsTo(settings);
         mProteinScoringMethod.saveSettingsTo(settings);
         mProteinScoringScore.saveSettingsTo(settings);
         mProteinScoringUsedPSMs.saveSettingsTo(settings);
@@ -542,10 +969,16 @@ public class PIAAnalysisNodeModel extends NodeModel {
         mInputColumn.loadSettingsFrom(settings);
         mCreatePSMSets.loadSettingsFrom(settings);
         mConsiderModifications.loadSettingsFrom(settings);
+        // setting added later, keep the default for older workflows
+        if (settings.containsKey(PIASettings.EXECUTION_STATISTICS.getKey())) {
+            mExecutionStatistics.loadSettingsFrom(settings);
+        }
         mExportFilter.setBooleanValue(settings.getBoolean(PIASettings.EXPORT_FILTER.getKey(), PIASettings.EXPORT_FILTER.getDefaultBoolean()));
         mExportLevel.loadSettingsFrom(settings);
         mExportFormat.loadSettingsFrom(settings);
         mExportFileBaseName.setStringValue(settings.getString(PIASettings.EXPORT_FILEBASENAME.getKey(), PIASettings.EXPORT_FILEBASENAME.getDefaultString()));
+        mExportAdditional.setStringArrayValue(settings.getStringArray(PIASettings.EXPORT_ADDITIONAL.getKey(), PIASettings.EXPORT_ADDITIONAL.getDefaultStringArray()));
+        mExportCompress.setBooleanValue(settings.getBoolean(PIASettings.EXPORT_COMPRESS.getKey(), PIASettings.EXPORT_COMPRESS.getDefaultBoolean()));
 
         mPSMAnalysisFileId.loadSettingsFrom(settings);
         mCalculateAllFDR.loadSettingsFrom(settings);
@@ -563,6 +996,10 @@ public class PIAAnalysisNodeModel extends NodeModel {
         mProteinInferProteins.loadSettingsFrom(settings);
         mProteinInferenceMethod.loadSettingsFrom(settings);
         mProteinInferenceFilters.loadSettingsFrom(settings);
+        // setting added later, keep the default for older workflows
+        if (settings.containsKey(PIASettings.PROTEIN_INFERENCE_THREADS.getKey())) {
+            mProteinInferenceThreads.loadSettingsFrom(settings);
+        }
         mProteinScoringMethod.loadSettingsFrom(settings);
         mProteinScoringScore.loadSettingsFrom(settings);
         mProteinScoringUsedPSMs.loadSettingsFrom(settings);
@@ -579,10 +1016,21 @@ public class PIAAnalysisNodeModel extends NodeModel {
         mInputColumn.validateSettings(settings);
         mCreatePSMSets.validateSettings(settings);
         mConsiderModifications.validateSettings(settings);
+        if (settings.containsKey(PIASettings.EXECUTION_STATISTICS.getKey())) {
+            mExecutionStatistics.validateSettings(settings);
+        }
         settings.getBoolean(PIASettings.EXPORT_FILTER.getKey(), PIASettings.EXPORT_FILTER.getDefaultBoolean());
         mExportLevel.validateSettings(settings);
         mExportFormat.validateSettings(settings);
         settings.getString(PIASettings.EXPORT_FILEBASENAME.getKey(), PIASettings.EXPORT_FILEBASENAME.getDefaultString());
+        for (String target : settings.getStringArray(PIASettings.EXPORT_ADDITIONAL.getKey(), PIASettings.EXPORT_ADDITIONAL.getDefaultStringArray())) {
+            try {
+                ExportTarget.valueOf(target);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidSettingsException("Invalid additional export: " + target, e);
+            }
+        }
+        settings.getBoolean(PIASettings.EXPORT_COMPRESS.getKey(), PIASettings.EXPORT_COMPRESS.getDefaultBoolean());
 
         mPSMAnalysisFileId.validateSettings(settings);
         mCalculateAllFDR.validateSettings(settings);
@@ -600,6 +1048,9 @@ public class PIAAnalysisNodeModel extends NodeModel {
         mProteinInferProteins.validateSettings(settings);
         mProteinInferenceMethod.validateSettings(settings);
         mProteinInferenceFilters.validateSettings(settings);
+        if (settings.containsKey(PIASettings.PROTEIN_INFERENCE_THREADS.getKey())) {
+            mProteinInferenceThreads.validateSettings(settings);
+        }
         mProteinScoringMethod.validateSettings(settings);
         mProteinScoringScore.validateSettings(settings);
         mProteinScoringUsedPSMs.validateSettings(settings);
@@ -617,7 +1068,11 @@ public class PIAAnalysisNodeModel extends NodeModel {
         piaAnalysisModelFile = PIAAnalysisModel.getInternalModelFileFromDir(internDir);
         piaAnalysisSettingsFile = PIAAnalysisModel.getInternalSettingsFileFromDir(internDir);
 
-        // TODO: also load the PSMToSpectrum
+        File mappingFile = new File(internDir, PSM_TO_SPECTRUM_FILENAME);
+        if (mappingFile.exists()) {
+            // the mapping is restored, when the views need it
+            psmToSpectrumFile = mappingFile;
+        }
     }
 
 
@@ -629,11 +1084,17 @@ public class PIAAnalysisNodeModel extends NodeModel {
             final ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
         if (piaAnalysisModelFile != null) {
+            int oldHash = getAnalysisModelFileHash();
             piaAnalysisModelFile = PIAAnalysisModel.moveModelToInternal(internDir, piaAnalysisModelFile);
             piaAnalysisSettingsFile = PIAAnalysisModel.moveSettingsToInternal(internDir, piaAnalysisSettingsFile);
+            rekeySharedAnalysisModel(oldHash);
         }
 
-        // TODO: also save the PSMToSpectrum
+        PiaPsmToSpectrum<ReportPSM> mapping = getPSMToSpectrum();
+        if (mapping != null) {
+            psmToSpectrumFile = new File(internDir, PSM_TO_SPECTRUM_FILENAME);
+            mapping.saveToFile(psmToSpectrumFile);
+        }
     }
 
 
@@ -672,118 +1133,190 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Creates the PSM result data container.
+     * Creates the PSM result rows and pushes them into the output, which is
+     * closed afterwards. The rows are created in parallel in chunks, which are
+     * pushed in the order of the PSM list.
      *
-     * @param psmList
-     * @param exec
-     * @return
+     * @param analysisModel
+     * @param output
+     * @param exec monitor for progress and cancellation
+     * @param executor the executor creating the chunks
+     * @param nrThreads the number of threads of the executor
+     * @throws InterruptedException
+     * @throws CanceledExecutionException
      */
-    private BufferedDataContainer createPSMContainer(PIAAnalysisModel analysisModel, final ExecutionContext exec) {
-        BufferedDataContainer container = exec.createDataContainer(getPSMTableSpec());
-        Integer psmId = 0;
+    private void createPSMRows(PIAAnalysisModel analysisModel, final RowOutput output, ExecutionMonitor exec,
+            ExecutorService executor, int nrThreads) throws InterruptedException, CanceledExecutionException {
+        exec.setMessage("Creating the PSM table");
 
         Map<String, String> scoreShortsToNames = analysisModel.getPSMModeller().getScoreShortsToScoreNames();
-        List<String> psmScoreShorts = analysisModel.getPSMScoreShorts(mPSMAnalysisFileId.getIntValue());
+        final List<String> psmScoreShorts = analysisModel.getPSMScoreShorts(mPSMAnalysisFileId.getIntValue());
+
+        // the score names and shorts are the same for all rows
+        List<StringCell> scoreNamesList = new ArrayList<>(psmScoreShorts.size());
+        List<StringCell> scoreShortsList = new ArrayList<>(psmScoreShorts.size());
+        for (String scoreShort : psmScoreShorts) {
+            scoreNamesList.add(new StringCell(scoreShortsToNames.get(scoreShort)));
+            scoreShortsList.add(new StringCell(scoreShort));
+        }
+        final DataCell scoreNamesCell = CollectionCellFactory.createListCell(scoreNamesList);
+        final DataCell scoreShortsCell = CollectionCellFactory.createListCell(scoreShortsList);
 
-        List<PSMReportItem> psmList = getFilteredPSMList(analysisModel);
+        // the accession cells are shared between the rows
+        final Map<String, StringCell> accessionCells = new ConcurrentHashMap<>();
 
-        for (PSMReportItem psm : psmList) {
-            psmId++;
-            RowKey key = new RowKey(psmId.toString());
+        final List<PSMReportItem> psmList = getFilteredPSMList(analysisModel);
+        final boolean addNrIdentifications = (mPSMAnalysisFileId.getIntValue() == 0);
 
-            List<DataCell> psmCells = new ArrayList<>();
+        int windowSize = ROWS_CHUNK_SIZE * nrThreads;
 
-            // sequence
-            psmCells.add(new StringCell(psm.getSequence()));
+        for (int windowStart = 0; windowStart < psmList.size(); windowStart += windowSize) {
+            int windowEnd = Math.min(psmList.size(), windowStart + windowSize);
 
-            // accessions
-            List<StringCell> accList = new ArrayList<>(psm.getAccessions().size());
-            for (Accession acc : psm.getAccessions()) {
-                accList.add(new StringCell(acc.getAccession()));
+            List<Future<DataRow[]>> chunks = new ArrayList<>();
+            for (int chunkStart = windowStart; chunkStart < windowEnd; chunkStart += ROWS_CHUNK_SIZE) {
+                final int from = chunkStart;
+                final int to = Math.min(windowEnd, chunkStart + ROWS_CHUNK_SIZE);
+
+                chunks.add(executor.submit(() -> {
+                    DataRow[] rows = new DataRow[to - from];
+                    for (int idx = from; idx < to; idx++) {
+                        rows[idx - from] = createPSMRow(psmList.get(idx), idx + 1, psmScoreShorts,
+                                scoreNamesCell, scoreShortsCell, accessionCells, addNrIdentifications);
+                    }
+                    return rows;
+                }));
             }
-            psmCells.add(CollectionCellFactory.createListCell(accList));
 
-            // modifications
-            String modString = psm.getModificationsString();
-            if (modString.trim().length() == 0) {
-                psmCells.add(DataType.getMissingCell());
-            } else {
-                psmCells.add(new StringCell(modString));
+            for (int idx = 0; idx < chunks.size(); idx++) {
+                try {
+                    exec.checkCanceled();
+                } catch (CanceledExecutionException e) {
+                    for (Future<DataRow[]> chunk : chunks.subList(idx, chunks.size())) {
+                        chunk.cancel(false);
+                    }
+                    throw e;
+                }
+
+                DataRow[] rows;
+                try {
+                    rows = chunks.get(idx).get();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    throw new IllegalStateException("Error while creating the PSM rows", e.getCause());
+                }
+                for (DataRow row : rows) {
+                    output.push(row);
+                }
             }
+            exec.setProgress((double) windowEnd / psmList.size());
+        }
 
-            // decoy state
-            psmCells.add(BooleanCell.BooleanCellFactory.create(psm.getIsDecoy()));
+        output.close();
+    }
 
-            // charge
-            psmCells.add(new IntCell(psm.getCharge()));
 
-            // m/z
-            psmCells.add(new DoubleCell(psm.getMassToCharge()));
+    /**
+     * Creates the row for a single PSM (or PSM set)
+     *
+     * @param psm
+     * @param psmId the row number (used as row key)
+     * @param psmScoreShorts the exported scores
+     * @param scoreNamesCell the shared cell of the score names
+     * @param scoreShortsCell the shared cell of the score shorts
+     * @param accessionCells cache for the accession cells
+     * @param addNrIdentifications whether the number of identifications is added
+     * @return
+     */
+    private static DataRow createPSMRow(PSMReportItem psm, Integer psmId, List<String> psmScoreShorts,
+            DataCell scoreNamesCell, DataCell scoreShortsCell, Map<String, StringCell> accessionCells,
+            boolean addNrIdentifications) {
+        RowKey key = new RowKey(psmId.toString());
 
-            // deltaMass
-            psmCells.add(new DoubleCell(psm.getDeltaMass()));
+        List<DataCell> psmCells = new ArrayList<>();
 
-            // deltaPPM
-            psmCells.add(new DoubleCell(psm.getDeltaPPM()));
+        // sequence
+        psmCells.add(new StringCell(psm.getSequence()));
 
-            // retention time
-            Double retentionTime = psm.getRetentionTime();
-            if (retentionTime == null) {
-                psmCells.add(DataType.getMissingCell());
-            } else {
-                psmCells.add(new DoubleCell(retentionTime));
-            }
+        // accessions
+        List<StringCell> accList = new ArrayList<>(psm.getAccessions().size());
+        for (Accession acc : psm.getAccessions()) {
+            accList.add(accessionCells.computeIfAbsent(acc.getAccession(), StringCell::new));
+        }
+        psmCells.add(CollectionCellFactory.createListCell(accList));
 
-            // charge
-            psmCells.add(new IntCell(psm.getMissedCleavages()));
+        // modifications
+        String modString = psm.getModificationsString();
+        if (modString.trim().length() == 0) {
+            psmCells.add(DataType.getMissingCell());
+        } else {
+            psmCells.add(new StringCell(modString));
+        }
 
-            // source ID
-            String sourceID = psm.getSourceID();
-            if (sourceID == null) {
-                psmCells.add(DataType.getMissingCell());
-            } else {
-                psmCells.add(new StringCell(psm.getSourceID()));
-            }
+        // decoy state
+        psmCells.add(BooleanCell.BooleanCellFactory.create(psm.getIsDecoy()));
 
-            // spectrum title
-            String title = psm.getSpectrumTitle();
-            if (title == null) {
-                psmCells.add(DataType.getMissingCell());
-            } else {
-                psmCells.add(new StringCell(psm.getSpectrumTitle()));
-            }
+        // charge
+        psmCells.add(new IntCell(psm.getCharge()));
 
-            // number of identifications
-            if (mPSMAnalysisFileId.getIntValue() == 0) {
-                psmCells.add(new IntCell(((ReportPSMSet)psm).getPSMs().size()));
-            }
+        // m/z
+        psmCells.add(new DoubleCell(psm.getMassToCharge()));
 
-            // scores
-            List<DoubleCell> scoresList = new ArrayList<>();
-            List<StringCell> scoreNamesList = new ArrayList<>();
-            List<StringCell> scoreShortsList = new ArrayList<>();
-            for (String scoreShort : psmScoreShorts) {
-                Double scoreValue = psm.getScore(scoreShort);
+        // deltaMass
+        psmCells.add(new DoubleCell(psm.getDeltaMass()));
 
-                if (((scoreValue == null) || scoreValue.equals(Double.NaN))
-                        && (psm instanceof ReportPSMSet)) {
-                    // PSM level FDRScore is only valid as a bestScore
-                    scoreValue = ((ReportPSMSet) psm).getBestScore(scoreShort);
-                }
+        // deltaPPM
+        psmCells.add(new DoubleCell(psm.getDeltaPPM()));
 
-                scoresList.add(new DoubleCell(scoreValue));
-                scoreNamesList.add(new StringCell(scoreShortsToNames.get(scoreShort)));
-                scoreShortsList.add(new StringCell(scoreShort));
+        // retention time
+        Double retentionTime = psm.getRetentionTime();
+        if (retentionTime == null) {
+            psmCells.add(DataType.getMissingCell());
+        } else {
+            psmCells.add(new DoubleCell(retentionTime));
+        }
+
+        // charge
+        psmCells.add(new IntCell(psm.getMissedCleavages()));
+
+        // source ID
+        String sourceID = psm.getSourceID();
+        if (sourceID == null) {
+            psmCells.add(DataType.getMissingCell());
+        } else {
+            psmCells.add(new StringCell(psm.getSourceID()));
+        }
+
+        // spectrum title
+        String title = psm.getSpectrumTitle();
+        if (title == null) {
+            psmCells.add(DataType.getMissingCell());
+        } else {
+            psmCells.add(new StringCell(psm.getSpectrumTitle()));
+        }
+
+        // number of identifications
+        if (addNrIdentifications) {
+            psmCells.add(new IntCell(((ReportPSMSet)psm).getPSMs().size()));
+        }
+
+        // scores
+        List<DoubleCell> scoresList = new ArrayList<>(psmScoreShorts.size());
+        for (String scoreShort : psmScoreShorts) {
+            Double scoreValue = psm.getScore(scoreShort);
+
+            if (((scoreValue == null) || scoreValue.equals(Double.NaN))
+                    && (psm instanceof ReportPSMSet)) {
+                // PSM level FDRScore is only valid as a bestScore
+                scoreValue = ((ReportPSMSet) psm).getBestScore(scoreShort);
             }
-            psmCells.add(CollectionCellFactory.createListCell(scoresList));
-            psmCells.add(CollectionCellFactory.createListCell(scoreNamesList));
-            psmCells.add(CollectionCellFactory.createListCell(scoreShortsList));
 
-            container.addRowToTable(new DefaultRow(key, psmCells));
+            scoresList.add(new DoubleCell(scoreValue));
         }
+        psmCells.add(CollectionCellFactory.createListCell(scoresList));
+        psmCells.add(scoreNamesCell);
+        psmCells.add(scoreShortsCell);
 
-        container.close();
-        return container;
+        return new DefaultRow(key, psmCells);
     }
 
 
@@ -826,14 +1359,18 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Creates the peptide result data container.
+     * Creates the peptide result rows and pushes them into the output, which
+     * is closed afterwards.
      *
-     * @param psmList
-     * @param exec
-     * @return
+     * @param analysisModel
+     * @param output
+     * @param exec monitor for progress and cancellation
+     * @throws InterruptedException
+     * @throws CanceledExecutionException
      */
-    private BufferedDataContainer createPeptideContainer(PIAAnalysisModel analysisModel, final ExecutionContext exec) {
-        BufferedDataContainer container = exec.createDataContainer(getPeptideTableSpec());
+    private void createPeptideRows(PIAAnalysisModel analysisModel, final RowOutput output, ExecutionMonitor exec)
+            throws InterruptedException, CanceledExecutionException {
+        exec.setMessage("Creating the peptide table");
         Integer pepId = 0;
 
         Map<String, String> scoreShortsToNames = analysisModel.getPSMModeller().getScoreShortsToScoreNames();
@@ -842,6 +1379,8 @@ public class PIAAnalysisNodeModel extends NodeModel {
         List<ReportPeptide> peptideList = getFilteredPeptides(analysisModel);
 
         for (ReportPeptide pep : peptideList) {
+            exec.checkCanceled();
+            exec.setProgress((double) pepId / peptideList.size());
             pepId++;
             RowKey key = new RowKey(pepId.toString());
 
@@ -899,11 +1438,10 @@ public class PIAAnalysisNodeModel extends NodeModel {
             	}
             }
 
-            container.addRowToTable(new DefaultRow(key, pepCells));
+            output.push(new DefaultRow(key, pepCells));
         }
 
-        container.close();
-        return container;
+        output.close();
     }
 
 
@@ -939,19 +1477,25 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Creates the protein result data container.
+     * Creates the protein result rows and pushes them into the output, which
+     * is closed afterwards.
      *
-     * @param psmList
-     * @param exec
-     * @return
+     * @param analysisModel
+     * @param output
+     * @param exec monitor for progress and cancellation
+     * @throws InterruptedException
+     * @throws CanceledExecutionException
      */
-    private BufferedDataContainer createProteinContainer(PIAAnalysisModel analysisModel, final ExecutionContext exec) {
-        BufferedDataContainer container = exec.createDataContainer(getProteinTableSpec());
+    private void createProteinRows(PIAAnalysisModel analysisModel, final RowOutput output, ExecutionMonitor exec)
+            throws InterruptedException, CanceledExecutionException {
+        exec.setMessage("Creating the protein table");
         Integer protId = 0;
 
         List<ReportProtein> proteinList = getFilteredProteinList(analysisModel);
 
         for (ReportProtein protein : proteinList) {
+            exec.checkCanceled();
+            exec.setProgress((double) protId / proteinList.size());
             protId++;
             RowKey key = new RowKey(protId.toString());
 
@@ -1011,11 +1555,10 @@ public class PIAAnalysisNodeModel extends NodeModel {
             }
 
 
-            container.addRowToTable(new DefaultRow(key, proteinCells));
+            output.push(new DefaultRow(key, proteinCells));
         }
 
-        container.close();
-        return container;
+        output.close();
     }
 
 
@@ -1029,6 +1572,7 @@ public class PIAAnalysisNodeModel extends NodeModel {
         try {
             if ((piaAnalysisModelFile != null) && (piaAnalysisSettingsFile != null)) {
                 analysisModel = PIAAnalysisModel.loadModelFromInternal(piaAnalysisModelFile, piaAnalysisSettingsFile);
+                analysisModel.setUseFusedFilters(!PIANodesPlugin.isFusedFilteringDisabled());
             }
         } catch (IOException e) {
             LOGGER.error("Could not get analysis model", e);
@@ -1038,6 +1582,74 @@ public class PIAAnalysisNodeModel extends NodeModel {
     }
 
 
+    /**
+     * Returns the analysis model shared by the views. The model is loaded
+     * from file only once, while any view holds it, and reloaded if the
+     * model file changed. Each call must be followed by
+     * {@link #releaseAnalysisModel(PIAAnalysisModel)}, when the view does not
+     * need the model anymore.
+     *
+     * @return the shared model or null, if it could not be loaded
+     */
+    public PIAAnalysisModel acquireAnalysisModel() {
+        synchronized (sharedModelLock) {
+            // views requesting the model meanwhile wait for the loading instead of loading another copy
+            int hash = getAnalysisModelFileHash();
+            if ((sharedAnalysisModel == null) || (sharedAnalysisModelHash != hash)) {
+                LOGGER.debug("loading the shared analysis model");
+                sharedAnalysisModel = loadAnalysisModelFromFile();
+                sharedAnalysisModelHash = hash;
+                sharedAnalysisModelReferences = 0;
+            }
+
+            if (sharedAnalysisModel != null) {
+                sharedAnalysisModelReferences++;
+            }
+            return sharedAnalysisModel;
+        }
+    }
+
+
+    /**
+     * Releases the analysis model acquired by
+     * {@link #acquireAnalysisModel()}. The shared model is freed, when no
+     * view holds it anymore.
+     *
+     * @param analysisModel the acquired model, may be null
+     */
+    public void releaseAnalysisModel(PIAAnalysisModel analysisModel) {
+        synchronized (sharedModelLock) {
+            if ((analysisModel == null) || (analysisModel != sharedAnalysisModel)) {
+                // an outdated model is freed with its last view
+                return;
+            }
+
+            sharedAnalysisModelReferences--;
+            if (sharedAnalysisModelReferences <= 0) {
+                LOGGER.debug("releasing the shared analysis model");
+                sharedAnalysisModel = null;
+                sharedAnalysisModelReferences = 0;
+            }
+        }
+    }
+
+
+    /**
+     * Keeps the shared analysis model valid, after its unchanged file was
+     * moved (e.g. into the internals), so later views do not load another
+     * copy.
+     *
+     * @param oldHash the hash of the model file before it was moved
+     */
+    private void rekeySharedAnalysisModel(int oldHash) {
+        synchronized (sharedModelLock) {
+            if ((sharedAnalysisModel != null) && (sharedAnalysisModelHash == oldHash)) {
+                sharedAnalysisModelHash = getAnalysisModelFileHash();
+            }
+        }
+    }
+
+
     /**
      * Getter for the analysis model
      * @return
@@ -1113,16 +1725,117 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Gets the file name of the PIA XML file from the data table cell. If the
-     * cell is a String or URL, return the absolute path. If the cell is a
-     * binary object, gunzip the file temporarily and return the unzipped file
-     * name.
+     * Creates the key, which identifies the input PIA XML file (by its path,
+     * size and modification time) or binary object (by its content) and the
+     * structural settings.
      *
-     * @param dataCell
+     * @param piaXmlFileName the file name, used if no binary object is given
+     * @param piaXmlBinary the (gzipped) PIA XML as binary object or null
      * @return
      * @throws IOException
      */
-    private String getFilenameFromTableCell(DataCell dataCell) throws IOException {
+    private String createInputKey(String piaXmlFileName, BinaryObjectDataValue piaXmlBinary)
+            throws IOException {
+        if (piaXmlBinary != null) {
+            try (InputStream is = piaXmlBinary.openInputStream()) {
+                return PIAModellerCache.createKey(is,
+                        mCreatePSMSets.getBooleanValue(), mConsiderModifications.getBooleanValue());
+            }
+        } else {
+            return PIAModellerCache.createKey(new File(piaXmlFileName),
+                    mCreatePSMSets.getBooleanValue(), mConsiderModifications.getBooleanValue());
+        }
+    }
+
+
+    /**
+     * Loads the {@link PIAModeller} for the given PIA XML file or binary
+     * object. If the model cache is enabled, a cached copy is used or the newly
+     * loaded modeller is put into the cache. A binary object is only unzipped,
+     * if the model must be parsed.
+     *
+     * @param piaXmlFileName the file name, used if no binary object is given
+     * @param piaXmlBinary the (gzipped) PIA XML as binary object or null
+     * @param inputKey the key of the input, see {@link #createInputKey(String, BinaryObjectDataValue)}
+     * @param contentDigest digest, which gets the content of the binary object
+     * while unzipping it (may be null)
+     * @param exec monitor for the parsing progress and cancellation
+     * @param statistics measures the parsing thread
+     * @return
+     * @throws Exception
+     */
+    private PIAModeller loadPIAModeller(String piaXmlFileName, BinaryObjectDataValue piaXmlBinary,
+            String inputKey, MessageDigest contentDigest, ExecutionMonitor exec, ExecutionStatistics statistics)
+            throws Exception {
+        String cacheKey = null;
+        if (PIAModellerCache.isEnabled()) {
+            cacheKey = inputKey;
+
+            PIAModeller piaModeller = PIAModellerCache.get(cacheKey);
+            if (piaModeller != null) {
+                LOGGER.info("Using cached PIA model, skipped parsing of the PIA XML file");
+                return piaModeller;
+            }
+        }
+
+        final String fileName;
+        if (piaXmlBinary != null) {
+            exec.setMessage("Unzipping the PIA XML file");
+            InputStream binaryStream = piaXmlBinary.openInputStream();
+            if (contentDigest != null) {
+                binaryStream = new DigestInputStream(binaryStream, contentDigest);
+            }
+            fileName = decompressToTemporaryFile(binaryStream, exec);
+        } else if (XMLCompression.detect(new File(piaXmlFileName)) != XMLCompression.none) {
+            exec.setMessage("Unzipping the PIA XML file");
+            fileName = decompressToTemporaryFile(new FileInputStream(piaXmlFileName), exec);
+        } else {
+            fileName = piaXmlFileName;
+        }
+
+        // parse with the progress array, like the LoadPIAFileWorker
+        PIAModeller piaModeller = new PIAModeller();
+        Long[] progress = new Long[] {0L};
+        boolean loaded = MonitoredTask.run(statistics.measure(() -> piaModeller.loadFileName(fileName, progress)),
+                exec, () -> progress[0], "Parsing the PIA XML file");
+        if (!loaded) {
+            throw new IllegalArgumentException("Error loading PIA XML file.");
+        }
+        if (cacheKey != null) {
+            piaModeller.setCreatePSMSets(mCreatePSMSets.getBooleanValue());
+            piaModeller.setConsiderModifications(mConsiderModifications.getBooleanValue());
+
+            PIAModellerCache.put(cacheKey, piaModeller);
+        }
+
+        return piaModeller;
+    }
+
+
+    /**
+     * Moves the given file to a new temporary file, which is deleted on exit
+     * at the latest.
+     *
+     * @param file
+     * @param prefix
+     * @return the new temporary file
+     * @throws IOException
+     */
+    private static File keepAsTemporaryFile(File file, String prefix) throws IOException {
+        File tmpFile = PIAAnalysisModel.createStagingFile(prefix);
+        Files.move(file.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return tmpFile;
+    }
+
+
+    /**
+     * Gets the file name of the PIA XML file from the data table cell, if the
+     * cell is a String or URL.
+     *
+     * @param dataCell
+     * @return the absolute path or null, if the cell does not contain a file
+     */
+    private static String getFilenameFromTableCell(DataCell dataCell) {
         String fileName = null;
 
         if (dataCell.getType().isCompatible(StringValue.class)) {
@@ -1145,121 +1858,182 @@ public class PIAAnalysisNodeModel extends NodeModel {
             if ((file != null) && file.exists()) {
                 fileName = file.getAbsolutePath();
             }
-        } else if (dataCell.getType().isCompatible(BinaryObjectDataValue.class)) {
-            // it is a binary file , either GZipped or not
-            InputStream is = null;
-            FileOutputStream fos = null;
+        }
 
-            try {
-                is = new BufferedInputStream(((BinaryObjectDataValue) dataCell).openInputStream());
-                byte[] buffer = new byte[1024];
-
-                is.mark(2);
-                int magic = 0;
-                magic = is.read() & 0xff | ((is.read() << 8) & 0xff00);
-                is.reset();
-
-                if (magic == GZIPInputStream.GZIP_MAGIC) {
-                    // file is gzipped
-                    LOGGER.info("binary input file is gzipped");
-                    is = new GZIPInputStream(is);
-                }
+        return fileName;
+    }
 
-                piaXMLTmpFile = File.createTempFile("piaIntermediateFile", "pia.xml");
-                piaXMLTmpFile.deleteOnExit();
 
-                fos = new FileOutputStream(piaXMLTmpFile, false);
-                LOGGER.debug("writing unzipped file to " + piaXMLTmpFile.getAbsolutePath());
+    /**
+     * Writes the PIA XML file, either compressed (any {@link XMLCompression})
+     * or not, to a temporary file and returns its name. The PIA XML parser
+     * reads from a file name, so the file cannot be avoided, but it is written
+     * in one pass with large buffers.
+     *
+     * @param inputStream the (compressed) file, closed afterwards
+     * @param exec monitor for cancellation
+     * @return
+     * @throws IOException
+     * @throws CanceledExecutionException
+     */
+    private String decompressToTemporaryFile(InputStream inputStream, ExecutionMonitor exec)
+            throws IOException, CanceledExecutionException {
+        piaXMLTmpFile = File.createTempFile("piaIntermediateFile", "pia.xml");
+        piaXMLTmpFile.deleteOnExit();
+
+        try (InputStream bis = new BufferedInputStream(inputStream, IO_BUFFER_SIZE)) {
+            XMLCompression compression = XMLCompression.detect(bis);
+            LOGGER.info("compression of the input file: " + compression);
+            InputStream is = XMLCompression.openInputStream(bis);
+
+            LOGGER.debug("writing unzipped file to " + piaXMLTmpFile.getAbsolutePath());
+            try (FileOutputStream fos = new FileOutputStream(piaXMLTmpFile, false)) {
+                byte[] buffer = new byte[IO_BUFFER_SIZE];
                 int len;
-                while((len = is.read(buffer)) != -1) {
+                while ((len = is.read(buffer)) != -1) {
+                    exec.checkCanceled();
                     fos.write(buffer, 0, len);
                 }
-            } finally {
-                //close resources
-                if (fos != null) {
-                    fos.close();
-                    LOGGER.debug("outputStream closed");
-                }
 
-                if (is != null) {
-                    is.close();
-                    LOGGER.debug("inputStream closed");
+                // read any trailing bytes, so a digest gets the whole stream
+                while (bis.read(buffer) != -1) {
+                    exec.checkCanceled();
                 }
             }
-
-            fileName = piaXMLTmpFile.getAbsolutePath();
+            is.close();
         }
 
-        return fileName;
+        return piaXMLTmpFile.getAbsolutePath();
     }
 
 
     /**
-     * Exports the report to the given {@link FileStore}.
+     * Returns the selected exports, i.e. the export level and format (if a
+     * level is selected) and the additional exports.
      *
-     * @param fileStore
      * @return
-     * @throws IOException
      */
-    private FileStoreURIPortObject exportToStoreObject(FileStore fileStore, PIAAnalysisModel analysisModel)
-            throws IOException {
-        FileStoreURIPortObject fsupo = new FileStoreURIPortObject(fileStore);
-
-        boolean exportOK = false;
+    private Set<ExportTarget> getExportTargets() {
+        Set<ExportTarget> targets = new LinkedHashSet<>();
 
         if (!mExportLevel.getStringValue().equals(ExportLevels.none.toString())) {
-            File file = fsupo.registerFile(buildExportFilename());
+            targets.add(new ExportTarget(ExportFormats.valueOf(mExportFormat.getStringValue()),
+                    ExportLevels.valueOf(mExportLevel.getStringValue())));
+        }
 
-            Long fileID;
-            ExportLevels exportLvl = ExportLevels.valueOf(mExportLevel.getStringValue());
-            switch (exportLvl) {
-            case PSM:
-                fileID = (long)(mPSMAnalysisFileId.getIntValue());
-                break;
+        for (String target : mExportAdditional.getStringArrayValue()) {
+            targets.add(ExportTarget.valueOf(target));
+        }
 
-            case peptide:
-                fileID = (long)(mPeptideAnalysisFileId.getIntValue());
-                if (!mPeptideInferPeptides.getBooleanValue()) {
-                    LOGGER.warn("Peptide inference is deactivated, but peptide level export on. The export is performed, but might not be as expected!");
-                }
-                break;
+        return targets;
+    }
 
-            case protein:
-                fileID = 0L;
-                if (!mProteinInferProteins.getBooleanValue()) {
-                    LOGGER.warn("Protein inference is deactivated, but peptide level export on. The export is performed, but might not be as expected!");
-                }
-                break;
 
-            case none:
-            default:
-                fileID = -1L;
+    /**
+     * Starts the exports into files of the given {@link FileStoreURIPortObject}, each
+     * export is run on the given executor. The filters of all levels are set
+     * to the modeller before the first export is started, so the exports only
+     * read from the modeller and may run while the tables are created. The
+     * CSV exports get their own copy of the filters.
+     *
+     * @param fsupo the port object for the export files
+     * @param analysisModel
+     * @param executor the executor of the execution, shared with the PSM rows
+     * @return the started exports
+     * @throws IOException
+     */
+    private List<Future<?>> startExports(FileStoreURIPortObject fsupo, PIAAnalysisModel analysisModel,
+            ExecutorService executor) throws IOException {
+        Set<ExportTarget> targets = getExportTargets();
+        PIAModeller piaModeller = analysisModel.getPIAModeller();
+        List<Future<?>> exports = new ArrayList<>(targets.size());
+
+        // set the filters once per level, before any export reads them
+        Map<ExportLevels, List<AbstractFilter>> exportFilters = new EnumMap<>(ExportLevels.class);
+        for (ExportTarget target : targets) {
+            ExportLevels level = target.getLevel();
+            if (mExportFilter.getBooleanValue() && target.isFilterPossible() && !exportFilters.containsKey(level)) {
+                List<AbstractFilter> filters = getExportFilters(level);
+                updateFilters(level, getExportFileID(level), filters, piaModeller);
+                exportFilters.put(level, filters);
             }
+        }
 
-            if (file.createNewFile()) {
-                exportReportTo(file, analysisModel.getPIAModeller(),
-                        ExportFormats.valueOf(mExportFormat.getStringValue()),
-                        exportLvl, mExportFilter.getBooleanValue(), fileID);
-                exportOK = true;
-            } else {
-                exportOK = false;
+        for (ExportTarget target : targets) {
+            File file = fsupo.registerFile(buildExportFilename(target, targets.size() > 1));
+            if (!file.createNewFile()) {
+                LOGGER.warn("Could not create the export file " + file.getAbsolutePath());
+                continue;
             }
+
+            Long fileID = getExportFileID(target.getLevel());
+            boolean filterExport = mExportFilter.getBooleanValue() && target.isFilterPossible();
+            List<AbstractFilter> filters = filterExport ?
+                    Collections.unmodifiableList(new ArrayList<>(exportFilters.get(target.getLevel())))
+                    : Collections.<AbstractFilter>emptyList();
+
+            boolean compress = mExportCompress.getBooleanValue();
+            exports.add(executor.submit(() -> {
+                exportReportTo(file, piaModeller, target.getFormat(), target.getLevel(),
+                        filterExport, filters, fileID, compress);
+                return null;
+            }));
         }
 
-        if (!exportOK) {
+        if (exports.isEmpty()) {
             File file = fsupo.registerFile("emptyfile.txt");
             file.createNewFile();
         }
 
-        return fsupo;
+        return exports;
     }
 
 
     /**
-     * creates the export filename from teh given base name
+     * Returns the file ID, which is exported on the given level.
+     *
+     * @param exportLevel
      * @return
      */
-    private String buildExportFilename() {
+    private Long getExportFileID(ExportLevels exportLevel) {
+        Long fileID;
+        switch (exportLevel) {
+        case PSM:
+            fileID = (long)(mPSMAnalysisFileId.getIntValue());
+            break;
+
+        case peptide:
+            fileID = (long)(mPeptideAnalysisFileId.getIntValue());
+            if (!mPeptideInferPeptides.getBooleanValue()) {
+                LOGGER.warn("Peptide inference is deactivated, but peptide level export on. The export is performed, but might not be as expected!");
+            }
+            break;
+
+        case protein:
+            fileID = 0L;
+            if (!mProteinInferProteins.getBooleanValue()) {
+                LOGGER.warn("Protein inference is deactivated, but peptide level export on. The export is performed, but might not be as expected!");
+            }
+            break;
+
+        case none:
+        default:
+            fileID = -1L;
+        }
+        return fileID;
+    }
+
+
+    /**
+     * creates the export filename from teh given base name. If several exports
+     * are written, the level is added to the name and the suffix is always set
+     * by the format.
+     *
+     * @param target
+     * @param severalExports
+     * @return
+     */
+    private String buildExportFilename(ExportTarget target, boolean severalExports) {
         StringBuilder fileNameSB = new StringBuilder();
         if ((mExportFileBaseName.getStringValue() == null) || mExportFileBaseName.getStringValue().isEmpty()) {
             fileNameSB.append(PIASettings.EXPORT_FILEBASENAME.getDefaultString());
@@ -1267,15 +2041,22 @@ public class PIAAnalysisNodeModel extends NodeModel {
             fileNameSB.append(mExportFileBaseName.getStringValue());
         }
 
-        if (!fileNameSB.toString().contains(".")) {
+        if (severalExports) {
+            int dotIdx = fileNameSB.lastIndexOf(".");
+            if (dotIdx > 0) {
+                fileNameSB.setLength(dotIdx);
+            }
+            fileNameSB.append('_').append(target.getLevel());
+        }
+
+        if (severalExports || !fileNameSB.toString().contains(".")) {
             // append the file suffix
             fileNameSB.append('.');
-            if (ExportFormats.mzIdentML.toString().equalsIgnoreCase(mExportFormat.getStringValue())) {
-            	// save mzIdentML files as the recommended ".mzid"
-                fileNameSB.append("mzid");
-            } else {
-                fileNameSB.append(mExportFormat.getStringValue());
-            }
+            fileNameSB.append(target.getFileSuffix());
+        }
+
+        if (target.isFlatFile() && mExportCompress.getBooleanValue() && !fileNameSB.toString().endsWith(".gz")) {
+            fileNameSB.append(".gz");
         }
 
         return fileNameSB.toString();
@@ -1283,29 +2064,66 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Exports the PIA analysis to the given file format.
+     * Returns the filters of the given level, as currently set in the dialog.
+     *
+     * @param exportLevel
+     * @return
+     */
+    private List<AbstractFilter> getExportFilters(ExportLevels exportLevel) {
+        String[] serializedFilters;
+        if (exportLevel.equals(ExportLevels.PSM)) {
+            serializedFilters = mPSMFilters.getStringArrayValue();
+        } else if (exportLevel.equals(ExportLevels.peptide)) {
+            serializedFilters = mPeptideFilters.getStringArrayValue();
+        } else {
+            serializedFilters = mProteinFilters.getStringArrayValue();
+        }
+        return PIAAnalysisModel.unserializeFilters(serializedFilters);
+    }
+
+
+    /**
+     * Sets the filters of the given level to the modeller, which are used by
+     * the filtered export. This must not be called while exports are running.
+     *
+     * @param exportLevel
+     * @param fileID
+     * @param newFilters
+     * @param piaModeller
+     */
+    private static void updateFilters(ExportLevels exportLevel, Long fileID, List<AbstractFilter> newFilters,
+            PIAModeller piaModeller) {
+        if (exportLevel.equals(ExportLevels.PSM)) {
+            updatePSMFilters(fileID, newFilters, piaModeller);
+        } else if (exportLevel.equals(ExportLevels.peptide)) {
+            updatePeptideFilters(fileID, newFilters, piaModeller);
+        } else {
+            updateProteinFilters(newFilters, piaModeller);
+        }
+    }
+
+
+    /**
+     * Exports the PIA analysis to the given file format. The filters for a
+     * filtered export must be set to the modeller before, the CSV exports only
+     * use the given filters.
      *
      * @param file the file, must be created
      * @param piaModeller {@link PIAModeller} containing the analysis
      * @param exportFormat format to export to
      * @param exportLevel the level (PSM, peptide or protein)
+     * @param filterExport whether the export is filtered
+     * @param filters the filters of the CSV export, empty for an unfiltered export
      * @param fileID the file ID (0=overview, not used for protein level)
+     * @param compress whether CSV and TSV files are gzipped
+     * @throws IOException
      */
-    private void exportReportTo(File file, PIAModeller piaModeller,
-            ExportFormats exportFormat, ExportLevels exportLevel, boolean filterExport, Long fileID) {
+    private static void exportReportTo(File file, PIAModeller piaModeller, ExportFormats exportFormat,
+            ExportLevels exportLevel, boolean filterExport, List<AbstractFilter> filters, Long fileID,
+            boolean compress) throws IOException {
         LOGGER.debug("Exporting to " + exportFormat + " (" + file.getAbsolutePath() + "), "
                 + exportLevel + " (" + fileID + "), filter=" + filterExport);
 
-        if (filterExport) {
-            if (exportLevel.equals(ExportLevels.PSM)) {
-                updatePSMFilters(fileID, piaModeller);
-            } else if (exportLevel.equals(ExportLevels.peptide)) {
-                updatePeptideFilters(fileID, piaModeller);
-            } else {
-                updateProteinFilters(piaModeller);
-            }
-        }
-
         switch (exportFormat) {
         case idXML:
             IdXMLExporter idXMLexporter = new IdXMLExporter(piaModeller);
@@ -1324,7 +2142,12 @@ public class PIAAnalysisNodeModel extends NodeModel {
             break;
 
         case csv:
-            // TODO: implement
+            new StreamingCSVExporter(piaModeller).export(fileID, file, exportLevel, filters, ',', compress);
+            break;
+
+        case tsv:
+            new StreamingCSVExporter(piaModeller).export(fileID, file, exportLevel, filters, '\t', compress);
+            break;
 
         default:
             LOGGER.warn("Unimplemented export format: " + exportFormat);
@@ -1334,13 +2157,13 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Sets the PSM filters of the modeller to the currently set PSM level filters in the dialog.
+     * Sets the PSM filters of the modeller to the given filters.
      *
      * @param fileId
+     * @param newFilters
      * @param piaModeller
      */
-    private void updatePSMFilters(Long fileId, PIAModeller piaModeller) {
-        List<AbstractFilter> newFilters = PIAAnalysisModel.unserializeFilters(mPSMFilters.getStringArrayValue());
+    private static void updatePSMFilters(Long fileId, List<AbstractFilter> newFilters, PIAModeller piaModeller) {
         List<AbstractFilter> filters = piaModeller.getPSMModeller().getFilters(fileId);
         filters.clear();
         filters.addAll(newFilters);
@@ -1348,13 +2171,13 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Sets the report peptide filters of the dialog to the modeller
+     * Sets the given report peptide filters to the modeller
      *
      * @param fileId
+     * @param newFilters
      * @param piaModeller
      */
-    private void updatePeptideFilters(Long fileId, PIAModeller piaModeller) {
-        List<AbstractFilter> newFilters = PIAAnalysisModel.unserializeFilters(mPeptideFilters.getStringArrayValue());
+    private static void updatePeptideFilters(Long fileId, List<AbstractFilter> newFilters, PIAModeller piaModeller) {
         piaModeller.getPeptideModeller().removeAllFilters();
         for (AbstractFilter filter : newFilters) {
             piaModeller.getPeptideModeller().addFilter(fileId, filter);
@@ -1363,12 +2186,12 @@ public class PIAAnalysisNodeModel extends NodeModel {
 
 
     /**
-     * Sets the report protein filters of the dialog to the modeller
+     * Sets the given report protein filters to the modeller
      *
+     * @param newFilters
      * @param piaModeller
      */
-    private void updateProteinFilters(PIAModeller piaModeller) {
-        List<AbstractFilter> newFilters = PIAAnalysisModel.unserializeFilters(mProteinFilters.getStringArrayValue());
+    private static void updateProteinFilters(List<AbstractFilter> newFilters, PIAModeller piaModeller) {
         List<AbstractFilter> filters = piaModeller.getProteinModeller().getReportFilters();
         filters.clear();
         filters.addAll(newFilters);
@@ -1442,7 +2265,15 @@ public class PIAAnalysisNodeModel extends NodeModel {
      * getter for the PSM to spectrum matcher
      * @return
      */
-    public PiaPsmToSpectrum<ReportPSM> getPSMToSpectrum() {
+    public synchronized PiaPsmToSpectrum<ReportPSM> getPSMToSpectrum() {
+        if ((psmToSpectrum == null) && (psmToSpectrumFile != null)) {
+            try {
+                psmToSpectrum = PiaPsmToSpectrum.loadFromFile(psmToSpectrumFile);
+            } catch (IOException e) {
+                LOGGER.error("Could not restore the PSM to spectrum mapping", e);
+                psmToSpectrumFile = null;
+            }
+        }
         return psmToSpectrum;
     }
 }
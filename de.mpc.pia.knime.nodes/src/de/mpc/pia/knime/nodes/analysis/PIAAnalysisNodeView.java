@@ -43,6 +43,9 @@ public class PIAAnalysisNodeView extends NodeView<PIAAnalysisNodeModel> {
     /** the current nodeModel */
     private PIAAnalysisNodeModel currentNodeModel;
 
+    /** whether the view was closed */
+    private boolean closed;
+
 
     /**
      * Creates a new view.
@@ -83,7 +86,9 @@ public class PIAAnalysisNodeView extends NodeView<PIAAnalysisNodeModel> {
      */
     @Override
     protected void onClose() {
-        visualizationPanel = null;
+        closed = true;
+        closeVisualizationPanel();
+        currentNodeModel.releaseAnalysisModel(analysisModel);
         analysisModel = null;
     }
 
@@ -96,15 +101,31 @@ public class PIAAnalysisNodeView extends NodeView<PIAAnalysisNodeModel> {
     }
 
 
+    /**
+     * Closes the shown visualization panel, which stops its spectra prefetching
+     */
+    private void closeVisualizationPanel() {
+        if (visualizationPanel instanceof ProteinsVisualizationPanel) {
+            ((ProteinsVisualizationPanel) visualizationPanel).close();
+        }
+        visualizationPanel = null;
+    }
+
+
     /**
      * Loads the model from file and shows it when done. While loading, a spinning circle is shown to the user.
      */
     private void loadAndShowTheModel() {
+        // the model is loaded anew, release the shown one
+        closeVisualizationPanel();
+        currentNodeModel.releaseAnalysisModel(analysisModel);
+        analysisModel = null;
+
         // Background task for loading the model.
         SwingWorker<PIAAnalysisModel, Void> worker = new SwingWorker<PIAAnalysisModel, Void>() {
             @Override
             public PIAAnalysisModel doInBackground() {
-                return currentNodeModel.loadAnalysisModelFromFile();
+                return currentNodeModel.acquireAnalysisModel();
             }
 
             @Override
@@ -112,6 +133,12 @@ public class PIAAnalysisNodeView extends NodeView<PIAAnalysisNodeModel> {
                 //Remove the "Loading images" label.
                 try {
                     analysisModel = get();
+                    if (closed) {
+                        // closed while loading
+                        currentNodeModel.releaseAnalysisModel(analysisModel);
+                        analysisModel = null;
+                        return;
+                    }
                     visualizationPanel = new ProteinsVisualizationPanel(currentNodeModel.getFilteredProteinList(analysisModel),
                             analysisModel, currentNodeModel.getPSMToSpectrum());
                 } catch (Exception e) {
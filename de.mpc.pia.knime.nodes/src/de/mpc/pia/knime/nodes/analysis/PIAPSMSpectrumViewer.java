@@ -43,6 +43,9 @@ public class PIAPSMSpectrumViewer extends NodeView<PIAAnalysisNodeModel> {
     /** the current nodeModel */
     private PIAAnalysisNodeModel currentNodeModel;
 
+    /** whether the view was closed */
+    private boolean closed;
+
 
     /**
      * Creates a new view.
@@ -77,7 +80,9 @@ public class PIAPSMSpectrumViewer extends NodeView<PIAAnalysisNodeModel> {
 
     @Override
     protected void onClose() {
-        visualizationPanel = null;
+        closed = true;
+        closeVisualizationPanel();
+        currentNodeModel.releaseAnalysisModel(analysisModel);
         analysisModel = null;
     }
 
@@ -89,15 +94,31 @@ public class PIAPSMSpectrumViewer extends NodeView<PIAAnalysisNodeModel> {
 
 
 
+    /**
+     * Closes the shown visualization panel, which stops its spectra prefetching
+     */
+    private void closeVisualizationPanel() {
+        if (visualizationPanel instanceof PSMSpectrumViewerPanel) {
+            ((PSMSpectrumViewerPanel) visualizationPanel).close();
+        }
+        visualizationPanel = null;
+    }
+
+
     /**
      * Loads the model from file and shows it when done. While loading, a spinning circle is shown to the user.
      */
     private void loadAndShowTheModel() {
+        // the model is loaded anew, release the shown one
+        closeVisualizationPanel();
+        currentNodeModel.releaseAnalysisModel(analysisModel);
+        analysisModel = null;
+
         // Background task for loading the model.
         SwingWorker<PIAAnalysisModel, Void> worker = new SwingWorker<PIAAnalysisModel, Void>() {
             @Override
             public PIAAnalysisModel doInBackground() {
-                return currentNodeModel.loadAnalysisModelFromFile();
+                return currentNodeModel.acquireAnalysisModel();
             }
 
             @Override
@@ -105,6 +126,12 @@ public class PIAPSMSpectrumViewer extends NodeView<PIAAnalysisNodeModel> {
                 //Remove the "Loading images" label.
                 try {
                     analysisModel = get();
+                    if (closed) {
+                        // closed while loading
+                        currentNodeModel.releaseAnalysisModel(analysisModel);
+                        analysisModel = null;
+                        return;
+                    }
                     visualizationPanel = new PSMSpectrumViewerPanel(currentNodeModel.getFilteredPSMList(analysisModel),
                             currentNodeModel.getPSMToSpectrum());
                 } catch (Exception e) {
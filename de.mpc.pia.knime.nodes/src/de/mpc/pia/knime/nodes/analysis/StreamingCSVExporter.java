@@ -0,0 +1,454 @@
+package de.mpc.pia.knime.nodes.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.knime.nodes.dialog.ExportLevels;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.psm.PSMReportItem;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+
+/**
+ * Exports the PSMs, peptides or proteins of a {@link PIAModeller} as flat
+ * CSV or TSV file. The columns follow the output tables of the analysis node,
+ * but each score gets its own column.
+ * <p>
+ * The rows are encoded directly into a large byte buffer, which is written to
+ * a {@link FileChannel} (optionally gzipped on the fly), so no strings are
+ * created per row. Fields containing the separator, quotes or line breaks are
+ * quoted, list values (like accessions) are separated by ";".
+ *
+ * @author julian
+ *
+ */
+public class StreamingCSVExporter {
+
+    /** the size of the write buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** separates the values of a list inside a field */
+    private static final char LIST_SEPARATOR = ';';
+
+    /** the modeller containing the analysis */
+    private final PIAModeller piaModeller;
+
+
+    public StreamingCSVExporter(PIAModeller piaModeller) {
+        this.piaModeller = piaModeller;
+    }
+
+
+    /**
+     * Exports the given level into the file.
+     *
+     * @param fileID the file ID (0=overview, not used for protein level)
+     * @param file the export file
+     * @param exportLevel the level (PSM, peptide or protein)
+     * @param filters the filters of the export, these are not taken from the
+     *          modeller, so the export is independent of later changes there
+     * @param separator the field separator, e.g. ',' or '\t'
+     * @param gzip whether the file is gzip compressed
+     * @throws IOException
+     */
+    public void export(Long fileID, File file, ExportLevels exportLevel, List<AbstractFilter> filters,
+            char separator, boolean gzip) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                RowWriter writer = new RowWriter(channel, separator, gzip)) {
+            switch (exportLevel) {
+            case PSM:
+                writePSMs(fileID, filters, writer);
+                break;
+
+            case peptide:
+                writePeptides(fileID, filters, writer);
+                break;
+
+            case protein:
+                writeProteins(filters, writer);
+                break;
+
+            case none:
+            default:
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Writes the PSMs (or PSM sets for the overview) of the given file.
+     */
+    private void writePSMs(Long fileID, List<AbstractFilter> filters, RowWriter writer) throws IOException {
+        List<? extends PSMReportItem> psmList;
+        if (fileID == 0) {
+            psmList = piaModeller.getPSMModeller().getFilteredReportPSMSets(filters);
+        } else {
+            psmList = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, filters);
+        }
+        if (psmList == null) {
+            psmList = Collections.emptyList();
+        }
+
+        Map<String, String> scoreShortsToNames = piaModeller.getPSMModeller().getScoreShortsToScoreNames();
+        List<String> scoreShorts = piaModeller.getPSMModeller().getScoreShortNames(fileID);
+        boolean addNrIdentifications = (fileID == 0);
+
+        writer.field("Sequence").field("Accessions").field("Modifications").field("Decoy")
+                .field("Charge").field("m/z").field("deltaMass").field("deltaPPM")
+                .field("Retention time").field("Missed Cleavages").field("Source ID").field("Spectrum title");
+        if (addNrIdentifications) {
+            writer.field("nrIdentifications");
+        }
+        for (String scoreShort : scoreShorts) {
+            writer.field(scoreShortsToNames.get(scoreShort));
+        }
+        writer.endRow();
+
+        for (PSMReportItem psm : psmList) {
+            writer.field(psm.getSequence());
+            writer.accessions(psm.getAccessions());
+            writer.field(psm.getModificationsString());
+            writer.field(psm.getIsDecoy());
+            writer.field(psm.getCharge());
+            writer.field(psm.getMassToCharge());
+            writer.field(psm.getDeltaMass());
+            writer.field(psm.getDeltaPPM());
+            writer.field(psm.getRetentionTime());
+            writer.field(psm.getMissedCleavages());
+            writer.field(psm.getSourceID());
+            writer.field(psm.getSpectrumTitle());
+            if (addNrIdentifications) {
+                writer.field(((ReportPSMSet) psm).getPSMs().size());
+            }
+
+            for (String scoreShort : scoreShorts) {
+                Double scoreValue = psm.getScore(scoreShort);
+                if (((scoreValue == null) || scoreValue.isNaN()) && (psm instanceof ReportPSMSet)) {
+                    // PSM level FDRScore is only valid as a bestScore
+                    scoreValue = ((ReportPSMSet) psm).getBestScore(scoreShort);
+                }
+                writer.field(scoreValue);
+            }
+            writer.endRow();
+        }
+    }
+
+
+    /**
+     * Writes the peptides of the given file.
+     */
+    private void writePeptides(Long fileID, List<AbstractFilter> filters, RowWriter writer) throws IOException {
+        List<ReportPeptide> peptideList = piaModeller.getPeptideModeller().getFilteredReportPeptides(fileID, filters);
+        if (peptideList == null) {
+            peptideList = Collections.emptyList();
+        }
+
+        Map<String, String> scoreShortsToNames = piaModeller.getPSMModeller().getScoreShortsToScoreNames();
+        List<String> scoreShorts = piaModeller.getPSMModeller().getScoreShortNames(fileID);
+        boolean considerModifications = piaModeller.getConsiderModifications();
+
+        writer.field("Sequence").field("Accessions");
+        if (considerModifications) {
+            writer.field("Modifications");
+        }
+        writer.field("number Spectra").field((fileID == 0) ? "number PSM sets" : "number PSMs")
+                .field("Missed Cleavages");
+        for (String scoreShort : scoreShorts) {
+            writer.field(scoreShortsToNames.get(scoreShort));
+        }
+        writer.field("FDR Score");
+        writer.endRow();
+
+        for (ReportPeptide pep : peptideList) {
+            writer.field(pep.getSequence());
+            writer.accessions(pep.getAccessions());
+            if (considerModifications) {
+                writer.field(pep.getPSMs().get(0).getModificationsString());
+            }
+            writer.field(pep.getNrSpectra());
+            writer.field(pep.getNrPSMs());
+            writer.field(pep.getMissedCleavages());
+
+            for (String scoreShort : scoreShorts) {
+                writer.field(pep.getBestScore(scoreShort));
+            }
+            writer.field((pep.getFDRScore() != null) ? pep.getFDRScore().getValue() : null);
+            writer.endRow();
+        }
+    }
+
+
+    /**
+     * Writes the inferred proteins.
+     */
+    private void writeProteins(List<AbstractFilter> filters, RowWriter writer) throws IOException {
+        List<ReportProtein> proteinList = piaModeller.getProteinModeller().getFilteredReportProteins(filters);
+        if (proteinList == null) {
+            proteinList = Collections.emptyList();
+        }
+
+        writer.field("Accessions").field("Score").field("Coverages").field("nrPeptides").field("nrPSMs")
+                .field("nrSpectra").field("clusterID").field("Descriptions").field("Decoy").field("FDR q-value");
+        writer.endRow();
+
+        for (ReportProtein protein : proteinList) {
+            List<Accession> accessions = protein.getAccessions();
+
+            writer.accessions(accessions);
+            writer.field(protein.getScore());
+
+            StringBuilder coverages = writer.listBuilder();
+            for (int idx = 0; idx < accessions.size(); idx++) {
+                if (idx > 0) {
+                    coverages.append(LIST_SEPARATOR);
+                }
+                Double coverage = protein.getCoverage(accessions.get(idx).getAccession());
+                if (!coverage.isNaN()) {
+                    coverages.append(coverage.doubleValue());
+                }
+            }
+            writer.field(coverages);
+
+            writer.field(protein.getNrPeptides());
+            writer.field(protein.getNrPSMs());
+            writer.field(protein.getNrSpectra());
+            writer.field(accessions.get(0).getGroup().getTreeID());
+
+            StringBuilder descriptions = writer.listBuilder();
+            for (int idx = 0; idx < accessions.size(); idx++) {
+                if (idx > 0) {
+                    descriptions.append(LIST_SEPARATOR);
+                }
+                String description = accessions.get(idx).getDescription(0L);
+                if (description != null) {
+                    descriptions.append(description);
+                }
+            }
+            writer.field(descriptions);
+
+            writer.field(protein.getIsDecoy());
+            writer.field(protein.getQValue());
+            writer.endRow();
+        }
+    }
+
+
+    /**
+     * Encodes the fields of the rows as UTF-8 into a byte buffer, which is
+     * written to the channel when full. Fields are only quoted, if they
+     * contain the separator, quotes or line breaks.
+     */
+    static final class RowWriter implements AutoCloseable {
+
+        private final WritableByteChannel channel;
+
+        private final OutputStream gzipStream;
+
+        private final char separator;
+
+        private final ByteBuffer buffer;
+
+        /** whether a field was already written in the current row */
+        private boolean rowStarted;
+
+        /** reused for the conversion of numbers */
+        private final StringBuilder numberBuilder;
+
+        /** reused for fields composed of several values */
+        private final StringBuilder fieldBuilder;
+
+
+        RowWriter(FileChannel fileChannel, char separator, boolean gzip) throws IOException {
+            if (gzip) {
+                this.gzipStream = new GZIPOutputStream(Channels.newOutputStream(fileChannel), 1 << 16);
+                this.channel = Channels.newChannel(gzipStream);
+            } else {
+                this.gzipStream = null;
+                this.channel = fileChannel;
+            }
+            this.separator = separator;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.numberBuilder = new StringBuilder(32);
+            this.fieldBuilder = new StringBuilder(256);
+        }
+
+
+        /** Writes a text field, null is written as empty field. */
+        RowWriter field(CharSequence value) throws IOException {
+            startField();
+            if (value != null) {
+                if (needsQuotes(value)) {
+                    put('"');
+                    encode(value, true);
+                    put('"');
+                } else {
+                    encode(value, false);
+                }
+            }
+            return this;
+        }
+
+
+        RowWriter field(long value) throws IOException {
+            startField();
+            numberBuilder.setLength(0);
+            numberBuilder.append(value);
+            encode(numberBuilder, false);
+            return this;
+        }
+
+
+        /** Writes a number field, null and NaN are written as empty field. */
+        RowWriter field(Double value) throws IOException {
+            startField();
+            if ((value != null) && !value.isNaN()) {
+                numberBuilder.setLength(0);
+                numberBuilder.append(value.doubleValue());
+                encode(numberBuilder, false);
+            }
+            return this;
+        }
+
+
+        RowWriter field(boolean value) throws IOException {
+            return field(value ? "true" : "false");
+        }
+
+
+        /** Writes the accessions separated by ";" as one field. */
+        RowWriter accessions(List<Accession> accessions) throws IOException {
+            StringBuilder sb = listBuilder();
+            for (int idx = 0; idx < accessions.size(); idx++) {
+                if (idx > 0) {
+                    sb.append(LIST_SEPARATOR);
+                }
+                sb.append(accessions.get(idx).getAccession());
+            }
+            return field(sb);
+        }
+
+
+        /**
+         * Returns the cleared, reused builder for a field composed of several
+         * values, which is written by {@link #field(CharSequence)}.
+         */
+        StringBuilder listBuilder() {
+            fieldBuilder.setLength(0);
+            return fieldBuilder;
+        }
+
+
+        void endRow() throws IOException {
+            put('\n');
+            rowStarted = false;
+        }
+
+
+        private void startField() throws IOException {
+            if (rowStarted) {
+                put(separator);
+            }
+            rowStarted = true;
+        }
+
+
+        private boolean needsQuotes(CharSequence value) {
+            for (int idx = 0; idx < value.length(); idx++) {
+                char c = value.charAt(idx);
+                if ((c == '"') || (c == '\n') || (c == '\r') || (c == separator)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        /**
+         * Encodes the value as UTF-8 into the buffer.
+         *
+         * @param value
+         * @param escapeQuotes whether quotes are escaped by doubling them
+         */
+        private void encode(CharSequence value, boolean escapeQuotes) throws IOException {
+            for (int idx = 0; idx < value.length(); idx++) {
+                char c = value.charAt(idx);
+
+                if (c < 0x80) {
+                    put(c);
+                    if (escapeQuotes && (c == '"')) {
+                        put(c);
+                    }
+                } else if (c < 0x800) {
+                    ensureCapacity(2);
+                    buffer.put((byte) (0xc0 | (c >> 6)));
+                    buffer.put((byte) (0x80 | (c & 0x3f)));
+                } else if (Character.isHighSurrogate(c) && (idx + 1 < value.length())
+                        && Character.isLowSurrogate(value.charAt(idx + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++idx));
+                    ensureCapacity(4);
+                    buffer.put((byte) (0xf0 | (cp >> 18)));
+                    buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                    buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                    buffer.put((byte) (0x80 | (cp & 0x3f)));
+                } else {
+                    // unpaired surrogates are replaced
+                    char bmp = Character.isSurrogate(c) ? '?' : c;
+                    ensureCapacity(3);
+                    buffer.put((byte) (0xe0 | (bmp >> 12)));
+                    buffer.put((byte) (0x80 | ((bmp >> 6) & 0x3f)));
+                    buffer.put((byte) (0x80 | (bmp & 0x3f)));
+                }
+            }
+        }
+
+
+        /** Puts an ASCII character into the buffer. */
+        private void put(char c) throws IOException {
+            ensureCapacity(1);
+            buffer.put((byte) c);
+        }
+
+
+        private void ensureCapacity(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+
+        /**
+         * Writes the buffer's content to the channel.
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            if (gzipStream != null) {
+                gzipStream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.mpc.pia.knime.nodes.compiler;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.knime.core.node.NodeLogger;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.Group;
+import de.mpc.pia.intermediate.PIAInputFile;
+import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.intermediate.xmlhandler.PIAIntermediateJAXBHandler;
+
+/**
+ * Loads an existing compilation from a PIA XML file into a compiler, so that
+ * further input files can be added without parsing the already compiled
+ * files again.
+ * <p>
+ * The loaded data is replayed into the compiler in the order of its IDs, like
+ * the partial compilations of the {@link ParallelInputFileParser}. The
+ * connections between accessions and peptides are restored from the groups.
+ * So adding files to the loaded compilation gives the same IDs and structure
+ * as compiling all files at once.
+ *
+ * @author julian
+ *
+ */
+public final class IncrementalCompilation {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(IncrementalCompilation.class);
+
+
+    private IncrementalCompilation() {
+        // never instantiate this
+    }
+
+
+    /**
+     * Loads the compilation in the given PIA XML file into the compiler, which
+     * must not contain any data yet.
+     *
+     * @param compiler the empty compiler
+     * @param piaXmlFileName the (uncompressed) PIA XML file
+     * @param progress the parsing progress in percent, may be null
+     * @return the paths of the already compiled input files
+     * @throws IOException
+     */
+    public static Set<String> loadCompilation(PIASimpleCompiler compiler, String piaXmlFileName, Long[] progress)
+            throws IOException {
+        if (!compiler.getAllFileIDs().isEmpty()) {
+            throw new IllegalArgumentException("The compilation can only be loaded into an empty compiler");
+        }
+
+        PIAIntermediateJAXBHandler piaHandler = new PIAIntermediateJAXBHandler();
+        piaHandler.parse(piaXmlFileName, progress);
+
+        ParallelInputFileParser.CompilationContent content = new ParallelInputFileParser.CompilationContent(
+                piaHandler.getSpectraData(), piaHandler.getSearchDatabase(), piaHandler.getAnalysisSoftware());
+
+        Set<String> compiledFiles = new LinkedHashSet<>();
+        for (PIAInputFile file : piaHandler.getFiles().values()) {
+            // the file with ID 0 stands for all files and is not compiled
+            if (file.getID() > 0) {
+                content.files.put(file.getID(), file);
+                compiledFiles.add(file.getFileName());
+            }
+        }
+
+        content.accessions.putAll(piaHandler.getAccessions());
+        content.psms.putAll(piaHandler.getPSMs());
+        content.peptides.putAll(piaHandler.getPeptides());
+
+        // the accessions of a group are connected to the peptides of the group and its children
+        for (Group group : piaHandler.getGroups().values()) {
+            for (Accession accession : group.getAccessions().values()) {
+                SortedSet<Long> pepIDs = content.accessionPeptides.get(accession.getID());
+                if (pepIDs == null) {
+                    pepIDs = new TreeSet<>();
+                    content.accessionPeptides.put(accession.getID(), pepIDs);
+                }
+                for (Peptide peptide : group.getAllPeptides().values()) {
+                    pepIDs.add(peptide.getID());
+                }
+            }
+        }
+
+        ParallelInputFileParser.mergeContent(compiler, content);
+
+        LOGGER.debug("loaded compilation with " + compiledFiles.size() + " files, "
+                + compiler.getNrPeptideSpectrumMatches() + " PSMs and " + compiler.getNrPeptides() + " peptides");
+        return compiledFiles;
+    }
+}
@@ -1,13 +1,26 @@
 package de.mpc.pia.knime.nodes.compiler;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.StringValue;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.DialogComponentString;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.util.ColumnFilter;
 
+import de.mpc.pia.knime.nodes.utils.XMLCompression;
+
 /**
  * <code>NodeDialog</code> for the "PIACompiler" Node.
  *
@@ -48,6 +61,64 @@ public class PIACompilerNodeDialog extends DefaultNodeSettingsPane {
         addDialogComponent(new DialogComponentString(
                 new SettingsModelString(PIACompilerNodeModel.CFGKEY_NAME, PIACompilerNodeModel.DEFAULT_NAME),
                 PIACompilerNodeModel.CFGKEY_NAME));
+
+        final SettingsModelBoolean parallelParsing = new SettingsModelBoolean(
+                PIACompilerNodeModel.CFGKEY_PARALLEL_PARSING, PIACompilerNodeModel.DEFAULT_PARALLEL_PARSING);
+        final SettingsModelIntegerBounded parsingThreads = new SettingsModelIntegerBounded(
+                PIACompilerNodeModel.CFGKEY_PARSING_THREADS, PIACompilerNodeModel.DEFAULT_PARSING_THREADS,
+                0, Integer.MAX_VALUE);
+        parsingThreads.setEnabled(parallelParsing.getBooleanValue());
+        parallelParsing.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                parsingThreads.setEnabled(parallelParsing.getBooleanValue());
+            }
+        });
+
+        addDialogComponent(new DialogComponentBoolean(parallelParsing,
+                PIACompilerNodeModel.CFGKEY_PARALLEL_PARSING));
+        addDialogComponent(new DialogComponentNumber(parsingThreads,
+                "Parsing threads (0 for all processors)", 1));
+
+        final SettingsModelString compression = new SettingsModelString(
+                PIACompilerNodeModel.CFGKEY_COMPRESSION, PIACompilerNodeModel.DEFAULT_COMPRESSION);
+        final SettingsModelIntegerBounded compressionLevel = new SettingsModelIntegerBounded(
+                PIACompilerNodeModel.CFGKEY_COMPRESSION_LEVEL, PIACompilerNodeModel.DEFAULT_COMPRESSION_LEVEL,
+                1, 9);
+        compressionLevel.setEnabled(XMLCompression.valueOf(compression.getStringValue()).hasLevel());
+        compression.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                compressionLevel.setEnabled(XMLCompression.valueOf(compression.getStringValue()).hasLevel());
+            }
+        });
+
+        List<String> compressions = new ArrayList<>();
+        for (XMLCompression xmlCompression : XMLCompression.values()) {
+            compressions.add(xmlCompression.name());
+        }
+
+        addDialogComponent(new DialogComponentStringSelection(compression,
+                PIACompilerNodeModel.CFGKEY_COMPRESSION, compressions));
+        addDialogComponent(new DialogComponentNumber(compressionLevel,
+                PIACompilerNodeModel.CFGKEY_COMPRESSION_LEVEL, 1));
+
+        final SettingsModelBoolean useCache = new SettingsModelBoolean(
+                PIACompilerNodeModel.CFGKEY_USE_CACHE, PIACompilerNodeModel.DEFAULT_USE_CACHE);
+        final SettingsModelBoolean cacheHashContents = new SettingsModelBoolean(
+                PIACompilerNodeModel.CFGKEY_CACHE_HASH_CONTENTS, PIACompilerNodeModel.DEFAULT_CACHE_HASH_CONTENTS);
+        cacheHashContents.setEnabled(useCache.getBooleanValue());
+        useCache.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                cacheHashContents.setEnabled(useCache.getBooleanValue());
+            }
+        });
+
+        addDialogComponent(new DialogComponentBoolean(useCache,
+                PIACompilerNodeModel.CFGKEY_USE_CACHE));
+        addDialogComponent(new DialogComponentBoolean(cacheHashContents,
+                "Compare file contents for cache (SHA-256)"));
     }
 }
 
@@ -1,22 +1,31 @@
 package de.mpc.pia.knime.nodes.compiler;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -39,17 +48,25 @@ import org.knime.core.data.StringValue;
 import org.knime.core.data.blob.BinaryObjectCellFactory;
 import org.knime.core.data.blob.BinaryObjectDataCell;
 import org.knime.core.data.blob.BinaryObjectDataValue;
+import org.knime.core.data.container.CloseableRowIterator;
 import org.knime.core.data.def.DefaultRow;
 import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.port.PortType;
 
 import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
 import de.mpc.pia.intermediate.piaxml.FilesListXML;
 import de.mpc.pia.intermediate.piaxml.PIAInputFileXML;
 import de.mpc.pia.knime.nodes.PIANodesPlugin;
+import de.mpc.pia.knime.nodes.utils.BufferRingPipe;
+import de.mpc.pia.knime.nodes.utils.MonitoredTask;
+import de.mpc.pia.knime.nodes.utils.PIACompilationCache;
+import de.mpc.pia.knime.nodes.utils.XMLCompression;
 import de.mpc.pia.tools.matomo.PIAMatomoTracker;
 import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
 import uk.ac.ebi.jmzidml.model.mzidml.AnalysisSoftware;
@@ -84,11 +101,51 @@ public class PIACompilerNodeModel extends NodeModel {
     protected static final String CFGKEY_INPUT_COLUMN = "Input files";
     /** the settings key for the compilations name */
     protected static final String CFGKEY_NAME = "Name";
+    /** the settings key for parsing the input files in parallel */
+    protected static final String CFGKEY_PARALLEL_PARSING = "Parse files in parallel";
+    /** the settings key for the number of parsing threads */
+    protected static final String CFGKEY_PARSING_THREADS = "Parsing threads";
+    /** the settings key for the compression of the PIA XML file */
+    protected static final String CFGKEY_COMPRESSION = "Compression";
+    /** the settings key for the compression level */
+    protected static final String CFGKEY_COMPRESSION_LEVEL = "Compression level";
+    /** the settings key for using the compilation cache */
+    protected static final String CFGKEY_USE_CACHE = "Use compilation cache";
+    /** the settings key for comparing the input files' contents for the cache */
+    protected static final String CFGKEY_CACHE_HASH_CONTENTS = "Compare file contents for cache";
 
     /** initial default for the input files column */
     protected static final String DEFAULT_INPUT_COLUMN = "URL";
     /** initial default for the compilation name */
     protected static final String DEFAULT_NAME = "compilation";
+    /** initial default for parsing the input files in parallel */
+    protected static final boolean DEFAULT_PARALLEL_PARSING = false;
+    /** initial default for the number of parsing threads (0 = all available processors) */
+    protected static final int DEFAULT_PARSING_THREADS = 0;
+    /** initial default for the compression, gzip like in former versions */
+    protected static final String DEFAULT_COMPRESSION = XMLCompression.gzip.name();
+    /** initial default for the compression level, the default level of gzip */
+    protected static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    /** initial default for using the compilation cache, also used for workflows of former versions */
+    protected static final boolean DEFAULT_USE_CACHE = false;
+    /** initial default for comparing the input files' contents, else only path, size and modification time */
+    protected static final boolean DEFAULT_CACHE_HASH_CONTENTS = false;
+
+    /** the fractions of the whole execution's progress of the single steps */
+    private static final double PROGRESS_PARSING = 0.6;
+    private static final double PROGRESS_CLUSTERING = 0.1;
+    private static final double PROGRESS_STRUCTURE = 0.1;
+    private static final double PROGRESS_WRITING = 0.2;
+
+    /** the fraction of the parsing progress for loading an existing compilation */
+    private static final double PROGRESS_EXISTING = 0.2;
+
+    /** the number and size of the buffers between the XML writer and the data cell */
+    private static final int PIPE_BUFFERS = 8;
+    private static final int PIPE_BUFFER_SIZE = 1024 * 1024;
+
+    /** the buffer size for unzipping the existing compilation */
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
 
     /** the model of the input files' URLs */
     private final SettingsModelString mInputColumn =
@@ -96,6 +153,27 @@ public class PIACompilerNodeModel extends NodeModel {
     /** the model of the compilation's name */
     private final SettingsModelString mName =
             new SettingsModelString(PIACompilerNodeModel.CFGKEY_NAME, PIACompilerNodeModel.DEFAULT_NAME);
+    /** the model whether to parse the files in parallel */
+    private final SettingsModelBoolean mParallelParsing =
+            new SettingsModelBoolean(PIACompilerNodeModel.CFGKEY_PARALLEL_PARSING, PIACompilerNodeModel.DEFAULT_PARALLEL_PARSING);
+    /** the model of the number of parsing threads */
+    private final SettingsModelIntegerBounded mParsingThreads =
+            new SettingsModelIntegerBounded(PIACompilerNodeModel.CFGKEY_PARSING_THREADS,
+                    PIACompilerNodeModel.DEFAULT_PARSING_THREADS, 0, Integer.MAX_VALUE);
+    /** the model of the compression */
+    private final SettingsModelString mCompression =
+            new SettingsModelString(PIACompilerNodeModel.CFGKEY_COMPRESSION, PIACompilerNodeModel.DEFAULT_COMPRESSION);
+    /** the model of the compression level */
+    private final SettingsModelIntegerBounded mCompressionLevel =
+            new SettingsModelIntegerBounded(PIACompilerNodeModel.CFGKEY_COMPRESSION_LEVEL,
+                    PIACompilerNodeModel.DEFAULT_COMPRESSION_LEVEL, 1, 9);
+    /** the model whether to use the compilation cache */
+    private final SettingsModelBoolean mUseCache =
+            new SettingsModelBoolean(PIACompilerNodeModel.CFGKEY_USE_CACHE, PIACompilerNodeModel.DEFAULT_USE_CACHE);
+    /** the model whether to compare the input files' contents for the cache */
+    private final SettingsModelBoolean mCacheHashContents =
+            new SettingsModelBoolean(PIACompilerNodeModel.CFGKEY_CACHE_HASH_CONTENTS,
+                    PIACompilerNodeModel.DEFAULT_CACHE_HASH_CONTENTS);
 
     /** information parsed from the created PIA XML file */
     private String informationString;
@@ -104,12 +182,16 @@ public class PIACompilerNodeModel extends NodeModel {
     private static final String INTERNALS_INFORMATION = "informationString";
     private static final String INTERNALS_FILE_NAME = "piaCompilerInternals";
 
+    /** the JAXB context for the files and software lists, which is thread safe and expensive to create */
+    private static JAXBContext informationJaxbContext;
+
 
     /**
      * Constructor for the node model.
      */
     protected PIACompilerNodeModel() {
-        super(1, 1);
+        super(new PortType[]{ BufferedDataTable.TYPE, BufferedDataTable.TYPE_OPTIONAL },
+                new PortType[]{ BufferedDataTable.TYPE });
     }
 
 
@@ -118,11 +200,12 @@ public class PIACompilerNodeModel extends NodeModel {
      *
      * @throws IOException
      * @throws InterruptedException
+     * @throws CanceledExecutionException
      */
     @Override
     protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
-            final ExecutionContext exec) throws IOException, InterruptedException  {
-        PIACompiler piaCompiler = new PIASimpleCompiler();
+            final ExecutionContext exec) throws Exception  {
+        PIASimpleCompiler piaCompiler = new PIASimpleCompiler();
 
         PIAMatomoTracker.disableTracking(PIANodesPlugin.isUsageStatisticsDisabled());
         PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_KNIME_CATEGORY,
@@ -139,73 +222,139 @@ public class PIACompilerNodeModel extends NodeModel {
             urlIdx = 0;
         }
 
+        List<File> inputFiles = new ArrayList<>();
         while (rowIt.hasNext()) {
+            exec.checkCanceled();
             DataRow row = rowIt.next();
             DataCell urlCell = row.getCell(urlIdx);
 
-            String fileURL = ((StringValue) urlCell).getStringValue();
-            File file = null;
-            try {
-                // try with URL encoding
-                URL url = new URL(fileURL);
-                file = new File(url.toURI());
-            } catch (Exception e) {
-                file = null;
-            }
+            inputFiles.add(getFileFromURL(((StringValue) urlCell).getStringValue()));
+        }
 
-            if ((file == null) || !file.exists() || !file.canRead()) {
-                // try with "normal" file name
-                file = new File(fileURL);
-            }
+        // the existing compilation (if given), to which the input files are added
+        BufferedDataTable existingTable = inData[1];
+        if ((existingTable != null) && (existingTable.size() < 1)) {
+            throw new IllegalArgumentException("The table of the existing compilation is empty.");
+        }
+
+        // the compilations name (if given)
+        String piaName = mName.getStringValue();
+        if ((piaName == null) || (piaName.trim().length() < 1)) {
+            piaName = DEFAULT_NAME;
+        }
 
-            if ((file == null) || !file.exists() || !file.canRead()) {
-                throw new  IOException("Could not open file: " + fileURL);
+        // an unchanged compilation is taken from the cache
+        PIACompilationCache compilationCache = null;
+        String cacheKey = null;
+        if (mUseCache.getBooleanValue()) {
+            compilationCache = new PIACompilationCache(PIANodesPlugin.getCompilationCacheDirectory(),
+                    PIANodesPlugin.getCompilationCacheSize() * 1024L * 1024L);
+            if (compilationCache.isEnabled()) {
+                cacheKey = createCacheKey(inputFiles, piaName, existingTable, exec);
+            }
+        }
+        if (cacheKey != null) {
+            BufferedDataTable[] cachedTable = loadCachedCompilation(compilationCache, cacheKey, piaName, exec);
+            if (cachedTable != null) {
+                PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_KNIME_CATEGORY,
+                        PIAMatomoTracker.PIA_TRACKING_COMPILER_NAME,
+                        PIAMatomoTracker.PIA_TRACKING_COMPILER_FINISHED, null,
+                        PIANodesPlugin.getVisitorCid());
+                return cachedTable;
             }
+        }
 
-            String fileName = file.getAbsolutePath();
-            String name = file.getName();
+        ExecutionMonitor parsingExec = exec.createSubProgress(PROGRESS_PARSING);
+        ExecutionMonitor filesExec = parsingExec;
+        if (existingTable != null) {
+            Set<String> compiledFiles = loadExistingCompilation(piaCompiler, existingTable,
+                    parsingExec.createSubProgress(PROGRESS_EXISTING));
+
+            // files of the existing compilation are not added again
+            ListIterator<File> fileIt = inputFiles.listIterator();
+            while (fileIt.hasNext()) {
+                File file = fileIt.next();
+                if (compiledFiles.contains(file.getAbsolutePath())) {
+                    logger.info(file.getAbsolutePath() + " is already compiled, it is not added again");
+                    fileIt.remove();
+                }
+            }
 
-            piaCompiler.getDataFromFile(name, fileName, null, null);
+            filesExec = parsingExec.createSubProgress(1.0 - PROGRESS_EXISTING);
         }
 
-        piaCompiler.buildClusterList();
-        piaCompiler.buildIntermediateStructure();
-
-        // set the compilations name (if given)
-        String piaName = mName.getStringValue();
-        if ((piaName != null) && (piaName.trim().length() > 0)) {
-            piaCompiler.setName(piaName);
+        if (mParallelParsing.getBooleanValue() && (inputFiles.size() > 1)) {
+            ParallelInputFileParser.parseFiles(piaCompiler, inputFiles, mParsingThreads.getIntValue(), filesExec);
         } else {
-            piaCompiler.setName(DEFAULT_NAME);
+            for (File file : inputFiles) {
+                MonitoredTask.run(() -> piaCompiler.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null),
+                        filesExec.createSubProgress(1.0 / inputFiles.size()), null, "Parsing " + file.getName());
+            }
         }
+        parsingExec.setProgress(1.0);
 
+        MonitoredTask.run(piaCompiler::buildClusterList,
+                exec.createSubProgress(PROGRESS_CLUSTERING), null, "Building the clusters");
+        MonitoredTask.run(piaCompiler::buildIntermediateStructure,
+                exec.createSubProgress(PROGRESS_STRUCTURE), null, "Building the intermediate structure");
 
-        // write the file directly into the binary cell object, gzipping it along the way
-        PipedInputStream inputStream = new PipedInputStream();
+        // set the compilations name
+        piaCompiler.setName(piaName);
 
-        Runnable writingRunner = new WritingPipeRunnable(logger, inputStream, piaCompiler);
-        Thread writingThread = new Thread(writingRunner);
-        writingThread.start();
 
+        // write the file directly into the binary cell object, compressing it along the way
+        BufferRingPipe pipe = new BufferRingPipe(PIPE_BUFFERS, PIPE_BUFFER_SIZE);
 
-        BinaryObjectCellFactory bofactory = new BinaryObjectCellFactory(exec);
-        logger.debug("starting creation of dataCell");
-        DataCell zippedXMLFileCell = bofactory.create(inputStream);
-        logger.debug("dataCell created");
+        XMLCompression compression = XMLCompression.valueOf(mCompression.getStringValue());
+        OutputStream compressingStream = compression.createOutputStream(pipe.getOutputStream(),
+                mCompressionLevel.getIntValue(), Runtime.getRuntime().availableProcessors());
 
-        // the stream should be finished after the creation of the dataCell
-        inputStream.close();
-        logger.debug("pipedInputStream closed");
+        WritingPipeTask writingTask = new WritingPipeTask(logger, pipe, compressingStream, piaCompiler);
+        ExecutorService writingExecutor = Executors.newSingleThreadExecutor();
+        DataCell zippedXMLFileCell;
+        try {
+            Future<Void> writing = writingExecutor.submit(writingTask);
 
+            ExecutionMonitor writingExec = exec.createSubProgress(PROGRESS_WRITING);
+            writingExec.setMessage("Writing the PIA XML file");
 
-        List<DataCell> dataCells = new ArrayList<>();
-        dataCells.add(zippedXMLFileCell);
+            BinaryObjectCellFactory bofactory = new BinaryObjectCellFactory(exec);
+            logger.debug("starting creation of dataCell");
+            try {
+                zippedXMLFileCell = bofactory.create(new CancelableInputStream(pipe.getInputStream(), writingExec));
+            } catch (CanceledIOException e) {
+                // closing the pipe stops the writing thread
+                pipe.getInputStream().close();
+                throw e.getCause();
+            }
+            writingExec.setProgress(1.0);
+            logger.debug("dataCell created");
 
-        BufferedDataContainer container = exec.createDataContainer(createTableSpec());
-        container.addRowToTable(new DefaultRow(piaCompiler.getName(), dataCells));
-        container.close();
+            // failures of the writer are thrown by the pipe already, but make sure it is finished
+            try {
+                writing.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        } finally {
+            pipe.getInputStream().close();
+            writingExecutor.shutdownNow();
+        }
 
-        informationString = parseZippedXMLFileInformation(zippedXMLFileCell);
+
+        BufferedDataTable table = createOutputTable(piaCompiler.getName(), zippedXMLFileCell, exec);
+
+        // the information is taken from the header captured while writing
+        byte[] xmlHeader = writingTask.getXMLHeader();
+        if (xmlHeader != null) {
+            informationString = parseXMLFileInformation(new ByteArrayInputStream(xmlHeader));
+        } else {
+            logger.debug("header of the PIA XML file was not captured, parsing the written file");
+            informationString = parseCompressedXMLFileInformation(zippedXMLFileCell);
+        }
 
         if (informationString.trim().length() < 1) {
             throw new IllegalStateException("The created XML file could not be parsed.");
@@ -215,59 +364,535 @@ public class PIACompilerNodeModel extends NodeModel {
                 + "\ntotal number PSMs:     " + piaCompiler.getNrPeptideSpectrumMatches()
                 + "\ntotal number peptides: " + piaCompiler.getNrPeptides();
 
+        if (cacheKey != null) {
+            exec.setMessage("Caching the compilation");
+            try (InputStream cellStream = ((BinaryObjectDataValue) zippedXMLFileCell).openInputStream()) {
+                compilationCache.put(cacheKey, cellStream, informationString);
+            } catch (IOException e) {
+                logger.warn("Could not cache the compilation", e);
+            }
+        }
+
 
         PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_KNIME_CATEGORY,
                 PIAMatomoTracker.PIA_TRACKING_COMPILER_NAME,
                 PIAMatomoTracker.PIA_TRACKING_COMPILER_FINISHED, null,
                 PIANodesPlugin.getVisitorCid());
 
-        return new BufferedDataTable[]{container.getTable()};
+        return new BufferedDataTable[]{table};
+    }
+
+
+    /**
+     * Returns the file given by the URL or path.
+     *
+     * @param fileURL
+     * @return
+     * @throws IOException if the file cannot be read
+     */
+    private static File getFileFromURL(String fileURL) throws IOException {
+        File file = null;
+        try {
+            // try with URL encoding
+            URL url = new URL(fileURL);
+            file = new File(url.toURI());
+        } catch (Exception e) {
+            file = null;
+        }
+
+        if ((file == null) || !file.exists() || !file.canRead()) {
+            // try with "normal" file name
+            file = new File(fileURL);
+        }
+
+        if ((file == null) || !file.exists() || !file.canRead()) {
+            throw new  IOException("Could not open file: " + fileURL);
+        }
+
+        return file;
+    }
+
+
+    /**
+     * Opens the existing compilation, i.e. the PIA XML file (compressed or
+     * not) in the first row of the given table. The file is taken from the
+     * first binary object column or, if there is none, the first string
+     * column with its path or URL.
+     *
+     * @param existingTable
+     * @return
+     * @throws IOException
+     */
+    private static InputStream openExistingCompilation(BufferedDataTable existingTable) throws IOException {
+        int columnIdx = getExistingCompilationColumn(existingTable.getDataTableSpec());
+        if (columnIdx < 0) {
+            throw new IOException("No column with the existing compilation found");
+        }
+
+        DataCell cell;
+        try (CloseableRowIterator rowIt = existingTable.iterator()) {
+            cell = rowIt.next().getCell(columnIdx);
+        }
+        if (cell.isMissing()) {
+            throw new IOException("The existing compilation is missing");
+        }
+
+        if (cell instanceof BinaryObjectDataValue) {
+            return ((BinaryObjectDataValue) cell).openInputStream();
+        } else {
+            return new FileInputStream(getFileFromURL(((StringValue) cell).getStringValue()));
+        }
+    }
+
+
+    /**
+     * Returns the index of the column with the existing compilation, see
+     * {@link #openExistingCompilation(BufferedDataTable)}, or -1 if there is
+     * none.
+     */
+    private static int getExistingCompilationColumn(DataTableSpec spec) {
+        int stringIdx = -1;
+        for (int idx = 0; idx < spec.getNumColumns(); idx++) {
+            DataType type = spec.getColumnSpec(idx).getType();
+            if (type.isCompatible(BinaryObjectDataValue.class)) {
+                return idx;
+            } else if ((stringIdx < 0) && type.isCompatible(StringValue.class)) {
+                stringIdx = idx;
+            }
+        }
+        return stringIdx;
+    }
+
+
+    /**
+     * Loads the existing compilation into the (empty) compiler.
+     *
+     * @return the paths of the already compiled files
+     * @throws Exception
+     */
+    private static Set<String> loadExistingCompilation(PIASimpleCompiler piaCompiler,
+            BufferedDataTable existingTable, ExecutionMonitor exec) throws Exception {
+        exec.setMessage("Unzipping the existing compilation");
+        File existingFile = File.createTempFile("piaExistingCompilation", ".pia.xml");
+        existingFile.deleteOnExit();
+        try {
+            try (InputStream is = XMLCompression.openInputStream(
+                    new BufferedInputStream(openExistingCompilation(existingTable), IO_BUFFER_SIZE));
+                    OutputStream os = new FileOutputStream(existingFile)) {
+                byte[] buffer = new byte[IO_BUFFER_SIZE];
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    exec.checkCanceled();
+                    os.write(buffer, 0, len);
+                }
+            }
+
+            Long[] progress = new Long[] {0L};
+            Set<String> compiledFiles = MonitoredTask.run(
+                    () -> IncrementalCompilation.loadCompilation(piaCompiler, existingFile.getAbsolutePath(), progress),
+                    exec, () -> progress[0], "Loading the existing compilation");
+            exec.setProgress(1.0);
+            return compiledFiles;
+        } finally {
+            Files.deleteIfExists(existingFile.toPath());
+        }
     }
 
 
     /**
-     * This class handles the writing of the piaCompiler output to the GZipped
-     * piped input stream.
+     * Creates the key of the compilation cache from the input files, the
+     * existing compilation and all settings, which change the compiled file.
+     * Parsing in parallel creates the same file, so it is not part of the key.
+     *
+     * @return the key or null, if it could not be created
+     * @throws CanceledExecutionException
+     */
+    private String createCacheKey(List<File> inputFiles, String piaName, BufferedDataTable existingTable,
+            ExecutionContext exec) throws CanceledExecutionException {
+        XMLCompression compression = XMLCompression.valueOf(mCompression.getStringValue());
+        String compressionOption = "compression=" + compression.name();
+        if (compression.hasLevel()) {
+            compressionOption += ";level=" + mCompressionLevel.getIntValue();
+        }
+
+        if (mCacheHashContents.getBooleanValue()) {
+            exec.setMessage("Hashing the input files");
+        }
+        String cacheKey;
+        try {
+            String existingOption = "existing=";
+            if (existingTable != null) {
+                try (InputStream is = openExistingCompilation(existingTable)) {
+                    existingOption += PIACompilationCache.hashContent(is);
+                }
+            }
+
+            cacheKey = PIACompilationCache.createKey(inputFiles, mCacheHashContents.getBooleanValue(), piaName,
+                    compressionOption, existingOption, "pianodes=" + PIANodesPlugin.getVersion());
+        } catch (IOException e) {
+            logger.warn("Could not create the key of the compilation cache, compiling without cache", e);
+            cacheKey = null;
+        }
+        exec.checkCanceled();
+
+        return cacheKey;
+    }
+
+
+    /**
+     * Creates the output table from the cached compilation and sets the
+     * information string.
+     *
+     * @return the output table or null, if the compilation is not cached
+     */
+    private BufferedDataTable[] loadCachedCompilation(PIACompilationCache compilationCache, String cacheKey,
+            String piaName, ExecutionContext exec) throws IOException {
+        PIACompilationCache.Entry entry = compilationCache.get(cacheKey);
+        if (entry == null) {
+            logger.debug("compilation is not cached");
+            return null;
+        }
+
+        exec.setMessage("Using the cached compilation");
+        DataCell cachedCell;
+        try (InputStream cachedStream = entry.getContent()) {
+            cachedCell = new BinaryObjectCellFactory(exec).create(cachedStream);
+        }
+
+        informationString = entry.getInformation();
+        return new BufferedDataTable[]{createOutputTable(piaName, cachedCell, exec)};
+    }
+
+
+    /**
+     * Creates the output table with the compiled PIA XML file
+     */
+    private BufferedDataTable createOutputTable(String piaName, DataCell xmlFileCell, ExecutionContext exec) {
+        List<DataCell> dataCells = new ArrayList<>();
+        dataCells.add(xmlFileCell);
+
+        BufferedDataContainer container = exec.createDataContainer(createTableSpec());
+        container.addRowToTable(new DefaultRow(piaName, dataCells));
+        container.close();
+
+        return container.getTable();
+    }
+
+
+    /**
+     * This class handles the writing of the piaCompiler output to the
+     * compressing stream, which writes into the pipe. A failure is passed to
+     * the reading side of the pipe and thrown.
      *
      * @author julian
      *
      */
-    private class WritingPipeRunnable implements Runnable {
+    private class WritingPipeTask implements Callable<Void> {
         private NodeLogger logger;
 
-        private PipedOutputStream outStream;
-        private GZIPOutputStream zipStream;
+        private BufferRingPipe pipe;
+        private OutputStream compressingStream;
         private PIACompiler piaCompiler;
-        private OutputStreamWriter osw;
+        private HeaderCapturingOutputStream headerStream;
+        private CompletionCheckingOutputStream checkingStream;
 
-        public WritingPipeRunnable(NodeLogger logger, PipedInputStream inStream,
-                PIACompiler piaCompiler) throws IOException {
+        public WritingPipeTask(NodeLogger logger, BufferRingPipe pipe, OutputStream compressingStream,
+                PIACompiler piaCompiler) {
             this.logger = logger;
 
-            this.outStream = new PipedOutputStream(inStream);
-            this.zipStream = new GZIPOutputStream(this.outStream);
-            this.osw = new OutputStreamWriter(this.zipStream, StandardCharsets.UTF_8);
+            this.pipe = pipe;
+            this.compressingStream = compressingStream;
+            this.headerStream = new HeaderCapturingOutputStream(this.compressingStream);
+            this.checkingStream = new CompletionCheckingOutputStream(this.headerStream);
 
             this.piaCompiler = piaCompiler;
         }
 
-        public void run() {
+        @Override
+        public Void call() throws IOException {
             try {
-                piaCompiler.writeOutXML(zipStream);
-
-                osw.flush();
-                zipStream.flush();
-                outStream.flush();
-
-                osw.close();
-                logger.debug("outputStreamWriter closed");
-                zipStream.close();
-                logger.debug("zipStream closed");
-                outStream.close();
-                logger.debug("pipedOutputStream closed");
+                // the PIA library only logs failures while writing, so they are checked afterwards
+                piaCompiler.writeOutXML(checkingStream);
+                checkingStream.checkCompleted();
+
+                // closes the pipe as well
+                compressingStream.close();
+                logger.debug("compressing stream closed");
+                return null;
+            } catch (Throwable e) {
+                logger.error("Error writing the compressed file", e);
+                pipe.fail(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the captured header of the written XML or null, if it was
+         * not captured completely.
+         */
+        public byte[] getXMLHeader() {
+            return headerStream.getHeader();
+        }
+    }
+
+
+    /**
+     * Passes the written PIA XML through, but not its closing, and remembers
+     * failures of the underlying stream. Afterwards it can be checked, whether
+     * the XML was written completely, i.e. without failure and up to the
+     * closing tag of the root element.
+     */
+    private static class CompletionCheckingOutputStream extends FilterOutputStream {
+        /** the closing tag of the root element, at the end of the written data */
+        private static final Pattern ROOT_END_PATTERN = Pattern.compile("</([\\w.-]+:)?jPiaXML>\\s*$");
+
+        /** the number of the last written bytes, which are kept */
+        private static final int TAIL_SIZE = 256;
+
+        private IOException failure;
+
+        /** the last written bytes, as ring buffer */
+        private final byte[] tail;
+        private long written;
+
+        public CompletionCheckingOutputStream(OutputStream out) {
+            super(out);
+            this.failure = null;
+            this.tail = new byte[TAIL_SIZE];
+            this.written = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            tail[(int) (written++ % TAIL_SIZE)] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+
+            // only the last bytes are kept
+            int kept = Math.min(len, TAIL_SIZE);
+            written += len - kept;
+            for (int idx = off + len - kept; idx < off + len; idx++) {
+                tail[(int) (written++ % TAIL_SIZE)] = b[idx];
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
             } catch (IOException e) {
-                logger.error("Error writing the gzipped file", e);
+                failure = e;
+                throw e;
+            }
+        }
+
+        /**
+         * Only flushes, the underlying stream is closed after the check.
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Checks, whether the XML was written completely.
+         *
+         * @throws IOException if writing failed or the XML is incomplete
+         */
+        public void checkCompleted() throws IOException {
+            if (failure != null) {
+                throw new IOException("Writing the PIA XML file failed", failure);
+            }
+
+            int length = (int) Math.min(written, TAIL_SIZE);
+            byte[] lastBytes = new byte[length];
+            for (int idx = 0; idx < length; idx++) {
+                lastBytes[idx] = tail[(int) ((written - length + idx) % TAIL_SIZE)];
+            }
+            if (!ROOT_END_PATTERN.matcher(new String(lastBytes, StandardCharsets.UTF_8)).find()) {
+                throw new IOException("The PIA XML file was not written completely, check the log");
+            }
+        }
+    }
+
+
+    /**
+     * Passes the written PIA XML through and keeps a copy of its header, i.e.
+     * everything up to the end of the AnalysisSoftwareList. The header is
+     * written before the (large) lists of spectra, peptides and groups and
+     * contains all information for the summary.
+     */
+    private static class HeaderCapturingOutputStream extends FilterOutputStream {
+        /** the end of the header's last element */
+        private static final byte[] HEADER_END = "AnalysisSoftwareList>".getBytes(StandardCharsets.US_ASCII);
+
+        /** the header is dropped, if it gets larger than this */
+        private static final int MAX_HEADER_SIZE = 64 * 1024 * 1024;
+
+        private ByteArrayOutputStream header;
+        private boolean complete;
+
+        /** the number of already matched bytes of HEADER_END */
+        private int matched;
+        /** the previously captured byte */
+        private int previous;
+        /** whether the currently written tag is a closing tag */
+        private boolean inClosingTag;
+
+        public HeaderCapturingOutputStream(OutputStream out) {
+            super(out);
+            this.header = new ByteArrayOutputStream(64 * 1024);
+            this.complete = false;
+            this.matched = 0;
+            this.previous = -1;
+            this.inClosingTag = false;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (int idx = off; (idx < off + len) && (header != null) && !complete; idx++) {
+                capture(b[idx]);
+            }
+        }
+
+        private void capture(byte b) {
+            if ((header == null) || complete) {
+                return;
+            }
+
+            header.write(b);
+            if (header.size() > MAX_HEADER_SIZE) {
+                header = null;
+                return;
+            }
+
+            if (previous == '<') {
+                inClosingTag = (b == '/');
+            }
+            previous = b;
+
+            if (b == HEADER_END[matched]) {
+                matched++;
+                if (matched == HEADER_END.length) {
+                    complete = inClosingTag;
+                    matched = 0;
+                }
+            } else {
+                matched = (b == HEADER_END[0]) ? 1 : 0;
+            }
+        }
+
+        /**
+         * Returns the captured header as well-formed document, i.e. with the
+         * closing tag of the root element appended, or null if the header is
+         * not (completely) captured.
+         */
+        public byte[] getHeader() {
+            if ((header == null) || !complete) {
+                return null;
+            }
+
+            byte[] captured = header.toByteArray();
+            String rootName = getRootElementName(captured);
+            if (rootName == null) {
+                return null;
+            }
+            byte[] rootEnd = ("\n</" + rootName + ">\n").getBytes(StandardCharsets.UTF_8);
+
+            byte[] document = new byte[captured.length + rootEnd.length];
+            System.arraycopy(captured, 0, document, 0, captured.length);
+            System.arraycopy(rootEnd, 0, document, captured.length, rootEnd.length);
+            return document;
+        }
+
+        /**
+         * Gets the qualified name of the first element, skipping the XML
+         * declaration, processing instructions and comments.
+         */
+        private static String getRootElementName(byte[] xml) {
+            for (int idx = 0; idx < xml.length - 1; idx++) {
+                if ((xml[idx] == '<') && (xml[idx + 1] != '?') && (xml[idx + 1] != '!')) {
+                    int end = idx + 1;
+                    while ((end < xml.length) && (xml[end] != '>') && (xml[end] != '/')
+                            && !Character.isWhitespace(xml[end])) {
+                        end++;
+                    }
+                    return (end > idx + 1) ? new String(xml, idx + 1, end - idx - 1, StandardCharsets.UTF_8) : null;
+                }
             }
+            return null;
+        }
+    }
+
+
+    /**
+     * Checks the execution for cancellation on every read, the created
+     * {@link CanceledIOException} carries the {@link CanceledExecutionException}.
+     */
+    private static class CancelableInputStream extends FilterInputStream {
+        private final ExecutionMonitor exec;
+
+        public CancelableInputStream(InputStream in, ExecutionMonitor exec) {
+            super(in);
+            this.exec = exec;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCanceled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCanceled();
+            return super.read(b, off, len);
+        }
+
+        private void checkCanceled() throws CanceledIOException {
+            try {
+                exec.checkCanceled();
+            } catch (CanceledExecutionException e) {
+                throw new CanceledIOException(e);
+            }
+        }
+    }
+
+
+    /**
+     * Signals the cancellation of the execution while reading a stream.
+     */
+    private static class CanceledIOException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CanceledIOException(CanceledExecutionException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized CanceledExecutionException getCause() {
+            return (CanceledExecutionException) super.getCause();
         }
     }
 
@@ -287,6 +912,11 @@ public class PIACompilerNodeModel extends NodeModel {
     @Override
     protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
             throws InvalidSettingsException {
+        if ((inSpecs.length > 1) && (inSpecs[1] != null) && (getExistingCompilationColumn(inSpecs[1]) < 0)) {
+            throw new InvalidSettingsException(
+                    "The existing compilation needs a column with the PIA XML file or its path.");
+        }
+
         DataTableSpec[] tableSpec = new DataTableSpec[1];
         tableSpec[0] = createTableSpec();
 
@@ -303,6 +933,7 @@ public class PIACompilerNodeModel extends NodeModel {
         DataType type = DataType.getType(BinaryObjectDataCell.class);
 
         List<DataColumnSpec> compilerCols = new ArrayList<>();
+        // the name is kept for compatibility, though the file may be compressed differently
         compilerCols.add(new DataColumnSpecCreator("gzipped PIA XML file", type).createSpec());
 
         return new DataTableSpec(compilerCols.toArray(new DataColumnSpec[]{}));
@@ -316,6 +947,12 @@ public class PIACompilerNodeModel extends NodeModel {
     protected void saveSettingsTo(final NodeSettingsWO settings) {
         mInputColumn.saveSettingsTo(settings);
         mName.saveSettingsTo(settings);
+        mParallelParsing.saveSettingsTo(settings);
+        mParsingThreads.saveSettingsTo(settings);
+        mCompression.saveSettingsTo(settings);
+        mCompressionLevel.saveSettingsTo(settings);
+        mUseCache.saveSettingsTo(settings);
+        mCacheHashContents.saveSettingsTo(settings);
     }
 
 
@@ -327,6 +964,29 @@ public class PIACompilerNodeModel extends NodeModel {
             throws InvalidSettingsException {
         mInputColumn.loadSettingsFrom(settings);
         mName.loadSettingsFrom(settings);
+
+        // settings added later, keep the defaults for older workflows
+        if (settings.containsKey(CFGKEY_PARALLEL_PARSING)) {
+            mParallelParsing.loadSettingsFrom(settings);
+        }
+        if (settings.containsKey(CFGKEY_PARSING_THREADS)) {
+            mParsingThreads.loadSettingsFrom(settings);
+        }
+        if (settings.containsKey(CFGKEY_COMPRESSION)) {
+            mCompression.loadSettingsFrom(settings);
+        }
+        if (settings.containsKey(CFGKEY_COMPRESSION_LEVEL)) {
+            mCompressionLevel.loadSettingsFrom(settings);
+        }
+        if (settings.containsKey(CFGKEY_USE_CACHE)) {
+            mUseCache.loadSettingsFrom(settings);
+        } else {
+            // former workflows do not use the cache
+            mUseCache.setBooleanValue(DEFAULT_USE_CACHE);
+        }
+        if (settings.containsKey(CFGKEY_CACHE_HASH_CONTENTS)) {
+            mCacheHashContents.loadSettingsFrom(settings);
+        }
     }
 
 
@@ -338,6 +998,30 @@ public class PIACompilerNodeModel extends NodeModel {
             throws InvalidSettingsException {
         mInputColumn.validateSettings(settings);
         mName.validateSettings(settings);
+
+        if (settings.containsKey(CFGKEY_PARALLEL_PARSING)) {
+            mParallelParsing.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_PARSING_THREADS)) {
+            mParsingThreads.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_COMPRESSION)) {
+            String compression = settings.getString(CFGKEY_COMPRESSION);
+            try {
+                XMLCompression.valueOf(compression);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidSettingsException("Unknown compression: " + compression);
+            }
+        }
+        if (settings.containsKey(CFGKEY_COMPRESSION_LEVEL)) {
+            mCompressionLevel.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_USE_CACHE)) {
+            mUseCache.validateSettings(settings);
+        }
+        if (settings.containsKey(CFGKEY_CACHE_HASH_CONTENTS)) {
+            mCacheHashContents.validateSettings(settings);
+        }
     }
 
 
@@ -371,9 +1055,24 @@ public class PIACompilerNodeModel extends NodeModel {
 
 
     /**
-     * Returns information about the GZipped PIA XML file
+     * Returns the JAXB context for unmarshalling the files and software
+     * lists, which is created on first use.
+     *
+     * @return
+     * @throws JAXBException
      */
-    private String parseZippedXMLFileInformation(DataCell dataCell) {
+    private static synchronized JAXBContext getInformationJaxbContext() throws JAXBException {
+        if (informationJaxbContext == null) {
+            informationJaxbContext = JAXBContext.newInstance(FilesListXML.class, AnalysisSoftwareList.class);
+        }
+        return informationJaxbContext;
+    }
+
+
+    /**
+     * Returns information about the (compressed) PIA XML file in the cell
+     */
+    private String parseCompressedXMLFileInformation(DataCell dataCell) {
         BinaryObjectDataValue boDataCell = null;
         if (dataCell instanceof BinaryObjectDataValue) {
             boDataCell = (BinaryObjectDataValue) dataCell;
@@ -381,6 +1080,21 @@ public class PIACompilerNodeModel extends NodeModel {
             return "Wrong object class, expected BinaryObjectDataValue, is " + dataCell.getClass().getCanonicalName();
         }
 
+        try {
+            return parseXMLFileInformation(XMLCompression.openInputStream(boDataCell.openInputStream()));
+        } catch (IOException e) {
+            PIACompilerNodeModel.logger.error("Error while opening binary object", e);
+            return "";
+        }
+    }
+
+
+    /**
+     * Returns information about the PIA XML file in the stream, only the
+     * beginning of the file up to the files and software lists is read. The
+     * stream is closed afterwards.
+     */
+    private String parseXMLFileInformation(InputStream inputStream) {
         StringBuilder textSB = new StringBuilder();
         String projectName = null;
 
@@ -393,12 +1107,10 @@ public class PIACompilerNodeModel extends NodeModel {
 
 
         try {
-            InputStream inputStream = boDataCell.openInputStream();
-            inputStream = new GZIPInputStream(inputStream);
             InputStreamReader isr = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
             inputSource = new StreamSource(isr);
 
-            PIACompilerNodeModel.logger.debug("opened gzipped file for parsing");
+            PIACompilerNodeModel.logger.debug("opened file for parsing");
             XMLInputFactory xif = XMLInputFactory.newInstance();
 
             // set up a StAX reader
@@ -428,14 +1140,12 @@ public class PIACompilerNodeModel extends NodeModel {
 
                 if (tag.equalsIgnoreCase("filesList")) {
                     logger.debug("parsing " + tag);
-                    JAXBContext jaxbContext = JAXBContext.newInstance(FilesListXML.class);
-                    Unmarshaller um = jaxbContext.createUnmarshaller();
+                    Unmarshaller um = getInformationJaxbContext().createUnmarshaller();
                     JAXBElement<FilesListXML> umFilesList = um.unmarshal(xmlr, FilesListXML.class);
                     filesList = umFilesList.getValue();
                 } else if (tag.equalsIgnoreCase("AnalysisSoftwareList")) {
                     logger.debug("parsing " + tag);
-                    JAXBContext jaxbContext = JAXBContext.newInstance(AnalysisSoftwareList.class);
-                    Unmarshaller um = jaxbContext.createUnmarshaller();
+                    Unmarshaller um = getInformationJaxbContext().createUnmarshaller();
                     JAXBElement<AnalysisSoftwareList> umSoftwareList = um.unmarshal(xmlr, AnalysisSoftwareList.class);
                     softwareList = umSoftwareList.getValue();
                 } else {
@@ -471,8 +1181,6 @@ public class PIACompilerNodeModel extends NodeModel {
             }
         } catch (JAXBException ex) {
             PIACompilerNodeModel.logger.error("Error while parsing XML file", ex);
-        } catch (IOException e) {
-            PIACompilerNodeModel.logger.error("Error while opening binary object", e);
         } finally {
             if (xmlr != null) {
                 try {
@@ -0,0 +1,554 @@
+package de.mpc.pia.knime.nodes.compiler;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.AccessionOccurrence;
+import de.mpc.pia.intermediate.Modification;
+import de.mpc.pia.intermediate.PIAInputFile;
+import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.modeller.score.ScoreModel;
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.AnalysisSoftware;
+import uk.ac.ebi.jmzidml.model.mzidml.SearchDatabase;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectraData;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationProtocol;
+
+/**
+ * Parses the input files of a compilation in parallel. Each file is parsed
+ * into its own {@link PIASimpleCompiler}, the partial compilations are then
+ * merged into the target compiler strictly in the order of the input files.
+ * <p>
+ * The merge replays the parsed data in the same order the parser created it,
+ * so all IDs (files, accessions, peptides, PSMs, spectra data, databases and
+ * software) are identical to a serial call of
+ * {@link PIACompiler#getDataFromFile(String, String, String, String)} for
+ * each file. As the merge needs internal state of the {@link PIACompiler},
+ * the files are parsed serially, if this state is not accessible (e.g. in
+ * another PIA version).
+ *
+ * @author julian
+ *
+ */
+public final class ParallelInputFileParser {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(ParallelInputFileParser.class);
+
+    /** interval of the cancellation checks while waiting for a file, in milliseconds */
+    private static final long CANCEL_CHECK_INTERVAL = 250;
+
+
+    private ParallelInputFileParser() {
+        // never instantiate this
+    }
+
+
+    /**
+     * Parses the given files with the given number of threads and merges them
+     * into the compiler (in the order of the list).
+     *
+     * @param compiler the compiler, into which the files are merged
+     * @param files the input files
+     * @param nrThreads number of parsing threads, if smaller than 1 all
+     * available processors are used
+     *
+     * @throws InterruptedException
+     */
+    public static void parseFiles(PIASimpleCompiler compiler, List<File> files, int nrThreads)
+            throws InterruptedException {
+        try {
+            parseFiles(compiler, files, nrThreads, new ExecutionMonitor());
+        } catch (CanceledExecutionException e) {
+            // the own monitor is never canceled
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Parses the given files with the given number of threads and merges them
+     * into the compiler (in the order of the list).
+     *
+     * @param compiler the compiler, into which the files are merged
+     * @param files the input files
+     * @param nrThreads number of parsing threads, if smaller than 1 all
+     * available processors are used
+     * @param exec monitor for the progress (by merged files) and cancellation
+     *
+     * @throws InterruptedException
+     * @throws CanceledExecutionException
+     */
+    public static void parseFiles(PIASimpleCompiler compiler, List<File> files, int nrThreads,
+            ExecutionMonitor exec) throws InterruptedException, CanceledExecutionException {
+        parseFiles(compiler, files, nrThreads, exec, PartialState.isAccessible(PartialState.FIELD_NAMES));
+    }
+
+
+    /**
+     * Parses the given files in parallel, if the partial compilations can be
+     * merged, otherwise serially.
+     *
+     * @param compiler
+     * @param files
+     * @param nrThreads
+     * @param exec
+     * @param mergeable whether the state of the partial compilations is accessible
+     *
+     * @throws InterruptedException
+     * @throws CanceledExecutionException
+     */
+    static void parseFiles(PIASimpleCompiler compiler, List<File> files, int nrThreads,
+            ExecutionMonitor exec, boolean mergeable) throws InterruptedException, CanceledExecutionException {
+        if (!mergeable) {
+            LOGGER.warn("The compilations cannot be merged with this PIA version, parsing the files serially");
+            parseSerially(compiler, files, exec);
+            return;
+        }
+
+        int threads = nrThreads;
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        threads = Math.max(1, Math.min(threads, files.size()));
+
+        LOGGER.debug("parsing " + files.size() + " files with " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<PIASimpleCompiler>> partials = new ArrayList<>(files.size());
+            for (File file : files) {
+                partials.add(executor.submit(new PartialParser(file)));
+            }
+
+            // merge strictly in input order, the later files are parsed meanwhile
+            for (int idx = 0; idx < partials.size(); idx++) {
+                exec.setMessage("Parsing " + files.get(idx).getName());
+
+                PIASimpleCompiler partial = null;
+                while (partial == null) {
+                    try {
+                        partial = partials.get(idx).get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        exec.checkCanceled();
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("Error while parsing " + files.get(idx), e.getCause());
+                    }
+                }
+                partials.set(idx, null);
+
+                exec.checkCanceled();
+                mergeCompilation(compiler, partial);
+                LOGGER.debug("merged " + files.get(idx).getName());
+                exec.setProgress((idx + 1.0) / files.size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Parses the given files one after the other directly into the compiler.
+     *
+     * @param compiler
+     * @param files
+     * @param exec
+     *
+     * @throws CanceledExecutionException
+     */
+    private static void parseSerially(PIASimpleCompiler compiler, List<File> files, ExecutionMonitor exec)
+            throws CanceledExecutionException {
+        for (int idx = 0; idx < files.size(); idx++) {
+            File file = files.get(idx);
+            exec.checkCanceled();
+            exec.setMessage("Parsing " + file.getName());
+
+            if (!compiler.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null)) {
+                LOGGER.warn("could not parse " + file.getAbsolutePath());
+            }
+            exec.setProgress((idx + 1.0) / files.size());
+        }
+    }
+
+
+    /**
+     * Parses a single file into its own compilation.
+     */
+    private static class PartialParser implements Callable<PIASimpleCompiler> {
+        private File file;
+
+        public PartialParser(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public PIASimpleCompiler call() {
+            PIASimpleCompiler partial = new PIASimpleCompiler();
+            if (!partial.getDataFromFile(file.getName(), file.getAbsolutePath(), null, null)) {
+                LOGGER.warn("could not parse " + file.getAbsolutePath());
+            }
+            return partial;
+        }
+    }
+
+
+    /**
+     * Merges the data of the partial compilation into the target. The partial
+     * compilation must not be used afterwards, as its objects are taken over
+     * by the target.
+     *
+     * @param target
+     * @param partial
+     */
+    static void mergeCompilation(PIASimpleCompiler target, PIASimpleCompiler partial) {
+        CompilationContent content = new CompilationContent(
+                PartialState.<SpectraData>getSortedMap(partial, "spectraDataMap"),
+                PartialState.<SearchDatabase>getSortedMap(partial, "searchDatabasesMap"),
+                PartialState.<AnalysisSoftware>getSortedMap(partial, "softwareMap"));
+
+        for (PIAInputFile partialFile : PartialState.<PIAInputFile>getSortedMap(partial, "files").values()) {
+            content.files.put(partialFile.getID(), partialFile);
+        }
+        for (Long partialAccID : partial.getAllAccessionIDs()) {
+            content.accessions.put(partialAccID, partial.getAccession(partialAccID));
+
+            Collection<Long> partialPepIDs = partial.getPepIDsFromConnectionMap(partialAccID);
+            if (partialPepIDs != null) {
+                content.accessionPeptides.put(partialAccID, new TreeSet<>(partialPepIDs));
+            }
+        }
+        for (Long partialPSMID : partial.getAllPeptideSpectrumMatcheIDs()) {
+            content.psms.put(partialPSMID, partial.getPeptideSpectrumMatch(partialPSMID));
+        }
+        for (Long partialPepID : partial.getAllPeptideIDs()) {
+            content.peptides.put(partialPepID, partial.getPeptide(partialPepID));
+        }
+
+        mergeContent(target, content);
+    }
+
+
+    /**
+     * Merges the content of a compilation into the target, in the order of the
+     * content's IDs. The content must not be used afterwards, as its objects
+     * are taken over by the target.
+     *
+     * @param target
+     * @param content
+     */
+    static void mergeContent(PIASimpleCompiler target, CompilationContent content) {
+        Map<String, SpectraData> spectraDataMapping = new HashMap<>();
+        for (Map.Entry<String, SpectraData> sdIt : content.spectraData.entrySet()) {
+            spectraDataMapping.put(sdIt.getKey(), target.putIntoSpectraDataMap(sdIt.getValue()));
+        }
+
+        Map<String, SearchDatabase> searchDBMapping = new HashMap<>();
+        for (Map.Entry<String, SearchDatabase> dbIt : content.searchDatabases.entrySet()) {
+            searchDBMapping.put(dbIt.getKey(), target.putIntoSearchDatabasesMap(dbIt.getValue()));
+        }
+
+        Map<String, AnalysisSoftware> softwareMapping = new HashMap<>();
+        for (Map.Entry<String, AnalysisSoftware> swIt : content.software.entrySet()) {
+            softwareMapping.put(swIt.getKey(), target.putIntoSoftwareMap(swIt.getValue()));
+        }
+
+        Map<Long, PIAInputFile> fileMapping = new HashMap<>();
+        for (PIAInputFile partialFile : content.files.values()) {
+            PIAInputFile file = target.insertNewFile(partialFile.getName(), partialFile.getFileName(),
+                    partialFile.getFormat());
+            fileMapping.put(partialFile.getID(), file);
+
+            // re-adding renames the identifications and protocols to the new file ID
+            for (SpectrumIdentification specID
+                    : new ArrayList<>(partialFile.getAnalysisCollection().getSpectrumIdentification())) {
+                file.addSpectrumIdentification(specID);
+            }
+            for (SpectrumIdentificationProtocol protocol
+                    : new ArrayList<>(partialFile.getAnalysisProtocolCollection().getSpectrumIdentificationProtocol())) {
+                file.addSpectrumIdentificationProtocol(protocol);
+            }
+
+            file.updateReferences(spectraDataMapping, searchDBMapping, softwareMapping);
+        }
+
+        Map<Long, Accession> accessionMapping = mergeAccessions(target, content, fileMapping, searchDBMapping);
+        Map<Long, PeptideSpectrumMatch> psmMapping = mergePSMs(target, content, fileMapping);
+        Map<Long, Peptide> peptideMapping = mergePeptides(target, content, accessionMapping, psmMapping);
+
+        for (Map.Entry<Long, SortedSet<Long>> connectionIt : content.accessionPeptides.entrySet()) {
+            Accession accession = accessionMapping.get(connectionIt.getKey());
+            for (Long partialPepID : connectionIt.getValue()) {
+                target.addAccessionPeptideConnection(accession, peptideMapping.get(partialPepID));
+            }
+        }
+    }
+
+
+    /**
+     * Inserts or updates the accessions of the partial compilation in the
+     * target.
+     */
+    private static Map<Long, Accession> mergeAccessions(PIASimpleCompiler target, CompilationContent content,
+            Map<Long, PIAInputFile> fileMapping, Map<String, SearchDatabase> searchDBMapping) {
+        Map<Long, Accession> accessionMapping = new HashMap<>();
+
+        for (Map.Entry<Long, Accession> accIt : content.accessions.entrySet()) {
+            Long partialAccID = accIt.getKey();
+            Accession partialAcc = accIt.getValue();
+
+            Accession accession = target.getAccession(partialAcc.getAccession());
+            if (accession == null) {
+                accession = target.insertNewAccession(partialAcc.getAccession(), partialAcc.getDbSequence());
+            } else if ((accession.getDbSequence() == null) && (partialAcc.getDbSequence() != null)) {
+                accession.setDbSequence(partialAcc.getDbSequence());
+            }
+
+            for (Long fileID : partialAcc.getFiles()) {
+                accession.addFile(fileMapping.get(fileID).getID());
+            }
+
+            for (Map.Entry<Long, String> descIt : partialAcc.getDescriptions().entrySet()) {
+                accession.addDescription(fileMapping.get(descIt.getKey()).getID(), descIt.getValue());
+            }
+
+            for (String dbRef : partialAcc.getSearchDatabaseRefs()) {
+                SearchDatabase db = searchDBMapping.get(dbRef);
+                accession.addSearchDatabaseRef((db != null) ? db.getId() : dbRef);
+            }
+
+            accessionMapping.put(partialAccID, accession);
+        }
+
+        return accessionMapping;
+    }
+
+
+    /**
+     * Re-creates the PSMs of the partial compilation in the target.
+     */
+    private static Map<Long, PeptideSpectrumMatch> mergePSMs(PIASimpleCompiler target, CompilationContent content,
+            Map<Long, PIAInputFile> fileMapping) {
+        Map<Long, PeptideSpectrumMatch> psmMapping = new HashMap<>();
+
+        for (Map.Entry<Long, PeptideSpectrumMatch> psmIt : content.psms.entrySet()) {
+            Long partialPSMID = psmIt.getKey();
+            PeptideSpectrumMatch partialPSM = psmIt.getValue();
+
+            PeptideSpectrumMatch psm = target.createNewPeptideSpectrumMatch(partialPSM.getCharge(),
+                    partialPSM.getMassToCharge(), partialPSM.getDeltaMass(), partialPSM.getRetentionTime(),
+                    partialPSM.getSequence(), partialPSM.getMissedCleavages(), partialPSM.getSourceID(),
+                    partialPSM.getSpectrumTitle(), fileMapping.get(partialPSM.getFile().getID()),
+                    partialPSM.getSpectrumIdentification());
+
+            psm.setIsDecoy(partialPSM.getIsDecoy());
+            psm.setIsUnique(partialPSM.getIsUnique());
+
+            for (ScoreModel score : partialPSM.getScores()) {
+                psm.addScore(score);
+            }
+
+            for (Map.Entry<Integer, Modification> modIt : partialPSM.getModifications().entrySet()) {
+                psm.addModification(modIt.getKey(), modIt.getValue());
+            }
+
+            for (AbstractParam param : partialPSM.getParams()) {
+                psm.addParam(param);
+            }
+
+            target.insertCompletePeptideSpectrumMatch(psm);
+            psmMapping.put(partialPSMID, psm);
+        }
+
+        return psmMapping;
+    }
+
+
+    /**
+     * Inserts or updates the peptides of the partial compilation in the
+     * target.
+     */
+    private static Map<Long, Peptide> mergePeptides(PIASimpleCompiler target, CompilationContent content,
+            Map<Long, Accession> accessionMapping, Map<Long, PeptideSpectrumMatch> psmMapping) {
+        Map<Long, Peptide> peptideMapping = new HashMap<>();
+
+        for (Map.Entry<Long, Peptide> pepIt : content.peptides.entrySet()) {
+            Long partialPepID = pepIt.getKey();
+            Peptide partialPeptide = pepIt.getValue();
+
+            Peptide peptide = target.getPeptide(partialPeptide.getSequence());
+            if (peptide == null) {
+                peptide = target.insertNewPeptide(partialPeptide.getSequence());
+            }
+
+            if (partialPeptide.getSpectra() != null) {
+                for (PeptideSpectrumMatch partialPSM : partialPeptide.getSpectra()) {
+                    PeptideSpectrumMatch psm = psmMapping.get(partialPSM.getID());
+                    if (psm != null) {
+                        peptide.addSpectrum(psm);
+                        if (partialPSM.getPeptide() != null) {
+                            psm.setPeptide(peptide);
+                        }
+                    }
+                }
+            }
+
+            for (AccessionOccurrence occurrence : partialPeptide.getAccessionOccurrences()) {
+                peptide.addAccessionOccurrence(accessionMapping.get(occurrence.getAccession().getID()),
+                        occurrence.getStart(), occurrence.getEnd());
+            }
+
+            peptideMapping.put(partialPepID, peptide);
+        }
+
+        return peptideMapping;
+    }
+
+
+    /**
+     * The data of a compilation, which is merged into a compiler. All maps are
+     * sorted by the order in which the IDs were created.
+     */
+    static final class CompilationContent {
+        final Map<String, SpectraData> spectraData;
+        final Map<String, SearchDatabase> searchDatabases;
+        final Map<String, AnalysisSoftware> software;
+
+        final SortedMap<Long, PIAInputFile> files;
+        final SortedMap<Long, Accession> accessions;
+        final SortedMap<Long, PeptideSpectrumMatch> psms;
+        final SortedMap<Long, Peptide> peptides;
+
+        /** the IDs of the peptides connected to the accessions */
+        final SortedMap<Long, SortedSet<Long>> accessionPeptides;
+
+        CompilationContent(Map<String, SpectraData> spectraData, Map<String, SearchDatabase> searchDatabases,
+                Map<String, AnalysisSoftware> software) {
+            this.spectraData = sortByID(spectraData);
+            this.searchDatabases = sortByID(searchDatabases);
+            this.software = sortByID(software);
+
+            this.files = new TreeMap<>();
+            this.accessions = new TreeMap<>();
+            this.psms = new TreeMap<>();
+            this.peptides = new TreeMap<>();
+            this.accessionPeptides = new TreeMap<>();
+        }
+
+        private static <T> Map<String, T> sortByID(Map<String, T> map) {
+            Map<String, T> sorted = new TreeMap<>(ID_ORDER);
+            sorted.putAll(map);
+            return sorted;
+        }
+    }
+
+
+    /**
+     * Access to the state of {@link PIACompiler}, which is not exposed by the
+     * PIA API. The maps are returned sorted by the order in which the compiler
+     * created their IDs.
+     */
+    static final class PartialState {
+
+        /** the fields of the compiler, which are needed for the merge */
+        static final String[] FIELD_NAMES = {"spectraDataMap", "searchDatabasesMap", "softwareMap", "files"};
+
+
+        private PartialState() {
+            // never instantiate this
+        }
+
+
+        /**
+         * Whether the given fields of the compiler are accessible maps.
+         *
+         * @param fieldNames
+         * @return
+         */
+        static boolean isAccessible(String... fieldNames) {
+            for (String fieldName : fieldNames) {
+                try {
+                    Field field = PIACompiler.class.getDeclaredField(fieldName);
+                    field.setAccessible(true);
+                    if (!Map.class.isAssignableFrom(field.getType())) {
+                        LOGGER.debug("the compilation's " + fieldName + " is no map");
+                        return false;
+                    }
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    LOGGER.debug("Could not access the compilation's " + fieldName, e);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private static <T> Map<String, T> getSortedMap(PIACompiler compiler, String fieldName) {
+            Map<?, T> map;
+            try {
+                Field field = PIACompiler.class.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                map = (Map<?, T>) field.get(compiler);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalStateException("Could not access the compilation's " + fieldName, e);
+            }
+
+            Map<String, T> sorted = new TreeMap<>(ID_ORDER);
+            for (Map.Entry<?, T> entry : map.entrySet()) {
+                sorted.put(entry.getKey().toString(), entry.getValue());
+            }
+            return sorted;
+        }
+    }
+
+
+    /**
+     * Orders IDs like "spectraData_10" by their trailing number (i.e. by the
+     * order of creation).
+     */
+    private static final Comparator<String> ID_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String id1, String id2) {
+            int cmp = Long.compare(trailingNumber(id1), trailingNumber(id2));
+            return (cmp != 0) ? cmp : id1.compareTo(id2);
+        }
+
+        private long trailingNumber(String id) {
+            int pos = id.length();
+            while ((pos > 0) && Character.isDigit(id.charAt(pos - 1))) {
+                pos--;
+            }
+            if ((pos == id.length()) || (id.length() - pos > 18)) {
+                return Long.MAX_VALUE;
+            }
+            return Long.parseLong(id.substring(pos));
+        }
+    };
+}
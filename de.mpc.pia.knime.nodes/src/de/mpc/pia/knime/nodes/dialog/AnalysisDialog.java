@@ -96,6 +96,8 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
     private JCheckBox checkCreatePSMSets;
     /** checkbox to select, whether modifications are considered to distinguish peptides */
     private JCheckBox checkConsiderModifications;
+    /** checkbox to select, whether the execution statistics are collected */
+    private JCheckBox checkExecutionStatistics;
     /** selection box to select the input column */
     private ColumnSelectionComboxBox inputColumnBox;
     /** the combobox for the available export levels */
@@ -106,6 +108,14 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
     private JCheckBox checkExportFilter;
     /** the export file basename*/
     private JTextField fieldExportFileBasename;
+    /** list of the additional exports (format and level) */
+    private JList<String> listAdditionalExports;
+    /** button to add the selected format and level to the additional exports */
+    private JButton addAdditionalExportButton;
+    /** button to remove an additional export */
+    private JButton removeAdditionalExportButton;
+    /** gzip the CSV/TSV exports */
+    private JCheckBox checkExportCompress;
 
 
     /** text field for the selected file, for which the PSM export should be performed */
@@ -154,6 +164,8 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
     private ButtonGroup radioGrpInferenceMethod;
     /** the filters for the protein inference */
     private FilterPanel filtersProteinInference;
+    /** the number of threads used by the protein inference */
+    private JFormattedTextField fieldInferenceThreads;
     /** button group to select the protin scoring method */
     private ButtonGroup radioGrpProteinScoring;
     /** the combobox for the available base scores for protein scoring */
@@ -213,6 +225,19 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
             updateFilterExportPossible();
         } else if (e.getSource().equals(comboExportFormat)) {
             updateFilterExportPossible();
+        } else if (e.getSource().equals(addAdditionalExportButton) && (comboExportFormat.getSelectedItem() != null)
+                && !ExportLevels.none.equals(comboExportLevel.getSelectedItem())) {
+            String target = new ExportTarget((ExportFormats) comboExportFormat.getSelectedItem(),
+                    (ExportLevels) comboExportLevel.getSelectedItem()).toString();
+            DefaultListModel<String> exportsModel = (DefaultListModel<String>) listAdditionalExports.getModel();
+            if (!exportsModel.contains(target)) {
+                exportsModel.addElement(target);
+            }
+            updateFilterExportPossible();
+        } else if (e.getSource().equals(removeAdditionalExportButton) && (listAdditionalExports.getSelectedIndex() > -1)) {
+            ((DefaultListModel<String>) listAdditionalExports.getModel()).remove(
+                    listAdditionalExports.getSelectedIndex());
+            updateFilterExportPossible();
         }
     }
 
@@ -248,6 +273,7 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         boolean enabled = checkInferProteins.isSelected();
 
         filtersProteinInference.setEnabled(enabled);
+        fieldInferenceThreads.setEnabled(enabled);
         comboAvailableBaseScores.setEnabled(enabled);
         filtersProteinLevel.setEnabled(enabled);
 
@@ -285,12 +311,21 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         settings.put(PIASettings.CREATE_PSMSETS.getKey(), checkCreatePSMSets.isSelected());
         // consider modifications
         settings.put(PIASettings.CONSIDER_MODIFICATIONS.getKey(), checkConsiderModifications.isSelected());
+        // execution statistics
+        settings.put(PIASettings.EXECUTION_STATISTICS.getKey(), checkExecutionStatistics.isSelected());
         // export level and format
         settings.put(PIASettings.EXPORT_FILTER.getKey(), checkExportFilter.isSelected() && checkExportFilter.isEnabled());
         settings.put(PIASettings.EXPORT_LEVEL.getKey(), comboExportLevel.getSelectedItem().toString());
         settings.put(PIASettings.EXPORT_FORMAT.getKey(), comboExportFormat.getSelectedItem() != null ?
                 comboExportFormat.getSelectedItem().toString() : null);
         settings.put(PIASettings.EXPORT_FILEBASENAME.getKey(), fieldExportFileBasename.getText().trim());
+        DefaultListModel<String> exportsModel = (DefaultListModel<String>) listAdditionalExports.getModel();
+        String[] additionalExports = new String[exportsModel.getSize()];
+        for (int i = 0; i < exportsModel.getSize(); i++) {
+            additionalExports[i] = exportsModel.get(i);
+        }
+        settings.put(PIASettings.EXPORT_ADDITIONAL.getKey(), additionalExports);
+        settings.put(PIASettings.EXPORT_COMPRESS.getKey(), checkExportCompress.isSelected());
 
         // PSM file ID
         settings.put(PIASettings.PSM_ANALYSIS_FILE_ID.getKey(), Integer.parseInt(fieldPSMAnalysisFileID.getText()));
@@ -354,6 +389,9 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         }
         settings.put(PIASettings.PROTEIN_INFERENCE_FILTERS.getKey(), filtersArr);
 
+        // threads of the protein inference
+        settings.put(PIASettings.PROTEIN_INFERENCE_THREADS.getKey(), Integer.parseInt(fieldInferenceThreads.getText()));
+
         // scoring method used by protein inference
         settings.put(PIASettings.PROTEIN_SCORING_METHOD.getKey(), radioGrpProteinScoring.getSelection().getActionCommand());
 
@@ -401,6 +439,9 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         // consider modifications
         checkConsiderModifications.setSelected(
                 settings.getBoolean(PIASettings.CONSIDER_MODIFICATIONS.getKey(), PIASettings.CONSIDER_MODIFICATIONS.getDefaultBoolean()));
+        // execution statistics
+        checkExecutionStatistics.setSelected(
+                settings.getBoolean(PIASettings.EXECUTION_STATISTICS.getKey(), PIASettings.EXECUTION_STATISTICS.getDefaultBoolean()));
 
         // export level and format and filter
         comboExportLevel.setSelectedItem(
@@ -415,6 +456,15 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         }
         comboExportFormat.setSelectedItem(format);
 
+        DefaultListModel<String> exportsModel = (DefaultListModel<String>) listAdditionalExports.getModel();
+        exportsModel.removeAllElements();
+        for (String target
+                : settings.getStringArray(PIASettings.EXPORT_ADDITIONAL.getKey(), PIASettings.EXPORT_ADDITIONAL.getDefaultStringArray())) {
+            exportsModel.addElement(target);
+        }
+
+        checkExportCompress.setSelected(settings.getBoolean(PIASettings.EXPORT_COMPRESS.getKey(), PIASettings.EXPORT_COMPRESS.getDefaultBoolean()));
+
         checkExportFilter.setSelected(settings.getBoolean(PIASettings.EXPORT_FILTER.getKey(), PIASettings.EXPORT_FILTER.getDefaultBoolean()));
         updateFilterExportPossible();
 
@@ -487,6 +537,10 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         replaceAppliedFilters(settings.getStringArray(PIASettings.PROTEIN_INFERENCE_FILTERS.getKey(), PIASettings.PROTEIN_INFERENCE_FILTERS.getDefaultStringArray()),
                 filtersProteinInference);
 
+        // threads of the protein inference
+        fieldInferenceThreads.setValue(
+                settings.getInt(PIASettings.PROTEIN_INFERENCE_THREADS.getKey(), PIASettings.PROTEIN_INFERENCE_THREADS.getDefaultInteger()));
+
         // scoring method used by protein inference
         updateSelectedRadioButtonInGroup(
                 settings.getString(PIASettings.PROTEIN_SCORING_METHOD.getKey(), PIASettings.PROTEIN_SCORING_METHOD.getDefaultString()),
@@ -563,6 +617,7 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
 
         case peptide:
             comboExportFormat.addItem(ExportFormats.csv);
+            comboExportFormat.addItem(ExportFormats.tsv);
             break;
 
         case none:
@@ -578,23 +633,17 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
     private void updateFilterExportPossible() {
         ExportLevels exportLvl = (ExportLevels)comboExportLevel.getSelectedItem();
         ExportFormats exportFormat = (ExportFormats)comboExportFormat.getSelectedItem();
-        boolean filterEnabled = true;
 
         // check, which format and levels are selected and enable/disable the filtering accordingly
-        if (ExportLevels.none.equals(exportLvl) ||
-                (ExportLevels.protein.equals(exportLvl) && ExportFormats.mzIdentML.equals(exportFormat))) {
-            filterEnabled = false;
-        }
-
-
-        // implementation-check (hard-coded for working export)
-        // TODO: implement all and remove this
-        if (filterEnabled &&
-                // works only for mzIdentML for now
-                ExportFormats.mzIdentML.equals(exportFormat)) {
-            filterEnabled = true;
-        } else {
-            filterEnabled = false;
+        boolean filterEnabled = !ExportLevels.none.equals(exportLvl) && (exportFormat != null)
+                && new ExportTarget(exportFormat, exportLvl).isFilterPossible();
+
+        // the filter is also used by the filterable additional exports
+        if (!filterEnabled && (listAdditionalExports != null)) {
+            DefaultListModel<String> exportsModel = (DefaultListModel<String>) listAdditionalExports.getModel();
+            for (int i = 0; i < exportsModel.getSize(); i++) {
+                filterEnabled |= ExportTarget.valueOf(exportsModel.get(i)).isFilterPossible();
+            }
         }
 
         checkExportFilter.setEnabled(filterEnabled);
@@ -993,6 +1042,35 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         proteinInferencePanel.add(filtersProteinInference, infGBC);
         // InferenceFilters <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 
+        // InferenceThreads >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+        JPanel threadsPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints threadsGBC = new GridBagConstraints();
+        threadsGBC.fill = GridBagConstraints.HORIZONTAL;
+        threadsGBC.insets = new Insets(5, 0, 5, 5);
+
+        threadsGBC.gridx = 0;
+        threadsGBC.gridy = 0;
+        threadsPanel.add(new JLabel("Inference threads:"), threadsGBC);
+
+        NumberFormat nf = NumberFormat.getNumberInstance();
+        nf.setMaximumFractionDigits(0);
+        nf.setGroupingUsed(false);
+
+        fieldInferenceThreads = new JFormattedTextField(nf);
+        fieldInferenceThreads.setValue(PIASettings.PROTEIN_INFERENCE_THREADS.getDefaultInteger());
+        fieldInferenceThreads.setColumns(4);
+        threadsGBC.gridx = 1;
+        threadsPanel.add(fieldInferenceThreads, threadsGBC);
+
+        threadsGBC.gridx = 2;
+        threadsGBC.weightx = 1.0;
+        threadsPanel.add(new JLabel("(0 for all threads of the analysis, see the PIA preferences)"), threadsGBC);
+
+        infGBC.gridx = 1;
+        infGBC.gridy = panelRow++;
+        proteinInferencePanel.add(threadsPanel, infGBC);
+        // InferenceThreads <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+
         c.gridx = 0;
         c.gridy = row++;
         c.gridwidth = 1;
@@ -1212,6 +1290,14 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         generalSettingsPanel.add(checkConsiderModifications, c);
         // consider modifications <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 
+        // execution statistics >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+        checkExecutionStatistics = new JCheckBox("Collect execution statistics (timing and memory of each phase in the statistics table)");
+        checkExecutionStatistics.setSelected(PIASettings.EXECUTION_STATISTICS.getDefaultBoolean());
+
+        c.gridy = row++;
+        generalSettingsPanel.add(checkExecutionStatistics, c);
+        // execution statistics <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+
         // Export settings >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
         JPanel exportSettingsPanel = new  JPanel(new GridBagLayout());
         exportSettingsPanel.setBorder(BorderFactory.createTitledBorder("Export settings"));
@@ -1274,6 +1360,49 @@ public class AnalysisDialog extends JTabbedPane implements ActionListener, Chang
         c.weightx = 1.0;
         exportSettingsPanel.add(fieldExportFileBasename, c);
 
+        c.gridx = 0;
+        c.gridy = 5;
+        c.gridwidth = 1;
+        c.weightx = 0.0;
+        exportSettingsPanel.add(new JLabel("Additional exports:"), c);
+
+        listAdditionalExports = new JList<>(new DefaultListModel<>());
+        listAdditionalExports.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        listAdditionalExports.setLayoutOrientation(JList.VERTICAL);
+        listAdditionalExports.setVisibleRowCount(3);
+        c.gridx = 1;
+        c.gridy = 5;
+        c.gridwidth = 1;
+        c.weightx = 1.0;
+        exportSettingsPanel.add(new JScrollPane(listAdditionalExports), c);
+
+        JPanel exportButtonsPanel = new JPanel();
+        exportButtonsPanel.setLayout(new BoxLayout(exportButtonsPanel, BoxLayout.X_AXIS));
+
+        addAdditionalExportButton = new JButton("Add level and format");
+        addAdditionalExportButton.addActionListener(this);
+        exportButtonsPanel.add(addAdditionalExportButton);
+
+        exportButtonsPanel.add(Box.createRigidArea(new Dimension(5, 0)));
+
+        removeAdditionalExportButton = new JButton("Remove");
+        removeAdditionalExportButton.addActionListener(this);
+        exportButtonsPanel.add(removeAdditionalExportButton);
+
+        c.gridx = 1;
+        c.gridy = 6;
+        c.gridwidth = 1;
+        c.weightx = 1.0;
+        exportSettingsPanel.add(exportButtonsPanel, c);
+
+        checkExportCompress = new JCheckBox("Compress CSV/TSV exports (gzip)");
+        checkExportCompress.setSelected(PIASettings.EXPORT_COMPRESS.getDefaultBoolean());
+        c.gridx = 0;
+        c.gridy = 7;
+        c.gridwidth = 2;
+        c.weightx = 1.0;
+        exportSettingsPanel.add(checkExportCompress, c);
+
         c.gridx = 0;
         c.gridy = row++;
         c.gridwidth = 2;
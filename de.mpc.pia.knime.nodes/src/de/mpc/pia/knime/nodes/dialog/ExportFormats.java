@@ -8,6 +8,7 @@ package de.mpc.pia.knime.nodes.dialog;
  */
 public enum ExportFormats {
     csv,
+    tsv,
     idXML,
     mzIdentML,
     mzTab
@@ -0,0 +1,115 @@
+package de.mpc.pia.knime.nodes.dialog;
+
+/**
+ * A combination of export format and level, stored in the settings as
+ * "format:level".
+ *
+ * @author julian
+ *
+ */
+public class ExportTarget {
+
+    /** separates format and level in the settings string */
+    private static final String SEPARATOR = ":";
+
+    /** the export format */
+    private final ExportFormats format;
+
+    /** the export level */
+    private final ExportLevels level;
+
+
+    public ExportTarget(ExportFormats format, ExportLevels level) {
+        if ((format == null) || (level == null) || ExportLevels.none.equals(level)) {
+            throw new IllegalArgumentException("Invalid export target: " + format + SEPARATOR + level);
+        }
+        this.format = format;
+        this.level = level;
+    }
+
+
+    /**
+     * Parses the target from its settings string
+     *
+     * @param target
+     * @return
+     */
+    public static ExportTarget valueOf(String target) {
+        String[] split = target.split(SEPARATOR, 2);
+        if (split.length != 2) {
+            throw new IllegalArgumentException("Invalid export target: " + target);
+        }
+        return new ExportTarget(ExportFormats.valueOf(split[0]), ExportLevels.valueOf(split[1]));
+    }
+
+
+    public ExportFormats getFormat() {
+        return format;
+    }
+
+
+    public ExportLevels getLevel() {
+        return level;
+    }
+
+
+    /**
+     * Whether the export of this format and level can be filtered (currently
+     * mzIdentML on PSM and peptide level and CSV/TSV on all levels).
+     *
+     * @return
+     */
+    public boolean isFilterPossible() {
+        return (ExportFormats.mzIdentML.equals(format) && !ExportLevels.protein.equals(level))
+                || isFlatFile();
+    }
+
+
+    /**
+     * Whether the format is a flat CSV or TSV file, which may be compressed.
+     *
+     * @return
+     */
+    public boolean isFlatFile() {
+        return ExportFormats.csv.equals(format) || ExportFormats.tsv.equals(format);
+    }
+
+
+    /**
+     * The file suffix of the format
+     *
+     * @return
+     */
+    public String getFileSuffix() {
+        // save mzIdentML files as the recommended ".mzid"
+        return ExportFormats.mzIdentML.equals(format) ? "mzid" : format.toString();
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ExportTarget)) {
+            return false;
+        }
+        ExportTarget other = (ExportTarget) obj;
+        return format.equals(other.format) && level.equals(other.level);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * format.hashCode() + level.hashCode();
+    }
+
+
+    /**
+     * The settings string of the target
+     */
+    @Override
+    public String toString() {
+        return format + SEPARATOR + level;
+    }
+}
@@ -14,6 +14,27 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
     /** Preferences key for the field to turn off usage statistics collections at all. */
     public static final String PREF_USAGE_STATISTICS_OFF = "de.mpc.pia.usageStatisticsDisabled";
 
+    /** Preferences key for the maximal heap (in MB) used to cache loaded PIA models between executions. */
+    public static final String PREF_MODELLER_CACHE_SIZE = "de.mpc.pia.modellerCacheSize";
+
+    /** Preferences key for the field to filter the reports by the modellers instead of the fused filters. */
+    public static final String PREF_FUSED_FILTERS_DISABLED = "de.mpc.pia.fusedFiltersDisabled";
+
+    /** Preferences key for the number of threads of a PIA analysis execution (0 uses the size of KNIME's thread pool). */
+    public static final String PREF_ANALYSIS_THREADS = "de.mpc.pia.analysisThreads";
+
+    /** Preferences key for the maximal disk space (in MB) used to cache compiled PIA XML files. */
+    public static final String PREF_COMPILATION_CACHE_SIZE = "de.mpc.pia.compilationCacheSize";
+
+    /** Preferences key for the directory of the cached PIA XML files (empty for the KNIME home directory). */
+    public static final String PREF_COMPILATION_CACHE_DIRECTORY = "de.mpc.pia.compilationCacheDirectory";
+
+    /** default heap (in MB) used to cache loaded PIA models */
+    public static final int DEFAULT_MODELLER_CACHE_SIZE = 512;
+
+    /** default disk space (in MB) used to cache compiled PIA XML files */
+    public static final int DEFAULT_COMPILATION_CACHE_SIZE = 2048;
+
 
     @Override
     public void initializeDefaultPreferences() {
@@ -23,5 +44,10 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
         // current or old default values get overwritten by new defaults, therefore this is a workaround to initialize the random value at another place
         store.setDefault(PREF_USAGE_STATISTICS_VISITOR_CID, "newCid"); //$NON-NLS-1$
         store.setDefault(PREF_USAGE_STATISTICS_OFF, false);
+        store.setDefault(PREF_MODELLER_CACHE_SIZE, DEFAULT_MODELLER_CACHE_SIZE);
+        store.setDefault(PREF_FUSED_FILTERS_DISABLED, false);
+        store.setDefault(PREF_ANALYSIS_THREADS, 0);
+        store.setDefault(PREF_COMPILATION_CACHE_SIZE, DEFAULT_COMPILATION_CACHE_SIZE);
+        store.setDefault(PREF_COMPILATION_CACHE_DIRECTORY, "");
     }
 }
@@ -1,8 +1,10 @@
 package de.mpc.pia.knime.nodes.preferences;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
+import org.eclipse.jface.preference.DirectoryFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.ui.IWorkbench;
@@ -24,6 +26,21 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
     /** field to edit the visitor Cid */
     private StringFieldEditor visitorCidFieldEditor;
 
+    /** field to edit the heap used for caching loaded PIA models */
+    private IntegerFieldEditor modellerCacheSizeFieldEditor;
+
+    /** field to filter the reports by the modellers instead of the fused filters */
+    private BooleanFieldEditor fusedFiltersDisabledFieldEditor;
+
+    /** field to edit the number of threads for the FDR calculation */
+    private IntegerFieldEditor analysisThreadsFieldEditor;
+
+    /** field to edit the disk space used for caching compiled PIA XML files */
+    private IntegerFieldEditor compilationCacheSizeFieldEditor;
+
+    /** field to edit the directory of the cached PIA XML files */
+    private DirectoryFieldEditor compilationCacheDirectoryFieldEditor;
+
 
     /**
      * Default creator
@@ -54,6 +71,32 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
         usageStatisticsDisabledFieldEditor = new BooleanFieldEditor(
                 PreferenceInitializer.PREF_USAGE_STATISTICS_OFF, "Disable sending of usage statistics", parent);
         addField(usageStatisticsDisabledFieldEditor);
+
+        modellerCacheSizeFieldEditor = new IntegerFieldEditor(PreferenceInitializer.PREF_MODELLER_CACHE_SIZE,
+                "Heap used for caching loaded PIA XML files (MB, 0 disables caching)", parent);
+        modellerCacheSizeFieldEditor.setValidRange(0, Integer.MAX_VALUE);
+        addField(modellerCacheSizeFieldEditor);
+
+        fusedFiltersDisabledFieldEditor = new BooleanFieldEditor(PreferenceInitializer.PREF_FUSED_FILTERS_DISABLED,
+                "Filter reports without fused filters (slower, e.g. for verification)", parent);
+        addField(fusedFiltersDisabledFieldEditor);
+
+        analysisThreadsFieldEditor = new IntegerFieldEditor(PreferenceInitializer.PREF_ANALYSIS_THREADS,
+                "Threads of a PIA analysis, e.g. for the FDRs, inference, tables and exports "
+                + "(0 uses the size of KNIME's thread pool)", parent);
+        analysisThreadsFieldEditor.setValidRange(0, 1024);
+        addField(analysisThreadsFieldEditor);
+
+        compilationCacheSizeFieldEditor = new IntegerFieldEditor(PreferenceInitializer.PREF_COMPILATION_CACHE_SIZE,
+                "Disk space used for caching compiled PIA XML files (MB, 0 disables caching)", parent);
+        compilationCacheSizeFieldEditor.setValidRange(0, Integer.MAX_VALUE);
+        addField(compilationCacheSizeFieldEditor);
+
+        compilationCacheDirectoryFieldEditor = new DirectoryFieldEditor(
+                PreferenceInitializer.PREF_COMPILATION_CACHE_DIRECTORY,
+                "Directory of the compilation cache (empty for the KNIME home)", parent);
+        compilationCacheDirectoryFieldEditor.setEmptyStringAllowed(true);
+        addField(compilationCacheDirectoryFieldEditor);
     }
 
 
@@ -67,6 +110,27 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
         String visitorCid = visitorCidFieldEditor.getStringValue();
         store.setValue(PreferenceInitializer.PREF_USAGE_STATISTICS_VISITOR_CID, visitorCid);
 
+        if (modellerCacheSizeFieldEditor.isValid()) {
+            store.setValue(PreferenceInitializer.PREF_MODELLER_CACHE_SIZE,
+                    modellerCacheSizeFieldEditor.getIntValue());
+        }
+
+        store.setValue(PreferenceInitializer.PREF_FUSED_FILTERS_DISABLED,
+                fusedFiltersDisabledFieldEditor.getBooleanValue());
+
+        if (analysisThreadsFieldEditor.isValid()) {
+            store.setValue(PreferenceInitializer.PREF_ANALYSIS_THREADS,
+                    analysisThreadsFieldEditor.getIntValue());
+        }
+
+        if (compilationCacheSizeFieldEditor.isValid()) {
+            store.setValue(PreferenceInitializer.PREF_COMPILATION_CACHE_SIZE,
+                    compilationCacheSizeFieldEditor.getIntValue());
+        }
+
+        store.setValue(PreferenceInitializer.PREF_COMPILATION_CACHE_DIRECTORY,
+                compilationCacheDirectoryFieldEditor.getStringValue().trim());
+
         return true;
     }
 }
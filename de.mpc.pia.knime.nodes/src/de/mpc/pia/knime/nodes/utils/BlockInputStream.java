@@ -0,0 +1,156 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Base of the streams, which decompress their input block by block.
+ *
+ * @author julian
+ *
+ */
+public abstract class BlockInputStream extends InputStream {
+
+    /** the compressed stream */
+    protected final InputStream in;
+
+    /** the current decompressed block */
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    private boolean finished;
+
+
+    protected BlockInputStream(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[0];
+        this.position = 0;
+        this.limit = 0;
+        this.finished = false;
+    }
+
+
+    /**
+     * Reads and decompresses the next block and sets it by
+     * {@link #setBlock(byte[], int)}.
+     *
+     * @return false, if the end of the stream is reached
+     * @throws IOException
+     */
+    protected abstract boolean readNextBlock() throws IOException;
+
+
+    /**
+     * Sets the decompressed block, which is read next.
+     */
+    protected void setBlock(byte[] block, int length) {
+        this.buffer = block;
+        this.position = 0;
+        this.limit = length;
+    }
+
+
+    /**
+     * Gets the buffer of the last set block for reuse, may be shorter than
+     * needed.
+     */
+    protected byte[] getBlockBuffer() {
+        return buffer;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+
+        int read = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        in.close();
+    }
+
+
+    /**
+     * Reads blocks until data is available.
+     *
+     * @return false, if the end of the stream is reached
+     */
+    private boolean fillBuffer() throws IOException {
+        while (position >= limit) {
+            if (finished || !readNextBlock()) {
+                finished = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Reads exactly len bytes from the compressed stream.
+     *
+     * @return false, if the stream ended before the first byte
+     * @throws EOFException if the stream ended within the bytes
+     */
+    protected boolean readFully(byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int count = in.read(b, off + read, len - read);
+            if (count < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of compressed data");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+
+    /**
+     * Skips exactly len bytes of the compressed stream.
+     */
+    protected void skipFully(long len) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of compressed data");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands the data of a writing thread over to a reading thread, like
+ * {@link java.io.PipedOutputStream} and {@link java.io.PipedInputStream}, but
+ * through a bounded ring of large buffers. The writer fills a buffer while
+ * the reader reads the previously filled ones, so neither waits for the other
+ * per write call. A buffer is passed to the reader, when it is full or the
+ * writing side is closed.
+ * <p>
+ * A failure of the writer is passed by {@link #fail(Throwable)} to the reader,
+ * which gets an {@link IOException} instead of the end of the stream. Closing
+ * the reading side before the end stops the writer with an
+ * {@link IOException} on its next write.
+ *
+ * @author julian
+ *
+ */
+public class BufferRingPipe {
+
+    /** a buffer of the ring with its filled length */
+    private static final class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+            this.length = 0;
+        }
+    }
+
+    /** marks the end of the data (or the failure of the writer) */
+    private static final Chunk END_OF_DATA = new Chunk(new byte[0]);
+
+
+    /** the empty buffers for the writer */
+    private final BlockingQueue<Chunk> freeChunks;
+
+    /** the filled buffers for the reader, in order */
+    private final BlockingQueue<Chunk> filledChunks;
+
+    private final RingOutputStream outputStream;
+    private final RingInputStream inputStream;
+
+    /** the failure of the writer */
+    private volatile Throwable writerFailure;
+
+    /** whether the reader closed its stream */
+    private volatile boolean readerClosed;
+
+
+    /**
+     * Creates the pipe with the given ring.
+     *
+     * @param nrBuffers the number of buffers, at least two
+     * @param bufferSize the size of each buffer
+     */
+    public BufferRingPipe(int nrBuffers, int bufferSize) {
+        if (nrBuffers < 2) {
+            throw new IllegalArgumentException("At least two buffers are needed");
+        }
+
+        freeChunks = new ArrayBlockingQueue<>(nrBuffers);
+        // one more for the end of data
+        filledChunks = new ArrayBlockingQueue<>(nrBuffers + 1);
+        for (int i = 0; i < nrBuffers; i++) {
+            freeChunks.add(new Chunk(new byte[bufferSize]));
+        }
+
+        outputStream = new RingOutputStream();
+        inputStream = new RingInputStream();
+        writerFailure = null;
+        readerClosed = false;
+    }
+
+
+    /**
+     * The stream of the writing thread, which must be closed at the end of the
+     * data.
+     *
+     * @return
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+
+    /**
+     * The stream of the reading thread.
+     *
+     * @return
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+
+    /**
+     * Reports a failure of the writer. The reader gets an {@link IOException}
+     * with the failure as cause, after the already written data.
+     *
+     * @param failure
+     */
+    public void fail(Throwable failure) {
+        if (writerFailure == null) {
+            writerFailure = failure;
+        }
+        outputStream.finish();
+    }
+
+
+    /**
+     * The writing side, filling the buffers.
+     */
+    private class RingOutputStream extends OutputStream {
+        private Chunk current;
+        private volatile boolean finished;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureChunk();
+            current.data[current.length++] = (byte) b;
+            if (current.length == current.data.length) {
+                publishChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                ensureChunk();
+                int copied = Math.min(remaining, current.data.length - current.length);
+                System.arraycopy(b, offset, current.data, current.length, copied);
+                current.length += copied;
+                offset += copied;
+                remaining -= copied;
+
+                if (current.length == current.data.length) {
+                    publishChunk();
+                }
+            }
+        }
+
+        /**
+         * Does not pass the partially filled buffer to the reader, as the
+         * writers of XML or compressed data may flush often. The data is
+         * passed, when the buffer is full or the stream closed.
+         */
+        @Override
+        public void flush() throws IOException {
+            checkOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+            checkOpen();
+            if ((current != null) && (current.length > 0)) {
+                publishChunk();
+            }
+            finish();
+        }
+
+        private void checkOpen() throws IOException {
+            if (finished) {
+                throw new IOException("Pipe closed by the writer");
+            }
+            if (readerClosed) {
+                throw new IOException("Pipe closed by the reader");
+            }
+        }
+
+        /**
+         * Takes a free buffer, if none is currently filled.
+         */
+        private void ensureChunk() throws IOException {
+            checkOpen();
+            if (current == null) {
+                try {
+                    current = freeChunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the reader");
+                }
+                // the reader may have closed while waiting
+                checkOpen();
+                current.length = 0;
+            }
+        }
+
+        private void publishChunk() throws IOException {
+            try {
+                filledChunks.put(current);
+                current = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the reader");
+            }
+        }
+
+        /**
+         * Marks the end of the data, there is always space for it.
+         */
+        private synchronized void finish() {
+            if (!finished) {
+                finished = true;
+                filledChunks.offer(END_OF_DATA);
+            }
+        }
+    }
+
+
+    /**
+     * The reading side, returning the read buffers to the writer.
+     */
+    private class RingInputStream extends InputStream {
+        private Chunk current;
+        private int position;
+        private boolean endOfData;
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) {
+                return -1;
+            }
+            return current.data[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureData()) {
+                return -1;
+            }
+
+            int read = Math.min(len, current.length - position);
+            System.arraycopy(current.data, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (current == null) ? 0 : current.length - position;
+        }
+
+        /**
+         * Closes the reading side, the writer fails on its next write.
+         */
+        @Override
+        public void close() {
+            readerClosed = true;
+
+            // return all buffers, a waiting writer wakes up and fails
+            if ((current != null) && (current != END_OF_DATA)) {
+                freeChunks.offer(current);
+            }
+            current = null;
+            Chunk chunk;
+            while ((chunk = filledChunks.poll()) != null) {
+                if (chunk != END_OF_DATA) {
+                    freeChunks.offer(chunk);
+                }
+            }
+        }
+
+        /**
+         * Makes sure, that the current buffer has data to read.
+         *
+         * @return false, if the end of data is reached
+         */
+        private boolean ensureData() throws IOException {
+            if (readerClosed) {
+                throw new IOException("Pipe closed");
+            }
+
+            while (!endOfData && ((current == null) || (position >= current.length))) {
+                if (current != null) {
+                    freeChunks.offer(current);
+                    current = null;
+                }
+
+                Chunk next;
+                try {
+                    next = filledChunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the writer");
+                }
+
+                if (next == END_OF_DATA) {
+                    endOfData = true;
+                } else {
+                    current = next;
+                    position = 0;
+                }
+            }
+
+            if (endOfData && ((current == null) || (position >= current.length))) {
+                if (writerFailure != null) {
+                    throw new IOException("Writing into the pipe failed", writerFailure);
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import de.mpc.pia.modeller.psm.PSMReportItem;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.FilterFactory;
+import de.mpc.pia.modeller.report.filter.FilterType;
+import de.mpc.pia.modeller.report.filter.Filterable;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+
+/**
+ * A list of filters compiled into one predicate, which gives the same results
+ * as {@link FilterFactory#satisfiesFilterList(Filterable, Long, List)}.
+ * <p>
+ * Whether a filter supports an item is only checked once per item class, the
+ * cheap numerical filters are evaluated before the literal and list filters
+ * and the evaluation stops at the first unsatisfied filter. PSM score filters
+ * compare the score directly against the precomputed threshold.
+ *
+ * @author julian
+ *
+ */
+public class FusedFilter {
+
+    /** the compiled filters, cheapest first */
+    private final CompiledFilter[] compiledFilters;
+
+
+    /**
+     * Compiles the given filters.
+     *
+     * @param filters
+     */
+    public FusedFilter(List<AbstractFilter> filters) {
+        List<CompiledFilter> compiled = new ArrayList<>(filters.size());
+        for (AbstractFilter filter : filters) {
+            compiled.add(new CompiledFilter(filter));
+        }
+        // stable sort, filters of the same cost keep their order
+        compiled.sort(Comparator.comparingInt(CompiledFilter::getCost));
+
+        compiledFilters = compiled.toArray(new CompiledFilter[compiled.size()]);
+    }
+
+
+    /**
+     * Whether the item satisfies all filters, which support it.
+     *
+     * @param item
+     * @param fileID passed to the filters for file refinement (may be null)
+     * @return
+     */
+    public boolean satisfiesFilters(Filterable item, Long fileID) {
+        for (CompiledFilter compiledFilter : compiledFilters) {
+            if (compiledFilter.supports(item) && !compiledFilter.satisfies(item, fileID)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns a new list of the items, which satisfy all filters.
+     *
+     * @param items
+     * @param fileID passed to the filters for file refinement (may be null)
+     * @return
+     */
+    public <T extends Filterable> List<T> applyFilters(List<T> items, Long fileID) {
+        List<T> filtered = new ArrayList<>();
+        for (T item : items) {
+            if (satisfiesFilters(item, fileID)) {
+                filtered.add(item);
+            }
+        }
+        return filtered;
+    }
+
+
+    /**
+     * Whether no filters are given at all
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return compiledFilters.length == 0;
+    }
+
+
+    /**
+     * A single filter with the precomputed values for its evaluation
+     */
+    private static class CompiledFilter {
+
+        /** the filter */
+        private final AbstractFilter filter;
+
+        /** relative cost of the evaluation */
+        private final int cost;
+
+        /** the score short name, if the score is directly compared */
+        private final String scoreShortName;
+
+        /** the threshold of a directly compared score */
+        private final double threshold;
+
+        /** the last checked item class and whether it is supported */
+        private volatile SupportedClass lastChecked;
+
+
+        private CompiledFilter(AbstractFilter filter) {
+            this.filter = filter;
+            this.cost = getCost(filter.getFilterType());
+
+            FilterComparator comparator = filter.getFilterComparator();
+            if ((filter instanceof PSMScoreFilter)
+                    && (filter.getFilterValue() instanceof Number)
+                    && !filter.getRegisteredFilter().valueNeedsFileRefinement()
+                    && ((comparator == FilterComparator.less)
+                            || (comparator == FilterComparator.less_equal)
+                            || (comparator == FilterComparator.greater_equal)
+                            || (comparator == FilterComparator.greater))) {
+                this.scoreShortName = ((PSMScoreFilter) filter).getScoreShortName();
+                this.threshold = ((Number) filter.getFilterValue()).doubleValue();
+            } else {
+                this.scoreShortName = null;
+                this.threshold = Double.NaN;
+            }
+        }
+
+
+        private int getCost() {
+            return cost;
+        }
+
+
+        /**
+         * The relative cost of the evaluation of filters with the given type
+         */
+        private static int getCost(FilterType filterType) {
+            if (filterType == null) {
+                return 2;
+            }
+
+            switch (filterType) {
+            case bool:
+            case numerical:
+                return 0;
+            case literal:
+                return 1;
+            default:
+                return 2;
+            }
+        }
+
+
+        /**
+         * Whether the filter supports the item. This is only checked once for
+         * each class of items.
+         */
+        private boolean supports(Object item) {
+            SupportedClass checked = lastChecked;
+            if ((checked == null) || (checked.itemClass != item.getClass())) {
+                checked = new SupportedClass(item.getClass(), filter.supportsClass(item));
+                lastChecked = checked;
+            }
+            return checked.supported;
+        }
+
+
+        /**
+         * Whether the item satisfies the filter
+         */
+        private boolean satisfies(Object item, Long fileID) {
+            if ((scoreShortName != null) && (item instanceof PSMReportItem)) {
+                Double score = ((PSMReportItem) item).getScore(scoreShortName);
+                if (score == null) {
+                    return false;
+                }
+
+                double value = score;
+                boolean satisfied;
+                switch (filter.getFilterComparator()) {
+                case less:
+                    satisfied = value < threshold;
+                    break;
+                case less_equal:
+                    satisfied = value <= threshold;
+                    break;
+                case greater_equal:
+                    satisfied = value >= threshold;
+                    break;
+                case greater:
+                default:
+                    satisfied = value > threshold;
+                    break;
+                }
+                return filter.getFilterNegate() ^ satisfied;
+            }
+
+            return filter.satisfiesFilter(item, fileID);
+        }
+    }
+
+
+    /**
+     * A class of items and whether it is supported by a filter
+     */
+    private static class SupportedClass {
+
+        private final Class<?> itemClass;
+
+        private final boolean supported;
+
+
+        private SupportedClass(Class<?> itemClass, boolean supported) {
+            this.itemClass = itemClass;
+            this.supported = supported;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Decompressor;
+
+/**
+ * Reads the LZ4 frame format with independent blocks, as written by
+ * {@link LZ4FrameOutputStream} or the lz4 command line tool. Concatenated and
+ * skippable frames are supported, checksums are skipped.
+ *
+ * @author julian
+ *
+ */
+public class LZ4FrameInputStream extends BlockInputStream {
+
+    /** the mask of the magic numbers of skippable frames */
+    private static final int SKIPPABLE_MASK = 0xFFFFFFF0;
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    private final Lz4Decompressor decompressor;
+
+    /** buffer for the integers and the frame descriptor */
+    private final byte[] header;
+    private byte[] compressed;
+
+    /** whether currently within a frame, i.e. after the frame's header */
+    private boolean inFrame;
+    private int maxBlockSize;
+    private boolean blockChecksum;
+    private boolean contentChecksum;
+
+
+    public LZ4FrameInputStream(InputStream in) {
+        super(in);
+        this.decompressor = new Lz4Decompressor();
+        this.header = new byte[16];
+        this.compressed = new byte[0];
+        this.inFrame = false;
+    }
+
+
+    @Override
+    protected boolean readNextBlock() throws IOException {
+        while (true) {
+            if (!inFrame) {
+                if (!readFully(header, 0, 4)) {
+                    return false;
+                }
+
+                int magic = LZ4FrameOutputStream.getInt(header, 0);
+                if (magic == XMLCompression.LZ4_MAGIC) {
+                    readFrameDescriptor();
+                    inFrame = true;
+                } else if ((magic & SKIPPABLE_MASK) == SKIPPABLE_MAGIC) {
+                    skipFully(readInt() & 0xFFFFFFFFL);
+                    continue;
+                } else {
+                    throw new IOException("Data is not in the LZ4 frame format");
+                }
+            }
+
+            int blockSize = readInt();
+            if (blockSize == 0) {
+                // end mark of the frame
+                if (contentChecksum) {
+                    skipFully(4);
+                }
+                inFrame = false;
+                continue;
+            }
+
+            boolean uncompressed = (blockSize & LZ4FrameOutputStream.UNCOMPRESSED_BIT) != 0;
+            int length = blockSize & ~LZ4FrameOutputStream.UNCOMPRESSED_BIT;
+            if (length > maxBlockSize) {
+                throw new IOException("LZ4 block exceeds the maximal block size");
+            }
+
+            byte[] block = getBlockBuffer();
+            if (block.length < maxBlockSize) {
+                block = new byte[maxBlockSize];
+            }
+
+            if (uncompressed) {
+                readBlock(block, length);
+                setBlock(block, length);
+            } else {
+                if (compressed.length < maxBlockSize) {
+                    compressed = new byte[maxBlockSize];
+                }
+                readBlock(compressed, length);
+                try {
+                    setBlock(block, decompressor.decompress(compressed, 0, length, block, 0, block.length));
+                } catch (MalformedInputException e) {
+                    throw new IOException("Malformed LZ4 block", e);
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Reads the descriptor of the frame after the magic number.
+     */
+    private void readFrameDescriptor() throws IOException {
+        readRequired(header, 0, 2);
+        int flags = header[0] & 0xff;
+        int blockDescriptor = header[1] & 0xff;
+
+        if ((flags >>> 6) != 1) {
+            throw new IOException("Unsupported LZ4 frame version");
+        }
+        if ((flags & 0x20) == 0) {
+            throw new IOException("LZ4 frames with linked blocks are not supported");
+        }
+        if ((flags & 0x01) != 0) {
+            throw new IOException("LZ4 frames with dictionary are not supported");
+        }
+        blockChecksum = (flags & 0x10) != 0;
+        contentChecksum = (flags & 0x04) != 0;
+
+        int blockSizeId = (blockDescriptor >>> 4) & 0x07;
+        if (blockSizeId < 4) {
+            throw new IOException("Invalid LZ4 maximal block size");
+        }
+        maxBlockSize = 1 << (8 + 2 * blockSizeId);
+
+        int descriptorLength = 2;
+        if ((flags & 0x08) != 0) {
+            // skip the content size
+            readRequired(header, descriptorLength, 8);
+            descriptorLength += 8;
+        }
+
+        readRequired(header, descriptorLength, 1);
+        int checksum = (LZ4FrameOutputStream.xxHash32(header, 0, descriptorLength) >>> 8) & 0xff;
+        if (checksum != (header[descriptorLength] & 0xff)) {
+            throw new IOException("Corrupted LZ4 frame descriptor");
+        }
+    }
+
+
+    private void readBlock(byte[] buffer, int length) throws IOException {
+        readRequired(buffer, 0, length);
+        if (blockChecksum) {
+            skipFully(4);
+        }
+    }
+
+
+    private int readInt() throws IOException {
+        readRequired(header, 0, 4);
+        return LZ4FrameOutputStream.getInt(header, 0);
+    }
+
+
+    private void readRequired(byte[] b, int off, int len) throws IOException {
+        if (!readFully(b, off, len)) {
+            throw new EOFException("Unexpected end of LZ4 data");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.airlift.compress.lz4.Lz4Compressor;
+
+/**
+ * Writes the LZ4 frame format (as written by the lz4 command line tool) with
+ * independent blocks, which are compressed on several threads. Blocks, which
+ * do not get smaller, are stored uncompressed.
+ *
+ * @author julian
+ *
+ */
+public class LZ4FrameOutputStream extends ParallelBlockOutputStream {
+
+    /** FLG byte: version 01, independent blocks, no checksums, no content size */
+    private static final int FLAG_BYTE = 0x60;
+    /** BD byte: maximal block size of 1 MB, fits {@link #BLOCK_SIZE} */
+    private static final int BLOCK_DESCRIPTOR_BYTE = 0x60;
+
+    /** the bit of the block size marking an uncompressed block */
+    static final int UNCOMPRESSED_BIT = 0x80000000;
+
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+
+
+    /**
+     * Creates the stream.
+     *
+     * @param out the stream of the compressed data
+     * @param threads the number of compressing threads
+     */
+    public LZ4FrameOutputStream(OutputStream out, int threads) {
+        super(out, threads);
+    }
+
+
+    @Override
+    protected void writeHeader(OutputStream out) throws IOException {
+        byte[] descriptor = new byte[] {(byte) FLAG_BYTE, (byte) BLOCK_DESCRIPTOR_BYTE};
+
+        writeInt(out, XMLCompression.LZ4_MAGIC);
+        out.write(descriptor);
+        out.write((xxHash32(descriptor, 0, descriptor.length) >>> 8) & 0xff);
+    }
+
+
+    @Override
+    protected void blockSubmitted(byte[] data, int length) {
+        // nothing to do
+    }
+
+
+    @Override
+    protected byte[] compressBlock(byte[] data, int length, byte[] previous, boolean last) {
+        if (length == 0) {
+            return new byte[0];
+        }
+
+        Lz4Compressor compressor = new Lz4Compressor();
+        byte[] compressed = new byte[4 + compressor.maxCompressedLength(length)];
+        int compressedLength = compressor.compress(data, 0, length, compressed, 4, compressed.length - 4);
+
+        if (compressedLength >= length) {
+            System.arraycopy(data, 0, compressed, 4, length);
+            setInt(compressed, 0, length | UNCOMPRESSED_BIT);
+            compressedLength = length;
+        } else {
+            setInt(compressed, 0, compressedLength);
+        }
+
+        byte[] block = new byte[4 + compressedLength];
+        System.arraycopy(compressed, 0, block, 0, block.length);
+        return block;
+    }
+
+
+    @Override
+    protected void writeTrailer(OutputStream out) throws IOException {
+        // the end mark
+        writeInt(out, 0);
+    }
+
+
+    /**
+     * Calculates the xxHash32 (with seed 0) of up to 15 bytes, which is used
+     * for the checksum of the frame descriptor.
+     *
+     * @param data
+     * @param offset
+     * @param length the length, at most 15
+     * @return
+     */
+    static int xxHash32(byte[] data, int offset, int length) {
+        if (length >= 16) {
+            throw new IllegalArgumentException("only short inputs are supported");
+        }
+
+        int hash = PRIME5 + length;
+        int pos = offset;
+        int end = offset + length;
+        while (pos + 4 <= end) {
+            hash += getInt(data, pos) * PRIME3;
+            hash = Integer.rotateLeft(hash, 17) * PRIME4;
+            pos += 4;
+        }
+        while (pos < end) {
+            hash += (data[pos] & 0xff) * PRIME5;
+            hash = Integer.rotateLeft(hash, 11) * PRIME1;
+            pos++;
+        }
+
+        hash ^= hash >>> 15;
+        hash *= PRIME2;
+        hash ^= hash >>> 13;
+        hash *= PRIME3;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+
+    /**
+     * Reads an integer in little endian byte order.
+     */
+    static int getInt(byte[] data, int pos) {
+        return (data[pos] & 0xff)
+                | ((data[pos + 1] & 0xff) << 8)
+                | ((data[pos + 2] & 0xff) << 16)
+                | ((data[pos + 3] & 0xff) << 24);
+    }
+
+
+    private static void setInt(byte[] data, int pos, int value) {
+        data[pos] = (byte) value;
+        data[pos + 1] = (byte) (value >>> 8);
+        data[pos + 2] = (byte) (value >>> 16);
+        data[pos + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,137 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * Runs a long lasting call, which does not know about KNIME's execution
+ * monitor (like parsing or inference in the PIA library), in a separate
+ * thread. Meanwhile the calling thread reports the call's progress and checks
+ * for cancellation.
+ * <p>
+ * On cancellation the call is interrupted and {@link CanceledExecutionException}
+ * is thrown immediately. Calls, which do not react on interruption, finish in
+ * the background and their result is discarded.
+ *
+ * @author julian
+ *
+ */
+public final class MonitoredTask {
+
+    /** interval of the progress and cancellation checks in milliseconds */
+    private static final long POLL_INTERVAL = 250;
+
+
+    private MonitoredTask() {
+        // never instantiate this
+    }
+
+
+    /**
+     * Runs the call and returns its result.
+     *
+     * @param call the call
+     * @param exec monitor for progress and cancellation
+     * @param progress the call's progress in percent, may be null
+     * @param message the progress message
+     * @return
+     * @throws CanceledExecutionException if the execution was canceled
+     * @throws Exception any exception thrown by the call
+     */
+    public static <T> T run(Callable<T> call, ExecutionMonitor exec, LongSupplier progress, String message)
+            throws Exception {
+        exec.setMessage(message);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            T result = await(executor.submit(call), exec, progress);
+            exec.setProgress(1.0);
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Runs the call without a return value.
+     *
+     * @param call the call
+     * @param exec monitor for progress and cancellation
+     * @param progress the call's progress in percent, may be null
+     * @param message the progress message
+     * @throws CanceledExecutionException if the execution was canceled
+     * @throws Exception any exception thrown by the call
+     */
+    public static void run(Runnable call, ExecutionMonitor exec, LongSupplier progress, String message)
+            throws Exception {
+        run(() -> {
+            call.run();
+            return null;
+        }, exec, progress, message);
+    }
+
+
+    /**
+     * Waits for all the already submitted calls, the progress is the share
+     * of finished calls. On cancellation the waited call is interrupted, the
+     * caller should cancel the remaining ones (e.g. by shutting down their
+     * executor).
+     *
+     * @param futures the submitted calls
+     * @param exec monitor for progress and cancellation
+     * @throws CanceledExecutionException if the execution was canceled
+     * @throws Exception any exception thrown by a call
+     */
+    public static void awaitAll(List<? extends Future<?>> futures, ExecutionMonitor exec)
+            throws Exception {
+        for (int idx = 0; idx < futures.size(); idx++) {
+            await(futures.get(idx), exec, null);
+            exec.setProgress((idx + 1.0) / futures.size());
+        }
+    }
+
+
+    /**
+     * Waits for the call's result, while reporting the progress and checking
+     * for cancellation.
+     */
+    private static <T> T await(Future<T> future, ExecutionMonitor exec, LongSupplier progress)
+            throws Exception {
+        while (true) {
+            try {
+                return future.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (progress != null) {
+                    long percent = progress.getAsLong();
+                    if ((percent >= 0) && (percent <= 100)) {
+                        exec.setProgress(percent / 100.0);
+                    }
+                }
+                try {
+                    exec.checkCanceled();
+                } catch (CanceledExecutionException ex) {
+                    future.cancel(true);
+                    throw ex;
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
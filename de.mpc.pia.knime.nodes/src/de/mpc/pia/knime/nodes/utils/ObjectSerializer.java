@@ -7,6 +7,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
 import de.mpc.pia.modeller.report.filter.FilterComparator;
@@ -17,6 +19,15 @@ import de.mpc.pia.modeller.report.filter.impl.PeptideScoreFilter;
 
 public class ObjectSerializer {
 
+    /** prefix (and version) of the compact filter serialization */
+    public static final String FILTER_CODEC_PREFIX = "PIAFilter1|";
+
+    /** separator of the fields in the compact filter serialization */
+    private static final String FILTER_CODEC_SEPARATOR = "|";
+
+    /** the escaped characters in the fields of the compact filter serialization */
+    private static final Pattern ESCAPED_PATTERN = Pattern.compile("%(25|7C)");
+
 
     private ObjectSerializer() {
         // not accidentally call this
@@ -70,37 +81,61 @@ public class ObjectSerializer {
 
 
     /**
-     * Serialize the given filter to an base64 encoded String
+     * Serialize the given filter to a compact String. The String starts with
+     * {@link #FILTER_CODEC_PREFIX} and contains the short name, negation,
+     * comparator name and value of the filter separated by
+     * {@link #FILTER_CODEC_SEPARATOR}.
+     *
      * @param filter
      * @return
      */
     public static String serializeFilter(AbstractFilter filter) {
-        Object[] stringRep = new Object[4];
-
-        stringRep[0] = filter.getShortName();
+        String shortName = filter.getShortName();
         if (filter instanceof PSMScoreFilter) {
-            stringRep[0] = PSMScoreFilter.PREFIX + ((PSMScoreFilter) filter).getScoreShortName();
+            shortName = PSMScoreFilter.PREFIX + ((PSMScoreFilter) filter).getScoreShortName();
         } else if (filter instanceof PSMTopIdentificationFilter) {
-            stringRep[0] = PSMTopIdentificationFilter.PREFIX + ((PSMTopIdentificationFilter) filter).getScoreShortName();
+            shortName = PSMTopIdentificationFilter.PREFIX + ((PSMTopIdentificationFilter) filter).getScoreShortName();
         } else if (filter instanceof PeptideScoreFilter) {
-            stringRep[0] = PeptideScoreFilter.PREFIX + ((PeptideScoreFilter) filter).getScoreShortName();
+            shortName = PeptideScoreFilter.PREFIX + ((PeptideScoreFilter) filter).getScoreShortName();
         }
-        stringRep[1] = new Boolean(filter.getFilterNegate());
-        stringRep[2] = filter.getFilterComparator().getName();
-        stringRep[3] = filter.getFilterValue();
 
-        String serializedFilter = ObjectSerializer.serializeBase64(stringRep);
-        return serializedFilter;
+        StringBuilder serializedFilter = new StringBuilder(FILTER_CODEC_PREFIX);
+        serializedFilter.append(escapeFilterField(shortName));
+        serializedFilter.append(FILTER_CODEC_SEPARATOR);
+        serializedFilter.append(filter.getFilterNegate() ? '1' : '0');
+        serializedFilter.append(FILTER_CODEC_SEPARATOR);
+        serializedFilter.append(escapeFilterField(filter.getFilterComparator().getName()));
+        serializedFilter.append(FILTER_CODEC_SEPARATOR);
+        serializedFilter.append(escapeFilterField(String.valueOf(filter.getFilterValue())));
+
+        return serializedFilter.toString();
     }
 
 
     /**
-     * Unserialize the given base64 encoded filter
+     * Unserialize the given filter, either in the compact format or the old
+     * base64 encoded object array.
      *
      * @param serializedFilter
      * @return
      */
     public static AbstractFilter unserializeFilter(String serializedFilter) {
+        if (serializedFilter == null) {
+            return null;
+        }
+
+        if (serializedFilter.startsWith(FILTER_CODEC_PREFIX)) {
+            String[] fields = serializedFilter.substring(FILTER_CODEC_PREFIX.length())
+                    .split(Pattern.quote(FILTER_CODEC_SEPARATOR), -1);
+            if (fields.length != 4) {
+                return null;
+            }
+
+            return createFilter(unescapeFilterField(fields[0]), "1".equals(fields[1]),
+                    unescapeFilterField(fields[2]), unescapeFilterField(fields[3]));
+        }
+
+        // filters of older versions are serialized Object arrays
         Object stringRep = ObjectSerializer.unserializeFromBase64(serializedFilter);
 
         if (stringRep instanceof Object[]) {
@@ -111,37 +146,79 @@ public class ObjectSerializer {
             String comparatorName = (String)arrObj[2];
             String filterValue = arrObj[3].toString();
 
+            return createFilter(shortName, negateFilter, comparatorName, filterValue);
+        }
+
+        return null;
+    }
+
 
-            StringBuilder messageBuffer = new StringBuilder();
-            AbstractFilter filter = null;
-
-            if (shortName.startsWith(PSMScoreFilter.PREFIX) ||
-                    shortName.startsWith(PSMTopIdentificationFilter.PREFIX) ||
-                    shortName.startsWith(PeptideScoreFilter.PREFIX)) {
-                FilterComparator comparator =
-                        FilterComparator.getFilterComparatorByName(comparatorName);
-
-                if (shortName.startsWith(PSMScoreFilter.PREFIX)) {
-                    String scoreShort = shortName.substring(PSMScoreFilter.PREFIX.length());
-                    filter = new PSMScoreFilter(comparator, negateFilter,
-                            Double.parseDouble(filterValue), scoreShort);
-                } else if (shortName.startsWith(PSMTopIdentificationFilter.PREFIX)) {
-                    String scoreShort = shortName.substring(PSMTopIdentificationFilter.PREFIX.length());
-                    filter = new PSMTopIdentificationFilter(comparator,
-                            Integer.parseInt(filterValue), negateFilter, scoreShort);
-                } else if (shortName.startsWith(PeptideScoreFilter.PREFIX)) {
-                    String scoreShort = shortName.substring(PeptideScoreFilter.PREFIX.length());
-                    filter = new PeptideScoreFilter(comparator, negateFilter,
-                            Double.parseDouble(filterValue), scoreShort);
-                }
-            } else {
-                filter = FilterFactory.newInstanceOf(shortName, comparatorName,
-                        filterValue, negateFilter, messageBuffer);
+    /**
+     * Creates the filter with the given values
+     *
+     * @param shortName
+     * @param negateFilter
+     * @param comparatorName
+     * @param filterValue
+     * @return
+     */
+    private static AbstractFilter createFilter(String shortName, Boolean negateFilter, String comparatorName,
+            String filterValue) {
+        StringBuilder messageBuffer = new StringBuilder();
+        AbstractFilter filter = null;
+
+        if (shortName.startsWith(PSMScoreFilter.PREFIX) ||
+                shortName.startsWith(PSMTopIdentificationFilter.PREFIX) ||
+                shortName.startsWith(PeptideScoreFilter.PREFIX)) {
+            FilterComparator comparator =
+                    FilterComparator.getFilterComparatorByName(comparatorName);
+
+            if (shortName.startsWith(PSMScoreFilter.PREFIX)) {
+                String scoreShort = shortName.substring(PSMScoreFilter.PREFIX.length());
+                filter = new PSMScoreFilter(comparator, negateFilter,
+                        Double.parseDouble(filterValue), scoreShort);
+            } else if (shortName.startsWith(PSMTopIdentificationFilter.PREFIX)) {
+                String scoreShort = shortName.substring(PSMTopIdentificationFilter.PREFIX.length());
+                filter = new PSMTopIdentificationFilter(comparator,
+                        Integer.parseInt(filterValue), negateFilter, scoreShort);
+            } else if (shortName.startsWith(PeptideScoreFilter.PREFIX)) {
+                String scoreShort = shortName.substring(PeptideScoreFilter.PREFIX.length());
+                filter = new PeptideScoreFilter(comparator, negateFilter,
+                        Double.parseDouble(filterValue), scoreShort);
             }
+        } else {
+            filter = FilterFactory.newInstanceOf(shortName, comparatorName,
+                    filterValue, negateFilter, messageBuffer);
+        }
 
-            return filter;
+        return filter;
+    }
+
+
+    /**
+     * Escapes the separator (and the escape character) in a field of the
+     * serialized filter
+     */
+    private static String escapeFilterField(String field) {
+        return field.replace("%", "%25").replace(FILTER_CODEC_SEPARATOR, "%7C");
+    }
+
+
+    /**
+     * Reverts {@link #escapeFilterField(String)}
+     */
+    private static String unescapeFilterField(String field) {
+        if (field.indexOf('%') < 0) {
+            return field;
         }
 
-        return null;
+        Matcher matcher = ESCAPED_PATTERN.matcher(field);
+        StringBuffer unescaped = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(unescaped,
+                    Matcher.quoteReplacement("25".equals(matcher.group(1)) ? "%" : FILTER_CODEC_SEPARATOR));
+        }
+        matcher.appendTail(unescaped);
+        return unescaped.toString();
     }
 }
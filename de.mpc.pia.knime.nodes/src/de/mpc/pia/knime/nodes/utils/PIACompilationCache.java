@@ -0,0 +1,480 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.knime.core.node.NodeLogger;
+
+
+/**
+ * A persistent cache for compiled PIA XML files on the local disk. The
+ * entries are keyed by the input files (path, size, modification time and
+ * optionally the SHA-256 of the content), the compilation's name and further
+ * options, which change the compiled file. Each entry consists of the
+ * (compressed) PIA XML file and its properties with the complete key and the
+ * summary of the compilation.
+ * <p>
+ * The entries are evicted in least recently used order, when their summed
+ * size exceeds the maximal size. The modification time of the content files
+ * is used as access time, so the order survives restarts and is shared
+ * between several KNIME instances using the same directory. The files are
+ * moved into place when they are complete, so concurrent instances never see
+ * partially written entries.
+ *
+ * @author julian
+ *
+ */
+public class PIACompilationCache {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(PIACompilationCache.class);
+
+    /** the version of the key and entry format, changes invalidate all entries */
+    private static final String FORMAT_VERSION = "1";
+
+    /** the buffer size for hashing and copying the files */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /** the file extensions of the entry files */
+    private static final String CONTENT_EXTENSION = ".pia";
+    private static final String PROPERTIES_EXTENSION = ".properties";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    /** temporary files older than this are left over from failures and removed */
+    private static final long TEMPORARY_MAX_AGE = 24L * 60 * 60 * 1000;
+
+    private static final String PROPERTY_KEY = "key";
+    private static final String PROPERTY_INFORMATION = "information";
+
+    /** the entries of all caches in this instance are changed one at a time */
+    private static final Object LOCK = new Object();
+
+
+    /** the directory of the entries */
+    private final File directory;
+
+    /** maximal summed size of the entries in bytes */
+    private final long maximumBytes;
+
+
+    /**
+     * Creates a cache in the given directory, which is created if necessary.
+     * A maximal size of 0 disables the cache.
+     *
+     * @param directory
+     * @param maximumBytes
+     */
+    public PIACompilationCache(File directory, long maximumBytes) {
+        this.directory = directory;
+        this.maximumBytes = Math.max(0, maximumBytes);
+    }
+
+
+    /**
+     * Whether the cache is enabled at all
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return maximumBytes > 0;
+    }
+
+
+    /**
+     * Creates the key for the given input files, compilation name and
+     * options. The files are identified by their absolute path, size and
+     * modification time and, if hashContents is set, by the SHA-256 of their
+     * contents. The order of the files is part of the key, as it is the order
+     * of the compilation.
+     *
+     * @param inputFiles
+     * @param hashContents
+     * @param name
+     * @param options further settings, which change the compiled file
+     * @return
+     * @throws IOException
+     */
+    public static String createKey(List<File> inputFiles, boolean hashContents, String name, String... options)
+            throws IOException {
+        StringBuilder keySB = new StringBuilder();
+        keySB.append("format=").append(FORMAT_VERSION);
+
+        for (File file : inputFiles) {
+            keySB.append("\nfile=").append(file.getAbsolutePath());
+            keySB.append(";size=").append(file.length());
+            keySB.append(";modified=").append(file.lastModified());
+            if (hashContents) {
+                try (InputStream in = new FileInputStream(file)) {
+                    keySB.append(";sha256=").append(hash(in));
+                }
+            }
+        }
+
+        keySB.append("\nname=").append(name);
+        for (String option : options) {
+            keySB.append("\noption=").append(option);
+        }
+
+        return keySB.toString();
+    }
+
+
+    /**
+     * Returns the cached entry for the key or null, if there is none. The
+     * entry is marked as recently used. The content stream of the returned
+     * entry must be closed by the caller.
+     *
+     * @param key
+     * @return
+     */
+    public Entry get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        synchronized (LOCK) {
+            String fileName;
+            try {
+                fileName = hash(key);
+            } catch (IOException e) {
+                LOGGER.warn("Could not create the file name of the cache entry", e);
+                return null;
+            }
+
+            File propertiesFile = new File(directory, fileName + PROPERTIES_EXTENSION);
+            File contentFile = new File(directory, fileName + CONTENT_EXTENSION);
+            if (!propertiesFile.isFile() || !contentFile.isFile()) {
+                return null;
+            }
+
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(propertiesFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                LOGGER.warn("Could not read cached compilation, removing it from cache", e);
+                removeEntry(fileName);
+                return null;
+            }
+
+            if (!key.equals(properties.getProperty(PROPERTY_KEY))) {
+                // a different entry with the same hash, practically impossible
+                LOGGER.debug("cached compilation " + fileName + " has another key");
+                return null;
+            }
+
+            InputStream content;
+            try {
+                // opened while locked, so no eviction of this instance removes it before
+                content = new FileInputStream(contentFile);
+            } catch (IOException e) {
+                LOGGER.warn("Could not open cached compilation, removing it from cache", e);
+                removeEntry(fileName);
+                return null;
+            }
+
+            if (!contentFile.setLastModified(System.currentTimeMillis())) {
+                LOGGER.debug("could not mark cached compilation " + fileName + " as used");
+            }
+
+            LOGGER.debug("using cached compilation " + fileName);
+            return new Entry(content, contentFile.length(), properties.getProperty(PROPERTY_INFORMATION, ""));
+        }
+    }
+
+
+    /**
+     * Puts the content, i.e. the compiled PIA XML file, and the summary of a
+     * compilation into the cache and evicts entries, if necessary. The content
+     * stream is read completely, but not closed.
+     *
+     * @param key
+     * @param content
+     * @param information
+     * @throws IOException
+     */
+    public void put(String key, InputStream content, String information) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the cache directory " + directory.getAbsolutePath());
+        }
+
+        String fileName = hash(key);
+
+        // the content is copied without lock, it may be large
+        File contentTmp = File.createTempFile(fileName, TEMPORARY_EXTENSION, directory);
+        File propertiesTmp = null;
+        try {
+            long size;
+            try (OutputStream out = new FileOutputStream(contentTmp)) {
+                size = copy(content, out);
+            }
+
+            if (size > maximumBytes) {
+                LOGGER.info("compilation needs " + (size / (1024 * 1024))
+                        + " MB and is too large for the cache");
+                return;
+            }
+
+            Properties properties = new Properties();
+            properties.setProperty(PROPERTY_KEY, key);
+            properties.setProperty(PROPERTY_INFORMATION, information);
+
+            propertiesTmp = File.createTempFile(fileName, TEMPORARY_EXTENSION, directory);
+            try (OutputStream out = new FileOutputStream(propertiesTmp)) {
+                properties.store(out, "PIA compilation cache entry");
+            }
+
+            synchronized (LOCK) {
+                // the content first, entries are only found with their properties
+                moveIntoPlace(contentTmp, new File(directory, fileName + CONTENT_EXTENSION));
+                moveIntoPlace(propertiesTmp, new File(directory, fileName + PROPERTIES_EXTENSION));
+                LOGGER.debug("cached compilation " + fileName);
+
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(contentTmp.toPath());
+            if (propertiesTmp != null) {
+                Files.deleteIfExists(propertiesTmp.toPath());
+            }
+        }
+    }
+
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        synchronized (LOCK) {
+            for (String fileName : listEntries()) {
+                removeEntry(fileName);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the summed size of all entries in bytes
+     *
+     * @return
+     */
+    public long getSize() {
+        synchronized (LOCK) {
+            long size = 0;
+            for (String fileName : listEntries()) {
+                size += getEntrySize(fileName);
+            }
+            return size;
+        }
+    }
+
+
+    /**
+     * Removes the least recently used entries until the size fits and the
+     * temporary files left over from failed executions.
+     */
+    private void evict() {
+        Map<String, Long> lastUsed = new HashMap<>();
+        long cachedBytes = 0;
+        for (String fileName : listEntries()) {
+            lastUsed.put(fileName, new File(directory, fileName + CONTENT_EXTENSION).lastModified());
+            cachedBytes += getEntrySize(fileName);
+        }
+
+        List<String> entries = new ArrayList<>(lastUsed.keySet());
+        entries.sort(Comparator.comparing(lastUsed::get));
+
+        for (String fileName : entries) {
+            if (cachedBytes <= maximumBytes) {
+                break;
+            }
+            cachedBytes -= getEntrySize(fileName);
+            removeEntry(fileName);
+            LOGGER.debug("evicted cached compilation " + fileName);
+        }
+
+        File[] temporaryFiles = directory.listFiles((dir, name) -> name.endsWith(TEMPORARY_EXTENSION));
+        if (temporaryFiles != null) {
+            long oldest = System.currentTimeMillis() - TEMPORARY_MAX_AGE;
+            for (File file : temporaryFiles) {
+                if ((file.lastModified() < oldest) && !file.delete()) {
+                    LOGGER.debug("could not remove temporary file " + file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the file names (without extension) of the entries in the
+     * directory
+     */
+    private List<String> listEntries() {
+        List<String> entries = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(PROPERTIES_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                entries.add(name.substring(0, name.length() - PROPERTIES_EXTENSION.length()));
+            }
+        }
+        return entries;
+    }
+
+
+    private long getEntrySize(String fileName) {
+        return new File(directory, fileName + CONTENT_EXTENSION).length()
+                + new File(directory, fileName + PROPERTIES_EXTENSION).length();
+    }
+
+
+    /**
+     * Removes the files of an entry, the properties first
+     */
+    private void removeEntry(String fileName) {
+        File propertiesFile = new File(directory, fileName + PROPERTIES_EXTENSION);
+        File contentFile = new File(directory, fileName + CONTENT_EXTENSION);
+        if ((propertiesFile.exists() && !propertiesFile.delete())
+                || (contentFile.exists() && !contentFile.delete())) {
+            LOGGER.warn("Could not remove cached compilation " + fileName);
+        }
+    }
+
+
+    /**
+     * Moves the file to the target, atomically if the file system supports it
+     */
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        int len;
+        while ((len = in.read(buffer)) > -1) {
+            out.write(buffer, 0, len);
+            size += len;
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns the SHA-256 of the text as hex string
+     */
+    private static String hash(String text) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+
+    /**
+     * Returns the SHA-256 of the stream's content as hex string, e.g. for
+     * further inputs of the compilation given as options of the key. The
+     * stream is read completely but not closed.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static String hashContent(InputStream in) throws IOException {
+        return hash(in);
+    }
+
+
+    /**
+     * Returns the SHA-256 of the stream's content as hex string
+     */
+    private static String hash(InputStream in) throws IOException {
+        MessageDigest digest = createDigest();
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buffer)) > -1) {
+            digest.update(buffer, 0, len);
+        }
+        return toHex(digest.digest());
+    }
+
+
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hexSB = new StringBuilder();
+        for (byte b : bytes) {
+            hexSB.append(String.format("%02x", b));
+        }
+        return hexSB.toString();
+    }
+
+
+    /**
+     * A cached compilation, the stream of the content must be closed.
+     */
+    public static class Entry {
+        private final InputStream content;
+        private final long size;
+        private final String information;
+
+        private Entry(InputStream content, long size, String information) {
+            this.content = content;
+            this.size = size;
+            this.information = information;
+        }
+
+        /**
+         * The (compressed) PIA XML file
+         */
+        public InputStream getContent() {
+            return content;
+        }
+
+        /**
+         * The size of the content in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The summary of the compilation
+         */
+        public String getInformation() {
+            return information;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.knime.core.node.NodeLogger;
+
+import de.mpc.pia.modeller.PIAModeller;
+
+
+/**
+ * A node spanning cache for parsed {@link PIAModeller}s. The cache holds
+ * serialized snapshots of the freshly loaded modellers, keyed by the PIA XML
+ * file (its path, size and modification time, or the content hash of a
+ * binary object) and the settings which change the modeller's structure. Each call of {@link #get(String)} returns a new, independent
+ * copy, so the analyses can alter the returned modeller freely.
+ * <p>
+ * The snapshots are evicted in least recently used order, when their summed
+ * size exceeds the maximal size. A snapshot is stored in chunks and its
+ * serialization is aborted as soon as it exceeds the maximal size, so large
+ * modellers are never completely serialized.
+ *
+ * @author julian
+ *
+ */
+public class PIAModellerCache {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(PIAModellerCache.class);
+
+    /** the buffer size for hashing the files */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /** the size of the chunks of a snapshot */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** the snapshots, in access order */
+    private static final Map<String, Snapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** summed size of all snapshots in bytes */
+    private static long cachedBytes = 0;
+
+    /** maximal summed size of the snapshots in bytes */
+    private static long maximumBytes = 0;
+
+
+    /**
+     * Private creator to avoid instantiation of this class
+     */
+    private PIAModellerCache() {
+
+    }
+
+
+    /**
+     * Sets the maximal heap used by the cache, evicting snapshots if necessary.
+     * A size of 0 disables the cache.
+     *
+     * @param bytes
+     */
+    public static synchronized void setMaximumSize(long bytes) {
+        maximumBytes = Math.max(0, bytes);
+        evict();
+    }
+
+
+    /**
+     * Whether the cache is enabled at all
+     *
+     * @return
+     */
+    public static synchronized boolean isEnabled() {
+        return maximumBytes > 0;
+    }
+
+
+    /**
+     * Creates the key for the given PIA XML file and settings. The file is
+     * identified by its path, size and modification time, so the (possibly
+     * huge) file is not read for the key.
+     *
+     * @param piaXmlFile
+     * @param createPSMSets
+     * @param considerModifications
+     * @return
+     */
+    public static String createKey(File piaXmlFile, boolean createPSMSets, boolean considerModifications) {
+        StringBuilder keySB = new StringBuilder();
+        keySB.append("file=").append(piaXmlFile.getAbsolutePath());
+        keySB.append(";size=").append(piaXmlFile.length());
+        keySB.append(";modified=").append(piaXmlFile.lastModified());
+        appendSettings(keySB, createPSMSets, considerModifications);
+
+        return keySB.toString();
+    }
+
+
+    /**
+     * Creates the key for the given content and settings. The stream is read
+     * completely but not closed.
+     *
+     * @param content
+     * @param createPSMSets
+     * @param considerModifications
+     * @return
+     * @throws IOException
+     */
+    public static String createKey(InputStream content, boolean createPSMSets, boolean considerModifications)
+            throws IOException {
+        MessageDigest digest = createDigest();
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = content.read(buffer)) > -1) {
+            digest.update(buffer, 0, len);
+        }
+
+        return createKey(digest, createPSMSets, considerModifications);
+    }
+
+
+    /**
+     * Creates the key for the content, which was passed to the given digest
+     * (see {@link #createDigest()}), and the settings.
+     *
+     * @param contentDigest
+     * @param createPSMSets
+     * @param considerModifications
+     * @return
+     */
+    public static String createKey(MessageDigest contentDigest, boolean createPSMSets,
+            boolean considerModifications) {
+        StringBuilder keySB = new StringBuilder();
+        for (byte b : contentDigest.digest()) {
+            keySB.append(String.format("%02x", b));
+        }
+        appendSettings(keySB, createPSMSets, considerModifications);
+
+        return keySB.toString();
+    }
+
+
+    /**
+     * Creates the digest used for the content keys, e.g. to hash a content
+     * while it is read anyway.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+
+
+    /**
+     * Appends the structural settings to the key
+     */
+    private static void appendSettings(StringBuilder keySB, boolean createPSMSets, boolean considerModifications) {
+        keySB.append(";createPSMSets=").append(createPSMSets);
+        keySB.append(";considerModifications=").append(considerModifications);
+    }
+
+
+    /**
+     * Returns a new copy of the cached modeller for the key or null, if there
+     * is none.
+     *
+     * @param key
+     * @return
+     */
+    public static PIAModeller get(String key) {
+        Snapshot snapshot;
+        synchronized (PIAModellerCache.class) {
+            snapshot = snapshots.get(key);
+        }
+
+        if (snapshot == null) {
+            return null;
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(snapshot.getInputStream())) {
+            LOGGER.debug("using cached PIA modeller for " + key);
+            return (PIAModeller) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            LOGGER.warn("Could not restore cached PIA modeller, removing it from cache", e);
+            remove(key);
+            return null;
+        }
+    }
+
+
+    /**
+     * Puts a snapshot of the given modeller into the cache. This should be
+     * called before the modeller is altered by any analysis. If the snapshot
+     * exceeds the maximal size of the cache, the modeller is not cached.
+     *
+     * @param key
+     * @param piaModeller
+     */
+    public static void put(String key, PIAModeller piaModeller) {
+        long maxBytes;
+        synchronized (PIAModellerCache.class) {
+            maxBytes = maximumBytes;
+        }
+        if (maxBytes <= 0) {
+            return;
+        }
+
+        Snapshot snapshot = new Snapshot(maxBytes);
+        try (ObjectOutputStream oos = new ObjectOutputStream(snapshot)) {
+            oos.writeObject(piaModeller);
+            oos.flush();
+        } catch (SnapshotTooLargeException e) {
+            LOGGER.info("PIA modeller needs more than " + (maxBytes / (1024 * 1024))
+                    + " MB and is too large for the cache");
+            return;
+        } catch (IOException e) {
+            LOGGER.warn("Could not cache the PIA modeller", e);
+            return;
+        }
+
+        synchronized (PIAModellerCache.class) {
+            if (snapshot.getSize() > maximumBytes) {
+                // the maximal size was lowered meanwhile
+                return;
+            }
+
+            Snapshot old = snapshots.put(key, snapshot);
+            if (old != null) {
+                cachedBytes -= old.getSize();
+            }
+            cachedBytes += snapshot.getSize();
+            evict();
+        }
+    }
+
+
+    /**
+     * Removes the snapshot with the given key
+     *
+     * @param key
+     */
+    public static synchronized void remove(String key) {
+        Snapshot old = snapshots.remove(key);
+        if (old != null) {
+            cachedBytes -= old.getSize();
+        }
+    }
+
+
+    /**
+     * Removes all snapshots
+     */
+    public static synchronized void clear() {
+        snapshots.clear();
+        cachedBytes = 0;
+    }
+
+
+    /**
+     * Removes the least recently used snapshots until the size fits
+     */
+    private static void evict() {
+        Iterator<Map.Entry<String, Snapshot>> it = snapshots.entrySet().iterator();
+        while ((cachedBytes > maximumBytes) && it.hasNext()) {
+            Map.Entry<String, Snapshot> eldest = it.next();
+            cachedBytes -= eldest.getValue().getSize();
+            it.remove();
+            LOGGER.debug("evicted cached PIA modeller " + eldest.getKey());
+        }
+    }
+
+
+    /**
+     * The serialized modeller, written in chunks. Writing more than the given
+     * maximal size throws a {@link SnapshotTooLargeException}.
+     */
+    private static class Snapshot extends OutputStream {
+
+        /** the filled chunks and the current one */
+        private final List<byte[]> chunks;
+
+        /** the maximal number of bytes */
+        private final long maxSize;
+
+        /** the number of written bytes */
+        private long size;
+
+        /** the position in the current chunk */
+        private int chunkPos;
+
+
+        private Snapshot(long maxSize) {
+            this.chunks = new ArrayList<>();
+            this.maxSize = maxSize;
+            this.size = 0;
+            this.chunkPos = CHUNK_SIZE;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (size + len > maxSize) {
+                chunks.clear();
+                throw new SnapshotTooLargeException();
+            }
+
+            int written = 0;
+            while (written < len) {
+                if (chunkPos == CHUNK_SIZE) {
+                    chunks.add(new byte[(int) Math.min(CHUNK_SIZE, maxSize - size)]);
+                    chunkPos = 0;
+                }
+                byte[] chunk = chunks.get(chunks.size() - 1);
+                int copy = Math.min(len - written, chunk.length - chunkPos);
+                System.arraycopy(b, off + written, chunk, chunkPos, copy);
+                chunkPos += copy;
+                written += copy;
+                size += copy;
+            }
+        }
+
+
+        private long getSize() {
+            return size;
+        }
+
+
+        /**
+         * Returns a stream over the written bytes
+         */
+        private InputStream getInputStream() {
+            List<InputStream> chunkStreams = new ArrayList<>(chunks.size());
+            long remaining = size;
+            for (byte[] chunk : chunks) {
+                int length = (int) Math.min(chunk.length, remaining);
+                chunkStreams.add(new ByteArrayInputStream(chunk, 0, length));
+                remaining -= length;
+            }
+            return new SequenceInputStream(Collections.enumeration(chunkStreams));
+        }
+    }
+
+
+    /**
+     * Thrown, when a snapshot exceeds the maximal size
+     */
+    private static class SnapshotTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
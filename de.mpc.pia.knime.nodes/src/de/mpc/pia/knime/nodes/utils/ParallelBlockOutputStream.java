@@ -0,0 +1,257 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base of the streams, which compress the written data in blocks of fixed
+ * size on several threads. The compressed blocks are written in their order
+ * to the underlying stream, while the next blocks are still compressed.
+ * <p>
+ * At most twice the number of threads blocks are compressed at the same time,
+ * so the memory usage is bound. As the blocks are compressed only when they
+ * are full, {@link #flush()} does not write the not yet completed block.
+ *
+ * @author julian
+ *
+ */
+public abstract class ParallelBlockOutputStream extends OutputStream {
+
+    /** the size of the uncompressed blocks */
+    protected static final int BLOCK_SIZE = 1024 * 1024;
+
+    /** the time in seconds, after which idle compressing threads end */
+    private static final long THREAD_KEEP_ALIVE = 30;
+
+    /** used to name the compressing threads */
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+
+    /** the already submitted, but not yet written blocks */
+    private final Deque<Future<byte[]>> pendingBlocks;
+
+    /** the currently filled block */
+    private byte[] block;
+    private int blockLength;
+
+    /** the last submitted block */
+    private byte[] previousBlock;
+
+    private boolean headerWritten;
+    private boolean closed;
+
+
+    /**
+     * Creates the stream.
+     *
+     * @param out the stream of the compressed data
+     * @param threads the number of compressing threads (at least one is used)
+     */
+    protected ParallelBlockOutputStream(OutputStream out, int threads) {
+        this.out = out;
+
+        int nrThreads = Math.max(1, threads);
+        // idle threads end on their own, even if the stream is never closed
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(nrThreads, nrThreads,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "PIA-compression-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.maxPendingBlocks = 2 * nrThreads;
+        this.pendingBlocks = new ArrayDeque<>(maxPendingBlocks);
+
+        this.block = new byte[BLOCK_SIZE];
+        this.blockLength = 0;
+        this.previousBlock = null;
+        this.headerWritten = false;
+        this.closed = false;
+    }
+
+
+    /**
+     * Writes the header of the compressed stream, called before the first
+     * block is written.
+     */
+    protected abstract void writeHeader(OutputStream out) throws IOException;
+
+
+    /**
+     * Called for every block in order, before it is compressed. Called on the
+     * writing thread.
+     *
+     * @param data the uncompressed block
+     * @param length the valid length of data
+     */
+    protected abstract void blockSubmitted(byte[] data, int length);
+
+
+    /**
+     * Compresses the block. This is called concurrently for several blocks,
+     * so it must not change any state of the stream.
+     *
+     * @param data the uncompressed block, not changed anymore
+     * @param length the valid length of data
+     * @param previous the previous block (with full {@link #BLOCK_SIZE}) or
+     * null for the first block
+     * @param last whether this is the last block of the stream (possibly
+     * empty)
+     * @return the compressed block, as written to the stream
+     * @throws IOException
+     */
+    protected abstract byte[] compressBlock(byte[] data, int length, byte[] previous, boolean last)
+            throws IOException;
+
+
+    /**
+     * Writes the trailer of the compressed stream, called after the last
+     * block is written.
+     */
+    protected abstract void writeTrailer(OutputStream out) throws IOException;
+
+
+    /**
+     * Writes the integer in little endian byte order.
+     */
+    protected static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == BLOCK_SIZE) {
+            submitBlock(false);
+        }
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            int copied = Math.min(remaining, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, offset, block, blockLength, copied);
+            blockLength += copied;
+            offset += copied;
+            remaining -= copied;
+
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the already compressed blocks and flushes the underlying stream.
+     * The currently filled block is not written.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peekFirst().isDone()) {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Compresses and writes the remaining data, writes the trailer and closes
+     * the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            submitBlock(true);
+            while (!pendingBlocks.isEmpty()) {
+                writeNextBlock();
+            }
+            writeTrailer(out);
+            out.flush();
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+
+    /**
+     * Submits the current block for compression and starts a new one. If too
+     * many blocks are pending, the oldest is written before.
+     */
+    private void submitBlock(boolean last) throws IOException {
+        if (!headerWritten) {
+            writeHeader(out);
+            headerWritten = true;
+        }
+
+        while (pendingBlocks.size() >= maxPendingBlocks) {
+            writeNextBlock();
+        }
+
+        final byte[] data = block;
+        final int length = blockLength;
+        final byte[] previous = previousBlock;
+        blockSubmitted(data, length);
+        pendingBlocks.addLast(executor.submit(() -> compressBlock(data, length, previous, last)));
+
+        previousBlock = data;
+        block = last ? null : new byte[BLOCK_SIZE];
+        blockLength = 0;
+    }
+
+
+    /**
+     * Waits for the oldest pending block and writes it.
+     */
+    private void writeNextBlock() throws IOException {
+        Future<byte[]> next = pendingBlocks.pollFirst();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error while compressing", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip file, compressing the blocks on several threads like pigz.
+ * Each block is deflated on its own with the end of the previous block as
+ * dictionary and ends on a byte boundary (sync flush), so the blocks form a
+ * single deflate stream. The result is one regular gzip member, readable by
+ * {@link java.util.zip.GZIPInputStream}.
+ *
+ * @author julian
+ *
+ */
+public class ParallelGZIPOutputStream extends ParallelBlockOutputStream {
+
+    /** the size of the deflate window, used as dictionary */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /** the gzip header, like written by {@link java.util.zip.GZIPOutputStream} */
+    private static final byte[] HEADER = new byte[] {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final int level;
+
+    /** CRC of the uncompressed data */
+    private final CRC32 crc;
+    /** the length of the uncompressed data */
+    private long totalLength;
+
+
+    /**
+     * Creates the stream.
+     *
+     * @param out the stream of the compressed data
+     * @param level the compression level (1-9)
+     * @param threads the number of compressing threads
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level, int threads) {
+        super(out, threads);
+        this.level = level;
+        this.crc = new CRC32();
+        this.totalLength = 0;
+    }
+
+
+    @Override
+    protected void writeHeader(OutputStream out) throws IOException {
+        out.write(HEADER);
+    }
+
+
+    @Override
+    protected void blockSubmitted(byte[] data, int length) {
+        crc.update(data, 0, length);
+        totalLength += length;
+    }
+
+
+    @Override
+    protected byte[] compressBlock(byte[] data, int length, byte[] previous, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null) {
+                deflater.setDictionary(previous, previous.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            }
+            deflater.setInput(data, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, len);
+                }
+            } else {
+                // more output is pending, as long as the buffer is filled completely
+                int len;
+                do {
+                    len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, len);
+                } while (len == buffer.length);
+            }
+
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    @Override
+    protected void writeTrailer(OutputStream out) throws IOException {
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, (int) totalLength);
+    }
+}
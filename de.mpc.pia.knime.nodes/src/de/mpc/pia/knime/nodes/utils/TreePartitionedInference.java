@@ -0,0 +1,390 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.node.NodeLogger;
+
+import de.mpc.pia.intermediate.Group;
+import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.inference.AbstractProteinInference;
+import de.mpc.pia.modeller.protein.inference.ProteinInferenceFactory;
+import de.mpc.pia.modeller.protein.inference.ProteinInferenceFactory.ProteinInferenceMethod;
+import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.report.filter.RegisteredFilters;
+
+/**
+ * Runs a protein inference concurrently on partitions of the groups' trees.
+ * <p>
+ * The trees are the connected components of the proteins and peptides, so
+ * inferences, which only compare proteins of the same tree, can infer each
+ * tree independently (see {@link #supportsMethod(String)}). The trees are
+ * distributed by their size over several partitions and the largest
+ * partitions are inferred first, so a large tree does not end up behind
+ * many small ones in a worker's queue. Each partition gets only the report
+ * peptides of its own groups. The partitions run on the given executor, but
+ * at most the inference's allowed threads are used.
+ * <p>
+ * When serialized (i.e. with the PIA modeller), the wrapped inference is
+ * written instead of this class.
+ *
+ * @author julian
+ *
+ */
+public class TreePartitionedInference extends AbstractProteinInference {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(TreePartitionedInference.class);
+
+    /** number of partitions per thread, more partitions balance the threads better */
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+
+    /** the wrapped inference, holding the filters and the scoring */
+    private final AbstractProteinInference inference;
+
+    /** the executor running the partitions */
+    private final transient ExecutorService executor;
+
+    /** the number of inferred partitions */
+    private transient AtomicInteger finishedPartitions;
+
+    /** the number of all partitions */
+    private transient int nrPartitions;
+
+
+    /**
+     * Wraps the given inference, which should already have its filters and
+     * scoring set. The inference's allowed threads are used for the
+     * partitions.
+     *
+     * @param inference
+     * @param executor the executor running the partitions, it is not shut
+     * down by the inference
+     */
+    public TreePartitionedInference(AbstractProteinInference inference, ExecutorService executor) {
+        this.inference = inference;
+        this.executor = executor;
+        setAllowedThreads(inference.getAllowedThreads());
+    }
+
+
+    /**
+     * Whether the inference method only compares proteins of the same tree
+     * and can be partitioned. This is not the case for the spectrum
+     * extractor, as spectra may be shared by several trees.
+     *
+     * @param methodShortName
+     * @return
+     */
+    public static boolean supportsMethod(String methodShortName) {
+        return ProteinInferenceMethod.REPORT_OCCAMS_RAZOR.getShortName().equals(methodShortName)
+                || ProteinInferenceMethod.REPORT_ALL.getShortName().equals(methodShortName);
+    }
+
+
+    @Override
+    public List<ReportProtein> calculateInference(Map<Long, Group> groupMap,
+            Map<String, ReportPSMSet> reportPSMSetMap, boolean considerModifications,
+            Map<String, Boolean> psmSetSettings, Collection<ReportPeptide> reportPeptides) {
+        int nrThreads = Math.max(1, getAllowedThreads());
+
+        List<Map<Long, Group>> partitions = partitionByTrees(groupMap, nrThreads * PARTITIONS_PER_THREAD);
+        nrPartitions = partitions.size();
+        finishedPartitions = new AtomicInteger(0);
+
+        if ((partitions.size() < 2) || (executor == null)) {
+            return inference.calculateInference(groupMap, reportPSMSetMap, considerModifications,
+                    psmSetSettings, reportPeptides);
+        }
+
+        LOGGER.debug("Inferring " + partitions.size() + " tree partitions with " + nrThreads + " threads");
+
+        List<Collection<ReportPeptide>> partitionPeptides = splitPeptides(partitions, reportPeptides);
+        List<AbstractProteinInference> partitionInferences = new ArrayList<>(partitions.size());
+        for (int idx = 0; idx < partitions.size(); idx++) {
+            partitionInferences.add(createPartitionInference());
+        }
+
+        // each worker takes the next partition, so at most nrThreads run at the same time
+        List<List<ReportProtein>> partitionProteins = new ArrayList<>(Collections.nCopies(partitions.size(), null));
+        AtomicInteger nextPartition = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>(nrThreads);
+        try {
+            for (int worker = 0; worker < Math.min(nrThreads, partitions.size()); worker++) {
+                futures.add(executor.submit(() -> {
+                    int idx;
+                    while ((idx = nextPartition.getAndIncrement()) < partitions.size()) {
+                        partitionProteins.set(idx, partitionInferences.get(idx).calculateInference(
+                                partitions.get(idx), reportPSMSetMap, considerModifications, psmSetSettings,
+                                partitionPeptides.get(idx)));
+                        finishedPartitions.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            // collect in the order of the partitions, to get the same result on each run
+            List<ReportProtein> reportProteins = new ArrayList<>();
+            for (List<ReportProtein> proteins : partitionProteins) {
+                reportProteins.addAll(proteins);
+            }
+            return reportProteins;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during the protein inference", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during the protein inference", e.getCause());
+        } finally {
+            // stop the remaining partitions on errors
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+
+    /**
+     * Distributes the groups by their trees over at most the given number of
+     * partitions, with about equal sizes. The partitions are returned with
+     * the largest first.
+     *
+     * @param groupMap
+     * @param maxPartitions
+     * @return
+     */
+    static List<Map<Long, Group>> partitionByTrees(Map<Long, Group> groupMap, int maxPartitions) {
+        Map<Long, Map<Long, Group>> trees = new HashMap<>();
+        Map<Long, Long> treeSizes = new HashMap<>();
+        for (Map.Entry<Long, Group> groupIt : groupMap.entrySet()) {
+            Group group = groupIt.getValue();
+            trees.computeIfAbsent(group.getTreeID(), k -> new HashMap<>()).put(groupIt.getKey(), group);
+            treeSizes.merge(group.getTreeID(),
+                    1L + group.getPeptides().size() + group.getAccessions().size(), Long::sum);
+        }
+
+        // largest trees first, each into the currently smallest partition
+        List<Long> treeIDs = new ArrayList<>(trees.keySet());
+        treeIDs.sort(Comparator.comparing((Long treeID) -> treeSizes.get(treeID)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        int nrBins = Math.max(1, Math.min(maxPartitions, treeIDs.size()));
+        PriorityQueue<Partition> bins = new PriorityQueue<>(nrBins);
+        for (int i = 0; i < nrBins; i++) {
+            bins.add(new Partition(i));
+        }
+
+        for (Long treeID : treeIDs) {
+            Partition bin = bins.poll();
+            bin.groups.putAll(trees.get(treeID));
+            bin.size += treeSizes.get(treeID);
+            bins.add(bin);
+        }
+
+        List<Partition> sortedBins = new ArrayList<>(bins);
+        sortedBins.sort(Comparator.reverseOrder());
+
+        List<Map<Long, Group>> partitions = new ArrayList<>(nrBins);
+        for (Partition bin : sortedBins) {
+            if (!bin.groups.isEmpty()) {
+                partitions.add(bin.groups);
+            }
+        }
+        return partitions;
+    }
+
+
+    /**
+     * Splits the report peptides by the partitions containing their sequence.
+     * The peptides of a sequence are in one group, so each report peptide
+     * belongs to exactly one partition.
+     *
+     * @param partitions
+     * @param reportPeptides
+     * @return the peptides of each partition (null for each, if no peptides are given)
+     */
+    static List<Collection<ReportPeptide>> splitPeptides(List<Map<Long, Group>> partitions,
+            Collection<ReportPeptide> reportPeptides) {
+        List<Collection<ReportPeptide>> partitionPeptides = new ArrayList<>(partitions.size());
+        if (reportPeptides == null) {
+            for (int idx = 0; idx < partitions.size(); idx++) {
+                partitionPeptides.add(null);
+            }
+            return partitionPeptides;
+        }
+
+        Map<String, Integer> sequencePartitions = new HashMap<>();
+        for (int idx = 0; idx < partitions.size(); idx++) {
+            for (Group group : partitions.get(idx).values()) {
+                for (Peptide peptide : group.getPeptides().values()) {
+                    sequencePartitions.put(peptide.getSequence(), idx);
+                }
+            }
+            partitionPeptides.add(new ArrayList<>());
+        }
+
+        for (ReportPeptide peptide : reportPeptides) {
+            Integer idx = sequencePartitions.get(peptide.getSequence());
+            if (idx != null) {
+                partitionPeptides.get(idx).add(peptide);
+            }
+        }
+        return partitionPeptides;
+    }
+
+
+    /**
+     * Creates a single threaded inference of the same method with the same
+     * filters and its own copy of the scoring.
+     */
+    private AbstractProteinInference createPartitionInference() {
+        AbstractProteinInference partitionInference =
+                ProteinInferenceFactory.createInstanceOf(inference.getShortName());
+
+        for (AbstractFilter filter : inference.getFilters()) {
+            partitionInference.addFilter(filter);
+        }
+        partitionInference.setAvailableScoreShorts(inference.getAvailableScoreShorts());
+        if (inference.getScoring() != null) {
+            partitionInference.setScoring(inference.getScoring().smallCopy());
+        }
+        partitionInference.setAllowedThreads(1);
+
+        return partitionInference;
+    }
+
+
+    /**
+     * Writes the wrapped inference instead of this class
+     */
+    private Object writeReplace() {
+        return inference;
+    }
+
+
+    @Override
+    public String getName() {
+        return inference.getName();
+    }
+
+
+    @Override
+    public String getShortName() {
+        return inference.getShortName();
+    }
+
+
+    @Override
+    public List<RegisteredFilters> getAvailablePSMFilters() {
+        return inference.getAvailablePSMFilters();
+    }
+
+
+    @Override
+    public List<RegisteredFilters> getAvailablePeptideFilters() {
+        return inference.getAvailablePeptideFilters();
+    }
+
+
+    @Override
+    public List<RegisteredFilters> getAvailableProteinFilters() {
+        return inference.getAvailableProteinFilters();
+    }
+
+
+    @Override
+    public boolean addFilter(AbstractFilter newFilter) {
+        return inference.addFilter(newFilter);
+    }
+
+
+    @Override
+    public List<AbstractFilter> getFilters() {
+        return inference.getFilters();
+    }
+
+
+    @Override
+    public AbstractFilter removeFilter(int removingIndex) {
+        return inference.removeFilter(removingIndex);
+    }
+
+
+    @Override
+    public void setAvailableScoreShorts(Map<String, String> availableScoreShorts) {
+        inference.setAvailableScoreShorts(availableScoreShorts);
+    }
+
+
+    @Override
+    public Map<String, String> getAvailableScoreShorts() {
+        return inference.getAvailableScoreShorts();
+    }
+
+
+    @Override
+    public void setScoring(AbstractScoring scoring) {
+        inference.setScoring(scoring);
+    }
+
+
+    @Override
+    public AbstractScoring getScoring() {
+        return inference.getScoring();
+    }
+
+
+    @Override
+    public Long getProgressValue() {
+        if ((finishedPartitions == null) || (nrPartitions < 1)) {
+            return 0L;
+        }
+        return 100L * finishedPartitions.get() / nrPartitions;
+    }
+
+
+    /**
+     * A partition of groups and its size
+     */
+    private static class Partition implements Comparable<Partition> {
+
+        private final int index;
+
+        private final Map<Long, Group> groups;
+
+        private long size;
+
+
+        private Partition(int index) {
+            this.index = index;
+            this.groups = new HashMap<>();
+            this.size = 0;
+        }
+
+
+        @Override
+        public int compareTo(Partition other) {
+            int cmp = Long.compare(size, other.size);
+            return (cmp != 0) ? cmp : Integer.compare(index, other.index);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compressions of the PIA XML file, as written by the compiler. Every
+ * compression is recognized by its magic bytes when reading, so the reading
+ * nodes need no setting for it.
+ *
+ * @author julian
+ *
+ */
+public enum XMLCompression {
+
+    /** the plain XML file */
+    none {
+        @Override
+        public OutputStream createOutputStream(OutputStream out, int level, int threads) {
+            return out;
+        }
+
+        @Override
+        protected InputStream createInputStream(InputStream in) {
+            return in;
+        }
+    },
+    /** gzip, compressed on one thread */
+    gzip {
+        @Override
+        public OutputStream createOutputStream(OutputStream out, int level, int threads) throws IOException {
+            return new LevelGZIPOutputStream(out, level);
+        }
+
+        @Override
+        protected InputStream createInputStream(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+    /** gzip, compressed in blocks on several threads (like pigz) */
+    gzipParallel {
+        @Override
+        public OutputStream createOutputStream(OutputStream out, int level, int threads) {
+            return new ParallelGZIPOutputStream(out, level, threads);
+        }
+
+        @Override
+        protected InputStream createInputStream(InputStream in) throws IOException {
+            return gzip.createInputStream(in);
+        }
+    },
+    /** the LZ4 frame format, compressed in blocks on several threads */
+    lz4 {
+        @Override
+        public OutputStream createOutputStream(OutputStream out, int level, int threads) {
+            return new LZ4FrameOutputStream(out, threads);
+        }
+
+        @Override
+        protected InputStream createInputStream(InputStream in) {
+            return new LZ4FrameInputStream(in);
+        }
+    },
+    /** Zstandard frames, compressed in blocks on several threads */
+    zstd {
+        @Override
+        public OutputStream createOutputStream(OutputStream out, int level, int threads) {
+            return new ZstdFrameOutputStream(out, threads);
+        }
+
+        @Override
+        protected InputStream createInputStream(InputStream in) {
+            return new ZstdFrameInputStream(in);
+        }
+    },
+    ;
+
+
+    /** the buffer size of the gzip streams */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** the magic number of the LZ4 frame format (little endian) */
+    static final int LZ4_MAGIC = 0x184D2204;
+
+    /** the magic number of Zstandard frames (little endian) */
+    static final int ZSTD_MAGIC = 0xFD2FB528;
+
+
+    /**
+     * Creates the stream compressing into the given stream.
+     *
+     * @param out the stream for the compressed data, closed with the returned
+     * stream
+     * @param level the compression level (1-9), only used by gzip
+     * @param threads the number of compressing threads, only used by the block
+     * compressions
+     * @return
+     * @throws IOException
+     */
+    public abstract OutputStream createOutputStream(OutputStream out, int level, int threads)
+            throws IOException;
+
+
+    /**
+     * Creates the stream decompressing the given stream.
+     */
+    protected abstract InputStream createInputStream(InputStream in) throws IOException;
+
+
+    /**
+     * Whether the compression level is used by this compression.
+     *
+     * @return
+     */
+    public boolean hasLevel() {
+        return (this == gzip) || (this == gzipParallel);
+    }
+
+
+    /**
+     * Detects the compression by the magic bytes at the beginning of the
+     * data. Unknown data is regarded as not compressed.
+     *
+     * @param magic the first bytes of the data
+     * @param length the number of valid bytes in magic
+     * @return the compression, {@link #gzip} for any gzip file
+     */
+    public static XMLCompression detect(byte[] magic, int length) {
+        if ((length >= 2)
+                && (((magic[0] & 0xff) | ((magic[1] << 8) & 0xff00)) == GZIPInputStream.GZIP_MAGIC)) {
+            return gzip;
+        }
+
+        if (length >= 4) {
+            int magicNumber = (magic[0] & 0xff)
+                    | ((magic[1] & 0xff) << 8)
+                    | ((magic[2] & 0xff) << 16)
+                    | ((magic[3] & 0xff) << 24);
+            if (magicNumber == LZ4_MAGIC) {
+                return lz4;
+            } else if (magicNumber == ZSTD_MAGIC) {
+                return zstd;
+            }
+        }
+
+        return none;
+    }
+
+
+    /**
+     * Detects the compression of the stream, without consuming any data.
+     *
+     * @param in a stream supporting mark and reset
+     * @return
+     * @throws IOException
+     */
+    public static XMLCompression detect(InputStream in) throws IOException {
+        byte[] magic = new byte[4];
+        in.mark(magic.length);
+        int length = 0;
+        int read;
+        while ((length < magic.length) && ((read = in.read(magic, length, magic.length - length)) > 0)) {
+            length += read;
+        }
+        in.reset();
+
+        return detect(magic, length);
+    }
+
+
+    /**
+     * Detects the compression of the given file.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static XMLCompression detect(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 4)) {
+            return detect(in);
+        }
+    }
+
+
+    /**
+     * Opens a stream of the decompressed data, the compression is detected by
+     * the magic bytes.
+     *
+     * @param in the (possibly) compressed data, closed with the returned stream
+     * @return
+     * @throws IOException
+     */
+    public static InputStream openInputStream(InputStream in) throws IOException {
+        InputStream bis = in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        return detect(bis).createInputStream(bis);
+    }
+
+
+    /**
+     * A {@link GZIPOutputStream} with a settable compression level.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        public LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
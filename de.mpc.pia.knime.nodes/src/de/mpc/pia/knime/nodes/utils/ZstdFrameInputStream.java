@@ -0,0 +1,162 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+/**
+ * Reads Zstandard data frame by frame. The frames are located by their block
+ * headers and decompressed as a whole, so this is intended for the frames
+ * written by {@link ZstdFrameOutputStream}. Frames of other writers are read
+ * as well, but may need as much memory as the whole (decompressed) frame.
+ *
+ * @author julian
+ *
+ */
+public class ZstdFrameInputStream extends BlockInputStream {
+
+    /** the mask of the magic numbers of skippable frames */
+    private static final int SKIPPABLE_MASK = 0xFFFFFFF0;
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    /** the maximal decompressed size of a block */
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private static final int BLOCK_TYPE_RAW = 0;
+    private static final int BLOCK_TYPE_RLE = 1;
+    private static final int BLOCK_TYPE_COMPRESSED = 2;
+
+    private final ZstdDecompressor decompressor;
+
+    /** the currently read compressed frame */
+    private byte[] frame;
+    private int frameLength;
+
+
+    public ZstdFrameInputStream(InputStream in) {
+        super(in);
+        this.decompressor = new ZstdDecompressor();
+        this.frame = new byte[64 * 1024];
+    }
+
+
+    @Override
+    protected boolean readNextBlock() throws IOException {
+        while (true) {
+            frameLength = 0;
+            if (!readFully(frame, 0, 4)) {
+                return false;
+            }
+            frameLength = 4;
+
+            int magic = LZ4FrameOutputStream.getInt(frame, 0);
+            if ((magic & SKIPPABLE_MASK) == SKIPPABLE_MAGIC) {
+                readFrameBytes(4);
+                skipFully(LZ4FrameOutputStream.getInt(frame, 4) & 0xFFFFFFFFL);
+            } else if (magic == XMLCompression.ZSTD_MAGIC) {
+                long decompressedBound = readFrame();
+
+                byte[] block = getBlockBuffer();
+                if (block.length < decompressedBound) {
+                    block = new byte[(int) decompressedBound];
+                }
+                try {
+                    setBlock(block, decompressor.decompress(frame, 0, frameLength, block, 0, block.length));
+                } catch (MalformedInputException e) {
+                    throw new IOException("Malformed Zstandard frame", e);
+                }
+                return true;
+            } else {
+                throw new IOException("Data is not in the Zstandard format");
+            }
+        }
+    }
+
+
+    /**
+     * Reads the remainder of the frame after the magic number into the frame
+     * buffer.
+     *
+     * @return the maximal decompressed size of the frame
+     */
+    private long readFrame() throws IOException {
+        int descriptorOffset = frameLength;
+        readFrameBytes(1);
+        int descriptor = frame[descriptorOffset] & 0xff;
+
+        int contentSizeFlag = descriptor >>> 6;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        boolean checksum = (descriptor & 0x04) != 0;
+        int dictionaryIdFlag = descriptor & 0x03;
+
+        int headerBytes = singleSegment ? 0 : 1;
+        headerBytes += (dictionaryIdFlag == 3) ? 4 : dictionaryIdFlag;
+        if (contentSizeFlag == 0) {
+            headerBytes += singleSegment ? 1 : 0;
+        } else {
+            headerBytes += 1 << contentSizeFlag;
+        }
+        readFrameBytes(headerBytes);
+
+        long decompressedBound = 0;
+        boolean lastBlock = false;
+        while (!lastBlock) {
+            int blockHeaderOffset = frameLength;
+            readFrameBytes(3);
+            int blockHeader = (frame[blockHeaderOffset] & 0xff)
+                    | ((frame[blockHeaderOffset + 1] & 0xff) << 8)
+                    | ((frame[blockHeaderOffset + 2] & 0xff) << 16);
+
+            lastBlock = (blockHeader & 0x01) != 0;
+            int blockType = (blockHeader >>> 1) & 0x03;
+            int blockSize = blockHeader >>> 3;
+
+            switch (blockType) {
+            case BLOCK_TYPE_RAW:
+                readFrameBytes(blockSize);
+                decompressedBound += blockSize;
+                break;
+
+            case BLOCK_TYPE_RLE:
+                readFrameBytes(1);
+                decompressedBound += blockSize;
+                break;
+
+            case BLOCK_TYPE_COMPRESSED:
+                readFrameBytes(blockSize);
+                decompressedBound += MAX_BLOCK_SIZE;
+                break;
+
+            default:
+                throw new IOException("Invalid Zstandard block type");
+            }
+        }
+
+        if (checksum) {
+            readFrameBytes(4);
+        }
+
+        if (decompressedBound > Integer.MAX_VALUE - 8) {
+            throw new IOException("Zstandard frame is too large");
+        }
+        return decompressedBound;
+    }
+
+
+    /**
+     * Appends the next bytes of the stream to the frame buffer.
+     */
+    private void readFrameBytes(int length) throws IOException {
+        if (frameLength + length > frame.length) {
+            frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength + length));
+        }
+        if (!readFully(frame, frameLength, length) && (length > 0)) {
+            throw new EOFException("Unexpected end of Zstandard data");
+        }
+        frameLength += length;
+    }
+}
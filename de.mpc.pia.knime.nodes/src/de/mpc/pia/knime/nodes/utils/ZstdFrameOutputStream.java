@@ -0,0 +1,61 @@
+package de.mpc.pia.knime.nodes.utils;
+
+import java.io.OutputStream;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+
+/**
+ * Writes Zstandard data, each block is compressed on its own into a complete
+ * frame on several threads. Concatenated frames are valid Zstandard data, so
+ * the result is readable by the zstd command line tool.
+ *
+ * @author julian
+ *
+ */
+public class ZstdFrameOutputStream extends ParallelBlockOutputStream {
+
+    /**
+     * Creates the stream.
+     *
+     * @param out the stream of the compressed data
+     * @param threads the number of compressing threads
+     */
+    public ZstdFrameOutputStream(OutputStream out, int threads) {
+        super(out, threads);
+    }
+
+
+    @Override
+    protected void writeHeader(OutputStream out) {
+        // each frame has its own header
+    }
+
+
+    @Override
+    protected void blockSubmitted(byte[] data, int length) {
+        // nothing to do
+    }
+
+
+    @Override
+    protected byte[] compressBlock(byte[] data, int length, byte[] previous, boolean last) {
+        if ((length == 0) && (previous != null)) {
+            // no need for an empty frame, if there were frames before
+            return new byte[0];
+        }
+
+        ZstdCompressor compressor = new ZstdCompressor();
+        byte[] compressed = new byte[compressor.maxCompressedLength(length)];
+        int compressedLength = compressor.compress(data, 0, length, compressed, 0, compressed.length);
+
+        byte[] frame = new byte[compressedLength];
+        System.arraycopy(compressed, 0, frame, 0, compressedLength);
+        return frame;
+    }
+
+
+    @Override
+    protected void writeTrailer(OutputStream out) {
+        // each frame is complete
+    }
+}
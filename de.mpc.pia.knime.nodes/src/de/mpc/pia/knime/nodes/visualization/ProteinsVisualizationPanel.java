@@ -52,9 +52,10 @@ import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.tools.matomo.PIAMatomoTracker;
 import de.mpc.pia.visualization.graph.AmbiguityGroupVisualizationHandler;
 import de.mpc.pia.visualization.graph.VertexRelation;
+import de.mpc.pia.visualization.spectra.AnnotatedSpectrum;
+import de.mpc.pia.visualization.spectra.AnnotatedSpectrumCache;
 import de.mpc.pia.visualization.spectra.PiaPsmToSpectrum;
 import edu.uci.ics.jung.visualization.GraphZoomScrollPane;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
 
 
 /**
@@ -122,6 +123,9 @@ public class ProteinsVisualizationPanel extends JPanel
     /** mapping from the PSMs to the spectra (might be null, if no spectra file is given) */
     private PiaPsmToSpectrum<ReportPSM> psmToSpectrum;
 
+    /** cache of the annotated spectra (null, if no spectra file is given) */
+    private AnnotatedSpectrumCache spectrumCache;
+
 
     private final static String PSM_BUTTON_ACTION_PREFIX = "PSM_ID ";
 
@@ -141,6 +145,9 @@ public class ProteinsVisualizationPanel extends JPanel
             peptideScoreNameMap = model.getPIAModeller().getProteinModeller().getScoreShortsToScoreNames();
 
             this.psmToSpectrum = psmToSpectrum;
+            if (psmToSpectrum != null) {
+                spectrumCache = new AnnotatedSpectrumCache(psmToSpectrum, AnnotatedSpectrumCache.DEFAULT_CACHE_SIZE);
+            }
 
             initializeVisualization(proteinList);
 
@@ -153,6 +160,20 @@ public class ProteinsVisualizationPanel extends JPanel
     }
 
 
+    /**
+     * Stops the prefetching of the spectra and clears their cache. Should be
+     * called, when the panel is not shown anymore.
+     */
+    public void close() {
+        if (spectrumCache != null) {
+            spectrumCache.close();
+            spectrumCache = null;
+        }
+        // the mapping itself belongs to the node model and stays open
+        psmToSpectrum = null;
+    }
+
+
     private void initializeVisualization(List<ReportProtein> proteinList) {
         this.setLayout(new GridLayout(1, 0));
 
@@ -394,6 +415,11 @@ public class ProteinsVisualizationPanel extends JPanel
 
         ReportPSMSet psmSet = psmSetTableModel.getPSMSetAt(psmSetIdx);
 
+        if (spectrumCache != null) {
+            // the spectra of these PSMs may be shown next
+            spectrumCache.prefetch(psmSet.getPSMs(), PSMSpectrumAnnotator.PRODUCT_ION_PAIR);
+        }
+
         psmsPanel.removeAll();
         for (ReportPSM psm : psmSet.getPSMs()) {
             JPanel psmPanel = new JPanel();
@@ -612,11 +638,12 @@ public class ProteinsVisualizationPanel extends JPanel
         }
 
         if (errorMsg == null) {
-            Spectrum spectrum = psmToSpectrum.getSpectrumForPSM(selectedPSM);
+            AnnotatedSpectrum annotatedSpectrum =
+                    spectrumCache.getAnnotatedSpectrum(selectedPSM, PSMSpectrumAnnotator.PRODUCT_ION_PAIR);
 
             JPanel spectrumVisualizerPanel = new JPanel();
             spectrumVisualizerPanel.setPreferredSize(new Dimension(800, 600));
-            PSMSpectrumAnnotator.annotateSpectrumInPanel(selectedPSM, spectrum, spectrumVisualizerPanel);
+            PSMSpectrumAnnotator.annotateSpectrumInPanel(selectedPSM, annotatedSpectrum, spectrumVisualizerPanel);
 
             spectrumDialog.add(spectrumVisualizerPanel);
         } else {
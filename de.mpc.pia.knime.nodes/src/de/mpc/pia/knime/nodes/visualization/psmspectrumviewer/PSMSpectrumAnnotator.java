@@ -12,9 +12,9 @@ import javax.swing.JTextField;
 import de.mpc.pia.knime.nodes.visualization.ReportTableCellRenderer;
 import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.score.ScoreModel;
+import de.mpc.pia.visualization.spectra.AnnotatedSpectrum;
 import de.mpc.pia.visualization.spectra.SpectrumVisualizer;
 import uk.ac.ebi.pride.toolsuite.mzgraph.SpectrumBrowser;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
 import uk.ac.ebi.pride.utilities.mol.ProductIonPair;
 
 /**
@@ -25,6 +25,9 @@ import uk.ac.ebi.pride.utilities.mol.ProductIonPair;
  */
 public class PSMSpectrumAnnotator {
 
+    /** the annotated product ions */
+    public static final ProductIonPair PRODUCT_ION_PAIR = ProductIonPair.B_Y;
+
     /**
      * Do not instantiate this class
      */
@@ -33,14 +36,15 @@ public class PSMSpectrumAnnotator {
 
 
     /**
-     * Visualize the given {@link ReportPSM} with the given {@link Spectrum} in
-     * the {@link JPanel}.
+     * Visualize the given {@link ReportPSM} with the given annotated spectrum
+     * in the {@link JPanel}.
      *
      * @param psm
-     * @param spectrum
+     * @param annotatedSpectrum the spectrum, annotated with {@link #PRODUCT_ION_PAIR}
      * @param visualizerPanel
      */
-    public static void annotateSpectrumInPanel(ReportPSM psm, Spectrum spectrum, JPanel visualizerPanel) {
+    public static void annotateSpectrumInPanel(ReportPSM psm, AnnotatedSpectrum annotatedSpectrum,
+            JPanel visualizerPanel) {
         visualizerPanel.removeAll();
 
         if (psm != null) {
@@ -94,8 +98,8 @@ public class PSMSpectrumAnnotator {
             c.anchor = GridBagConstraints.CENTER;
             c.fill = GridBagConstraints.BOTH;
 
-            if (spectrum != null) {
-                SpectrumBrowser specBrowser = SpectrumVisualizer.createSpectrumBrowser(spectrum, psm, ProductIonPair.B_Y);
+            if (annotatedSpectrum != null) {
+                SpectrumBrowser specBrowser = SpectrumVisualizer.createSpectrumBrowser(annotatedSpectrum);
                 visualizerPanel.add(specBrowser, c);
             } else {
                 visualizerPanel.add(new JLabel("no spectrum match for selected PSM"));
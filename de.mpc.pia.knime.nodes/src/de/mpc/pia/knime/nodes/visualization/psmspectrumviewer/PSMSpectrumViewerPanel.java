@@ -30,8 +30,9 @@ import de.mpc.pia.modeller.psm.PSMReportItem;
 import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.tools.matomo.PIAMatomoTracker;
+import de.mpc.pia.visualization.spectra.AnnotatedSpectrum;
+import de.mpc.pia.visualization.spectra.AnnotatedSpectrumCache;
 import de.mpc.pia.visualization.spectra.PiaPsmToSpectrum;
-import uk.ac.ebi.pride.utilities.data.core.Spectrum;
 
 
 /**
@@ -48,6 +49,12 @@ public class PSMSpectrumViewerPanel extends JPanel implements ListSelectionListe
     /** the PSM to spectra matcher */
     private PiaPsmToSpectrum<ReportPSM> psmToSpectrum;
 
+    /** cache of the annotated spectra (null, if no spectra file is given) */
+    private AnnotatedSpectrumCache spectrumCache;
+
+    /** number of rows before and after the selected row, which are prefetched */
+    private static final int PREFETCH_ROWS = 5;
+
     /** the list of PSMs to show */
     private List<ReportPSM> psmList;
 
@@ -75,6 +82,9 @@ public class PSMSpectrumViewerPanel extends JPanel implements ListSelectionListe
             this.add(new JLabel("Try re-running the node."));
         } else {
             this.psmToSpectrum = psmToSpectrum;
+            if (psmToSpectrum != null) {
+                spectrumCache = new AnnotatedSpectrumCache(psmToSpectrum, AnnotatedSpectrumCache.DEFAULT_CACHE_SIZE);
+            }
 
             // add the single PSMs (resolve the sets)
             this.psmList = new ArrayList<>(psmList.size());
@@ -97,6 +107,20 @@ public class PSMSpectrumViewerPanel extends JPanel implements ListSelectionListe
     }
 
 
+    /**
+     * Stops the prefetching of the spectra and clears their cache. Should be
+     * called, when the panel is not shown anymore.
+     */
+    public void close() {
+        if (spectrumCache != null) {
+            spectrumCache.close();
+            spectrumCache = null;
+        }
+        // the mapping itself belongs to the node model and stays open
+        psmToSpectrum = null;
+    }
+
+
     /**
      * Initialize the panel
      */
@@ -203,10 +227,42 @@ public class PSMSpectrumViewerPanel extends JPanel implements ListSelectionListe
             spectrumVisualizerPanel.revalidate();
         } else {
             ReportPSM psm = psmTableModel.getPSMAt(selectedPSMIdx);
-            Spectrum spectrum = psmToSpectrum.getSpectrumForPSM(psm);
+            AnnotatedSpectrum annotatedSpectrum =
+                    spectrumCache.getAnnotatedSpectrum(psm, PSMSpectrumAnnotator.PRODUCT_ION_PAIR);
+
+            PSMSpectrumAnnotator.annotateSpectrumInPanel(psm, annotatedSpectrum, spectrumVisualizerPanel);
+
+            prefetchNeighbours();
+        }
+    }
+
 
-            PSMSpectrumAnnotator.annotateSpectrumInPanel(psm, spectrum, spectrumVisualizerPanel);
+    /**
+     * Prefetches the spectra of the rows around the selected row (in the
+     * current sorting and filtering of the table).
+     */
+    private void prefetchNeighbours() {
+        int selectedRow = psmTable.getSelectedRow();
+        if (selectedRow < 0) {
+            return;
         }
+
+        // first the following rows, then the preceding ones
+        List<ReportPSM> neighbours = new ArrayList<>(2 * PREFETCH_ROWS);
+        for (int offset = 1; offset <= PREFETCH_ROWS; offset++) {
+            int row = selectedRow + offset;
+            if (row < psmTable.getRowCount()) {
+                neighbours.add(psmTableModel.getPSMAt(psmTable.convertRowIndexToModel(row)));
+            }
+        }
+        for (int offset = 1; offset <= PREFETCH_ROWS; offset++) {
+            int row = selectedRow - offset;
+            if (row >= 0) {
+                neighbours.add(psmTableModel.getPSMAt(psmTable.convertRowIndexToModel(row)));
+            }
+        }
+
+        spectrumCache.prefetch(neighbours, PSMSpectrumAnnotator.PRODUCT_ION_PAIR);
     }
 
 
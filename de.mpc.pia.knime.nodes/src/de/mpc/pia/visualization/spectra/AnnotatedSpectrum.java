@@ -0,0 +1,78 @@
+package de.mpc.pia.visualization.spectra;
+
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.pride.utilities.mol.PTModification;
+
+/**
+ * The peaks of a spectrum together with the automatically created fragment
+ * ion annotations for a peptide. Creating the annotations needs no Swing
+ * components, so it can be done on any thread, while the
+ * {@link uk.ac.ebi.pride.toolsuite.mzgraph.SpectrumBrowser} is created from
+ * this by {@link SpectrumVisualizer#createSpectrumBrowser(AnnotatedSpectrum)}.
+ *
+ * @author julian
+ *
+ */
+public class AnnotatedSpectrum {
+
+    /** the m/z values of the peaks */
+    private final double[] mzArr;
+
+    /** the intensities of the peaks */
+    private final double[] intentArr;
+
+    /** the fragment ion annotations */
+    private final List<?> fragmentIons;
+
+    /** length of the annotated peptide sequence */
+    private final int sequenceLength;
+
+    /** the modifications of the peptide */
+    private final Map<Integer, List<PTModification>> modifications;
+
+
+    /**
+     * Creates the annotated spectrum
+     *
+     * @param mzArr
+     * @param intentArr
+     * @param fragmentIons
+     * @param sequenceLength
+     * @param modifications
+     */
+    public AnnotatedSpectrum(double[] mzArr, double[] intentArr, List<?> fragmentIons,
+            int sequenceLength, Map<Integer, List<PTModification>> modifications) {
+        this.mzArr = mzArr;
+        this.intentArr = intentArr;
+        this.fragmentIons = fragmentIons;
+        this.sequenceLength = sequenceLength;
+        this.modifications = modifications;
+    }
+
+
+    public double[] getMzArr() {
+        return mzArr;
+    }
+
+
+    public double[] getIntentArr() {
+        return intentArr;
+    }
+
+
+    public List<?> getFragmentIons() {
+        return fragmentIons;
+    }
+
+
+    public int getSequenceLength() {
+        return sequenceLength;
+    }
+
+
+    public Map<Integer, List<PTModification>> getModifications() {
+        return modifications;
+    }
+}
@@ -0,0 +1,212 @@
+package de.mpc.pia.visualization.spectra;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.node.NodeLogger;
+
+import de.mpc.pia.modeller.psm.ReportPSM;
+import uk.ac.ebi.pride.utilities.mol.ProductIonPair;
+
+/**
+ * A bounded least recently used cache of the decoded peaks and the annotated
+ * spectra of PSMs. The peaks are cached by the spectrum ID, the annotations
+ * additionally by the peptide sequence, modifications, charge and product ion
+ * pair.
+ * <p>
+ * Spectra of PSMs, which will probably be shown next, can be prefetched on a
+ * background thread.
+ *
+ * @author julian
+ *
+ */
+public class AnnotatedSpectrumCache {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(AnnotatedSpectrumCache.class);
+
+    /** default number of cached annotated spectra */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    /** seconds until the idle prefetch thread ends */
+    private static final long PREFETCH_KEEP_ALIVE = 30;
+
+
+    /** the PSM to spectrum matcher */
+    private final PiaPsmToSpectrum<ReportPSM> psmToSpectrum;
+
+    /** the decoded peaks by spectrum ID */
+    private final Map<Comparable, double[][]> peaksCache;
+
+    /** the annotated spectra by spectrum ID and peptide */
+    private final Map<String, AnnotatedSpectrum> annotationsCache;
+
+    /** the executor for prefetching */
+    private final ThreadPoolExecutor prefetchExecutor;
+
+    /** the number of the latest prefetch, older prefetches stop */
+    private final AtomicInteger prefetchGeneration;
+
+
+    /**
+     * Creates a cache for the spectra of the given matcher
+     *
+     * @param psmToSpectrum
+     * @param cacheSize maximal number of cached annotated spectra (and peaks)
+     */
+    public AnnotatedSpectrumCache(PiaPsmToSpectrum<ReportPSM> psmToSpectrum, final int cacheSize) {
+        this.psmToSpectrum = psmToSpectrum;
+
+        this.peaksCache = new LinkedHashMap<Comparable, double[][]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Comparable, double[][]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        this.annotationsCache = new LinkedHashMap<String, AnnotatedSpectrum>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AnnotatedSpectrum> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        this.prefetchExecutor = new ThreadPoolExecutor(1, 1, PREFETCH_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "PIA spectrum prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.prefetchExecutor.allowCoreThreadTimeOut(true);
+        this.prefetchGeneration = new AtomicInteger(0);
+    }
+
+
+    /**
+     * Returns the annotated spectrum of the given PSM, creating and caching it
+     * if needed.
+     *
+     * @param psm
+     * @param productIonPair
+     * @return the annotated spectrum or null, if no spectrum matches the PSM
+     */
+    public AnnotatedSpectrum getAnnotatedSpectrum(ReportPSM psm, ProductIonPair productIonPair) {
+        Comparable specID = psmToSpectrum.getSpectrumIdForPSM(psm);
+        if (specID == null) {
+            return null;
+        }
+
+        String key = createAnnotationKey(specID, psm, productIonPair);
+        AnnotatedSpectrum annotated;
+        synchronized (annotationsCache) {
+            annotated = annotationsCache.get(key);
+        }
+
+        if (annotated == null) {
+            double[][] peaks = getPeaks(specID);
+            if (peaks == null) {
+                return null;
+            }
+
+            annotated = SpectrumVisualizer.annotateSpectrum(peaks[0], peaks[1], psm.getCharge(),
+                    psm.getSequence(), psm.getModifications(), productIonPair);
+
+            synchronized (annotationsCache) {
+                annotationsCache.put(key, annotated);
+            }
+        }
+
+        return annotated;
+    }
+
+
+    /**
+     * Returns the (cached) peaks of the spectrum
+     *
+     * @param specID
+     * @return
+     */
+    private double[][] getPeaks(Comparable specID) {
+        double[][] peaks;
+        synchronized (peaksCache) {
+            peaks = peaksCache.get(specID);
+        }
+
+        if (peaks == null) {
+            peaks = psmToSpectrum.getPeaks(specID);
+            if (peaks != null) {
+                synchronized (peaksCache) {
+                    peaksCache.put(specID, peaks);
+                }
+            }
+        }
+
+        return peaks;
+    }
+
+
+    /**
+     * Creates the key of the annotated spectrum
+     */
+    private static String createAnnotationKey(Comparable specID, ReportPSM psm, ProductIonPair productIonPair) {
+        return specID.toString() + '\t' + psm.getSequence() + '\t' + psm.getModificationsString()
+                + '\t' + psm.getCharge() + '\t' + productIonPair;
+    }
+
+
+    /**
+     * Prefetches the annotated spectra of the given PSMs in the background. A
+     * still running prefetch is cancelled.
+     *
+     * @param psms
+     * @param productIonPair
+     */
+    public void prefetch(List<ReportPSM> psms, final ProductIonPair productIonPair) {
+        if (prefetchExecutor.isShutdown()) {
+            return;
+        }
+
+        // the threads are not interrupted, as this would close the channels to the spectra file
+        final int generation = prefetchGeneration.incrementAndGet();
+
+        final List<ReportPSM> prefetchPSMs = new ArrayList<>(psms);
+        prefetchExecutor.execute(() -> {
+            for (ReportPSM psm : prefetchPSMs) {
+                if (generation != prefetchGeneration.get()) {
+                    return;
+                }
+
+                try {
+                    getAnnotatedSpectrum(psm, productIonPair);
+                } catch (Exception e) {
+                    LOGGER.debug("Could not prefetch spectrum for PSM " + psm.getId(), e);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Stops the prefetching and clears the cache.
+     */
+    public void close() {
+        prefetchGeneration.incrementAndGet();
+        prefetchExecutor.shutdown();
+        synchronized (peaksCache) {
+            peaksCache.clear();
+        }
+        synchronized (annotationsCache) {
+            annotationsCache.clear();
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package de.mpc.pia.visualization.spectra;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.knime.core.node.NodeLogger;
+
+/**
+ * A lightweight random access reader for spectra files. The file is scanned
+ * once to build an index of the byte regions, precursor m/z values and charges
+ * of the spectra. The peaks of a single spectrum are read by memory mapping
+ * only its region of the file.
+ * <p>
+ * Currently mzML and MGF files are supported, see {@link #open(File)}.
+ *
+ * @author julian
+ *
+ */
+public abstract class MappedSpectrumReader implements Closeable {
+
+    /** the logger instance */
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(MappedSpectrumReader.class);
+
+    /** size of the buffer while scanning the file */
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+    /** number of bytes at the start of the file, which are used to detect the format */
+    private static final int FORMAT_PROBE_SIZE = 4096;
+
+    /** maximal length of a line while scanning, longer lines (e.g. files without line breaks) are not indexed */
+    private static final int MAX_LINE_LENGTH = 64 * 1024 * 1024;
+
+
+    /** the spectra file */
+    private final File spectraFile;
+
+    /** the channel to the spectra file, used for mapping the spectra */
+    private FileChannel channel;
+
+    /** number of indexed spectra */
+    private int nrSpectra;
+
+    /** the spectrum IDs */
+    private String[] spectrumIDs;
+
+    /** the start offsets of the spectra in the file */
+    private long[] offsets;
+
+    /** the byte lengths of the spectra in the file */
+    private int[] lengths;
+
+    /** the precursor m/z values (NaN, if not given) */
+    private double[] precursorMZs;
+
+    /** the precursor charges (0, if not given) */
+    private int[] precursorCharges;
+
+    /** mapping from the spectrum IDs to their position in the index */
+    private Map<String, Integer> idToPosition;
+
+
+    /**
+     * Creates the reader for the given file. The file is not scanned before
+     * {@link #buildIndex()} is called.
+     *
+     * @param spectraFile
+     */
+    protected MappedSpectrumReader(File spectraFile) {
+        this.spectraFile = spectraFile;
+        this.nrSpectra = 0;
+        this.spectrumIDs = new String[1024];
+        this.offsets = new long[1024];
+        this.lengths = new int[1024];
+        this.precursorMZs = new double[1024];
+        this.precursorCharges = new int[1024];
+    }
+
+
+    /**
+     * Opens a reader for the given file, if the format is supported. The whole
+     * file is scanned for the spectra before the reader is returned.
+     * <p>
+     * If no spectra or not the number of spectra given in the file could be
+     * indexed (e.g. due to an unusual formatting of the file), no reader is
+     * returned and the file should be read by another parser.
+     *
+     * @param spectraFile
+     * @return the reader or null, if the format is not supported or the file
+     * could not be indexed completely
+     * @throws IOException
+     */
+    public static MappedSpectrumReader open(File spectraFile) throws IOException {
+        byte[] probe = new byte[FORMAT_PROBE_SIZE];
+        int probeLength = 0;
+        try (InputStream in = new FileInputStream(spectraFile)) {
+            int len;
+            while ((probeLength < probe.length)
+                    && ((len = in.read(probe, probeLength, probe.length - probeLength)) > -1)) {
+                probeLength += len;
+            }
+        }
+        String start = new String(probe, 0, probeLength, StandardCharsets.ISO_8859_1);
+
+        MappedSpectrumReader reader;
+        if (start.contains("<mzML") || start.contains("<indexedmzML")) {
+            reader = new MzMLMappedSpectrumReader(spectraFile);
+        } else if (start.contains("BEGIN IONS")
+                || spectraFile.getName().toLowerCase().endsWith(".mgf")) {
+            reader = new MgfMappedSpectrumReader(spectraFile);
+        } else {
+            return null;
+        }
+
+        long startTime = System.currentTimeMillis();
+        reader.buildIndex();
+        LOGGER.debug("indexed " + reader.getNumberOfSpectra() + " spectra in " + spectraFile.getAbsolutePath()
+                + " in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        int expectedSpectra = reader.getExpectedNumberOfSpectra();
+        if ((reader.getNumberOfSpectra() == 0)
+                || ((expectedSpectra > -1) && (expectedSpectra != reader.getNumberOfSpectra()))) {
+            LOGGER.warn("Indexed " + reader.getNumberOfSpectra() + " spectra in " + spectraFile.getAbsolutePath()
+                    + ", but the file contains " + ((expectedSpectra > -1) ? expectedSpectra : "more")
+                    + ", the file is not indexed");
+            reader.close();
+            return null;
+        }
+        return reader;
+    }
+
+
+    /**
+     * Scans the file and builds the index of the spectra.
+     *
+     * @throws IOException
+     */
+    protected void buildIndex() throws IOException {
+        try (InputStream in = new FileInputStream(spectraFile)) {
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            byte[] line = new byte[8192];
+            int lineLength = 0;
+            long lineOffset = 0;
+            long bufferOffset = 0;
+
+            int len;
+            while ((len = in.read(buffer)) > -1) {
+                int lineStart = 0;
+                for (int i = 0; i < len; i++) {
+                    if (buffer[i] == '\n') {
+                        checkLineLength(lineLength + i - lineStart);
+                        line = appendToLine(line, lineLength, buffer, lineStart, i - lineStart);
+                        lineLength += i - lineStart;
+
+                        long nextLineOffset = bufferOffset + i + 1;
+                        processLine(line, lineLength, lineOffset, nextLineOffset);
+
+                        lineLength = 0;
+                        lineOffset = nextLineOffset;
+                        lineStart = i + 1;
+                    }
+                }
+
+                // keep the rest of the buffer for the next line
+                checkLineLength(lineLength + len - lineStart);
+                line = appendToLine(line, lineLength, buffer, lineStart, len - lineStart);
+                lineLength += len - lineStart;
+                bufferOffset += len;
+            }
+
+            if (lineLength > 0) {
+                processLine(line, lineLength, lineOffset, bufferOffset);
+            }
+        }
+
+        createIdMapping();
+    }
+
+
+    /**
+     * Creates the mapping from the spectrum IDs to the positions
+     */
+    private void createIdMapping() {
+        idToPosition = new HashMap<>(nrSpectra * 2);
+        for (int i = 0; i < nrSpectra; i++) {
+            idToPosition.put(spectrumIDs[i], i);
+        }
+    }
+
+
+    /**
+     * Checks, whether a line of the given length can be processed.
+     *
+     * @param lineLength
+     * @throws IOException if the line is too long
+     */
+    private static void checkLineLength(long lineLength) throws IOException {
+        if (lineLength > MAX_LINE_LENGTH) {
+            throw new IOException("Line of more than " + MAX_LINE_LENGTH + " bytes, cannot index the file");
+        }
+    }
+
+
+    /**
+     * Appends the bytes to the line, enlarging the line if needed.
+     *
+     * @return the (possibly new) line array
+     */
+    private static byte[] appendToLine(byte[] line, int lineLength, byte[] src, int srcPos, int length) {
+        byte[] target = line;
+        if (lineLength + length > target.length) {
+            target = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+        }
+        System.arraycopy(src, srcPos, target, lineLength, length);
+        return target;
+    }
+
+
+    /**
+     * Processes a line of the file while the index is built. Lines are
+     * separated by '\n', the '\n' itself is not part of the line.
+     *
+     * @param line the bytes of the line (the array may be longer)
+     * @param length length of the line
+     * @param lineOffset offset of the line in the file
+     * @param nextLineOffset offset of the next line in the file
+     */
+    protected abstract void processLine(byte[] line, int length, long lineOffset, long nextLineOffset);
+
+
+    /**
+     * Parses the peaks of a spectrum from its text in the file.
+     *
+     * @param spectrumText
+     * @return the m/z values and the intensities
+     * @throws IOException
+     */
+    protected abstract double[][] parsePeaks(String spectrumText) throws IOException;
+
+
+    /**
+     * Returns the number of spectra as given in the file, if it is known after
+     * the index is built.
+     *
+     * @return the number of spectra or -1, if it is not given in the file
+     */
+    protected int getExpectedNumberOfSpectra() {
+        return -1;
+    }
+
+
+    /**
+     * Returns the tag of the file format, which is used in the saved index
+     *
+     * @return
+     */
+    protected abstract byte getFormatTag();
+
+
+    /**
+     * Writes further data of the format specific reader, which is needed to
+     * parse the spectra.
+     *
+     * @param out
+     * @throws IOException
+     */
+    protected void writeReaderData(DataOutputStream out) throws IOException {
+        // no further data by default
+    }
+
+
+    /**
+     * Reads the data written by {@link #writeReaderData(DataOutputStream)}
+     *
+     * @param in
+     * @throws IOException
+     */
+    protected void readReaderData(DataInputStream in) throws IOException {
+        // no further data by default
+    }
+
+
+    /**
+     * Adds a spectrum to the index.
+     *
+     * @param id the spectrum ID
+     * @param start offset of the first byte of the spectrum
+     * @param end offset after the last byte of the spectrum
+     * @param precursorMZ the precursor m/z or null
+     * @param precursorCharge the precursor charge or null
+     */
+    protected void addSpectrum(String id, long start, long end, Double precursorMZ, Integer precursorCharge) {
+        if (end - start > Integer.MAX_VALUE) {
+            LOGGER.warn("Spectrum " + id + " is too large and is not indexed");
+            return;
+        }
+
+        if (nrSpectra == offsets.length) {
+            int newSize = offsets.length * 2;
+            spectrumIDs = Arrays.copyOf(spectrumIDs, newSize);
+            offsets = Arrays.copyOf(offsets, newSize);
+            lengths = Arrays.copyOf(lengths, newSize);
+            precursorMZs = Arrays.copyOf(precursorMZs, newSize);
+            precursorCharges = Arrays.copyOf(precursorCharges, newSize);
+        }
+
+        spectrumIDs[nrSpectra] = id;
+        offsets[nrSpectra] = start;
+        lengths[nrSpectra] = (int) (end - start);
+        precursorMZs[nrSpectra] = (precursorMZ != null) ? precursorMZ : Double.NaN;
+        precursorCharges[nrSpectra] = (precursorCharge != null) ? precursorCharge : 0;
+        nrSpectra++;
+    }
+
+
+    /**
+     * Returns the number of indexed spectra
+     *
+     * @return
+     */
+    public int getNumberOfSpectra() {
+        return nrSpectra;
+    }
+
+
+    /**
+     * Creates the precursor index of all spectra with a given precursor m/z.
+     *
+     * @return
+     */
+    public SpectrumPrecursorIndex createPrecursorIndex() {
+        return SpectrumPrecursorIndex.createFromUnsorted(Arrays.copyOf(spectrumIDs, nrSpectra, Comparable[].class),
+                Arrays.copyOf(precursorMZs, nrSpectra), Arrays.copyOf(precursorCharges, nrSpectra));
+    }
+
+
+    /**
+     * Returns the peaks of the spectrum with the given ID. Only the region of
+     * the spectrum is mapped from the file.
+     *
+     * @param spectrumID
+     * @return the m/z values and the intensities or null, if the ID is unknown
+     * @throws IOException
+     */
+    public double[][] getPeaks(Comparable spectrumID) throws IOException {
+        Integer position = idToPosition.get(spectrumID.toString());
+        if (position == null) {
+            return null;
+        }
+
+        MappedByteBuffer region = getChannel().map(FileChannel.MapMode.READ_ONLY, offsets[position], lengths[position]);
+        byte[] bytes = new byte[lengths[position]];
+        region.get(bytes);
+
+        return parsePeaks(new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+
+    /**
+     * Returns the channel to the spectra file, opening it if needed
+     *
+     * @return
+     * @throws IOException
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(spectraFile.toPath(), StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+
+    /**
+     * Writes the index of the spectra to the stream, so that the reader can be
+     * restored without scanning the file again. The size and modification time
+     * of the file are stored as well, to detect changes of the file.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeIndexTo(DataOutputStream out) throws IOException {
+        out.writeByte(getFormatTag());
+        out.writeLong(spectraFile.length());
+        out.writeLong(spectraFile.lastModified());
+        out.writeInt(nrSpectra);
+        for (int i = 0; i < nrSpectra; i++) {
+            writeString(out, spectrumIDs[i]);
+            out.writeLong(offsets[i]);
+            out.writeInt(lengths[i]);
+            out.writeDouble(precursorMZs[i]);
+            out.writeInt(precursorCharges[i]);
+        }
+        writeReaderData(out);
+    }
+
+
+    /**
+     * Restores a reader with an index written by
+     * {@link #writeIndexTo(DataOutputStream)}. The spectra file is not opened
+     * before a spectrum is requested.
+     *
+     * @param spectraFile
+     * @param in
+     * @return
+     * @throws IOException if the index cannot be read or the spectra file was
+     * changed after the index was written
+     */
+    public static MappedSpectrumReader readIndexFrom(File spectraFile, DataInputStream in) throws IOException {
+        byte formatTag = in.readByte();
+        MappedSpectrumReader reader;
+        if (formatTag == MzMLMappedSpectrumReader.FORMAT_TAG) {
+            reader = new MzMLMappedSpectrumReader(spectraFile);
+        } else if (formatTag == MgfMappedSpectrumReader.FORMAT_TAG) {
+            reader = new MgfMappedSpectrumReader(spectraFile);
+        } else {
+            throw new IOException("Unknown format of spectrum index: " + formatTag);
+        }
+
+        long fileSize = in.readLong();
+        long lastModified = in.readLong();
+        if ((fileSize != spectraFile.length()) || (lastModified != spectraFile.lastModified())) {
+            throw new IOException("The spectrum file " + spectraFile.getAbsolutePath()
+                    + " was changed after it was indexed");
+        }
+
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid size of spectrum index: " + size);
+        }
+        reader.spectrumIDs = new String[size];
+        reader.offsets = new long[size];
+        reader.lengths = new int[size];
+        reader.precursorMZs = new double[size];
+        reader.precursorCharges = new int[size];
+        for (int i = 0; i < size; i++) {
+            reader.spectrumIDs[i] = readString(in);
+            reader.offsets[i] = in.readLong();
+            reader.lengths[i] = in.readInt();
+            reader.precursorMZs[i] = in.readDouble();
+            reader.precursorCharges[i] = in.readInt();
+        }
+        reader.nrSpectra = size;
+        reader.readReaderData(in);
+        reader.createIdMapping();
+
+        return reader;
+    }
+
+
+    /**
+     * Writes a string of any length as UTF-8
+     *
+     * @param out
+     * @param str
+     * @throws IOException
+     */
+    protected static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    protected static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns the line as string, using one char per byte. This way, the
+     * indices in the string are the byte offsets in the line.
+     *
+     * @param line
+     * @param length
+     * @return
+     */
+    protected static String lineToString(byte[] line, int length) {
+        return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+
+    /**
+     * Returns the file of this reader
+     *
+     * @return
+     */
+    public File getSpectraFile() {
+        return spectraFile;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.mpc.pia.visualization.spectra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A {@link MappedSpectrumReader} for MGF files. The spectra are identified by
+ * their (zero based) index in the file, as "index=N".
+ *
+ * @author julian
+ *
+ */
+public class MgfMappedSpectrumReader extends MappedSpectrumReader {
+
+    private static final String BEGIN_IONS = "BEGIN IONS";
+    private static final String END_IONS = "END IONS";
+    private static final String PEPMASS = "PEPMASS=";
+    private static final String CHARGE = "CHARGE=";
+
+    /** tag of the format in the saved index */
+    protected static final byte FORMAT_TAG = 2;
+
+    /** prefix of the spectrum IDs */
+    public static final String ID_PREFIX = "index=";
+
+
+    /** index of the next spectrum */
+    private int spectrumIndex;
+
+    /** start offset of the currently read spectrum, -1 if not in a spectrum */
+    private long currentStart;
+
+    /** precursor m/z of the currently read spectrum */
+    private Double currentMZ;
+
+    /** precursor charge of the currently read spectrum */
+    private Integer currentCharge;
+
+
+    /**
+     * Creates the reader for the given MGF file.
+     *
+     * @param spectraFile
+     */
+    public MgfMappedSpectrumReader(File spectraFile) {
+        super(spectraFile);
+        spectrumIndex = 0;
+        currentStart = -1;
+    }
+
+
+    @Override
+    protected void processLine(byte[] line, int length, long lineOffset, long nextLineOffset) {
+        if ((length == 0) || (Character.isDigit(line[0]) && (currentStart > -1))) {
+            // peak lines are not needed for the index
+            return;
+        }
+
+        String lineStr = lineToString(line, length).trim();
+
+        if (lineStr.startsWith(BEGIN_IONS)) {
+            currentStart = lineOffset;
+            currentMZ = null;
+            currentCharge = null;
+        } else if (currentStart < 0) {
+            return;
+        } else if (lineStr.startsWith(PEPMASS)) {
+            String[] values = lineStr.substring(PEPMASS.length()).trim().split("\\s+");
+            try {
+                currentMZ = Double.parseDouble(values[0]);
+            } catch (NumberFormatException e) {
+                currentMZ = null;
+            }
+        } else if (lineStr.startsWith(CHARGE)) {
+            currentCharge = parseCharge(lineStr.substring(CHARGE.length()));
+        } else if (lineStr.startsWith(END_IONS)) {
+            addSpectrum(ID_PREFIX + spectrumIndex, currentStart, nextLineOffset, currentMZ, currentCharge);
+            spectrumIndex++;
+            currentStart = -1;
+        }
+    }
+
+
+    /**
+     * Parses the first charge in the given value, e.g. "2+" or "2+ and 3+"
+     *
+     * @param value
+     * @return the charge or null, if it could not be parsed
+     */
+    private static Integer parseCharge(String value) {
+        String charge = value.trim().split("\\s+")[0];
+        int sign = 1;
+        if (charge.endsWith("+")) {
+            charge = charge.substring(0, charge.length() - 1);
+        } else if (charge.endsWith("-")) {
+            charge = charge.substring(0, charge.length() - 1);
+            sign = -1;
+        }
+
+        try {
+            return sign * Integer.parseInt(charge);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+
+    @Override
+    protected byte getFormatTag() {
+        return FORMAT_TAG;
+    }
+
+
+    @Override
+    protected double[][] parsePeaks(String spectrumText) throws IOException {
+        double[] mzs = new double[64];
+        double[] intensities = new double[64];
+        int nrPeaks = 0;
+
+        for (String line : spectrumText.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || !Character.isDigit(trimmed.charAt(0))) {
+                continue;
+            }
+
+            String[] values = trimmed.split("\\s+");
+            if (nrPeaks == mzs.length) {
+                mzs = Arrays.copyOf(mzs, nrPeaks * 2);
+                intensities = Arrays.copyOf(intensities, nrPeaks * 2);
+            }
+
+            try {
+                mzs[nrPeaks] = Double.parseDouble(values[0]);
+                intensities[nrPeaks] = (values.length > 1) ? Double.parseDouble(values[1]) : 0.0;
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid peak line in MGF: " + trimmed, e);
+            }
+            nrPeaks++;
+        }
+
+        return new double[][] {Arrays.copyOf(mzs, nrPeaks), Arrays.copyOf(intensities, nrPeaks)};
+    }
+}
@@ -0,0 +1,372 @@
+package de.mpc.pia.visualization.spectra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link MappedSpectrumReader} for mzML files. The binary arrays are decoded
+ * from base64 and inflated (if zlib compressed) directly into primitive
+ * arrays.
+ *
+ * @author julian
+ *
+ */
+public class MzMLMappedSpectrumReader extends MappedSpectrumReader {
+
+    /** tag of the format in the saved index */
+    protected static final byte FORMAT_TAG = 1;
+
+    /** accession of the selected ion m/z */
+    private static final String ACC_SELECTED_ION_MZ = "MS:1000744";
+
+    /** accession of the charge state */
+    private static final String ACC_CHARGE_STATE = "MS:1000041";
+
+    /** accession of the m/z array */
+    private static final String ACC_MZ_ARRAY = "MS:1000514";
+
+    /** accession of the intensity array */
+    private static final String ACC_INTENSITY_ARRAY = "MS:1000515";
+
+    /** accession of 32-bit floats */
+    private static final String ACC_32_BIT_FLOAT = "MS:1000521";
+
+    /** accession of 64-bit floats */
+    private static final String ACC_64_BIT_FLOAT = "MS:1000523";
+
+    /** accession of zlib compression */
+    private static final String ACC_ZLIB_COMPRESSION = "MS:1000574";
+
+    /** accession of no compression */
+    private static final String ACC_NO_COMPRESSION = "MS:1000576";
+
+    private static final String SPECTRUM_START = "<spectrum ";
+    private static final String SPECTRUM_END = "</spectrum>";
+    private static final String PARAM_GROUP_START = "<referenceableParamGroup ";
+    private static final String PARAM_GROUP_END = "</referenceableParamGroup>";
+    private static final String SPECTRUM_LIST_START = "<spectrumList ";
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\\sid=\"([^\"]*)\"");
+    private static final Pattern COUNT_PATTERN = Pattern.compile("\\scount=\"([0-9]{1,9})\"");
+    private static final Pattern VALUE_PATTERN = Pattern.compile("\\svalue=\"([^\"]*)\"");
+    private static final Pattern REF_PATTERN = Pattern.compile("<referenceableParamGroupRef\\s+ref=\"([^\"]*)\"");
+    private static final Pattern BINARY_ARRAY_PATTERN =
+            Pattern.compile("<binaryDataArray[\\s>](.*?)</binaryDataArray>", Pattern.DOTALL);
+    private static final Pattern BINARY_PATTERN = Pattern.compile("<binary>([^<]*)</binary>");
+
+
+    /** the referenceable parameter groups, which may hold the array parameters */
+    private Map<String, String> paramGroups;
+
+    /** the number of spectra given in the spectrum list, -1 if not known */
+    private int spectrumListCount;
+
+    /** ID of the currently read referenceable parameter group */
+    private String currentGroupID;
+
+    /** content of the currently read referenceable parameter group */
+    private StringBuilder currentGroupContent;
+
+    /** ID of the currently read spectrum */
+    private String currentID;
+
+    /** start offset of the currently read spectrum, -1 if not in a spectrum */
+    private long currentStart;
+
+    /** precursor m/z of the currently read spectrum */
+    private Double currentMZ;
+
+    /** precursor charge of the currently read spectrum */
+    private Integer currentCharge;
+
+
+    /**
+     * Creates the reader for the given mzML file.
+     *
+     * @param spectraFile
+     */
+    public MzMLMappedSpectrumReader(File spectraFile) {
+        super(spectraFile);
+        paramGroups = new HashMap<>();
+        spectrumListCount = -1;
+        currentGroupID = null;
+        currentStart = -1;
+    }
+
+
+    @Override
+    protected void processLine(byte[] line, int length, long lineOffset, long nextLineOffset) {
+        if (isBinaryLine(line, length)) {
+            // the binary data is not needed for the index
+            return;
+        }
+
+        String lineStr = lineToString(line, length);
+
+        if (currentGroupID != null) {
+            currentGroupContent.append(lineStr);
+            if (lineStr.contains(PARAM_GROUP_END)) {
+                paramGroups.put(currentGroupID, currentGroupContent.toString());
+                currentGroupID = null;
+            }
+            return;
+        }
+
+        int idx = lineStr.indexOf(PARAM_GROUP_START);
+        if (idx > -1) {
+            Matcher matcher = ID_PATTERN.matcher(lineStr);
+            if (matcher.find(idx)) {
+                currentGroupID = unescapeXML(matcher.group(1));
+                currentGroupContent = new StringBuilder(lineStr.substring(idx));
+            }
+            return;
+        }
+
+        idx = lineStr.indexOf(SPECTRUM_LIST_START);
+        if (idx > -1) {
+            Matcher matcher = COUNT_PATTERN.matcher(lineStr);
+            if (matcher.find(idx)) {
+                spectrumListCount = Integer.parseInt(matcher.group(1));
+            }
+        }
+
+        idx = lineStr.indexOf(SPECTRUM_START);
+        if (idx > -1) {
+            Matcher matcher = ID_PATTERN.matcher(lineStr);
+            if (matcher.find(idx)) {
+                currentID = unescapeXML(matcher.group(1));
+                currentStart = lineOffset + idx;
+                currentMZ = null;
+                currentCharge = null;
+            }
+        }
+
+        if (currentStart < 0) {
+            return;
+        }
+
+        if (lineStr.contains(ACC_SELECTED_ION_MZ) && (currentMZ == null)) {
+            String value = getValue(lineStr);
+            if (value != null) {
+                currentMZ = Double.parseDouble(value);
+            }
+        } else if (lineStr.contains(ACC_CHARGE_STATE) && (currentCharge == null)) {
+            String value = getValue(lineStr);
+            if (value != null) {
+                currentCharge = (int) Double.parseDouble(value);
+            }
+        }
+
+        idx = lineStr.indexOf(SPECTRUM_END);
+        if (idx > -1) {
+            addSpectrum(currentID, currentStart, lineOffset + idx + SPECTRUM_END.length(), currentMZ, currentCharge);
+            currentStart = -1;
+        }
+    }
+
+
+    /**
+     * Checks whether the line (without leading whitespace) starts with a
+     * binary element.
+     */
+    private static boolean isBinaryLine(byte[] line, int length) {
+        int pos = 0;
+        while ((pos < length) && Character.isWhitespace(line[pos])) {
+            pos++;
+        }
+
+        byte[] tag = {'<', 'b', 'i', 'n', 'a', 'r', 'y', '>'};
+        if (length - pos < tag.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length; i++) {
+            if (line[pos + i] != tag[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the value attribute of the (first) element in the line
+     */
+    private static String getValue(String lineStr) {
+        Matcher matcher = VALUE_PATTERN.matcher(lineStr);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+
+    /**
+     * Replaces the predefined XML entities
+     */
+    private static String unescapeXML(String str) {
+        if (str.indexOf('&') < 0) {
+            return str;
+        }
+        return str.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+
+    @Override
+    protected int getExpectedNumberOfSpectra() {
+        return spectrumListCount;
+    }
+
+
+    @Override
+    protected byte getFormatTag() {
+        return FORMAT_TAG;
+    }
+
+
+    @Override
+    protected void writeReaderData(DataOutputStream out) throws IOException {
+        out.writeInt(paramGroups.size());
+        for (Map.Entry<String, String> groupIt : paramGroups.entrySet()) {
+            writeString(out, groupIt.getKey());
+            writeString(out, groupIt.getValue());
+        }
+    }
+
+
+    @Override
+    protected void readReaderData(DataInputStream in) throws IOException {
+        int nrGroups = in.readInt();
+        for (int i = 0; i < nrGroups; i++) {
+            String groupID = readString(in);
+            paramGroups.put(groupID, readString(in));
+        }
+    }
+
+
+    @Override
+    protected double[][] parsePeaks(String spectrumText) throws IOException {
+        double[] mzs = null;
+        double[] intensities = null;
+
+        Matcher arrayMatcher = BINARY_ARRAY_PATTERN.matcher(spectrumText);
+        while (arrayMatcher.find()) {
+            String arrayText = arrayMatcher.group(1);
+
+            // the parameters may be given in referenceable groups
+            StringBuilder params = new StringBuilder(arrayText);
+            Matcher refMatcher = REF_PATTERN.matcher(arrayText);
+            while (refMatcher.find()) {
+                String group = paramGroups.get(unescapeXML(refMatcher.group(1)));
+                if (group != null) {
+                    params.append(group);
+                }
+            }
+            String paramsStr = params.toString();
+
+            boolean isMZ = paramsStr.contains(ACC_MZ_ARRAY);
+            if (!isMZ && !paramsStr.contains(ACC_INTENSITY_ARRAY)) {
+                // neither m/z nor intensities
+                continue;
+            }
+
+            Matcher binaryMatcher = BINARY_PATTERN.matcher(arrayText);
+            String encoded = binaryMatcher.find() ? binaryMatcher.group(1) : "";
+            double[] values = decodeArray(encoded, paramsStr);
+
+            if (isMZ) {
+                mzs = values;
+            } else {
+                intensities = values;
+            }
+        }
+
+        if ((mzs == null) || (intensities == null)) {
+            throw new IOException("Spectrum does not contain m/z and intensity arrays");
+        } else if (mzs.length != intensities.length) {
+            throw new IOException("The m/z and intensity arrays have different lengths");
+        }
+
+        return new double[][] {mzs, intensities};
+    }
+
+
+    /**
+     * Decodes the base64 encoded and possibly zlib compressed array into a
+     * double array.
+     *
+     * @param encoded
+     * @param params the parameters of the binary data array
+     * @return
+     * @throws IOException
+     */
+    private static double[] decodeArray(String encoded, String params) throws IOException {
+        byte[] bytes = Base64.getMimeDecoder().decode(encoded);
+        if (bytes.length == 0) {
+            return new double[0];
+        }
+
+        if (params.contains(ACC_ZLIB_COMPRESSION)) {
+            bytes = inflate(bytes);
+        } else if (!params.contains(ACC_NO_COMPRESSION)) {
+            throw new IOException("Unsupported compression of binary data array");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values;
+        if (params.contains(ACC_64_BIT_FLOAT)) {
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            values = new double[doubles.remaining()];
+            doubles.get(values);
+        } else if (params.contains(ACC_32_BIT_FLOAT)) {
+            FloatBuffer floats = buffer.asFloatBuffer();
+            values = new double[floats.remaining()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = floats.get(i);
+            }
+        } else {
+            throw new IOException("Unsupported precision of binary data array");
+        }
+
+        return values;
+    }
+
+
+    /**
+     * Inflates the zlib compressed bytes
+     */
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4)) {
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buffer);
+                if ((len == 0) && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated zlib data in binary data array");
+                }
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid zlib data in binary data array", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
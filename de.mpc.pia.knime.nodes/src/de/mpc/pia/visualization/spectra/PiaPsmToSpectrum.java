@@ -1,12 +1,15 @@
 package de.mpc.pia.visualization.spectra;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 import org.knime.core.node.NodeLogger;
 
@@ -24,6 +27,14 @@ import uk.ac.ebi.pride.utilities.data.core.Spectrum;
  * This class maps the PSM IDs from PIA to spectra in any spectra file, which
  * can be parsed by the ms-data-core-api. The spectra file is parsed and the
  * spectra can be accessed by the PSM ID after the instantiation of this class.
+ * <p>
+ * mzML and MGF files are read by a {@link MappedSpectrumReader}, all other
+ * formats by the {@link DataAccessController} of the ms-data-core-api. The
+ * controller is also used for spectra the reader cannot decode.
+ * <p>
+ * The index of the spectra and the mapping of the PSMs can be saved to and
+ * restored from a binary file. A restored mapping opens the spectra file only
+ * when a spectrum is actually requested.
  *
  * @author julian
  *
@@ -33,18 +44,37 @@ public class PiaPsmToSpectrum<P extends PSMItem> {
     /** the logger instance */
     private static final NodeLogger LOGGER = NodeLogger.getLogger(PiaPsmToSpectrum.class);
 
-    /** the data access controller for the file containing the MZ data */
+    /** the spectra file */
+    private File spectraFile;
+
+    /** the lightweight reader for the spectra file, null if the controller is used */
+    private MappedSpectrumReader spectrumReader;
+
+    /** the data access controller for the file containing the MZ data, if no reader is used */
     private DataAccessController daController;
 
-    /** mapping from the bin nr (= mz / BIN_WIDTH) to the actual spectra ID in the controller  */
-    private Map<Integer, List<Comparable>> mzToSpectraBins;
+    /** whether the controller could not be initiated before */
+    private boolean controllerFailed;
+
+    /** whether the reader failed to parse a spectrum before, which is then read by the controller */
+    private boolean readerFailed;
+
+    /** index of the spectra in the controller by their precursor m/z */
+    private SpectrumPrecursorIndex precursorIndex;
+
+    /** the sorted IDs of the mapped PSMs */
+    private long[] mappedPsmIDs;
+
+    /** the positions in the precursor index of the mapped PSMs (-1 for no matching spectrum) */
+    private int[] mappedPositions;
 
 
     /** the allowed delta in the spectrum matching */
     public static final double MATCHING_TOLERANCE = 0.001;
 
-    /** the m/z width for spectrum binning */
-    private static final float BIN_WIDTH = 0.05f;
+    /** identifier and version of the binary file format */
+    private static final int FILE_MAGIC = 0x50505453;
+    private static final int FILE_VERSION = 3;
 
 
     /**
@@ -54,9 +84,20 @@ public class PiaPsmToSpectrum<P extends PSMItem> {
      * @param psms
      */
     public PiaPsmToSpectrum(File spectraFile, Collection<P> psms) {
+        this.spectraFile = spectraFile;
+        spectrumReader = null;
         daController = null;
+        controllerFailed = false;
+        readerFailed = false;
+
+        try {
+            spectrumReader = MappedSpectrumReader.open(spectraFile);
+        } catch (IOException e) {
+            LOGGER.warn("Could not index the spectrum file, trying the ms-data-core-api", e);
+            spectrumReader = null;
+        }
 
-        if (!initiateController(spectraFile)) {
+        if ((spectrumReader == null) && !initiateController()) {
             throw new AssertionError("Spectrum file could not be read.");
         }
 
@@ -70,25 +111,66 @@ public class PiaPsmToSpectrum<P extends PSMItem> {
             }
         }
 
-        mzToSpectraBins = preBinSpectra();
+        LOGGER.debug("indexing the spectra by precursor m/z");
+        if (spectrumReader != null) {
+            precursorIndex = spectrumReader.createPrecursorIndex();
+            LOGGER.debug("indexed " + precursorIndex.size() + " of " + spectrumReader.getNumberOfSpectra() + " spectra");
+        } else {
+            precursorIndex = SpectrumPrecursorIndex.createFromController(daController);
+            LOGGER.debug("indexed " + precursorIndex.size() + " of " + daController.getNumberOfSpectra() + " spectra");
+        }
+
+        mapPSMs(psms);
+    }
+
+
+    /**
+     * Creates a matcher from a restored index and mapping. The controller is
+     * only initiated, when a spectrum is requested.
+     *
+     * @param spectraFile
+     * @param spectrumReader the restored reader or null, if the controller is used
+     * @param precursorIndex
+     * @param mappedPsmIDs
+     * @param mappedPositions
+     */
+    private PiaPsmToSpectrum(File spectraFile, MappedSpectrumReader spectrumReader,
+            SpectrumPrecursorIndex precursorIndex, long[] mappedPsmIDs, int[] mappedPositions) {
+        this.spectraFile = spectraFile;
+        this.spectrumReader = spectrumReader;
+        this.daController = null;
+        this.controllerFailed = false;
+        this.readerFailed = false;
+        this.precursorIndex = precursorIndex;
+        this.mappedPsmIDs = mappedPsmIDs;
+        this.mappedPositions = mappedPositions;
     }
 
 
     /**
      * Finish all up and close the controller.
      */
-    public void close() {
-        daController.close();
+    public synchronized void close() {
+        if (spectrumReader != null) {
+            try {
+                spectrumReader.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close the spectrum file", e);
+            }
+        }
+        if (daController != null) {
+            daController.close();
+            daController = null;
+        }
     }
 
 
     /**
      * initiates the {@link DataAccessController}
      *
-     * @param spectraFile
      * @return true, if it was initiated correctly, otherwise false
      */
-    private boolean initiateController(File spectraFile) {
+    private boolean initiateController() {
         if (MzMLControllerImpl.isValidFormat(spectraFile)) {
             daController = new MzMLControllerImpl(spectraFile);
         } else if (MzXmlControllerImpl.isValidFormat(spectraFile)) {
@@ -104,127 +186,233 @@ public class PiaPsmToSpectrum<P extends PSMItem> {
 
 
     /**
-     * Calculate the bin number (in the map) given the PSM (or its masstocharge)
-     * @param psms
-     * @return
+     * Returns the controller, initiating it if needed.
+     *
+     * @return the controller or null, if the spectra file cannot be read
      */
-    private Integer calculateBinNumber(P psm) {
-        return (int)(psm.getMassToCharge() / BIN_WIDTH);
+    private synchronized DataAccessController getController() {
+        if ((daController == null) && !controllerFailed) {
+            LOGGER.debug("opening spectra file " + spectraFile.getAbsolutePath());
+            if (!spectraFile.canRead() || !initiateController()) {
+                LOGGER.warn("Spectrum file " + spectraFile.getAbsolutePath() + " could not be read.");
+                controllerFailed = true;
+            }
+        }
+
+        return daController;
     }
 
 
     /**
-     * Bins the spectra according to their m/z values in bins
+     * Returns the ID of the given PSM, which is used for the mapping
      *
+     * @param psm
      * @return
      */
-    private Map<Integer, List<Comparable>> preBinSpectra() {
-        LOGGER.debug("pre binning the spectra");
-        Map<Integer, List<Comparable>> mzNrToSpectraBins = new HashMap<>();
+    private static Long getPSMId(PSMItem psm) {
+        if (psm instanceof ReportPSM) {
+            return ((ReportPSM) psm).getId();
+        } else if (psm instanceof PeptideSpectrumMatch) {
+            return ((PeptideSpectrumMatch) psm).getID();
+        }
+        return null;
+    }
 
-        for (Comparable specID : daController.getSpectrumIds()) {
-            int mzBin = (int) (daController.getSpectrumPrecursorMz(specID) / BIN_WIDTH);
-            List<Comparable> specIDs = mzNrToSpectraBins.computeIfAbsent(mzBin, k -> new ArrayList<>());
 
-            specIDs.add(specID);
+    /**
+     * Matches all given PSMs to the spectra and stores the positions in the
+     * index sorted by the PSM IDs.
+     *
+     * @param psms
+     */
+    private void mapPSMs(Collection<P> psms) {
+        long[] psmIDs = new long[psms.size()];
+        int nrPSMs = 0;
+        for (P psm : psms) {
+            Long psmID = getPSMId(psm);
+            if (psmID != null) {
+                psmIDs[nrPSMs++] = psmID;
+            }
+        }
+
+        // sorted, unique IDs
+        long[] sortedIDs = Arrays.copyOf(psmIDs, nrPSMs);
+        Arrays.sort(sortedIDs);
+        int nrMapped = 0;
+        for (int i = 0; i < sortedIDs.length; i++) {
+            if ((nrMapped == 0) || (sortedIDs[nrMapped - 1] != sortedIDs[i])) {
+                sortedIDs[nrMapped++] = sortedIDs[i];
+            }
+        }
+        mappedPsmIDs = Arrays.copyOf(sortedIDs, nrMapped);
+
+        mappedPositions = new int[nrMapped];
+        int psmIdx = 0;
+        for (P psm : psms) {
+            if (getPSMId(psm) != null) {
+                int idx = Arrays.binarySearch(mappedPsmIDs, psmIDs[psmIdx++]);
+                mappedPositions[idx] = precursorIndex.findMatchingPosition(psm.getMassToCharge(), psm.getCharge(),
+                        MATCHING_TOLERANCE);
+            }
         }
 
-        LOGGER.debug("binned " + daController.getNumberOfSpectra() + " spectra into " + mzNrToSpectraBins.size() + " bins");
-        return mzNrToSpectraBins;
+        LOGGER.debug("mapped " + nrMapped + " PSMs to spectra");
     }
 
 
     /**
-     * Finds a spectrumID for a spectrum in the controller, that fits into the
-     * MZ range of the given PSM
+     * Returns the ID of the spectrum matching the PSM, either from the mapping
+     * or by searching the index
      *
-     * @return
+     * @param psm
+     * @return the spectrum ID or null, if no spectrum matches
      */
-    private Comparable findMatchingSpectrumId(PSMItem psm, Collection<Comparable> spectraIDs) {
-        if (spectraIDs == null) {
+    public Comparable getSpectrumIdForPSM(P psm) {
+        if (psm == null) {
             return null;
         }
 
-        // get the allowed m/z window
-        double minMZ = psm.getMassToCharge() - MATCHING_TOLERANCE;
-        double maxMZ = psm.getMassToCharge() + MATCHING_TOLERANCE;
-        int psmCharge = psm.getCharge();
-        double psmMZ = psm.getMassToCharge();
-
-        Comparable matchingSpecID = null;
-        Iterator<Comparable> specIter = spectraIDs.iterator();
-        double deltaMZ = Double.POSITIVE_INFINITY;
-
-        while (specIter.hasNext()) {
-            Comparable specID = specIter.next();
-            Double precMZ = getMatchingPrecursorMZ(specID, psmCharge, minMZ, maxMZ);
-
-            if (precMZ != null) {
-                double delta = Math.abs(precMZ - psmMZ);
-                if (delta < deltaMZ) {
-                    matchingSpecID = specID;
-                    deltaMZ = delta;
-                }
-            }
+        Long psmID = getPSMId(psm);
+        int mappedIdx = (psmID != null) ? Arrays.binarySearch(mappedPsmIDs, psmID) : -1;
+        if (mappedIdx > -1) {
+            int pos = mappedPositions[mappedIdx];
+            return (pos > -1) ? precursorIndex.getSpectrumId(pos) : null;
+        } else {
+            return precursorIndex.findMatchingSpectrumId(psm.getMassToCharge(), psm.getCharge(),
+                    MATCHING_TOLERANCE);
         }
+    }
+
 
-        return matchingSpecID;
+    /**
+     * Returns the peaks of the spectrum matching the given PSM.
+     *
+     * @param psm
+     * @return the m/z values (at index 0) and the intensities (at index 1) or
+     * null, if no spectrum matches
+     */
+    public double[][] getPeaksForPSM(P psm) {
+        return getPeaks(getSpectrumIdForPSM(psm));
     }
 
 
     /**
-     * Return the precursor m/z of the spectrum in the controller given by the ID,
-     * but only, if it has the correct charge and falls in the m/z region
+     * Returns the peaks of the spectrum with the given ID.
      *
-     * @param specID the spectrum id or null, if it does not match the charge or m/z region
-     * @param psmCharge
-     * @param minMZ
-     * @param maxMZ
-     * @return
+     * @param specID
+     * @return the m/z values (at index 0) and the intensities (at index 1) or
+     * null, if the spectrum is not available
      */
-    private Double getMatchingPrecursorMZ(Comparable specID, int psmCharge, double minMZ, double maxMZ) {
-        Integer precCharge = daController.getSpectrumPrecursorCharge(specID);
-        if ((precCharge == null) || (precCharge == psmCharge)) {
-            Double precMZ = daController.getSpectrumPrecursorMz(specID);
+    public double[][] getPeaks(Comparable specID) {
+        if (specID == null) {
+            return null;
+        }
 
-            if ((precMZ >= minMZ) && (precMZ <= maxMZ)) {
-                return precMZ;
+        if (spectrumReader != null) {
+            try {
+                return spectrumReader.getPeaks(specID);
+            } catch (IOException e) {
+                // e.g. unsupported encodings of the binary arrays, the controller may still read the spectrum
+                if (!readerFailed) {
+                    LOGGER.warn("Could not read spectrum " + specID + " from " + spectraFile.getAbsolutePath()
+                            + ", trying the ms-data-core-api", e);
+                    readerFailed = true;
+                } else {
+                    LOGGER.debug("Could not read spectrum " + specID + ", trying the ms-data-core-api");
+                }
             }
         }
 
-        return null;
+        DataAccessController controller = getController();
+        if (controller == null) {
+            return null;
+        }
+
+        Spectrum spectrum;
+        synchronized (this) {
+            // the controllers are not thread safe
+            spectrum = controller.getSpectrumById(specID);
+        }
+        if (spectrum == null) {
+            return null;
+        }
+
+        double[][] massIntensityMap = spectrum.getMassIntensityMap();
+        double[][] peaks = new double[2][massIntensityMap.length];
+        for (int i = 0; i < massIntensityMap.length; i++) {
+            peaks[0][i] = massIntensityMap[i][0];
+            peaks[1][i] = massIntensityMap[i][1];
+        }
+        return peaks;
     }
 
 
     /**
-     * Get the spectrum from the controller without having to map it before
+     * Saves the spectrum index and the PSM mapping to the given file
      *
-     * @param psm
-     * @return
+     * @param file
+     * @throws IOException
      */
-    private Spectrum getSpectrumFromController(P psm) {
-        Integer mzBinNr = calculateBinNumber(psm);
-        Comparable specID = findMatchingSpectrumId(psm, mzToSpectraBins.get(mzBinNr));
+    public void saveToFile(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(spectraFile.getAbsolutePath());
+
+            precursorIndex.writeTo(out);
+
+            out.writeBoolean(spectrumReader != null);
+            if (spectrumReader != null) {
+                spectrumReader.writeIndexTo(out);
+            }
 
-        if (specID != null) {
-            return daController.getSpectrumById(specID);
-        } else {
-            return null;
+            out.writeInt(mappedPsmIDs.length);
+            for (int i = 0; i < mappedPsmIDs.length; i++) {
+                out.writeLong(mappedPsmIDs[i]);
+                out.writeInt(mappedPositions[i]);
+            }
         }
     }
 
 
     /**
-     * returns the matched spectrum for the given PSM
+     * Restores a matcher from a file written by {@link #saveToFile(File)}. The
+     * spectra file is not opened before a spectrum is requested.
      *
-     * @param psm
-     * @return the matching spectrum or null, if none matches
+     * @param file
+     * @return
+     * @throws IOException
      */
-    public Spectrum getSpectrumForPSM(P psm) {
-        if (psm != null) {
-            return getSpectrumFromController(psm);
-        } else {
-            return null;
+    public static <T extends PSMItem> PiaPsmToSpectrum<T> loadFromFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a PSM to spectrum file: " + file.getAbsolutePath());
+            }
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported version " + version + " of PSM to spectrum file");
+            }
+
+            File spectraFile = new File(in.readUTF());
+            SpectrumPrecursorIndex precursorIndex = SpectrumPrecursorIndex.readFrom(in);
+
+            MappedSpectrumReader spectrumReader = null;
+            if (in.readBoolean()) {
+                spectrumReader = MappedSpectrumReader.readIndexFrom(spectraFile, in);
+            }
+
+            int nrMapped = in.readInt();
+            long[] psmIDs = new long[nrMapped];
+            int[] positions = new int[nrMapped];
+            for (int i = 0; i < nrMapped; i++) {
+                psmIDs[i] = in.readLong();
+                positions[i] = in.readInt();
+            }
+
+            LOGGER.debug("restored mapping of " + nrMapped + " PSMs to spectra in " + spectraFile.getAbsolutePath());
+            return new PiaPsmToSpectrum<>(spectraFile, spectrumReader, precursorIndex, psmIDs, positions);
         }
     }
 }
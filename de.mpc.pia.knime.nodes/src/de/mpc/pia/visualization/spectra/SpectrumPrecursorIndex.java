@@ -0,0 +1,303 @@
+package de.mpc.pia.visualization.spectra;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.ebi.pride.utilities.data.controller.DataAccessController;
+
+/**
+ * An index of the spectra in a {@link DataAccessController} by their
+ * precursor m/z. The precursor m/z values, charges and spectrum IDs are held
+ * in arrays sorted by the m/z, so the spectra in an m/z window are found by a
+ * binary search without any further access to the controller.
+ *
+ * @author julian
+ *
+ */
+public class SpectrumPrecursorIndex {
+
+    /** charge used for spectra without a precursor charge, matches any charge */
+    private static final int UNKNOWN_CHARGE = 0;
+
+    /** type tags of the spectrum IDs in the binary format */
+    private static final byte ID_TYPE_STRING = 0;
+    private static final byte ID_TYPE_INTEGER = 1;
+    private static final byte ID_TYPE_LONG = 2;
+
+    /** the sorted precursor m/z values */
+    private final double[] precursorMZs;
+
+    /** the precursor charges, in the order of the m/z values */
+    private final int[] precursorCharges;
+
+    /** the spectrum IDs in the controller, in the order of the m/z values */
+    private final Comparable[] spectrumIDs;
+
+
+    /**
+     * Creates the index for all spectra with a precursor m/z in the given
+     * controller.
+     *
+     * @param daController
+     * @return
+     */
+    public static SpectrumPrecursorIndex createFromController(DataAccessController daController) {
+        int nrSpectra = daController.getNumberOfSpectra();
+        Comparable[] ids = new Comparable[nrSpectra];
+        double[] mzs = new double[nrSpectra];
+        int[] charges = new int[nrSpectra];
+
+        int idx = 0;
+        for (Comparable specID : daController.getSpectrumIds()) {
+            if (idx == ids.length) {
+                // the controller returned more IDs than announced
+                ids = Arrays.copyOf(ids, ids.length * 2 + 1);
+                mzs = Arrays.copyOf(mzs, ids.length);
+                charges = Arrays.copyOf(charges, ids.length);
+            }
+
+            Double precMZ = daController.getSpectrumPrecursorMz(specID);
+            Integer precCharge = daController.getSpectrumPrecursorCharge(specID);
+
+            ids[idx] = specID;
+            mzs[idx] = (precMZ != null) ? precMZ : Double.NaN;
+            charges[idx] = (precCharge != null) ? precCharge : UNKNOWN_CHARGE;
+            idx++;
+        }
+
+        return createFromUnsorted(Arrays.copyOf(ids, idx), Arrays.copyOf(mzs, idx), Arrays.copyOf(charges, idx));
+    }
+
+
+    /**
+     * Creates the index for the given spectra, which may be in any order.
+     * Spectra with a precursor m/z of NaN are not indexed, a charge of 0 means
+     * the charge is not known.
+     *
+     * @param ids
+     * @param mzs
+     * @param charges
+     * @return
+     */
+    public static SpectrumPrecursorIndex createFromUnsorted(Comparable[] ids, double[] mzs, int[] charges) {
+        List<Integer> order = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (!Double.isNaN(mzs[i])) {
+                // spectra without precursor cannot be matched to any PSM
+                order.add(i);
+            }
+        }
+
+        // sort by m/z, the stable sort keeps the given order for equal m/z
+        order.sort((i1, i2) -> Double.compare(mzs[i1], mzs[i2]));
+
+        double[] sortedMZs = new double[order.size()];
+        int[] sortedCharges = new int[order.size()];
+        Comparable[] sortedIDs = new Comparable[order.size()];
+        for (int i = 0; i < sortedMZs.length; i++) {
+            int pos = order.get(i);
+            sortedMZs[i] = mzs[pos];
+            sortedCharges[i] = charges[pos];
+            sortedIDs[i] = ids[pos];
+        }
+
+        return new SpectrumPrecursorIndex(sortedMZs, sortedCharges, sortedIDs);
+    }
+
+
+    /**
+     * Creates the index from already sorted arrays of equal length.
+     *
+     * @param precursorMZs
+     * @param precursorCharges
+     * @param spectrumIDs
+     */
+    private SpectrumPrecursorIndex(double[] precursorMZs, int[] precursorCharges, Comparable[] spectrumIDs) {
+        if ((precursorMZs.length != precursorCharges.length) || (precursorMZs.length != spectrumIDs.length)) {
+            throw new IllegalArgumentException("The arrays of the index must have the same length");
+        }
+
+        this.precursorMZs = precursorMZs;
+        this.precursorCharges = precursorCharges;
+        this.spectrumIDs = spectrumIDs;
+    }
+
+
+    /**
+     * Returns the number of indexed spectra
+     *
+     * @return
+     */
+    public int size() {
+        return precursorMZs.length;
+    }
+
+
+    /**
+     * Finds the ID of the spectrum with the precursor m/z closest to the given
+     * m/z within the tolerance and a matching charge. Spectra without a
+     * precursor charge match any charge.
+     *
+     * @param mz
+     * @param charge
+     * @param tolerance
+     * @return the spectrum ID or null, if no spectrum matches
+     */
+    public Comparable findMatchingSpectrumId(double mz, int charge, double tolerance) {
+        int idx = findMatchingPosition(mz, charge, tolerance);
+        return (idx > -1) ? spectrumIDs[idx] : null;
+    }
+
+
+    /**
+     * Finds the position in the index of the spectrum with the precursor m/z
+     * closest to the given m/z within the tolerance and a matching charge.
+     *
+     * @param mz
+     * @param charge
+     * @param tolerance
+     * @return the position or -1, if no spectrum matches
+     */
+    public int findMatchingPosition(double mz, int charge, double tolerance) {
+        double maxMZ = mz + tolerance;
+
+        int matchingPos = -1;
+        double deltaMZ = Double.POSITIVE_INFINITY;
+
+        for (int idx = lowerBound(mz - tolerance); (idx < precursorMZs.length) && (precursorMZs[idx] <= maxMZ); idx++) {
+            if ((precursorCharges[idx] == UNKNOWN_CHARGE) || (precursorCharges[idx] == charge)) {
+                double delta = Math.abs(precursorMZs[idx] - mz);
+                if (delta < deltaMZ) {
+                    matchingPos = idx;
+                    deltaMZ = delta;
+                }
+            }
+        }
+
+        return matchingPos;
+    }
+
+
+    /**
+     * Returns the spectrum ID at the given position in the index
+     *
+     * @param position
+     * @return
+     */
+    public Comparable getSpectrumId(int position) {
+        return spectrumIDs[position];
+    }
+
+
+    /**
+     * Writes the index in a compact binary format to the stream
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(precursorMZs.length);
+        for (int i = 0; i < precursorMZs.length; i++) {
+            out.writeDouble(precursorMZs[i]);
+            out.writeInt(precursorCharges[i]);
+            writeSpectrumId(out, spectrumIDs[i]);
+        }
+    }
+
+
+    /**
+     * Reads an index, which was written by {@link #writeTo(DataOutputStream)}
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static SpectrumPrecursorIndex readFrom(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid size of spectrum index: " + size);
+        }
+
+        double[] mzs = new double[size];
+        int[] charges = new int[size];
+        Comparable[] ids = new Comparable[size];
+        for (int i = 0; i < size; i++) {
+            mzs[i] = in.readDouble();
+            charges[i] = in.readInt();
+            ids[i] = readSpectrumId(in);
+        }
+
+        return new SpectrumPrecursorIndex(mzs, charges, ids);
+    }
+
+
+    /**
+     * Writes the spectrum ID with a leading type tag
+     *
+     * @param out
+     * @param specID
+     * @throws IOException
+     */
+    private static void writeSpectrumId(DataOutputStream out, Comparable specID) throws IOException {
+        if (specID instanceof Integer) {
+            out.writeByte(ID_TYPE_INTEGER);
+            out.writeInt((Integer) specID);
+        } else if (specID instanceof Long) {
+            out.writeByte(ID_TYPE_LONG);
+            out.writeLong((Long) specID);
+        } else {
+            out.writeByte(ID_TYPE_STRING);
+            out.writeUTF(specID.toString());
+        }
+    }
+
+
+    /**
+     * Reads a spectrum ID written by {@link #writeSpectrumId(DataOutputStream, Comparable)}
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private static Comparable readSpectrumId(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case ID_TYPE_STRING:
+            return in.readUTF();
+        case ID_TYPE_INTEGER:
+            return in.readInt();
+        case ID_TYPE_LONG:
+            return in.readLong();
+        default:
+            throw new IOException("Unknown type of spectrum ID: " + type);
+        }
+    }
+
+
+    /**
+     * Returns the index of the first precursor m/z not smaller than the given
+     * value (or the size of the index, if there is none).
+     *
+     * @param mz
+     * @return
+     */
+    private int lowerBound(double mz) {
+        int low = 0;
+        int high = precursorMZs.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (precursorMZs[mid] < mz) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
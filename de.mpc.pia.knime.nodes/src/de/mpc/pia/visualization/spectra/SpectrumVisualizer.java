@@ -63,8 +63,6 @@ public class SpectrumVisualizer {
      */
     public static SpectrumBrowser createSpectrumBrowser(double[][] massIntensityArr, int psmCharge,
             String sequence, Map<Integer, Modification> modifications, ProductIonPair productIonPair) {
-        SpectrumBrowser spectrumBrowser = new SpectrumBrowser();
-
         double[] mzArr = new double[massIntensityArr.length];
         double[] intentArr = new double[massIntensityArr.length];
         for (int i=0; i < massIntensityArr.length; i++) {
@@ -72,9 +70,86 @@ public class SpectrumVisualizer {
             intentArr[i] = massIntensityArr[i][1];
         }
 
+        return createSpectrumBrowser(mzArr, intentArr, psmCharge, sequence, modifications, productIonPair);
+    }
+
+
+    /**
+     * Create a {@link SpectrumBrowser} for the given peaks and PSM. Only the
+     * selected ProductIonPair (B/Y, A/Z, X/C) will be annotated.
+     *
+     * @param mzArr
+     * @param intentArr
+     * @param psm
+     * @param productIonPair
+     * @return
+     */
+    public static SpectrumBrowser createSpectrumBrowser(double[] mzArr, double[] intentArr, PSMItem psm,
+            ProductIonPair productIonPair) {
+        return createSpectrumBrowser(mzArr, intentArr, psm.getCharge(),
+                psm.getSequence(), psm.getModifications(), productIonPair);
+    }
+
+
+    /**
+     * Create a {@link SpectrumBrowser} for the given m/z and intensity arrays,
+     * charge, peptide sequence and modifications. Only the selected
+     * ProductIonPair (B/Y, A/Z, X/C) will be annotated.
+     *
+     * @param mzArr
+     * @param intentArr
+     * @param psmCharge
+     * @param sequence
+     * @param modifications
+     * @param productIonPair
+     * @return
+     */
+    public static SpectrumBrowser createSpectrumBrowser(double[] mzArr, double[] intentArr, int psmCharge,
+            String sequence, Map<Integer, Modification> modifications, ProductIonPair productIonPair) {
+        return createSpectrumBrowser(
+                annotateSpectrum(mzArr, intentArr, psmCharge, sequence, modifications, productIonPair));
+    }
+
+
+    /**
+     * Create a {@link SpectrumBrowser} for the given, already annotated
+     * spectrum.
+     *
+     * @param annotatedSpectrum
+     * @return
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static SpectrumBrowser createSpectrumBrowser(AnnotatedSpectrum annotatedSpectrum) {
+        SpectrumBrowser spectrumBrowser = new SpectrumBrowser();
+
         // Set the spectrum peak list
-        spectrumBrowser.setPeaks(mzArr, intentArr);
+        spectrumBrowser.setPeaks(annotatedSpectrum.getMzArr(), annotatedSpectrum.getIntentArr());
+
+        spectrumBrowser.addFragmentIons((List) annotatedSpectrum.getFragmentIons());
+
+        spectrumBrowser.setAminoAcidAnnotationParameters(annotatedSpectrum.getSequenceLength(),
+                annotatedSpectrum.getModifications());
+
+        return spectrumBrowser;
+    }
 
+
+    /**
+     * Creates the fragment ion annotations for the given m/z and intensity
+     * arrays, charge, peptide sequence and modifications. Only the selected
+     * ProductIonPair (B/Y, A/Z, X/C) will be annotated. No Swing components
+     * are created, so this can be called from any thread.
+     *
+     * @param mzArr
+     * @param intentArr
+     * @param psmCharge
+     * @param sequence
+     * @param modifications
+     * @param productIonPair
+     * @return
+     */
+    public static AnnotatedSpectrum annotateSpectrum(double[] mzArr, double[] intentArr, int psmCharge,
+            String sequence, Map<Integer, Modification> modifications, ProductIonPair productIonPair) {
         // convert modifications
         Map<Integer, List<PTModification>> pepsMods = generatePrideModifications(modifications);
 
@@ -94,11 +169,8 @@ public class SpectrumVisualizer {
         myTableModel.setShowWaterLoss(true);
         myTableModel.setShowAmmoniaLoss(true);
 
-        spectrumBrowser.addFragmentIons(myTableModel.getAutoAnnotations());
-
-        spectrumBrowser.setAminoAcidAnnotationParameters(sequence.length(), pepsMods);
-
-        return spectrumBrowser;
+        return new AnnotatedSpectrum(mzArr, intentArr, myTableModel.getAutoAnnotations(),
+                sequence.length(), pepsMods);
     }
 
 